@@ -25,8 +25,10 @@
 package org.lenskit.api;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * Interface for recommending items. This interface provides APIs for both basic (recommend for a given user)
@@ -123,4 +125,51 @@ public interface ItemRecommender {
      */
     ResultList recommendWithDetails(long user, int n, @Nullable Set<Long> candidates,
                                     @Nullable Set<Long> exclude);
+
+    /**
+     * Produce recommendations for many users.  Each user's list is the same as
+     * {@link #recommend(long, int, Set, Set)} would produce; it is handed to `output` as soon as it is
+     * finished, so a bulk job need not hold every user's recommendations in memory.
+     *
+     * The default implementation calls {@link #recommend(long, int, Set, Set)} for each user in turn.
+     * Implementations may share work (such as the candidate set or model data) across users, and may
+     * invoke `output` concurrently from several threads, so it must be thread-safe.
+     *
+     * @param users      The users for whom to recommend.
+     * @param n          The number of recommendations per user; negative for as many as possible.
+     * @param candidates A set of candidate items shared by all users, or {@code null} for all items.
+     * @param exclude    A set of items to exclude for all users, or {@code null} to use each user's
+     *                   default exclude set.
+     * @param output     Receives each user's ID and recommendation list.
+     * @since 3.0
+     */
+    default void recommendForUsers(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                   @Nullable Set<Long> exclude, BiConsumer<Long, List<Long>> output) {
+        for (Long user: users) {
+            output.accept(user, recommend(user, n, candidates, exclude));
+        }
+    }
+
+    /**
+     * Produce detailed recommendations for many users.  This is to
+     * {@link #recommendWithDetails(long, int, Set, Set)} what {@link #recommendForUsers(Collection, int, Set, Set,
+     * BiConsumer)} is to {@link #recommend(long, int, Set, Set)}: each user's list is handed to `output` as soon
+     * as it is finished, and `output` may be invoked concurrently from several threads.
+     *
+     * The default implementation calls {@link #recommendWithDetails(long, int, Set, Set)} for each user in turn.
+     *
+     * @param users      The users for whom to recommend.
+     * @param n          The number of recommendations per user; negative for as many as possible.
+     * @param candidates A set of candidate items shared by all users, or {@code null} for all items.
+     * @param exclude    A set of items to exclude for all users, or {@code null} to use each user's
+     *                   default exclude set.
+     * @param output     Receives each user's ID and recommendations.
+     * @since 3.0
+     */
+    default void recommendWithDetailsForUsers(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                              @Nullable Set<Long> exclude, BiConsumer<Long, ResultList> output) {
+        for (Long user: users) {
+            output.accept(user, recommendWithDetails(user, n, candidates, exclude));
+        }
+    }
 }
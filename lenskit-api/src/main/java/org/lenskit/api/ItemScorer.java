@@ -27,6 +27,7 @@ package org.lenskit.api;
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * Score items for users.  These scores can be predicted ratings, relevance
@@ -65,4 +66,22 @@ public interface ItemScorer {
      */
     @Nonnull
     ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items);
+
+    /**
+     * Score the same collection of items for many users.  Scores are handed to `output` as each user's scores
+     * are finished rather than returned together, so the memory used does not grow with the number of users.
+     * The default implementation calls {@link #score(long, Collection)} for each user in turn; implementations
+     * may score groups of users together, and may invoke `output` concurrently from several threads.
+     *
+     * @param users  The users for whom to generate scores.
+     * @param items  The items to score for every user.
+     * @param output Receives each user's ID and scores, in the same form as {@link #score(long, Collection)}.
+     * @since 3.0
+     */
+    default void scoreForUsers(@Nonnull Collection<Long> users, @Nonnull Collection<Long> items,
+                               @Nonnull BiConsumer<Long, Map<Long, Double>> output) {
+        for (Long user: users) {
+            output.accept(user, score(user, items));
+        }
+    }
 }
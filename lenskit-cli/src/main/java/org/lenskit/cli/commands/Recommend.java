@@ -26,18 +26,25 @@ package org.lenskit.cli.commands;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.google.auto.service.AutoService;
 import com.google.common.base.Stopwatch;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongIterators;
 import net.sourceforge.argparse4j.inf.Namespace;
+import org.lenskit.LenskitConfiguration;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
+import org.lenskit.basic.BatchThreadCount;
 import org.lenskit.cli.Command;
 import org.lenskit.cli.LenskitCommandException;
+import org.lenskit.cli.util.BulkRecommender;
 import org.lenskit.cli.util.InputData;
 import org.lenskit.cli.util.RecommenderLoader;
 import org.lenskit.cli.util.ScriptEnvironment;
@@ -45,21 +52,31 @@ import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entity;
+import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.io.LKFileUtils;
+import org.lenskit.util.table.TableLayout;
+import org.lenskit.util.table.TableLayoutBuilder;
+import org.lenskit.util.table.writer.CSVWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.regex.Pattern;
 
 /**
- * Generate Top-N recommendations for users.
+ * Generate Top-N recommendations for users.  Users can be given on the command line, or read from a
+ * file for bulk recommendation with a {@link BulkRecommender}.
  *
  * @since 2.1
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @AutoService(Command.class)
 public class Recommend implements Command {
+    private static final Pattern USER_FIELD_END = Pattern.compile("[,\\t ]");
     private final Logger logger = LoggerFactory.getLogger(Recommend.class);
 
     @Override
@@ -75,14 +92,28 @@ public class Recommend implements Command {
     @Override
     public void execute(Namespace opts) throws LenskitCommandException {
         Context ctx = new Context(opts);
+        List<Long> userArgs = opts.get("users");
+        if (opts.get("users_file") == null && (userArgs == null || userArgs.isEmpty())) {
+            throw new LenskitCommandException("no users specified");
+        }
+
+        List<LenskitConfiguration> extra = new ArrayList<>();
+        if (opts.get("users_file") != null) {
+            // the bulk recommender parallelizes over batches, so each batch runs on its worker thread
+            LenskitConfiguration bulkConfig = new LenskitConfiguration();
+            bulkConfig.set(BatchThreadCount.class).to(1);
+            extra.add(bulkConfig);
+        }
+
         LenskitRecommenderEngine engine;
         try {
-            engine = ctx.loader.loadEngine();
+            engine = ctx.loader.loadEngine(extra);
         } catch (IOException e) {
             throw new LenskitCommandException("could not load engine", e);
         }
 
         List<Long> users = ctx.options.get("users");
+        File usersFile = ctx.options.get("users_file");
         final int n = ctx.options.getInt("num_recs");
 
         try (LenskitRecommender rec = engine.createRecommender(ctx.input.getDAO())) {
@@ -94,6 +125,11 @@ public class Recommend implements Command {
                 throw new UnsupportedOperationException("no item recommender");
             }
 
+            if (usersFile != null) {
+                recommendBulk(ctx, rec, usersFile, n);
+                return;
+            }
+
             logger.info("recommending for {} users", users.size());
             Stopwatch timer = Stopwatch.createStarted();
             try (RecOutput output = openOutput(ctx, dao)) {
@@ -109,6 +145,65 @@ public class Recommend implements Command {
         }
     }
 
+    /**
+     * Recommend for users read from a file, streaming the results to the output file.
+     */
+    private void recommendBulk(Context ctx, LenskitRecommender rec, File usersFile, int n) throws IOException {
+        BulkRecommender bulk = new BulkRecommender(rec.getItemRecommender(), rec.getDataAccessObject());
+        bulk.setListLength(n)
+            .setBatchSize(ctx.options.getInt("batch_size"))
+            .setThreadCount(ctx.options.getInt("threads"));
+
+        try (BufferedReader users = openUsers(usersFile);
+             BulkOutput output = openBulkOutput(ctx)) {
+            bulk.run(readUserIds(users), output);
+        }
+    }
+
+    private BufferedReader openUsers(File file) throws IOException {
+        if (file.getPath().equals("-")) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        } else {
+            return new BufferedReader(LKFileUtils.openInput(file, CompressionMode.AUTO));
+        }
+    }
+
+    /**
+     * Read user IDs lazily, one per line.  Only the first field of each line is used, so ID columns
+     * from CSV or tab-separated files can be read directly; blank lines and lines starting with `#`
+     * are skipped.
+     */
+    static LongIterator readUserIds(BufferedReader reader) {
+        PrimitiveIterator.OfLong ids =
+                reader.lines()
+                      .map(String::trim)
+                      .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                      .mapToLong(line -> Long.parseLong(USER_FIELD_END.split(line, 2)[0]))
+                      .iterator();
+        return LongIterators.asLongIterator(ids);
+    }
+
+    private BulkOutput openBulkOutput(Context ctx) throws IOException {
+        File file = ctx.options.get("output_file");
+        Writer writer;
+        if (file == null || file.getPath().equals("-")) {
+            writer = new FilterWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+                @Override
+                public void close() throws IOException {
+                    // leave standard output open for the rest of the program
+                    flush();
+                }
+            };
+        } else {
+            writer = LKFileUtils.openOutput(file, CompressionMode.AUTO);
+        }
+        if (ctx.options.getBoolean("json")) {
+            return new JSONLinesOutput(writer);
+        } else {
+            return new CSVOutput(writer);
+        }
+    }
+
     private RecOutput openOutput(Context ctx, DataAccessObject dao) throws IOException {
         if (ctx.options.getBoolean("json")) {
             return new JSONOutput(dao);
@@ -124,15 +219,34 @@ public class Recommend implements Command {
         RecommenderLoader.configureArguments(parser);
         parser.addArgument("--json")
               .action(Arguments.storeTrue())
-              .help("output in JSON instead of human-readable format");
+              .help("output in JSON instead of human-readable format (JSON lines with --users-file)");
         parser.addArgument("-n", "--num-recs")
               .type(Integer.class)
               .setDefault(10)
               .metavar("N")
               .help("generate up to N recommendations per user");
+        parser.addArgument("--users-file")
+              .type(File.class)
+              .metavar("FILE")
+              .help("recommend for the users listed in FILE ('-' for standard input), writing CSV");
+        parser.addArgument("-o", "--output-file")
+              .type(File.class)
+              .metavar("FILE")
+              .help("write recommendations for --users-file to FILE (default: standard output)");
+        parser.addArgument("--batch-size")
+              .type(Integer.class)
+              .setDefault(1000)
+              .metavar("N")
+              .help("recommend for N users at a time with --users-file");
+        parser.addArgument("--threads")
+              .type(Integer.class)
+              .setDefault(1)
+              .metavar("N")
+              .help("use N worker threads with --users-file (0 for one per processor); "
+                    + "the recommender must be thread-safe to use more than one");
         parser.addArgument("users")
               .type(Long.class)
-              .nargs("+")
+              .nargs("*")
               .metavar("USER")
               .help("recommend for USERS");
     }
@@ -155,6 +269,79 @@ public class Recommend implements Command {
         void writeUser(long user, ResultList recs) throws IOException;
     }
 
+    private interface BulkOutput extends BulkRecommender.Output, Closeable {
+    }
+
+    /**
+     * Bulk output with one CSV row per recommendation.
+     */
+    private static class CSVOutput implements BulkOutput {
+        private final CSVWriter writer;
+
+        CSVOutput(Writer out) throws IOException {
+            TableLayout layout = new TableLayoutBuilder().addColumns("user", "rank", "item", "score", "name")
+                                                         .build();
+            writer = new CSVWriter(out, layout);
+        }
+
+        @Override
+        public void writeUser(long user, ResultList recs, Long2ObjectMap<String> names) throws IOException {
+            int rank = 0;
+            for (Result r: recs) {
+                rank += 1;
+                double score = r.getScore();
+                writer.writeRow(user, rank, r.getId(), Double.isNaN(score) ? null : score, names.get(r.getId()));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Bulk output with one JSON object per user per line.
+     */
+    private static class JSONLinesOutput implements BulkOutput {
+        private final JsonGenerator generator;
+
+        JSONLinesOutput(Writer out) throws IOException {
+            generator = new JsonFactory().createGenerator(out);
+            generator.setRootValueSeparator(new SerializedString(System.lineSeparator()));
+        }
+
+        @Override
+        public void writeUser(long user, ResultList recs, Long2ObjectMap<String> names) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("user", user);
+            generator.writeArrayFieldStart("recommendations");
+            for (Result r: recs) {
+                generator.writeStartObject();
+                generator.writeNumberField("item", r.getId());
+                if (!Double.isNaN(r.getScore())) {
+                    generator.writeNumberField("score", r.getScore());
+                }
+                String name = names.get(r.getId());
+                if (name != null) {
+                    generator.writeStringField("name", name);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                generator.writeRaw(System.lineSeparator());
+            } finally {
+                generator.close();
+            }
+        }
+    }
+
     private class HumanOutput implements RecOutput {
         private final DataAccessObject dao;
 
@@ -0,0 +1,282 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import it.unimi.dsi.fastutil.longs.*;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.results.Results;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Produce recommendations for a stream of users.  Users are read in batches, and each batch is
+ * recommended with {@link ItemRecommender#recommendWithDetailsForUsers}, so the scores come from the same
+ * pass that picks the recommendations.  Finished batches are written in input order; at most a fixed number
+ * of batches are pending (running or waiting to be written) at once, so memory use is bounded however many
+ * users are read.  Item names are looked up once per distinct item rather than once per recommendation.
+ *
+ * Batches run on a single worker thread by default.  With more threads, the recommender and data access
+ * object are used from several threads at once, so only use more threads if they are thread-safe.
+ */
+public class BulkRecommender {
+    private static final Logger logger = LoggerFactory.getLogger(BulkRecommender.class);
+    private static final long REPORT_INTERVAL_SECONDS = 10;
+
+    private final ItemRecommender recommender;
+    private final DataAccessObject dao;
+    private final ConcurrentMap<Long, Optional<String>> itemNames = new ConcurrentHashMap<>();
+    private int listLength = 10;
+    private int batchSize = 1000;
+    private int threadCount = 1;
+    private int maxPendingBatches = 0;
+
+    /**
+     * Create a bulk recommender.
+     * @param rec The item recommender.
+     * @param dao The data access object for looking up item names.
+     */
+    public BulkRecommender(ItemRecommender rec, DataAccessObject dao) {
+        recommender = rec;
+        this.dao = dao;
+    }
+
+    public int getListLength() {
+        return listLength;
+    }
+
+    /**
+     * Set the number of recommendations per user.
+     * @param n The number of recommendations, or a negative value for as many as possible.
+     * @return The bulk recommender (for chaining).
+     */
+    public BulkRecommender setListLength(int n) {
+        listLength = n;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of users recommended together as one batch.
+     * @param size The batch size.
+     * @return The bulk recommender (for chaining).
+     */
+    public BulkRecommender setBatchSize(int size) {
+        Preconditions.checkArgument(size > 0, "batch size must be positive");
+        batchSize = size;
+        return this;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of worker threads.  The default is 1; more threads use the recommender and data
+     * access object concurrently, so they must be thread-safe.
+     * @param n The number of threads; 0 to use one per available processor.
+     * @return The bulk recommender (for chaining).
+     */
+    public BulkRecommender setThreadCount(int n) {
+        Preconditions.checkArgument(n >= 0, "thread count must be non-negative");
+        threadCount = n > 0 ? n : Runtime.getRuntime().availableProcessors();
+        return this;
+    }
+
+    /**
+     * Get the size of the reorder buffer.
+     * @return The maximum number of batches running or waiting to be written.
+     */
+    public int getMaxPendingBatches() {
+        return maxPendingBatches > 0 ? maxPendingBatches : 2 * threadCount;
+    }
+
+    /**
+     * Set the size of the reorder buffer.
+     * @param n The maximum number of batches running or waiting to be written; 0 for twice the
+     *          thread count.
+     * @return The bulk recommender (for chaining).
+     */
+    public BulkRecommender setMaxPendingBatches(int n) {
+        Preconditions.checkArgument(n >= 0, "pending batch count must be non-negative");
+        maxPendingBatches = n;
+        return this;
+    }
+
+    /**
+     * Recommend for users and write the results.
+     * @param users The users to recommend for.
+     * @param output The output to receive recommendations, in the order the users were read.
+     * @return The number of users processed.
+     * @throws IOException if there is an error writing the output.
+     */
+    public long run(LongIterator users, Output output) throws IOException {
+        int maxPending = getMaxPendingBatches();
+        logger.info("recommending in batches of {} users on {} threads", batchSize, threadCount);
+        ExecutorService exec = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("lenskit-recommend-%d")
+                .setDaemon(true)
+                .build());
+        Progress progress = new Progress();
+        Deque<Future<Batch>> pending = new ArrayDeque<>(maxPending + 1);
+        try {
+            while (users.hasNext()) {
+                LongList batch = new LongArrayList(batchSize);
+                while (batch.size() < batchSize && users.hasNext()) {
+                    batch.add(users.nextLong());
+                }
+                pending.addLast(exec.submit(() -> recommendBatch(batch)));
+                while (pending.size() >= maxPending) {
+                    writeBatch(pending.removeFirst(), output, progress);
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeBatch(pending.removeFirst(), output, progress);
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        progress.finish();
+        return progress.users;
+    }
+
+    private Batch recommendBatch(LongList users) {
+        Map<Long, ResultList> lists = new ConcurrentHashMap<>(users.size());
+        recommender.recommendWithDetailsForUsers(users, listLength, null, null, lists::put);
+
+        List<ResultList> results = new ArrayList<>(users.size());
+        Long2ObjectMap<String> names = new Long2ObjectOpenHashMap<>();
+        LongIterator iter = users.iterator();
+        while (iter.hasNext()) {
+            long user = iter.nextLong();
+            ResultList recs = lists.get(user);
+            if (recs == null) {
+                recs = Results.newResultList();
+            }
+            for (Result r: recs) {
+                long item = r.getId();
+                if (!names.containsKey(item)) {
+                    String name = itemNames.computeIfAbsent(item, this::lookupName).orElse(null);
+                    names.put(item, name);
+                }
+            }
+            results.add(recs);
+        }
+        return new Batch(users, results, names);
+    }
+
+    private Optional<String> lookupName(long item) {
+        Entity entity = dao.lookupEntity(CommonTypes.ITEM, item);
+        return Optional.ofNullable(entity == null ? null : entity.maybeGet(CommonAttributes.NAME));
+    }
+
+    private void writeBatch(Future<Batch> future, Output output, Progress progress) throws IOException {
+        Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for recommendations");
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new UncheckedExecutionException(e.getCause());
+        }
+        for (int i = 0; i < batch.users.size(); i++) {
+            output.writeUser(batch.users.getLong(i), batch.results.get(i), batch.names);
+        }
+        progress.advance(batch.users.size());
+    }
+
+    /**
+     * Receiver for bulk recommendation output.  It is only called from the thread running
+     * {@link #run(LongIterator, Output)}.
+     */
+    public interface Output {
+        /**
+         * Write one user's recommendations.
+         * @param user The user ID.
+         * @param recs The recommendations; scores are {@link Double#NaN} if unavailable.
+         * @param names Item names for (at least) the recommended items; an item maps to `null` if
+         *              it has no name.
+         * @throws IOException if there is an error writing the output.
+         */
+        void writeUser(long user, ResultList recs, Long2ObjectMap<String> names) throws IOException;
+    }
+
+    private static class Batch {
+        final LongList users;
+        final List<ResultList> results;
+        final Long2ObjectMap<String> names;
+
+        Batch(LongList us, List<ResultList> rs, Long2ObjectMap<String> ns) {
+            users = us;
+            results = rs;
+            names = ns;
+        }
+    }
+
+    private static class Progress {
+        final Stopwatch timer = Stopwatch.createStarted();
+        long users = 0;
+        long lastReport = 0;
+
+        void advance(int n) {
+            users += n;
+            long secs = timer.elapsed(TimeUnit.SECONDS);
+            if (secs - lastReport >= REPORT_INTERVAL_SECONDS) {
+                lastReport = secs;
+                logger.info("recommended for {} users in {} ({} users/sec)", users, timer, String.format("%.1f", rate()));
+            }
+        }
+
+        void finish() {
+            timer.stop();
+            logger.info("recommended for {} users in {} ({} users/sec)", users, timer, String.format("%.1f", rate()));
+        }
+
+        double rate() {
+            double secs = timer.elapsed(TimeUnit.MILLISECONDS) / 1000.0;
+            return secs > 0 ? users / secs : 0;
+        }
+    }
+}
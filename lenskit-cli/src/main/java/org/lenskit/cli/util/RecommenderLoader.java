@@ -41,6 +41,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -75,6 +76,16 @@ public class RecommenderLoader {
     }
 
     public LenskitRecommenderEngine loadEngine() throws RecommenderBuildException, IOException {
+        return loadEngine(Collections.emptyList());
+    }
+
+    /**
+     * Load the recommender engine with additional configurations.
+     * @param extra Configurations applied after the configuration files, e.g. to set parameters
+     *              that depend on how a command uses the recommender.
+     * @return The recommender engine.
+     */
+    public LenskitRecommenderEngine loadEngine(List<LenskitConfiguration> extra) throws RecommenderBuildException, IOException {
         File modelFile = options.get("model_file");
         if (modelFile == null) {
             logger.info("creating fresh recommender");
@@ -82,6 +93,9 @@ public class RecommenderLoader {
             for (LenskitConfiguration config: environment.loadConfigurations(getConfigFiles())) {
                 builder.addConfiguration(config);
             }
+            for (LenskitConfiguration config: extra) {
+                builder.addConfiguration(config);
+            }
             Stopwatch timer = Stopwatch.createStarted();
             LenskitRecommenderEngine engine = builder.build(input.getDAO());
             timer.stop();
@@ -94,6 +108,9 @@ public class RecommenderLoader {
             for (LenskitConfiguration config: environment.loadConfigurations(getConfigFiles())) {
                 loader.addConfiguration(config);
             }
+            for (LenskitConfiguration config: extra) {
+                loader.addConfiguration(config);
+            }
             Stopwatch timer = Stopwatch.createStarted();
             LenskitRecommenderEngine engine;
             InputStream input = new FileInputStream(modelFile);
@@ -0,0 +1,114 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.util
+
+import it.unimi.dsi.fastutil.longs.LongIterators
+import org.junit.Before
+import org.junit.Test
+import org.lenskit.api.ItemScorer
+import org.lenskit.basic.PrecomputedItemScorer
+import org.lenskit.basic.TopNItemRecommender
+import org.lenskit.data.dao.DataAccessObject
+import org.lenskit.data.dao.file.StaticDataSource
+import org.lenskit.data.entities.CommonAttributes
+import org.lenskit.data.entities.CommonTypes
+import org.lenskit.data.entities.Entities
+
+import static org.hamcrest.Matchers.*
+import static org.junit.Assert.assertThat
+
+class BulkRecommenderTest {
+    DataAccessObject dao
+    PrecomputedItemScorer scorer
+
+    @Before
+    void createData() {
+        def source = new StaticDataSource()
+        source.addSource((1..5).collect { i ->
+            Entities.newBuilder(CommonTypes.ITEM, i)
+                    .setAttribute(CommonAttributes.NAME, "item ${i}".toString())
+                    .build()
+        })
+        dao = source.get()
+        def builder = PrecomputedItemScorer.newBuilder()
+        for (long user in 1..50) {
+            for (long item in 1..5) {
+                builder.addScore(user, item, (user * item) % 7)
+            }
+        }
+        scorer = builder.build()
+    }
+
+    @Test
+    void testWritesUsersInOrder() {
+        def rec = new TopNItemRecommender(dao, scorer)
+        def bulk = new BulkRecommender(rec, dao)
+                .setListLength(2)
+                .setBatchSize(3)
+                .setThreadCount(4)
+                .setMaxPendingBatches(2)
+        def written = []
+        def users = (50..1).collect { it as long }
+        long count = bulk.run(LongIterators.asLongIterator(users.iterator())) { user, recs, names ->
+            written << user
+            assertThat(recs.idList(), equalTo(rec.recommend(user, 2)))
+            for (r in recs) {
+                assertThat(r.score, equalTo(scorer.score(user, r.id).score))
+                assertThat(names.get(r.id), equalTo("item ${r.id}".toString()))
+            }
+        }
+        assertThat(count, equalTo(50L))
+        assertThat(written, equalTo(users))
+    }
+
+    @Test
+    void testScoresFromRecommendationPass() {
+        def rec = new TopNItemRecommender(dao, scorer)
+        // count scorer calls; each user should only be scored once
+        def calls = 0
+        def counting = new TopNItemRecommender(dao, [score: { long u, Collection items ->
+            calls += 1
+            scorer.score(u, items)
+        }, scoreWithDetails: { long u, Collection items ->
+            calls += 1
+            scorer.scoreWithDetails(u, items)
+        }] as ItemScorer)
+        def bulk = new BulkRecommender(counting, dao).setListLength(1)
+        def lists = [:]
+        bulk.run(LongIterators.asLongIterator([7L, 3L].iterator())) { user, recs, names ->
+            lists[user] = recs
+        }
+        assertThat(lists.keySet(), contains(7L, 3L))
+        assertThat(calls, equalTo(2))
+        assertThat(lists[7L].idList(), equalTo(rec.recommend(7L, 1)))
+        assertThat(lists[7L].get(0).score, equalTo(scorer.score(7L, lists[7L].get(0).id).score))
+    }
+
+    @Test
+    void testDefaultsToOneThread() {
+        def bulk = new BulkRecommender(new TopNItemRecommender(dao, scorer), dao)
+        assertThat(bulk.threadCount, equalTo(1))
+    }
+}
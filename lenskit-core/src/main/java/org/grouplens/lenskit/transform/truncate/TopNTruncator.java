@@ -27,7 +27,8 @@ package org.grouplens.lenskit.transform.truncate;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.inject.Shareable;
-import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
+import org.lenskit.util.collections.AccumulatorPool;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.math.Vectors;
 
 import java.io.Serializable;
@@ -58,13 +59,17 @@ public class TopNTruncator implements VectorTruncator, Serializable {
 
     @Override
     public Long2DoubleMap truncate(Long2DoubleMap v) {
-        TopNLong2DoubleAccumulator accumulator = new TopNLong2DoubleAccumulator(n);
-        for (Long2DoubleMap.Entry e : Vectors.fastEntries(v)) {
-            double x = e.getDoubleValue();
-            if (threshold == null || threshold.retain(x)) {
-                accumulator.put(e.getLongKey(), x);
+        Long2DoubleAccumulator accumulator = AccumulatorPool.acquire(n);
+        try {
+            for (Long2DoubleMap.Entry e : Vectors.fastEntries(v)) {
+                double x = e.getDoubleValue();
+                if (threshold == null || threshold.retain(x)) {
+                    accumulator.put(e.getLongKey(), x);
+                }
             }
+            return accumulator.finishMap();
+        } finally {
+            AccumulatorPool.release(accumulator);
         }
-        return accumulator.finishMap();
     }
 }
@@ -29,6 +29,8 @@ import org.grouplens.grapht.Dependency;
 import org.grouplens.grapht.InjectionException;
 import org.grouplens.grapht.graph.DAGNode;
 import org.lenskit.api.*;
+import org.lenskit.context.UserContext;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.inject.StaticInjector;
 
@@ -50,6 +52,7 @@ import java.lang.annotation.Annotation;
  */
 public class LenskitRecommender implements Recommender {
     private final StaticInjector injector;
+    private volatile UserContextManager contextManager;
 
     /**
      * Create a new LensKit recommender.  Most code does not need to call this constructor, but
@@ -160,6 +163,39 @@ public class LenskitRecommender implements Recommender {
         return dao;
     }
 
+    /**
+     * Get the user context manager for this recommender.  If none of the recommender's components use user
+     * contexts, this returns a manager that no component consults.
+     *
+     * @return The user context manager, useful for inspecting context hit and miss counts.
+     */
+    @Nonnull
+    public UserContextManager getUserContextManager() {
+        UserContextManager mgr = contextManager;
+        if (mgr == null) {
+            mgr = get(UserContextManager.class);
+            if (mgr == null) {
+                mgr = new UserContextManager();
+            }
+            contextManager = mgr;
+        }
+        return mgr;
+    }
+
+    /**
+     * Open a user context on the current thread.  While the context is open, the recommender's components share
+     * candidate-independent data for the user (such as the user's rating vector, normalization, and bias) across
+     * calls to the item scorer, rating predictor, and item recommender, rather than recomputing it for each call.
+     *
+     * @param user The user ID.
+     * @return The user context, which must be closed (on the same thread) when the request for the user is done.
+     * @see UserContext
+     */
+    @Nonnull
+    public UserContext openUserContext(long user) {
+        return getUserContextManager().open(user);
+    }
+
     @Override
     public void close() {
         injector.close();
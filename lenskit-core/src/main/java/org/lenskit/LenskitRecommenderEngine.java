@@ -39,6 +39,8 @@ import org.lenskit.api.RecommenderEngine;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.RecommenderGraphBuilder;
+import org.lenskit.inject.SectionSatisfaction;
+import org.lenskit.inject.SectionedGraphFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -178,10 +180,26 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      */
     public void write(@Nonnull @WillClose OutputStream stream) throws IOException {
         try (ObjectOutputStream out = new ObjectOutputStream(stream)) {
-            out.writeObject(graph);
+            out.writeObject(SectionedGraphFile.materialize(graph));
         }
     }
 
+    /**
+     * Write the state of this recommender engine to a sectioned model file.  Each shareable
+     * component (such as a trained model) is stored in its own section, with a table of contents,
+     * and the loader reads a component from the file (memory-mapping it where possible) only when it
+     * is first used.  This makes loading engines with several large models much cheaper when only
+     * some of them are needed.  {@link LenskitRecommenderEngineLoader#load(File)} detects sectioned
+     * files automatically; they cannot be compressed.
+     *
+     * @param file The file to write the rec engine to.
+     * @throws IOException if there is an error serializing the engine.
+     * @see SectionedGraphFile
+     */
+    public void writeSectioned(@Nonnull File file) throws IOException {
+        SectionedGraphFile.write(graph, file);
+    }
+
     /**
      * Create a recommender.
      * @return The recommender
@@ -259,7 +277,8 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      * @param type The required component type.
      * @param <T> The required component type.
      * @return The component instance, or {@code null} if no instance can be retreived (either because no such
-     * component is configured, or it is not yet instantiated).
+     * component is configured, or it is not yet instantiated).  Components stored in sections of a
+     * {@linkplain #writeSectioned(File) sectioned model file} are loaded by this method on first use.
      */
     @Nullable
     public <T> T getComponent(Class<T> type) {
@@ -270,6 +289,8 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
         Satisfaction sat = node.getLabel().getSatisfaction();
         if (sat instanceof InstanceSatisfaction) {
             return type.cast(((InstanceSatisfaction) sat).getInstance());
+        } else if (sat instanceof SectionSatisfaction) {
+            return type.cast(((SectionSatisfaction) sat).getInstance());
         } else {
             return null;
         }
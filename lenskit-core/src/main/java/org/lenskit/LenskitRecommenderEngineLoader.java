@@ -38,6 +38,7 @@ import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
 import org.lenskit.util.io.LKFileUtils;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.RecommenderGraphBuilder;
+import org.lenskit.inject.SectionedGraphFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -139,7 +140,9 @@ public class LenskitRecommenderEngineLoader {
     }
 
     /**
-     * Load a recommender from a file.
+     * Load a recommender from a file.  If the file was written with
+     * {@link LenskitRecommenderEngine#writeSectioned(File)}, its components are loaded lazily on
+     * first use rather than when the engine is loaded.
      *
      * @param file The recommender model file to load.
      * @return The recommender engine.
@@ -150,6 +153,14 @@ public class LenskitRecommenderEngineLoader {
      */
     public LenskitRecommenderEngine load(File file) throws IOException, RecommenderConfigurationException {
         logger.info("Loading recommender engine from {}", file);
+        if (SectionedGraphFile.isSectioned(file)) {
+            logger.info("reading sectioned engine, components will be loaded on demand");
+            try {
+                return finishLoad(SectionedGraphFile.read(file, classLoader));
+            } catch (ClassNotFoundException e) {
+                throw new RecommenderConfigurationException(e);
+            }
+        }
         try (FileInputStream input = new FileInputStream(file)) {
             CompressionMode effComp = compressionMode.getEffectiveCompressionMode(file.getName());
             logger.info("using {} compression", effComp);
@@ -208,6 +219,17 @@ public class LenskitRecommenderEngineLoader {
             in.close();
         }
 
+        return finishLoad(graph);
+    }
+
+    /**
+     * Finish loading an engine by applying the loader's configurations and validation mode.
+     *
+     * @param graph The deserialized graph.
+     * @return The recommender engine.
+     * @throws RecommenderConfigurationException If there is an error rewriting the graph.
+     */
+    private LenskitRecommenderEngine finishLoad(DAGNode<Component, Dependency> graph) throws RecommenderConfigurationException {
         if (!configurations.isEmpty()) {
             logger.info("rewriting with {} configurations", configurations.size());
             RecommenderGraphBuilder rgb = new RecommenderGraphBuilder();
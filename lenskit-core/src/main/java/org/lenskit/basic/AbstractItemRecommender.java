@@ -28,13 +28,16 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ResultList;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.metrics.Metrics;
+import org.lenskit.util.metrics.Timer;
 
 import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Set;
 
 /**
- * Base class to ease implementation of item recommenders.
+ * Base class to ease implementation of item recommenders.  When {@linkplain Metrics metrics} are enabled, the public
+ * recommendation methods record their latency in the timer `<class>.recommend`.
  */
 public abstract class AbstractItemRecommender implements ItemRecommender {
     /**
@@ -64,7 +67,12 @@ public abstract class AbstractItemRecommender implements ItemRecommender {
      */
     @Override
     public List<Long> recommend(long user, int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        return recommend(user, n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
+        if (!Metrics.isEnabled()) {
+            return recommend(user, n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
+        }
+        try (Timer.Context ctx = Metrics.timer(getClass(), "recommend").time()) {
+            return recommend(user, n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
+        }
     }
 
     /**
@@ -83,7 +91,12 @@ public abstract class AbstractItemRecommender implements ItemRecommender {
 
     @Override
     public ResultList recommendWithDetails(long user, int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        return recommendWithDetails(user, n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
+        if (!Metrics.isEnabled()) {
+            return recommendWithDetails(user, n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
+        }
+        try (Timer.Context ctx = Metrics.timer(getClass(), "recommend").time()) {
+            return recommendWithDetails(user, n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
+        }
     }
 
     /**
@@ -24,18 +24,26 @@
  */
 package org.lenskit.basic;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSets;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
+import org.lenskit.util.metrics.Metrics;
+import org.lenskit.util.metrics.Timer;
+import org.lenskit.util.parallel.BlockRunner;
 
 import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * Base class to make item scorers easier to implement. Delegates all score methods to
- * {@link #scoreWithDetails(long, Collection)}.
+ * {@link #scoreWithDetails(long, Collection)}.  When {@linkplain Metrics metrics} are enabled, the delegating
+ * methods record their latency in the timer `<class>.score` and the number of items requested in the counter
+ * `<class>.items`.
  *
  * @since 3.0
  */
@@ -47,8 +55,13 @@ public abstract class AbstractItemScorer implements ItemScorer {
      */
     @Override
     public Result score(long user, long item) {
-        ResultMap results = scoreWithDetails(user, LongSets.singleton(item));
-        return results.get(item);
+        if (!Metrics.isEnabled()) {
+            return scoreWithDetails(user, LongSets.singleton(item)).get(item);
+        }
+        Metrics.counter(getClass(), "items").inc();
+        try (Timer.Context ctx = Metrics.timer(getClass(), "score").time()) {
+            return scoreWithDetails(user, LongSets.singleton(item)).get(item);
+        }
     }
 
     /**
@@ -59,7 +72,57 @@ public abstract class AbstractItemScorer implements ItemScorer {
     @Nonnull
     @Override
     public Map<Long, Double> score(long user, @Nonnull Collection<Long> items) {
-        ResultMap results = scoreWithDetails(user, items);
-        return results.scoreMap();
+        if (!Metrics.isEnabled()) {
+            return scoreWithDetails(user, items).scoreMap();
+        }
+        Metrics.counter(getClass(), "items").inc(items.size());
+        try (Timer.Context ctx = Metrics.timer(getClass(), "score").time()) {
+            return scoreWithDetails(user, items).scoreMap();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If this scorer is a {@link BatchItemScorer}, this implementation splits the users into blocks of
+     * {@link #getBatchBlockSize()} users and scores each block with
+     * {@link BatchItemScorer#scoreBlockInto(LongList, Collection, ScoreSink[])}, on the calling thread.
+     * Otherwise, it scores each user separately.
+     */
+    @Override
+    public void scoreForUsers(@Nonnull Collection<Long> users, @Nonnull Collection<Long> items,
+                              @Nonnull BiConsumer<Long, Map<Long, Double>> output) {
+        if (!(this instanceof BatchItemScorer)) {
+            ItemScorer.super.scoreForUsers(users, items, output);
+            return;
+        }
+
+        BatchItemScorer batch = (BatchItemScorer) this;
+        BlockRunner runner = new BlockRunner(getBatchBlockSize(), 1);
+        runner.run(users, block -> {
+            int nusers = block.size();
+            Long2DoubleOpenHashMap[] maps = new Long2DoubleOpenHashMap[nusers];
+            ScoreSink[] sinks = new ScoreSink[nusers];
+            for (int i = 0; i < nusers; i++) {
+                Long2DoubleOpenHashMap map = new Long2DoubleOpenHashMap(items.size());
+                maps[i] = map;
+                sinks[i] = map::put;
+            }
+            batch.scoreBlockInto(block, items, sinks);
+            for (int i = 0; i < nusers; i++) {
+                output.accept(block.getLong(i), maps[i]);
+            }
+        });
+    }
+
+    /**
+     * Get the number of users to score together in {@link #scoreForUsers(Collection, Collection, BiConsumer)}.
+     * Only used if this scorer is a {@link BatchItemScorer}.
+     *
+     * @return The batch block size (64 by default).
+     * @see BatchBlockSize
+     */
+    protected int getBatchBlockSize() {
+        return 64;
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import it.unimi.dsi.fastutil.longs.*;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.results.Results;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.metrics.Metrics;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Item scorer that caches the scores computed by another scorer, so that repeated requests for the same user (such
+ * as recommending, then predicting and explaining) do not rescore items.
+ *
+ * Scores are cached in one block per user; the cache holds at most {@link ScoreCacheSize} users, evicting the
+ * least recently used, and optionally drops a user's scores {@link ScoreCacheExpiry} seconds after they were
+ * first cached.  Items the underlying scorer cannot score are remembered as well.  Applications that change the
+ * underlying data should call {@link #invalidate(long)} or {@link #invalidateAll()}.
+ *
+ * This scorer is safe to use from multiple threads.  If two threads request the same unscored item at the same
+ * time, both may score it.
+ */
+@ThreadSafe
+public class CachingItemScorer extends AbstractItemScorer {
+    private final ItemScorer delegate;
+    private final Cache<Long, UserScores> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Construct a new caching item scorer.
+     *
+     * @param scorer The scorer whose scores are to be cached.
+     * @param size The maximum number of users to cache.
+     * @param expiry The number of seconds to keep each user's scores, or 0 to keep them until evicted.
+     */
+    @Inject
+    public CachingItemScorer(@CachedScorer ItemScorer scorer,
+                             @ScoreCacheSize int size,
+                             @ScoreCacheExpiry int expiry) {
+        Preconditions.checkArgument(size > 0, "cache size must be positive");
+        Preconditions.checkArgument(expiry >= 0, "cache expiry cannot be negative");
+        delegate = scorer;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(size);
+        if (expiry > 0) {
+            builder.expireAfterWrite(expiry, TimeUnit.SECONDS);
+        }
+        cache = builder.build();
+    }
+
+    /**
+     * Get the scorer whose scores are cached.
+     * @return The underlying scorer.
+     */
+    public ItemScorer getDelegate() {
+        return delegate;
+    }
+
+    @Nonnull
+    @Override
+    public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
+        UserScores scores = cache.asMap().computeIfAbsent(user, u -> new UserScores());
+        LongSet itemSet = LongUtils.asLongSet(items);
+
+        LongList missing = new LongArrayList();
+        List<Result> results = new ArrayList<>(itemSet.size());
+        synchronized (scores) {
+            LongIterator iter = itemSet.iterator();
+            while (iter.hasNext()) {
+                long item = iter.nextLong();
+                Result r = scores.results.get(item);
+                if (r != null) {
+                    results.add(r);
+                } else if (!scores.unscorable.contains(item)) {
+                    missing.add(item);
+                }
+            }
+        }
+        int nmissing = missing.size();
+        hits.addAndGet(itemSet.size() - nmissing);
+        if (Metrics.isEnabled()) {
+            Metrics.counter(CachingItemScorer.class, "hits").inc(itemSet.size() - nmissing);
+            Metrics.counter(CachingItemScorer.class, "misses").inc(nmissing);
+        }
+
+        if (nmissing > 0) {
+            misses.addAndGet(nmissing);
+            ResultMap fresh = delegate.scoreWithDetails(user, missing);
+            synchronized (scores) {
+                LongIterator iter = missing.iterator();
+                while (iter.hasNext()) {
+                    long item = iter.nextLong();
+                    Result r = fresh.get(item);
+                    if (r != null) {
+                        scores.results.put(item, r);
+                        results.add(r);
+                    } else {
+                        scores.unscorable.add(item);
+                    }
+                }
+            }
+        }
+
+        return Results.newResultMap(results);
+    }
+
+    /**
+     * Discard the cached scores for a user.
+     * @param user The user ID.
+     */
+    public void invalidate(long user) {
+        cache.invalidate(user);
+    }
+
+    /**
+     * Discard all cached scores.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Get the number of users with cached scores.
+     * @return The number of cached users.
+     */
+    public long getCachedUserCount() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of item scores served from the cache.
+     * @return The number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of item scores requested from the underlying scorer.
+     * @return The number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the fraction of requested item scores that were served from the cache.
+     * @return The hit rate, or 0 if no scores have been requested.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total > 0 ? (double) h / total : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CachingItemScorer(%s, %d hits, %d misses)", delegate, hits.get(), misses.get());
+    }
+
+    /**
+     * The cached scores for a single user.  Guarded by its own monitor.
+     */
+    private static class UserScores {
+        final Long2ObjectMap<Result> results = new Long2ObjectOpenHashMap<>();
+        final LongSet unscorable = new LongOpenHashSet();
+    }
+}
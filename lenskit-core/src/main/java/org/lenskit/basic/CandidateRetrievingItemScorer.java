@@ -0,0 +1,54 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.ItemScorer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * An item scorer that can use an index to find the items likely to have a user's highest scores,
+ * without scoring the whole catalog.  {@link TopNItemRecommender} uses this to narrow the candidate
+ * set before scoring when recommending from all items; the retrieved items are then scored
+ * normally, so the index only affects which items are considered.
+ *
+ * @since 3.0
+ */
+public interface CandidateRetrievingItemScorer extends ItemScorer {
+    /**
+     * Retrieve the items likely to have a user's top scores.
+     *
+     * @param user The user ID.
+     * @param n The number of items wanted.
+     * @param exclude Items to exclude; they must not be counted towards the `n` items found.
+     * @return A set of at most `n` items (fewer if the scorer cannot score `n` items that are not
+     *         excluded), or `null` if the scorer cannot retrieve candidates for this user and the
+     *         caller should score all items.
+     */
+    @Nullable
+    LongSet retrieveCandidates(long user, int n, @Nonnull LongSet exclude);
+}
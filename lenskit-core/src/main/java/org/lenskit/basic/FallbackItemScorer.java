@@ -28,6 +28,8 @@ import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
 import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
@@ -50,7 +52,7 @@ import java.util.List;
  *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class FallbackItemScorer extends AbstractItemScorer {
+public class FallbackItemScorer extends AbstractItemScorer implements StreamingItemScorer {
     private final ItemScorer primaryScorer;
     private final ItemScorer baselineScorer;
 
@@ -103,6 +105,35 @@ public class FallbackItemScorer extends AbstractItemScorer {
         return new BasicResultMap(allResults);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation streams the primary scorer's results, then streams baseline scores for
+     * the items the primary scorer skipped.
+     */
+    @Override
+    public void scoreInto(long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink) {
+        LongSet scored = new LongOpenHashSet();
+        StreamingItemScorer.scoreInto(primaryScorer, user, items, (item, score) -> {
+            scored.add(item);
+            sink.put(item, score);
+        });
+
+        if (scored.size() < items.size()) {
+            LongList toFetch = new LongArrayList(items.size() - scored.size());
+            LongIterator iter = LongIterators.asLongIterator(items.iterator());
+            while (iter.hasNext()) {
+                final long item = iter.nextLong();
+                if (!scored.contains(item)) {
+                    toFetch.add(item);
+                }
+            }
+            if (!toFetch.isEmpty()) {
+                StreamingItemScorer.scoreInto(baselineScorer, user, toFetch, sink);
+            }
+        }
+    }
+
     /**
      * Get the primary scorer from this item scorer.
      * @return The scorer's primary scorer.
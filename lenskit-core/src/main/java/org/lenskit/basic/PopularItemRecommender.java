@@ -35,11 +35,14 @@ import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.ratings.InteractionStatistics;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.parallel.BlockRunner;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.LongPredicate;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
@@ -50,15 +53,29 @@ import java.util.stream.LongStream;
 public class PopularItemRecommender extends AbstractItemRecommender implements ItemRecommender, ItemBasedItemRecommender {
     private final DataAccessObject data;
     private final InteractionStatistics statistics;
+    private final BlockRunner batchRunner;
 
     /**
      * Create a new popular item recommender.
      * @param stats The interaction statistics.
      */
-    @Inject
     public PopularItemRecommender(InteractionStatistics stats, DataAccessObject dao) {
+        this(stats, dao, 64, 1);
+    }
+
+    /**
+     * Create a new popular item recommender.
+     * @param stats The interaction statistics.
+     * @param dao The data access object.
+     * @param blockSize The number of users recommended together in batch recommendation.
+     * @param threads The number of threads for batch recommendation.
+     */
+    @Inject
+    public PopularItemRecommender(InteractionStatistics stats, DataAccessObject dao,
+                                  @BatchBlockSize int blockSize, @BatchThreadCount int threads) {
         data = dao;
         statistics = stats;
+        batchRunner = new BlockRunner(blockSize, threads);
     }
 
     private LongList recommendWithPredicate(int n, LongPredicate filter) {
@@ -133,18 +150,60 @@ public class PopularItemRecommender extends AbstractItemRecommender implements I
     @Override
     protected LongList recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
         if (exclude == null) {
-            exclude = data.query(statistics.getEntityType())
-                          .withAttribute(CommonAttributes.USER_ID, user)
-                          .valueSet(CommonAttributes.ITEM_ID);
+            exclude = getDefaultExcludes(user);
         }
         return recommendWithSets(n, candidates, exclude);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The popularity ranking is the same for every user, so this implementation filters it by the
+     * candidates once and then only removes each user's excluded items.
+     */
+    @Override
+    public void recommendForUsers(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                  @Nullable Set<Long> exclude, BiConsumer<Long, List<Long>> output) {
+        LongSet cs = LongUtils.asLongSet(candidates);
+        LongList ranked = cs != null ? recommendWithPredicate(-1, cs::contains) : statistics.getItemsByPopularity();
+        LongSet shared = exclude != null ? LongUtils.frozenSet(exclude) : null;
+        batchRunner.run(users, block -> {
+            for (int i = 0; i < block.size(); i++) {
+                long user = block.getLong(i);
+                LongSet excl = shared != null ? shared : getDefaultExcludes(user);
+                int size = n >= 0 ? Math.min(n, ranked.size()) : ranked.size();
+                LongList list = new LongArrayList(size);
+                for (int j = 0; j < ranked.size() && (n < 0 || list.size() < n); j++) {
+                    long item = ranked.getLong(j);
+                    if (!excl.contains(item)) {
+                        list.add(item);
+                    }
+                }
+                output.accept(user, list);
+            }
+        });
+    }
+
+    @Override
+    public void recommendWithDetailsForUsers(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                             @Nullable Set<Long> exclude, BiConsumer<Long, ResultList> output) {
+        recommendForUsers(users, n, candidates, exclude, (user, items) -> output.accept(user, withCounts(items)));
+    }
+
+    private ResultList withCounts(List<Long> items) {
+        return items.stream()
+                    .map(i -> Results.create(i, statistics.getInteractionCount(i)))
+                    .collect(Results.listCollector());
+    }
+
+    private LongSet getDefaultExcludes(long user) {
+        return data.query(statistics.getEntityType())
+                   .withAttribute(CommonAttributes.USER_ID, user)
+                   .valueSet(CommonAttributes.ITEM_ID);
+    }
+
     @Override
     protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
-        return recommend(user, n, candidates, exclude)
-                .stream()
-                .map(i -> Results.create(i, statistics.getInteractionCount(i)))
-                .collect(Results.listCollector());
+        return withCounts(recommend(user, n, candidates, exclude));
     }
 }
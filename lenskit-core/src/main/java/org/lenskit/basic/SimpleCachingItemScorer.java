@@ -41,8 +41,9 @@ import java.util.Set;
  * A simple cached item scorer that remembers the result for the last user id it scored.
  *
  *  @author <a href="http://www.grouplens.org">GroupLens Research</a>
+ *  @deprecated This scorer is not thread-safe and only remembers one user; use {@link CachingItemScorer}.
  */
-
+@Deprecated
 public class SimpleCachingItemScorer extends AbstractItemScorer {
     private long cachedId = -1;
     private ResultMap cachedScores = null;
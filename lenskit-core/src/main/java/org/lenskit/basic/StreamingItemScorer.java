@@ -0,0 +1,84 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.math.Vectors;
+import org.lenskit.util.metrics.Metrics;
+import org.lenskit.util.metrics.Timer;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An item scorer that can stream its scores into a {@link ScoreSink} instead of building a map.
+ * Scores streamed this way must be the same as those returned by {@link #score(long, Collection)}.
+ *
+ * @since 3.0
+ */
+public interface StreamingItemScorer extends ItemScorer {
+    /**
+     * Score a collection of items, pushing each score into a sink.  Items the scorer cannot score
+     * are skipped.
+     *
+     * @param user The user ID.
+     * @param items The items to score.
+     * @param sink The sink to receive scores.
+     */
+    void scoreInto(long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink);
+
+    /**
+     * Score items with any item scorer, streaming the results into a sink.  If the scorer is a
+     * {@link StreamingItemScorer}, its scores are streamed directly; otherwise, they are computed with
+     * {@link ItemScorer#score(long, Collection)} and copied into the sink.  When {@linkplain Metrics metrics} are
+     * enabled, streamed scoring is recorded like {@link AbstractItemScorer} records map-based scoring.
+     *
+     * @param scorer The item scorer.
+     * @param user The user ID.
+     * @param items The items to score.
+     * @param sink The sink to receive scores.
+     */
+    static void scoreInto(ItemScorer scorer, long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink) {
+        if (scorer instanceof StreamingItemScorer) {
+            if (Metrics.isEnabled()) {
+                Metrics.counter(scorer.getClass(), "items").inc(items.size());
+                try (Timer.Context ctx = Metrics.timer(scorer.getClass(), "score").time()) {
+                    ((StreamingItemScorer) scorer).scoreInto(user, items, sink);
+                }
+            } else {
+                ((StreamingItemScorer) scorer).scoreInto(user, items, sink);
+            }
+        } else {
+            Map<Long, Double> scores = scorer.score(user, items);
+            Long2DoubleMap map = LongUtils.asLong2DoubleMap(scores);
+            for (Long2DoubleMap.Entry e: Vectors.fastEntries(map)) {
+                sink.put(e.getLongKey(), e.getDoubleValue());
+            }
+        }
+    }
+}
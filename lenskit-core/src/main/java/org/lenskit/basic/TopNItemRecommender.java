@@ -26,33 +26,50 @@ package org.lenskit.basic;
 
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.api.ResultMap;
+import org.lenskit.context.UserContext;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.results.ResultAccumulator;
+import org.lenskit.results.Results;
+import org.lenskit.util.collections.AccumulatorPool;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.LongUtils;
-import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
-import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
-import org.lenskit.util.math.Vectors;
+import org.lenskit.util.parallel.BlockRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Recommender that recommends the top N items by a scorer.
  * Implements all methods required by {@link AbstractItemRecommender}. The
- * default exclude set is all items rated by the user.
+ * default exclude set is all items rated by the user; it is computed only once while a
+ * {@linkplain UserContext user context} is open.  When recommending from all items with a
+ * {@link CandidateRetrievingItemScorer}, only the candidates it retrieves are scored.
+ *
+ * <p>Batch recommendation ({@link #recommendForUsers(Collection, int, Set, Set, BiConsumer)}) builds the
+ * candidate set once, processes users in blocks, and lets a {@link BatchItemScorer} score each block of
+ * users together.  Blocks run on the calling thread unless {@link BatchThreadCount} is set to use more
+ * threads, which requires the scorer and data access object to be thread-safe.
  *
  * <p>Recommendations are returned in descending order of score.
  *
@@ -63,11 +80,33 @@ public class TopNItemRecommender extends AbstractItemRecommender {
     private static final Logger logger = LoggerFactory.getLogger(TopNItemRecommender.class);
     protected final DataAccessObject dao;
     protected final ItemScorer scorer;
+    private final UserContextManager contexts;
+    private final UserContext.Key<LongSet> excludeKey = new UserContext.Key<>("default-excludes");
+    private final BlockRunner batchRunner;
 
-    @Inject
     public TopNItemRecommender(DataAccessObject data, ItemScorer scorer) {
+        this(data, scorer, new UserContextManager());
+    }
+
+    public TopNItemRecommender(DataAccessObject data, ItemScorer scorer, UserContextManager ctx) {
+        this(data, scorer, ctx, 64, 1);
+    }
+
+    /**
+     * Create a new top-N recommender.
+     * @param data The data access object.
+     * @param scorer The item scorer.
+     * @param ctx The user context manager.
+     * @param blockSize The number of users recommended together in batch recommendation.
+     * @param threads The number of threads for batch recommendation.
+     */
+    @Inject
+    public TopNItemRecommender(DataAccessObject data, ItemScorer scorer, UserContextManager ctx,
+                               @BatchBlockSize int blockSize, @BatchThreadCount int threads) {
         dao = data;
         this.scorer = scorer;
+        contexts = ctx;
+        batchRunner = new BlockRunner(blockSize, threads);
     }
     
     public ItemScorer getScorer() {
@@ -75,31 +114,25 @@ public class TopNItemRecommender extends AbstractItemRecommender {
     }
 
     /**
-     * Implement recommendation by calling {@link ItemScorer#score(long, Collection)} and sorting
-     * the results by score.  This method uses {@link #getDefaultExcludes(long)} to get the default
-     * exclude set for the user, if none is provided.
+     * Implement recommendation by scoring the candidates and keeping the top <var>n</var>.  If the
+     * scorer is a {@link StreamingItemScorer}, scores are streamed directly into a bounded accumulator
+     * without building a score map; otherwise, {@link ItemScorer#score(long, Collection)} is used.
+     * This method uses {@link #getDefaultExcludes(long)} to get the default exclude set for the user,
+     * if none is provided.
      */
     @Override
     protected List<Long> recommend(long user, int n, LongSet candidates, LongSet exclude) {
-        candidates = getEffectiveCandidates(user, candidates, exclude);
+        candidates = getEffectiveCandidates(user, n, candidates, exclude);
         logger.debug("Computing {} recommendations for user {} from {} candidates",
                      n, user, candidates.size());
 
-        Map<Long, Double> scores = scorer.score(user, candidates);
-        Long2DoubleAccumulator accum;
-        if (n >= 0) {
-            accum = new TopNLong2DoubleAccumulator(n);
-        } else {
-            accum = new UnlimitedLong2DoubleAccumulator();
+        Long2DoubleAccumulator accum = AccumulatorPool.acquire(n);
+        try {
+            StreamingItemScorer.scoreInto(scorer, user, candidates, accum::put);
+            return accum.finishList();
+        } finally {
+            AccumulatorPool.release(accum);
         }
-
-        Long2DoubleMap map = LongUtils.asLong2DoubleMap(scores);
-
-        for (Long2DoubleMap.Entry e: Vectors.fastEntries(map)) {
-            accum.put(e.getLongKey(), e.getDoubleValue());
-        }
-
-        return accum.finishList();
     }
 
 
@@ -110,7 +143,7 @@ public class TopNItemRecommender extends AbstractItemRecommender {
      */
     @Override
     protected ResultList recommendWithDetails(long user, int n, LongSet candidates, LongSet exclude) {
-        candidates = getEffectiveCandidates(user, candidates, exclude);
+        candidates = getEffectiveCandidates(user, n, candidates, exclude);
         logger.debug("Computing {} recommendations for user {} from {} candidates",
                      n, user, candidates.size());
 
@@ -118,12 +151,140 @@ public class TopNItemRecommender extends AbstractItemRecommender {
         return getTopNResults(n, scores);
     }
 
-    private LongSet getEffectiveCandidates(long user, LongSet candidates, LongSet exclude) {
-        if (candidates == null) {
-            candidates = getPredictableItems(user);
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation computes the candidate set once for all users, and filters each user's
+     * excluded items as scores arrive instead of building a per-user candidate set.  If the scorer is
+     * a {@link BatchItemScorer}, each block of users is scored together.  When recommending from all
+     * items with a {@link CandidateRetrievingItemScorer} that is not a batch scorer, each user is
+     * recommended separately so the scorer's index is still used.
+     */
+    @Override
+    public void recommendForUsers(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                  @Nullable Set<Long> exclude, BiConsumer<Long, List<Long>> output) {
+        recommendBatch(users, n, candidates, exclude, this::recommend,
+                       Long2DoubleAccumulator::finishList, output);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation works like {@link #recommendForUsers(Collection, int, Set, Set, BiConsumer)}, and
+     * takes each recommendation's score from that single scoring pass.
+     */
+    @Override
+    public void recommendWithDetailsForUsers(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                             @Nullable Set<Long> exclude, BiConsumer<Long, ResultList> output) {
+        recommendBatch(users, n, candidates, exclude, this::recommendWithDetails,
+                       this::finishResults, output);
+    }
+
+    /**
+     * Recommend for a batch of users.
+     *
+     * @param single Recommends for a single user, when the scorer's candidate index is used.
+     * @param finish Extracts a user's result from their accumulator.
+     */
+    private <T> void recommendBatch(Collection<Long> users, int n, @Nullable Set<Long> candidates,
+                                    @Nullable Set<Long> exclude, SingleRecommender<T> single,
+                                    Function<Long2DoubleAccumulator, T> finish, BiConsumer<Long, T> output) {
+        LongSet excl = exclude != null ? LongUtils.frozenSet(exclude) : null;
+        if (candidates == null && n > 0 && scorer instanceof CandidateRetrievingItemScorer
+                && !(scorer instanceof BatchItemScorer)) {
+            batchRunner.run(users, block -> {
+                for (int i = 0; i < block.size(); i++) {
+                    long user = block.getLong(i);
+                    output.accept(user, single.recommend(user, n, null, excl));
+                }
+            });
+            return;
+        }
+
+        LongSet cands = candidates != null ? LongUtils.frozenSet(candidates) : getBatchCandidates();
+        logger.debug("recommending for {} users from {} shared candidates", users.size(), cands.size());
+        batchRunner.run(users, block -> recommendBlock(block, n, cands, excl, finish, output));
+    }
+
+    private <T> void recommendBlock(LongList users, int n, LongSet candidates, @Nullable LongSet exclude,
+                                    Function<Long2DoubleAccumulator, T> finish, BiConsumer<Long, T> output) {
+        int nusers = users.size();
+        Long2DoubleAccumulator[] accums = new Long2DoubleAccumulator[nusers];
+        ScoreSink[] sinks = new ScoreSink[nusers];
+        try {
+            for (int i = 0; i < nusers; i++) {
+                Long2DoubleAccumulator acc = AccumulatorPool.acquire(n);
+                accums[i] = acc;
+                LongSet excl = exclude;
+                if (excl == null) {
+                    excl = contexts.lookup(users.getLong(i), excludeKey, this::getDefaultExcludes);
+                }
+                if (excl.isEmpty()) {
+                    sinks[i] = acc::put;
+                } else {
+                    LongSet userExclude = excl;
+                    sinks[i] = (item, score) -> {
+                        if (!userExclude.contains(item)) {
+                            acc.put(item, score);
+                        }
+                    };
+                }
+            }
+
+            if (scorer instanceof BatchItemScorer) {
+                ((BatchItemScorer) scorer).scoreBlockInto(users, candidates, sinks);
+            } else {
+                for (int i = 0; i < nusers; i++) {
+                    StreamingItemScorer.scoreInto(scorer, users.getLong(i), candidates, sinks[i]);
+                }
+            }
+
+            for (int i = 0; i < nusers; i++) {
+                output.accept(users.getLong(i), finish.apply(accums[i]));
+            }
+        } finally {
+            for (Long2DoubleAccumulator acc: accums) {
+                if (acc != null) {
+                    AccumulatorPool.release(acc);
+                }
+            }
         }
+    }
+
+    private ResultList finishResults(Long2DoubleAccumulator acc) {
+        Long2DoubleMap scores = new Long2DoubleOpenHashMap();
+        LongList items = acc.finishList(scores);
+        List<Result> results = new ArrayList<>(items.size());
+        LongIterator iter = items.iterator();
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            results.add(Results.create(item, scores.get(item)));
+        }
+        return Results.newResultList(results);
+    }
+
+    private LongSet getEffectiveCandidates(long user, int n, LongSet candidates, LongSet exclude) {
         if (exclude == null) {
-            exclude = getDefaultExcludes(user);
+            exclude = contexts.lookup(user, excludeKey, this::getDefaultExcludes);
+        }
+        if (candidates == null) {
+            candidates = getPredictableItems(user);
+            if (n > 0 && scorer instanceof CandidateRetrievingItemScorer) {
+                LongSet retrieved = ((CandidateRetrievingItemScorer) scorer).retrieveCandidates(user, n, exclude);
+                if (retrieved != null) {
+                    logger.debug("retrieved {} candidates for user {} from index", retrieved.size(), user);
+                    // probe the (possibly large) predictable set rather than merging with it
+                    LongList kept = new LongArrayList(retrieved.size());
+                    LongIterator iter = retrieved.iterator();
+                    while (iter.hasNext()) {
+                        long item = iter.nextLong();
+                        if (candidates.contains(item)) {
+                            kept.add(item);
+                        }
+                    }
+                    return LongUtils.packedSet(kept);
+                }
+            }
         }
         logger.debug("computing effective candidates for user {} from {} candidates and {} excluded items",
                      user, candidates.size(), exclude.size());
@@ -167,4 +328,23 @@ public class TopNItemRecommender extends AbstractItemRecommender {
     protected LongSet getPredictableItems(long user) {
         return dao.getEntityIds(CommonTypes.ITEM);
     }
+
+    /**
+     * Get the candidate set shared by all users in batch recommendation when no candidates are
+     * given.  This implementation returns all items; subclasses that override
+     * {@link #getPredictableItems(long)} to vary candidates by user should override this too.
+     *
+     * @return The items for which batch recommendations may be produced.
+     */
+    protected LongSet getBatchCandidates() {
+        return dao.getEntityIds(CommonTypes.ITEM);
+    }
+
+    /**
+     * A single-user recommendation method.
+     */
+    @FunctionalInterface
+    private interface SingleRecommender<T> {
+        T recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude);
+    }
 }
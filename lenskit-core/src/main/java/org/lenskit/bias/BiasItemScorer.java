@@ -26,10 +26,14 @@ package org.lenskit.bias;
 
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.BatchBlockSize;
+import org.lenskit.basic.BatchItemScorer;
+import org.lenskit.basic.ScoreSink;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
 
@@ -42,17 +46,34 @@ import java.util.Map;
 
 /**
  * Score items using a user-item bias model.  This scorer is good as a baseline scorer for many situations.
+ * When scoring a block of users, item biases are looked up once for the whole block.
  */
-public class BiasItemScorer extends AbstractItemScorer {
+public class BiasItemScorer extends AbstractItemScorer implements BatchItemScorer {
     private final BiasModel model;
+    private final int blockSize;
 
     /**
      * Construct a new scorer.
      * @param bias The bias model to use.
      */
-    @Inject
     public BiasItemScorer(BiasModel bias) {
+        this(bias, 64);
+    }
+
+    /**
+     * Construct a new scorer.
+     * @param bias The bias model to use.
+     * @param blockSize The number of users scored together by {@link #scoreForUsers}.
+     */
+    @Inject
+    public BiasItemScorer(BiasModel bias, @BatchBlockSize int blockSize) {
         model = bias;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    protected int getBatchBlockSize() {
+        return blockSize;
     }
 
     @Override
@@ -80,4 +101,33 @@ public class BiasItemScorer extends AbstractItemScorer {
         }
         return Results.newResultMap(results);
     }
+
+    @Override
+    public void scoreInto(long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink) {
+        double base = model.getIntercept() + model.getUserBias(user);
+        LongIterator iter = LongIterators.asLongIterator(items.iterator());
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            sink.put(item, base + model.getItemBias(item));
+        }
+    }
+
+    @Override
+    public void scoreBlockInto(@Nonnull LongList users, @Nonnull Collection<Long> items, @Nonnull ScoreSink[] sinks) {
+        long[] itemIds = new long[items.size()];
+        double[] itemBiases = new double[itemIds.length];
+        LongIterator iter = LongIterators.asLongIterator(items.iterator());
+        for (int j = 0; j < itemIds.length; j++) {
+            itemIds[j] = iter.nextLong();
+            itemBiases[j] = model.getItemBias(itemIds[j]);
+        }
+
+        for (int i = 0; i < users.size(); i++) {
+            double base = model.getIntercept() + model.getUserBias(users.getLong(i));
+            ScoreSink sink = sinks[i];
+            for (int j = 0; j < itemIds.length; j++) {
+                sink.put(itemIds[j], base + itemBiases[j]);
+            }
+        }
+    }
 }
@@ -27,6 +27,8 @@ package org.lenskit.bias;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
 import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.context.UserContext;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.keys.SortedKeyIndex;
@@ -36,23 +38,37 @@ import javax.inject.Inject;
 /**
  * Bias model that provides global, user, and item biases.  The global and item biases are precomputed and are *not*
  * refreshed based on user data added since the model build, but the user bias (mean rating from the rating DAO) is
- * recomputed live based on a {@link RatingVectorPDAO}.
+ * recomputed live based on a {@link RatingVectorPDAO}.  While a {@linkplain UserContext user context} is open, the
+ * user bias is computed only once.
  *
  * **Note:** The {@link #getUserBiases()} method will always return an empty map.
  */
 public final class LiveUserItemBiasModel implements BiasModel{
     private final ItemBiasModel delegate;
     private final RatingVectorPDAO dao;
+    private final UserContextManager contexts;
+    private final UserContext.Key<Double> biasKey = new UserContext.Key<>("user-bias");
+
+    /**
+     * Construct a new bias model with no user context support.
+     * @param base An item bias model to use as the base model.
+     * @param dao The rating vector DAO to fetch user data.
+     */
+    public LiveUserItemBiasModel(ItemBiasModel base, RatingVectorPDAO dao) {
+        this(base, dao, new UserContextManager());
+    }
 
     /**
      * Construct a new bias model.
      * @param base An item bias model to use as the base model.
      * @param dao The rating vector DAO to fetch user data.
+     * @param ctx The user context manager.
      */
     @Inject
-    public LiveUserItemBiasModel(ItemBiasModel base, RatingVectorPDAO dao) {
+    public LiveUserItemBiasModel(ItemBiasModel base, RatingVectorPDAO dao, UserContextManager ctx) {
         delegate = base;
         this.dao = dao;
+        contexts = ctx;
     }
 
     @Override
@@ -62,6 +78,10 @@ public final class LiveUserItemBiasModel implements BiasModel{
 
     @Override
     public double getUserBias(long user) {
+        return contexts.lookup(user, biasKey, this::computeUserBias);
+    }
+
+    private double computeUserBias(long user) {
         Long2DoubleMap vec = dao.userRatingVector(user);
         if (vec.isEmpty()) {
             return 0;
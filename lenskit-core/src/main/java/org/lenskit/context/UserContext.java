@@ -0,0 +1,175 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.context;
+
+import com.google.common.base.Preconditions;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * A request-scoped cache of per-user data.  A user context is opened for a single user on a single thread with
+ * {@link UserContextManager#open(long)} (usually via {@link org.lenskit.LenskitRecommender#openUserContext(long)}),
+ * and while it is open, components that look up data for that user through the manager share the values computed
+ * by the first lookup instead of recomputing them.
+ *
+ * Contexts must be closed on the thread that opened them, and should be used in a try-with-resources block:
+ *
+ * ```java
+ * try (UserContext ctx = recommender.openUserContext(user)) {
+ *     List<Long> recs = recommender.getItemRecommender().recommend(user, 10);
+ *     Map<Long,Double> preds = recommender.getRatingPredictor().predict(user, items);
+ * }
+ * ```
+ *
+ * Opening a context for the same user while one is already open on the thread re-enters the existing context; it
+ * is discarded when the outermost use is closed.  Contexts are not thread-safe.
+ */
+public final class UserContext implements AutoCloseable {
+    private final UserContextManager manager;
+    private final UserContext parent;
+    private final Thread owner;
+    private final long user;
+    private final Map<Key<?>,Object> values = new IdentityHashMap<>();
+    private int useCount = 1;
+    private int hits = 0;
+    private int misses = 0;
+
+    UserContext(UserContextManager mgr, UserContext par, long uid) {
+        manager = mgr;
+        parent = par;
+        owner = Thread.currentThread();
+        user = uid;
+    }
+
+    /**
+     * Get the ID of the user this context is for.
+     * @return The context's user ID.
+     */
+    public long getUserId() {
+        return user;
+    }
+
+    /**
+     * Query whether this context is still open.
+     * @return `true` if the context is open.
+     */
+    public boolean isOpen() {
+        return useCount > 0;
+    }
+
+    /**
+     * Get the number of lookups satisfied from this context's cache.
+     * @return The number of cache hits.
+     */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of values computed and stored in this context.
+     * @return The number of cache misses.
+     */
+    public int getMissCount() {
+        return misses;
+    }
+
+    UserContext getParent() {
+        return parent;
+    }
+
+    void retain() {
+        useCount += 1;
+    }
+
+    /**
+     * Get a value from the context, computing it if it is not yet present.
+     * @param key The value key.
+     * @param func The function to compute the value from the user ID.
+     * @param <T> The value type.
+     * @return The value.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T lookup(Key<T> key, LongFunction<? extends T> func) {
+        Object value = values.get(key);
+        if (value != null || values.containsKey(key)) {
+            hits += 1;
+            return (T) value;
+        }
+
+        T computed = func.apply(user);
+        values.put(key, computed);
+        misses += 1;
+        return computed;
+    }
+
+    /**
+     * Close this context.  If the context has been re-entered, this only releases the innermost use.
+     *
+     * @throws IllegalStateException if the context is closed from a different thread than the one that opened it.
+     */
+    @Override
+    public void close() {
+        Preconditions.checkState(Thread.currentThread() == owner,
+                                 "user context closed from a different thread");
+        if (useCount <= 0) {
+            return;
+        }
+        useCount -= 1;
+        if (useCount == 0) {
+            values.clear();
+            manager.release(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UserContext(user=" + user + ", hits=" + hits + ", misses=" + misses + ")";
+    }
+
+    /**
+     * A key for a value stored in a user context.  Keys are compared by identity, so a component normally creates
+     * one key per kind of value it caches, in an instance field.
+     *
+     * @param <T> The type of value associated with the key.
+     */
+    public static final class Key<T> {
+        private final String name;
+
+        /**
+         * Create a new key.
+         * @param name The key name, used for diagnostics.
+         */
+        public Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "UserContext.Key(" + name + ")";
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.context;
+
+import com.google.common.base.Preconditions;
+import net.jcip.annotations.ThreadSafe;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+
+/**
+ * Manage the {@linkplain UserContext user contexts} of a recommender.  A recommender has a single manager, shared
+ * by all components that depend on it; components call {@link #lookup(long, UserContext.Key, LongFunction)} to
+ * fetch per-user data that does not depend on the items being scored.  If a context is open for that user on the
+ * current thread, the value is computed at most once for the lifetime of the context; otherwise it is computed for
+ * each lookup, exactly as if there were no cache.
+ *
+ * The manager also keeps counts of context hits, misses (values computed and stored in a context), and uncached
+ * lookups (values computed with no context open), so applications can see how much work contexts save.
+ */
+@ThreadSafe
+public class UserContextManager {
+    private final ThreadLocal<UserContext> current = new ThreadLocal<>();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncached = new AtomicLong();
+
+    /**
+     * Construct a new user context manager.
+     */
+    @Inject
+    public UserContextManager() {}
+
+    /**
+     * Open a context for a user on the current thread.  If a context for the same user is already open on this
+     * thread, it is re-entered; if a context for another user is open, the new context hides it until closed.
+     *
+     * @param user The user ID.
+     * @return The user context, which must be closed by the caller on the same thread.
+     */
+    public UserContext open(long user) {
+        UserContext ctx = current.get();
+        if (ctx != null && ctx.getUserId() == user) {
+            ctx.retain();
+            return ctx;
+        }
+
+        UserContext nctx = new UserContext(this, ctx, user);
+        current.set(nctx);
+        opened.incrementAndGet();
+        return nctx;
+    }
+
+    /**
+     * Get the context open on the current thread.
+     * @return The current context, or `null` if no context is open.
+     */
+    @Nullable
+    public UserContext getCurrentContext() {
+        return current.get();
+    }
+
+    /**
+     * Look up a per-user value, using the current thread's context if it is for the specified user.
+     *
+     * @param user The user ID.
+     * @param key The key identifying the value.
+     * @param func A function to compute the value if it is not cached.
+     * @param <T> The value type.
+     * @return The value for the user.
+     */
+    public <T> T lookup(long user, UserContext.Key<T> key, LongFunction<? extends T> func) {
+        UserContext ctx = current.get();
+        if (ctx == null || ctx.getUserId() != user) {
+            uncached.incrementAndGet();
+            return func.apply(user);
+        }
+
+        int oldMisses = ctx.getMissCount();
+        T value = ctx.lookup(key, func);
+        if (ctx.getMissCount() > oldMisses) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    void release(UserContext ctx) {
+        Preconditions.checkState(current.get() == ctx, "user contexts closed out of order");
+        UserContext parent = ctx.getParent();
+        if (parent == null) {
+            current.remove();
+        } else {
+            current.set(parent);
+        }
+    }
+
+    /**
+     * Get the number of contexts that have been opened.  Re-entering an open context does not count.
+     * @return The number of contexts opened.
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Get the number of lookups satisfied from an open context.
+     * @return The number of context hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of values computed and stored in an open context.
+     * @return The number of context misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of values computed without a context for their user.
+     * @return The number of uncached lookups.
+     */
+    public long getUncachedCount() {
+        return uncached.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UserContextManager(opened=%d, hits=%d, misses=%d, uncached=%d)",
+                             getOpenedCount(), getHitCount(), getMissCount(), getUncachedCount());
+    }
+}
@@ -24,6 +24,8 @@
  */
 package org.lenskit.data.dao;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Ordering;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
@@ -59,6 +61,19 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         return new EntityCollectionDAOBuilder();
     }
 
+    /**
+     * Create a DAO from pre-built entity collections.
+     * @param collections The collections, at most one per entity type.
+     * @return The DAO.
+     */
+    public static EntityCollectionDAO fromCollections(Collection<? extends EntityCollection> collections) {
+        ImmutableMap.Builder<EntityType, EntityCollection> mb = ImmutableMap.builder();
+        for (EntityCollection ec: collections) {
+            mb.put(ec.getType(), ec);
+        }
+        return new EntityCollectionDAO(mb.build());
+    }
+
     /**
      * Create a new event collection DAO.
      * @param data The data to store in the DAO.
@@ -107,11 +122,12 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
     @Nullable
     @Override
     public <E extends Entity> E lookupEntity(EntityType type, long id, Class<E> view) {
-        Entity entity = lookupEntity(type, id);
+        EntityCollection entities = storage.get(type);
+        Entity entity = entities != null ? entities.lookup(id) : null;
         if (entity == null) {
             return null;
         } else {
-            return Entities.project(entity, view);
+            return entities.projection(view).apply(entity);
         }
     }
 
@@ -132,44 +148,13 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
             return ObjectStreams.empty();
         }
 
-        ObjectStream<Entity> baseStream;
-        List<Attribute<?>> filters = query.getFilterFields();
-        if (filters.isEmpty()) {
-            baseStream = ObjectStreams.wrap(data);
-        } else {
-            // optimize by trying to look up the first condition
-            Attribute<?> f1 = filters.get(0);
-            baseStream = ObjectStreams.wrap(data.find(f1));
-            if (filters.size() > 1) {
-                baseStream = ObjectStreams.filter(baseStream, query);
-            }
-        }
+        // the collection plans the lookup and sort
+        ObjectStream<Entity> baseStream = ObjectStreams.wrap(data.find(query.getFilterFields(),
+                                                                       query.getSortKeys()));
 
-        ObjectStream<E> stream = query.getViewType().equals(Entity.class)
+        return query.getViewType().equals(Entity.class)
                 ? (ObjectStream<E>) baseStream
-                : ObjectStreams.transform(baseStream, Entities.projection(query.getViewType()));
-        List<SortKey> sort = query.getSortKeys();
-        List<SortKey> dataKeys = data.getSortKeys();
-        // already sorted if sort is a prefix of data keys
-        boolean alreadyInOrder = sort.size() <= dataKeys.size();
-        for (int i = 0; alreadyInOrder && i < sort.size(); i++) {
-            if (!sort.get(i).equals(dataKeys.get(i))) {
-                // oops, we want to sort by sth that isn't pre-sorted.
-                alreadyInOrder = false;
-            }
-        }
-        if (alreadyInOrder) {
-            return stream;
-        }
-
-        // we must sort; need to make list ourselves since makeList lists are immutable
-        Ordering<Entity> ord = query.getOrdering();
-        assert ord != null;
-        try {
-            return ObjectStreams.wrap(ord.immutableSortedCopy(stream));
-        } finally {
-            stream.close();
-        }
+                : ObjectStreams.transform(baseStream, data.projection(query.getViewType()));
     }
 
     @Override
@@ -180,6 +165,7 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         }
 
         Map<Long, List<Entity>> groups = data.grouped(grpCol);
+        Function<Entity, E> projection = data.projection(query.getViewType());
         return new AbstractObjectStream<IdBox<List<E>>>() {
             Iterator<Map.Entry<Long, List<Entity>>> iter = groups.entrySet().iterator();
 
@@ -194,7 +180,7 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
                     if (ord != null) {
                         data = data.sorted(ord);
                     }
-                    List<E> list = data.map(Entities.projection(query.getViewType()))
+                    List<E> list = data.map(projection)
                                        .collect(Collectors.toList());
                     if (!list.isEmpty()) {
                         return IdBox.create(entry.getKey(), list);
@@ -25,6 +25,8 @@
 package org.lenskit.data.ratings;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.context.UserContext;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.util.IdBox;
@@ -37,30 +39,41 @@ import javax.inject.Inject;
 import java.util.List;
 
 /**
- * Rating vector source that extracts user ratings from the database.
+ * Rating vector source that extracts user ratings from the database.  While a {@linkplain UserContext user context}
+ * is open, the user's rating vector is fetched only once.
  */
 @ThreadSafe
 public class StandardRatingVectorPDAO implements RatingVectorPDAO {
     private final DataAccessObject dao;
-    private volatile IdBox<Long2DoubleMap> cachedValue;
+    private final UserContextManager contexts;
+    private final UserContext.Key<Long2DoubleMap> vectorKey = new UserContext.Key<>("rating-vector");
+
+    /**
+     * Construct a rating vector source with no user context support.
+     * @param dao The data access object.
+     */
+    public StandardRatingVectorPDAO(DataAccessObject dao) {
+        this(dao, new UserContextManager());
+    }
 
     /**
      * Construct a rating vector source.
      * @param dao The data access object.
+     * @param ctx The user context manager.
      */
     @Inject
-    public StandardRatingVectorPDAO(DataAccessObject dao) {
+    public StandardRatingVectorPDAO(DataAccessObject dao, UserContextManager ctx) {
         this.dao = dao;
+        contexts = ctx;
     }
 
     @Nonnull
     @Override
     public Long2DoubleMap userRatingVector(long user) {
-        IdBox<Long2DoubleMap> cached = cachedValue;
-        if (cached != null && cached.getId() == user) {
-            return cached.getValue();
-        }
+        return contexts.lookup(user, vectorKey, this::fetchRatingVector);
+    }
 
+    private Long2DoubleMap fetchRatingVector(long user) {
         Long2DoubleMap map;
 
         try (ObjectStream<Rating> stream = dao.query(Rating.class)
@@ -24,8 +24,10 @@
  */
 package org.lenskit.data.store;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.data.dao.SortKey;
 import org.lenskit.data.entities.*;
@@ -33,8 +35,10 @@ import org.lenskit.data.entities.*;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.AbstractCollection;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * A collection of entities of a single type.  This collection augments the `Collection` interface with logic for
@@ -137,6 +141,59 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
     @Nonnull
     public abstract List<Entity> find(String name, Object value);
 
+    /**
+     * Find entities matching several attribute values, in a requested order.  The default
+     * implementation looks up the first attribute, filters the results on the remaining attributes,
+     * and sorts the entities unless the collection is already sorted by {@code sort}; collections with
+     * richer indexes override it to plan the search.
+     *
+     * @param filters The attribute values to match; an entity must match all of them.
+     * @param sort The sort keys for the results (may be empty).
+     * @return The matching entities, in order.
+     */
+    @Nonnull
+    public Collection<Entity> find(List<Attribute<?>> filters, List<SortKey> sort) {
+        Collection<Entity> results;
+        if (filters.isEmpty()) {
+            results = this;
+        } else {
+            results = find(filters.get(0));
+            if (filters.size() > 1) {
+                List<Attribute<?>> rest = filters.subList(1, filters.size());
+                results = results.stream()
+                                 .filter(e -> rest.stream().allMatch(a -> a.getValue().equals(e.maybeGet(a.getTypedName()))))
+                                 .collect(Collectors.toList());
+            }
+        }
+
+        if (!isSortedBy(sort)) {
+            Ordering<Entity> ord = null;
+            for (SortKey k: sort) {
+                ord = ord == null ? k.ordering() : ord.compound(k.ordering());
+            }
+            results = ord.immutableSortedCopy(results);
+        }
+        return results;
+    }
+
+    /**
+     * Query whether this collection's iteration order already satisfies a sort.
+     * @param sort The sort keys.
+     * @return {@code true} if {@code sort} is a prefix of {@link #getSortKeys()}.
+     */
+    protected boolean isSortedBy(List<SortKey> sort) {
+        List<SortKey> dataKeys = getSortKeys();
+        if (sort.size() > dataKeys.size()) {
+            return false;
+        }
+        for (int i = 0; i < sort.size(); i++) {
+            if (!sort.get(i).equals(dataKeys.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get a grouped view of the data.
      * @param attr The grouping attribute.
@@ -144,6 +201,20 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
      */
     public abstract Map<Long,List<Entity>> grouped(TypedName<Long> attr);
 
+    /**
+     * Get a function to project entities from this collection to a view class.  Collections may
+     * override this to build views straight from their internal storage; the default implementation
+     * uses {@link Entities#projection(Class)}.  The resulting function also accepts entities from
+     * other sources.
+     *
+     * @param viewClass The view class.
+     * @param <E> The view type.
+     * @return A function projecting entities to {@code viewClass}.
+     */
+    public <E extends Entity> Function<Entity,E> projection(Class<E> viewClass) {
+        return Entities.projection(viewClass);
+    }
+
     /**
      * Get the sort keys, if this collection stores attributes in sorted order.
      * @return The sort keys.
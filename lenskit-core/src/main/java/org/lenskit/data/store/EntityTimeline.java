@@ -0,0 +1,189 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * A sequence of entities (e.g. ratings in timestamp order) that can be viewed as a data access
+ * object containing only its first *n* entries.  The entities are packed once; each prefix DAO is a
+ * view over the same storage and indexes that hides entities at or beyond the cutoff, so moving
+ * the cutoff costs a binary search rather than re-packing the history.  This is what temporal
+ * evaluation needs to replay a log of events.
+ *
+ * Entity types derived by default from the stored entities (such as users and items from
+ * ratings) are included, and each derived entity appears in a prefix once an entity referencing
+ * it has.
+ *
+ * Index lookups in a prefix are cheapest when entity IDs increase along the sequence; otherwise
+ * the positions found in an index are filtered one by one.
+ */
+public final class EntityTimeline {
+    private static final Logger logger = LoggerFactory.getLogger(EntityTimeline.class);
+
+    private final int size;
+    private final List<PackedEntityCollection> collections;
+
+    private EntityTimeline(int n, List<PackedEntityCollection> colls) {
+        size = n;
+        collections = colls;
+    }
+
+    /**
+     * Create a timeline from a sequence of entities.  If an entity ID appears more than once for
+     * the same type, only its first occurrence is kept.
+     *
+     * @param entities The entities, in timeline order.
+     * @return The entity timeline.
+     */
+    public static EntityTimeline create(List<? extends Entity> entities) {
+        Map<EntityType, List<Entity>> byType = new LinkedHashMap<>();
+        Map<EntityType, IntArrayList> ranksByType = new HashMap<>();
+        int n = entities.size();
+        for (int i = 0; i < n; i++) {
+            Entity e = entities.get(i);
+            byType.computeIfAbsent(e.getType(), t -> new ArrayList<>()).add(e);
+            ranksByType.computeIfAbsent(e.getType(), t -> new IntArrayList()).add(i);
+        }
+
+        List<PackedEntityCollection> colls = new ArrayList<>();
+        for (Map.Entry<EntityType, List<Entity>> te: byType.entrySet()) {
+            EntityType type = te.getKey();
+            colls.add(packEntities(type, te.getValue(), ranksByType.get(type)));
+        }
+
+        for (Map.Entry<EntityType, List<Entity>> te: byType.entrySet()) {
+            EntityDefaults defaults = EntityDefaults.lookup(te.getKey());
+            if (defaults == null) {
+                continue;
+            }
+            for (EntityDerivation deriv: defaults.getDefaultDerivations()) {
+                if (byType.containsKey(deriv.getType())) {
+                    // explicit entities of this type take precedence
+                    continue;
+                }
+                colls.add(deriveEntities(deriv, te.getValue(), ranksByType.get(te.getKey())));
+            }
+        }
+
+        logger.debug("packed timeline of {} entities into {} collections", n, colls.size());
+        return new EntityTimeline(n, colls);
+    }
+
+    private static PackedEntityCollection packEntities(EntityType type, List<Entity> entities, IntArrayList ranks) {
+        List<TypedName<?>> attrs = new ArrayList<>();
+        attrs.add(CommonAttributes.ENTITY_ID);
+        Set<TypedName<?>> seen = new HashSet<>(attrs);
+        for (Entity e: entities) {
+            for (TypedName<?> name: e.getTypedAttributeNames()) {
+                if (seen.add(name)) {
+                    attrs.add(name);
+                }
+            }
+        }
+        EntityDefaults defaults = EntityDefaults.lookup(type);
+        Class<? extends EntityBuilder> ebc = defaults != null ? defaults.getDefaultBuilder() : null;
+        PackedEntityCollectionBuilder builder =
+                new PackedEntityCollectionBuilder(type, AttributeSet.create(attrs), ebc);
+        builder.addIndex(CommonAttributes.USER_ID);
+        builder.addIndex(CommonAttributes.ITEM_ID);
+
+        Long2IntMap firstRank = new Long2IntOpenHashMap(entities.size());
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            if (!firstRank.containsKey(e.getId())) {
+                firstRank.put(e.getId(), ranks.getInt(i));
+                builder.add(e);
+            }
+        }
+        return rank((PackedEntityCollection) builder.build(), firstRank);
+    }
+
+    private static PackedEntityCollection deriveEntities(EntityDerivation deriv, List<Entity> sources, IntArrayList ranks) {
+        TypedName<Long> attr = deriv.getAttribute();
+        Long2IntMap firstRank = new Long2IntOpenHashMap();
+        for (int i = 0; i < sources.size(); i++) {
+            Entity e = sources.get(i);
+            if (e.hasAttribute(attr)) {
+                long key = e.getLong(attr);
+                if (!firstRank.containsKey(key)) {
+                    firstRank.put(key, ranks.getInt(i));
+                }
+            }
+        }
+        long[] keys = firstRank.keySet().toLongArray();
+        Arrays.sort(keys);
+        PackedEntityCollectionBuilder builder =
+                new PackedEntityCollectionBuilder(deriv.getType(), AttributeSet.create(CommonAttributes.ENTITY_ID), null);
+        for (long k: keys) {
+            builder.add(Entities.create(deriv.getType(), k));
+        }
+        return rank((PackedEntityCollection) builder.build(), firstRank);
+    }
+
+    private static PackedEntityCollection rank(PackedEntityCollection coll, Long2IntMap firstRank) {
+        int[] ranks = new int[coll.size()];
+        for (Long2IntMap.Entry e: firstRank.long2IntEntrySet()) {
+            int pos = coll.positionOf(e.getLongKey());
+            assert pos >= 0;
+            ranks[pos] = e.getIntValue();
+        }
+        return coll.withRanks(ranks);
+    }
+
+    /**
+     * Get the number of entities in the timeline.
+     * @return The number of entities.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a DAO containing the first entities of the timeline.
+     *
+     * @param n The number of entities to include, in the range [0,{@link #size()}].
+     * @return A DAO containing the first `n` entities of the timeline and the entities derived from
+     *         them.
+     */
+    public DataAccessObject getPrefixDAO(int n) {
+        Preconditions.checkElementIndex(n, size + 1, "prefix length");
+        List<EntityCollection> views = new ArrayList<>(collections.size());
+        for (PackedEntityCollection coll: collections) {
+            views.add(coll.prefix(n));
+        }
+        return EntityCollectionDAO.fromCollections(views);
+    }
+}
@@ -24,38 +24,44 @@
  */
 package org.lenskit.data.store;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntList;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntLists;
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import org.lenskit.util.keys.SortedKeyIndex;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
- * Index for packed collections.
+ * Index for packed collections.  Position lists are in increasing order.
  */
-class PackIndex {
-    private final Map<?, IntList> indexMap;
+abstract class PackIndex {
+    /**
+     * Get the distinct values in the index.
+     * @return The set of indexed values.
+     */
+    abstract Set<?> getValues();
 
-    PackIndex(Map<?,IntList> map) {
-        indexMap = map;
-    }
-
-    Set<?> getValues() {
-        return indexMap.keySet();
-    }
+    /**
+     * Get the positions of entities with a value.
+     * @param value The value.
+     * @return The positions of entities with value {@code value}.
+     */
+    abstract IntList getPositions(Object value);
 
-    IntList getPositions(Object value) {
-        IntList res = indexMap.get(value);
-        if (res == null) {
-            return IntLists.EMPTY_LIST;
-        } else {
-            return res;
-        }
+    /**
+     * Get the positions of entities with a long value.
+     * @param value The value.
+     * @return The positions of entities with value {@code value}.
+     */
+    IntList getPositions(long value) {
+        return getPositions((Object) value);
     }
 
     interface Builder {
@@ -63,11 +69,122 @@ class PackIndex {
 
         /**
          * Build the index. The state of the builder is undefined after this operation.
-         * @return The new index.s
+         * @return The new index.
          */
         PackIndex build();
     }
 
+    /**
+     * Hash index for arbitrary values.
+     */
+    private static class MapIndex extends PackIndex {
+        private final Map<?, IntList> indexMap;
+
+        MapIndex(Map<?,IntList> map) {
+            indexMap = map;
+        }
+
+        @Override
+        Set<?> getValues() {
+            return indexMap.keySet();
+        }
+
+        @Override
+        IntList getPositions(Object value) {
+            IntList res = indexMap.get(value);
+            if (res == null) {
+                return IntLists.EMPTY_LIST;
+            } else {
+                return res;
+            }
+        }
+    }
+
+    /**
+     * Compressed sparse row index for long values.  It stores the sorted distinct values, an array of offsets,
+     * and a single array of positions grouped by value, instead of one list object per value.
+     */
+    static class LongIndex extends PackIndex {
+        private final SortedKeyIndex keys;
+        private final int[] offsets;
+        private final int[] positions;
+
+        /**
+         * Create a new long index.
+         * @param keys The distinct values.
+         * @param offsets The offsets into {@code positions} of each key's positions; has one more entry than
+         *                {@code keys}.
+         * @param positions The positions, grouped by key.
+         */
+        LongIndex(SortedKeyIndex keys, int[] offsets, int[] positions) {
+            assert offsets.length == keys.size() + 1;
+            this.keys = keys;
+            this.offsets = offsets;
+            this.positions = positions;
+        }
+
+        SortedKeyIndex getKeyIndex() {
+            return keys;
+        }
+
+        @Override
+        Set<?> getValues() {
+            return keys.keySet();
+        }
+
+        @Override
+        IntList getPositions(Object value) {
+            if (value instanceof Long) {
+                return getPositions(((Long) value).longValue());
+            } else {
+                return IntLists.EMPTY_LIST;
+            }
+        }
+
+        @Override
+        IntList getPositions(long value) {
+            int k = keys.tryGetIndex(value);
+            if (k < 0) {
+                return IntLists.EMPTY_LIST;
+            } else {
+                return new PositionList(positions, offsets[k], offsets[k+1]);
+            }
+        }
+    }
+
+    /**
+     * Read-only view of a range of a position array.
+     */
+    private static class PositionList extends AbstractIntList {
+        private final int[] array;
+        private final int start;
+        private final int end;
+
+        PositionList(int[] arr, int s, int e) {
+            array = arr;
+            start = s;
+            end = e;
+        }
+
+        @Override
+        public int getInt(int i) {
+            if (i < 0 || i >= end - start) {
+                throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size());
+            }
+            return array[start + i];
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+
+        @Override
+        public int[] toIntArray() {
+            return Arrays.copyOfRange(array, start, end);
+        }
+    }
+
     static class GenericBuilder implements Builder {
         Map<Object,IntArrayList> index = new HashMap<>();
 
@@ -87,29 +204,65 @@ class PackIndex {
                                                                           return e.getValue();
                                                                       }));
             index.clear();
-            return new PackIndex(map);
+            return new MapIndex(map);
         }
     }
 
+    /**
+     * Builder for long indexes.  Values and positions are buffered in parallel arrays, then grouped with a
+     * counting sort.
+     */
     static class LongBuilder implements Builder {
-        Long2ObjectMap<IntArrayList> index = new Long2ObjectOpenHashMap<>();
+        LongArrayList values = new LongArrayList();
+        IntArrayList positions = new IntArrayList();
 
         @Override
         public void add(Object value, int idx) {
-            long v = (long) value;
-            IntArrayList list = index.computeIfAbsent(v, k -> new IntArrayList());
-            list.add(idx);
+            if (value != null) {
+                values.add((long) value);
+                positions.add(idx);
+            }
         }
 
         @Override
         public PackIndex build() {
-            Long2ObjectMap<IntList> map = new Long2ObjectOpenHashMap<>();
-            for (Long2ObjectMap.Entry<IntArrayList> e: index.long2ObjectEntrySet()) {
-                e.getValue().trim();
-                map.put(e.getLongKey(), e.getValue());
+            final int n = values.size();
+            long[] vals = values.elements();
+
+            long[] sorted = Arrays.copyOf(vals, n);
+            LongArrays.radixSort(sorted);
+            int nkeys = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || sorted[i] != sorted[i-1]) {
+                    sorted[nkeys++] = sorted[i];
+                }
             }
-            index.clear();
-            return new PackIndex(map);
+            // trim so the index does not hold a slot for every value
+            SortedKeyIndex keys = SortedKeyIndex.wrap(Arrays.copyOf(sorted, nkeys), nkeys);
+            sorted = null;
+
+            // counting sort: count positions per key, then place them in input order
+            int[] keyPos = new int[n];
+            int[] offsets = new int[nkeys + 1];
+            for (int i = 0; i < n; i++) {
+                int k = keys.tryGetIndex(vals[i]);
+                assert k >= 0;
+                keyPos[i] = k;
+                offsets[k + 1] += 1;
+            }
+            for (int k = 0; k < nkeys; k++) {
+                offsets[k + 1] += offsets[k];
+            }
+            int[] next = Arrays.copyOf(offsets, nkeys);
+            int[] grouped = new int[n];
+            int[] pos = positions.elements();
+            for (int i = 0; i < n; i++) {
+                grouped[next[keyPos[i]]++] = pos[i];
+            }
+
+            values = null;
+            positions = null;
+            return new LongIndex(keys, offsets, grouped);
         }
     }
 }
@@ -24,13 +24,18 @@
  */
 package org.lenskit.data.store;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.primitives.Longs;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
 import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
 import it.unimi.dsi.fastutil.longs.AbstractLongSet;
 import it.unimi.dsi.fastutil.longs.LongIterator;
@@ -38,7 +43,10 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.lenskit.data.dao.SortKey;
+import org.lenskit.data.dao.SortOrder;
 import org.lenskit.data.entities.*;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingBuilder;
 import org.lenskit.util.BinarySearch;
 import org.lenskit.util.describe.Describable;
 import org.lenskit.util.describe.DescriptionWriter;
@@ -64,17 +72,38 @@ class PackedEntityCollection extends EntityCollection implements Describable {
     private final AttrStore[] attrStores;
     private final AttrSetter[] storeSetters;
     private final PackIndex[] indexes;
+    private final Class<? extends EntityBuilder> entityBuilderClass;
     private final int size;
+    // when non-null, only entities ranked below the limit are visible
+    @Nullable
+    private final Ranking ranking;
+    private final int limit;
+    private final int visibleCount;
     private transient HashCode contentHash;
     private ConcurrentHashMap<Integer,AttributeSet> attrSets = new ConcurrentHashMap<>();
+    /**
+     * Intersect an indexed attribute's positions with the candidates when there are at most this many times as
+     * many of them; otherwise, check the candidates' values directly.
+     */
+    private static final int INTERSECT_RATIO = 8;
+    private ConcurrentHashMap<Class<?>,Optional<IntFunction<Entity>>> viewReaders = new ConcurrentHashMap<>();
 
     PackedEntityCollection(EntityType et, AttributeSet attrs, AttrStore[] stores, PackIndex[] idxes, Class<? extends EntityBuilder> ebc) {
+        this(et, attrs, stores, idxes, ebc, null, Integer.MAX_VALUE);
+    }
+
+    private PackedEntityCollection(EntityType et, AttributeSet attrs, AttrStore[] stores, PackIndex[] idxes,
+                                   Class<? extends EntityBuilder> ebc, @Nullable Ranking rank, int lim) {
         entityType = et;
         attributes = attrs;
         attrStores = stores;
         indexes = idxes;
+        entityBuilderClass = ebc;
         idStore = (LongAttrStore) stores[0];
         size = idStore.size();
+        ranking = rank;
+        limit = lim;
+        visibleCount = rank == null ? size : rank.countBelow(lim);
 
         storeSetters = new AttrSetter[stores.length];
         for (int i = 0; i < stores.length; i++) {
@@ -89,8 +118,14 @@ class PackedEntityCollection extends EntityCollection implements Describable {
             }
         }
 
+        RatingReader ratingReader = null;
+        if (RatingBuilder.class.equals(ebc)) {
+            ratingReader = RatingReader.create(this);
+        }
         if (ebc == null || ebc.equals(BasicEntityBuilder.class)) {
             entityBuilder = IndirectEntity::new;
+        } else if (ratingReader != null) {
+            entityBuilder = ratingReader;
         } else {
             entityBuilder = new Reconstitutor(ebc);
         }
@@ -101,6 +136,81 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         return entityType;
     }
 
+    /**
+     * Attach a ranking to the entities in this collection, so that {@linkplain #prefix(int) prefix views}
+     * can be taken.  The collection shares storage with this one.
+     *
+     * @param ranks The rank of the entity at each position.
+     * @return A collection containing all entities of this one, ranked by {@code ranks}.
+     */
+    PackedEntityCollection withRanks(int[] ranks) {
+        Preconditions.checkArgument(ranks.length == size, "rank array has wrong size");
+        return new PackedEntityCollection(entityType, attributes, attrStores, indexes, entityBuilderClass,
+                                          new Ranking(ranks), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get a view of the entities ranked below a limit.  The view shares storage and indexes with
+     * this collection; creating it only computes its size.
+     *
+     * @param n The rank limit.
+     * @return A view of the entities whose rank is less than {@code n}.
+     */
+    PackedEntityCollection prefix(int n) {
+        Preconditions.checkState(ranking != null, "collection is not ranked");
+        return new PackedEntityCollection(entityType, attributes, attrStores, indexes, entityBuilderClass,
+                                          ranking, n);
+    }
+
+    /**
+     * Find the storage position of an entity, ignoring any rank limit.
+     * @param id The entity ID.
+     * @return The position, or a negative value if the ID is not stored.
+     */
+    int positionOf(long id) {
+        return new IdSearch(id).search(0, size);
+    }
+
+    private boolean isVisible(int pos) {
+        return ranking == null || ranking.ranks[pos] < limit;
+    }
+
+    /**
+     * Restrict a list of positions (in increasing order) to the visible ones.
+     */
+    private IntList restrict(IntList positions) {
+        if (ranking == null || visibleCount == size) {
+            return positions;
+        } else if (ranking.monotone) {
+            // ranks increase with position, so the visible positions are a prefix of the list
+            int lo = 0, hi = positions.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ranking.ranks[positions.getInt(mid)] < limit) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return positions.subList(0, lo);
+        } else {
+            IntArrayList visible = new IntArrayList();
+            int n = positions.size();
+            for (int i = 0; i < n; i++) {
+                int pos = positions.getInt(i);
+                if (ranking.ranks[pos] < limit) {
+                    visible.add(pos);
+                }
+            }
+            return visible;
+        }
+    }
+
+    private IntStream positions() {
+        IntStream all = IntStream.range(0, size);
+        return visibleCount == size ? all : all.filter(this::isVisible);
+    }
+
     @Override
     public LongSet idSet() {
         return new IdSet();
@@ -110,7 +220,7 @@ class PackedEntityCollection extends EntityCollection implements Describable {
     @Override
     public Entity lookup(long id) {
         int pos = new IdSearch(id).search(0, size);
-        if (pos >= 0) {
+        if (pos >= 0 && isVisible(pos)) {
             return entityBuilder.apply(pos);
         } else {
             return null;
@@ -127,7 +237,7 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
         PackIndex index = indexes[idx];
         if (index != null) {
-            return new EntityList(index.getPositions(value));
+            return new EntityList(restrict(index.getPositions(value)));
         } else {
             return stream().filter(e -> value.equals(e.maybeGet(name)))
                            .collect(Collectors.toList());
@@ -150,7 +260,7 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
         PackIndex index = indexes[idx];
         if (index != null) {
-            IntList positions = index.getPositions(value);
+            IntList positions = restrict(index.getPositions(value));
             return new EntityList(positions);
         } else {
             return stream().filter(e -> value.equals(e.maybeGet(name)))
@@ -169,10 +279,20 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
         PackIndex index = indexes[idx];
         if (index != null) {
-            return index.getValues()
-                    .stream()
-                    .collect(Collectors.toMap(l -> (Long) l,
-                                              l -> new EntityList(index.getPositions(l))));
+            if (visibleCount == size) {
+                return index.getValues()
+                            .stream()
+                            .collect(Collectors.toMap(l -> (Long) l,
+                                                      l -> new EntityList(index.getPositions(((Long) l).longValue()))));
+            }
+            Map<Long, List<Entity>> groups = new HashMap<>();
+            for (Object l: index.getValues()) {
+                IntList positions = restrict(index.getPositions(((Long) l).longValue()));
+                if (!positions.isEmpty()) {
+                    groups.put((Long) l, new EntityList(positions));
+                }
+            }
+            return groups;
         } else {
             return stream()
                     .filter(e -> e.hasAttribute(attr))
@@ -180,14 +300,243 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation plans the search from its indexes.  It starts from the most selective
+     * indexed attribute and intersects the position lists of other indexed attributes when they are
+     * not much larger than the current candidates.  Remaining attributes are checked against the
+     * column stores.  Sorting is done on positions, comparing column values directly.
+     */
+    @Nonnull
+    @Override
+    public Collection<Entity> find(List<Attribute<?>> filters, List<SortKey> sort) {
+        IntList positions = filters.isEmpty() ? null : restrict(findPositions(filters));
+        if (isSortedBy(sort)) {
+            return positions == null ? this : new EntityList(positions);
+        }
+
+        IntComparator order = positionOrder(sort);
+        if (order == null) {
+            // some sort attribute is not stored here, or needs entity-level comparison
+            return super.find(filters, sort);
+        }
+        int[] sorted = positions == null
+                ? positions().toArray()
+                : positions.toIntArray();
+        if (hasMissingValues(sorted, sort)) {
+            // let the entity ordering deal with missing values
+            return super.find(filters, sort);
+        }
+        // merge sort is stable, so ties stay in ID order
+        IntArrays.mergeSort(sorted, order);
+        return new EntityList(IntArrayList.wrap(sorted));
+    }
+
+    /**
+     * Find the positions of entities matching all filters.
+     * @param filters The filters (non-empty).
+     * @return The list of matching positions, in increasing order.
+     */
+    private IntList findPositions(List<Attribute<?>> filters) {
+        int nf = filters.size();
+        int[] attrIdx = new int[nf];
+        List<IntList> indexed = new ArrayList<>(nf);
+        IntList indexedFilters = new IntArrayList(nf);
+        for (int i = 0; i < nf; i++) {
+            Attribute<?> f = filters.get(i);
+            attrIdx[i] = attributes.lookup(f.getTypedName());
+            if (attrIdx[i] < 0) {
+                return IntLists.EMPTY_LIST;
+            }
+            PackIndex index = indexes[attrIdx[i]];
+            if (index != null) {
+                indexed.add(index.getPositions(f.getValue()));
+                indexedFilters.add(i);
+            }
+        }
+
+        boolean[] applied = new boolean[nf];
+        IntList result = null;
+        if (!indexed.isEmpty()) {
+            // most selective first
+            Integer[] byCount = new Integer[indexed.size()];
+            for (int i = 0; i < byCount.length; i++) {
+                byCount[i] = i;
+            }
+            Arrays.sort(byCount, Comparator.comparingInt(i -> indexed.get(i).size()));
+            for (int j: byCount) {
+                IntList list = indexed.get(j);
+                if (result == null) {
+                    result = list;
+                } else if (list.size() <= INTERSECT_RATIO * result.size()) {
+                    result = intersect(result, list);
+                } else {
+                    // cheaper to check the remaining candidates' values
+                    continue;
+                }
+                applied[indexedFilters.getInt(j)] = true;
+                if (result.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+
+        boolean done = true;
+        for (boolean a: applied) {
+            done &= a;
+        }
+        if (done) {
+            return result;
+        }
+
+        IntArrayList filtered = new IntArrayList();
+        int n = result == null ? size : result.size();
+        for (int k = 0; k < n; k++) {
+            int pos = result == null ? k : result.getInt(k);
+            boolean matches = true;
+            for (int i = 0; matches && i < nf; i++) {
+                if (!applied[i]) {
+                    matches = filters.get(i).getValue().equals(attrStores[attrIdx[i]].get(pos));
+                }
+            }
+            if (matches) {
+                filtered.add(pos);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Intersect two sorted position lists.
+     */
+    private static IntList intersect(IntList a, IntList b) {
+        IntArrayList out = new IntArrayList(Math.min(a.size(), b.size()));
+        int i = 0, j = 0;
+        int na = a.size(), nb = b.size();
+        while (i < na && j < nb) {
+            int pa = a.getInt(i);
+            int pb = b.getInt(j);
+            if (pa < pb) {
+                i++;
+            } else if (pb < pa) {
+                j++;
+            } else {
+                out.add(pa);
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    private boolean hasMissingValues(int[] positions, List<SortKey> sort) {
+        for (SortKey key: sort) {
+            AttrStore store = attrStores[attributes.lookup(key.getAttribute())];
+            for (int pos: positions) {
+                if (store.isNull(pos)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a comparator over entity positions that implements a sort order.
+     * @param sort The sort keys.
+     * @return The comparator, or {@code null} if the sort cannot be done on positions.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private IntComparator positionOrder(List<SortKey> sort) {
+        IntComparator order = null;
+        for (SortKey key: sort) {
+            if (key.hasCustomComparator()) {
+                return null;
+            }
+            int idx = attributes.lookup(key.getAttribute());
+            if (idx < 0) {
+                return null;
+            }
+            AttrStore store = attrStores[idx];
+            IntComparator cmp;
+            if (store instanceof LongAttrStore) {
+                LongAttrStore ls = (LongAttrStore) store;
+                cmp = (p1, p2) -> Long.compare(ls.getLong(p1), ls.getLong(p2));
+            } else if (store instanceof DoubleAttrStore) {
+                DoubleAttrStore ds = (DoubleAttrStore) store;
+                cmp = (p1, p2) -> Double.compare(ds.getDouble(p1), ds.getDouble(p2));
+            } else {
+                cmp = (p1, p2) -> ((Comparable) store.get(p1)).compareTo(store.get(p2));
+            }
+            if (SortOrder.DESCENDING.equals(key.getOrder())) {
+                IntComparator asc = cmp;
+                cmp = (p1, p2) -> asc.compare(p2, p1);
+            }
+            if (order == null) {
+                order = cmp;
+            } else {
+                IntComparator first = order;
+                IntComparator second = cmp;
+                order = (p1, p2) -> {
+                    int c = first.compare(p1, p2);
+                    return c != 0 ? c : second.compare(p1, p2);
+                };
+            }
+        }
+        return order;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation builds views of this collection's entities directly from the column stores,
+     * without going through the entities' attribute lists.  {@link Rating} views are built with
+     * compiled code; other views with a {@link BuiltBy} builder use typed column setters.
+     */
+    @Override
+    public <E extends Entity> Function<Entity,E> projection(Class<E> viewClass) {
+        Function<Entity,E> fallback = Entities.projection(viewClass);
+        IntFunction<Entity> reader = viewReaders.computeIfAbsent(viewClass, this::makeViewReader)
+                                                .orElse(null);
+        if (reader == null) {
+            return fallback;
+        }
+
+        return e -> {
+            if (viewClass.isInstance(e)) {
+                return viewClass.cast(e);
+            } else if (e instanceof IndirectEntity && ((IndirectEntity) e).getCollection() == this) {
+                return viewClass.cast(reader.apply(((IndirectEntity) e).position));
+            } else {
+                return fallback.apply(e);
+            }
+        };
+    }
+
+    private Optional<IntFunction<Entity>> makeViewReader(Class<?> viewClass) {
+        if (viewClass.equals(Rating.class)) {
+            RatingReader reader = RatingReader.create(this);
+            if (reader != null) {
+                return Optional.of(reader);
+            }
+        }
+        BuiltBy bb = viewClass.getAnnotation(BuiltBy.class);
+        if (bb != null) {
+            return Optional.of(new Reconstitutor(bb.value()));
+        } else {
+            return Optional.empty();
+        }
+    }
+
     @Override
     public List<SortKey> getSortKeys() {
         return ImmutableList.of(SortKey.create(CommonAttributes.ENTITY_ID));
     }
 
     public Stream<Entity> stream() {
-        return IntStream.range(0, size)
-                        .mapToObj(entityBuilder);
+        return positions().mapToObj(entityBuilder);
     }
 
     @Override
@@ -197,29 +546,29 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
     @Override
     public int size() {
-        return idStore.size();
+        return visibleCount;
     }
 
     @Override
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
                 .append("type", entityType)
-                .append("entities", size)
+                .append("entities", visibleCount)
                 .build();
     }
 
     @Override
     public void describeTo(DescriptionWriter writer) {
-        writer.putField("entity_count", size);
+        writer.putField("entity_count", visibleCount);
         writer.putList("attributes", attributes);
         if (contentHash == null) {
             Hasher hash = Hashing.md5().newHasher();
-            for (int i = 0; i < size; i++) {
+            positions().forEach(i -> {
                 hash.putLong(idStore.getLong(i));
                 for (int j = 1; j < attributes.size(); j++) {
                     hash.putInt(Objects.hashCode(attrStores[j].get(i)));
                 }
-            }
+            });
             contentHash = hash.hash();
         }
         writer.putField("content_hash", contentHash);
@@ -233,6 +582,10 @@ class PackedEntityCollection extends EntityCollection implements Describable {
             position = pos;
         }
 
+        PackedEntityCollection getCollection() {
+            return PackedEntityCollection.this;
+        }
+
         @Override
         public Set<TypedName<?>> getTypedAttributeNames() {
             int missing = 0;
@@ -380,7 +733,13 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
         @Override
         public int size() {
-            return idStore.size();
+            return visibleCount;
+        }
+
+        @Override
+        public boolean contains(long id) {
+            int pos = positionOf(id);
+            return pos >= 0 && isVisible(pos);
         }
     }
 
@@ -389,7 +748,7 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
         @Override
         public long nextLong() {
-            if (pos >= idStore.size()) {
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
             return idStore.getLong(pos++);
@@ -397,7 +756,47 @@ class PackedEntityCollection extends EntityCollection implements Describable {
 
         @Override
         public boolean hasNext() {
-            return pos < idStore.size();
+            while (pos < size && !isVisible(pos)) {
+                pos++;
+            }
+            return pos < size;
+        }
+    }
+
+    /**
+     * Ranks of the entities in a collection, used for prefix views.
+     */
+    private static final class Ranking {
+        final int[] ranks;
+        final int[] sorted;
+        // whether ranks increase with position
+        final boolean monotone;
+
+        Ranking(int[] rs) {
+            ranks = rs;
+            sorted = rs.clone();
+            IntArrays.radixSort(sorted);
+            boolean mono = true;
+            for (int i = 1; mono && i < rs.length; i++) {
+                mono = rs[i - 1] < rs[i];
+            }
+            monotone = mono;
+        }
+
+        /**
+         * Count the entities ranked below a limit.
+         */
+        int countBelow(int lim) {
+            int lo = 0, hi = sorted.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < lim) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
         }
     }
 
@@ -419,6 +818,72 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         }
     }
 
+    /**
+     * Build ratings straight from the user, item, rating and timestamp columns.
+     */
+    private static class RatingReader implements IntFunction<Entity> {
+        private final PackedEntityCollection collection;
+        private final LongAttrStore users;
+        private final LongAttrStore items;
+        private final DoubleAttrStore ratings;
+        @Nullable
+        private final LongAttrStore timestamps;
+        private final IntFunction<Entity> fallback;
+
+        private RatingReader(PackedEntityCollection ec, LongAttrStore us, LongAttrStore is,
+                             DoubleAttrStore rs, @Nullable LongAttrStore ts) {
+            collection = ec;
+            users = us;
+            items = is;
+            ratings = rs;
+            timestamps = ts;
+            fallback = ec.new Reconstitutor(RatingBuilder.class);
+        }
+
+        /**
+         * Create a rating reader for a collection.
+         * @return The reader, or {@code null} if the collection does not store rating columns in primitive form.
+         */
+        @Nullable
+        static RatingReader create(PackedEntityCollection ec) {
+            AttrStore us = ec.findStore(CommonAttributes.USER_ID);
+            AttrStore is = ec.findStore(CommonAttributes.ITEM_ID);
+            AttrStore rs = ec.findStore(CommonAttributes.RATING);
+            AttrStore ts = ec.findStore(CommonAttributes.TIMESTAMP);
+            if (!(us instanceof LongAttrStore && is instanceof LongAttrStore && rs instanceof DoubleAttrStore)) {
+                return null;
+            }
+            if (ts != null && !(ts instanceof LongAttrStore)) {
+                return null;
+            }
+            return new RatingReader(ec, (LongAttrStore) us, (LongAttrStore) is,
+                                    (DoubleAttrStore) rs, (LongAttrStore) ts);
+        }
+
+        @Override
+        public Entity apply(int pos) {
+            if (users.isNull(pos) || items.isNull(pos) || ratings.isNull(pos)) {
+                // let the builder report the missing attribute
+                return fallback.apply(pos);
+            }
+            RatingBuilder rb = new RatingBuilder(collection.entityType);
+            rb.setId(collection.idStore.getLong(pos))
+              .setUserId(users.getLong(pos))
+              .setItemId(items.getLong(pos))
+              .setRating(ratings.getDouble(pos));
+            if (timestamps != null && !timestamps.isNull(pos)) {
+                rb.setTimestamp(timestamps.getLong(pos));
+            }
+            return rb.build();
+        }
+    }
+
+    @Nullable
+    private AttrStore findStore(TypedName<?> name) {
+        int idx = attributes.lookup(name);
+        return idx >= 0 ? attrStores[idx] : null;
+    }
+
     private static abstract class AttrSetter {
         abstract void invoke(EntityBuilder eb, int position);
     }
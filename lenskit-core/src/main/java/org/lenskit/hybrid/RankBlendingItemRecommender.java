@@ -24,9 +24,13 @@
  */
 package org.lenskit.hybrid;
 
-import it.unimi.dsi.fastutil.longs.*;
+import com.google.common.base.Throwables;
+import it.unimi.dsi.fastutil.doubles.DoubleHeapPriorityQueue;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.grouplens.grapht.annotation.DefaultImplementation;
 import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.basic.AbstractItemRecommender;
 import org.lenskit.basic.TopNItemRecommender;
@@ -39,6 +43,9 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Qualifier;
 import java.lang.annotation.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Hybrid item recommender that blends the *ranks* produced by two recommenders.
@@ -51,60 +58,139 @@ import java.lang.annotation.*;
  * The final ranking is done by linearly blending the sub-recommender rank scores using the specified blending weight.
  *
  * This method was devised by Max Harper for use in MovieLens.
+ *
+ * If a {@link BlendExecutor} is configured, the right recommender runs on it while the left recommender runs on the
+ * calling thread.  The right recommender then does not see the caller's {@linkplain org.lenskit.context.UserContext
+ * user context}.
  */
 public class RankBlendingItemRecommender extends AbstractItemRecommender {
     private static final Logger logger = LoggerFactory.getLogger(RankBlendingItemRecommender.class);
     private final ItemRecommender leftRecommender;
     private final ItemRecommender rightRecommender;
     private final double blendWeight;
+    @Nullable
+    private final Executor executor;
+
+    /**
+     * Construct a new rank-blending recommender that runs its components sequentially.
+     * @param left The left recommender.
+     * @param right The right recommender.
+     * @param w The blending weight.
+     */
+    public RankBlendingItemRecommender(ItemRecommender left, ItemRecommender right, double w) {
+        this(left, right, w, null);
+    }
 
     /**
      * Construct a new rank-blending recommender.
      * @param left The left recommender.
      * @param right The right recommender.
      * @param w The blending weight.
+     * @param exec The executor for the right recommender, or `null` to run both on the calling thread.
      */
     @Inject
-    public RankBlendingItemRecommender(@Left ItemRecommender left, @Right ItemRecommender right, @BlendWeight double w) {
+    public RankBlendingItemRecommender(@Left ItemRecommender left, @Right ItemRecommender right,
+                                       @BlendWeight double w, @Nullable @BlendExecutor Executor exec) {
         leftRecommender = left;
         rightRecommender = right;
         blendWeight = w;
+        executor = exec;
     }
 
     @Override
     protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
-        ResultList left = leftRecommender.recommendWithDetails(user, -1, candidates, exclude);
-        ResultList right = rightRecommender.recommendWithDetails(user, -1, candidates, exclude);
+        // rank scores depend on the length of each full ranking, so both sides must rank every candidate
+        ResultList left, right;
+        if (executor == null) {
+            left = leftRecommender.recommendWithDetails(user, -1, candidates, exclude);
+            right = rightRecommender.recommendWithDetails(user, -1, candidates, exclude);
+        } else {
+            CompletableFuture<ResultList> rightFuture =
+                    CompletableFuture.supplyAsync(() -> rightRecommender.recommendWithDetails(user, -1, candidates, exclude),
+                                                  executor);
+            try {
+                left = leftRecommender.recommendWithDetails(user, -1, candidates, exclude);
+            } catch (RuntimeException | Error e) {
+                rightFuture.cancel(false);
+                throw e;
+            }
+            try {
+                right = rightFuture.join();
+            } catch (CompletionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw e;
+            }
+        }
         logger.debug("recommending for user {} with {} left and {} right recommendations",
-                     n, left.size(), right.size());
+                     user, left.size(), right.size());
 
         return merge(n, left, right, blendWeight);
     }
 
+    /**
+     * Merge two rankings.  This walks both lists in rank order, threshold-algorithm style, and stops once no item
+     * below the current depth in both lists can score higher than the current top <var>n</var>.
+     */
     static ResultList merge(int n, ResultList left, ResultList right, double weight) {
         Long2IntMap leftRanks = LongUtils.itemRanks(LongUtils.asLongList(left.idList()));
         Long2IntMap rightRanks = LongUtils.itemRanks(LongUtils.asLongList(right.idList()));
         int nl = left.size();
         int nr = right.size();
-        LongSet allItems = new LongOpenHashSet();
-        allItems.addAll(leftRanks.keySet());
-        allItems.addAll(rightRanks.keySet());
+        int depth = Math.max(nl, nr);
 
         ResultAccumulator accum = ResultAccumulator.create(n);
-        for (LongIterator iter = allItems.iterator(); iter.hasNext();) {
-            long item = iter.nextLong();
-            int rl = leftRanks.get(item);
-            int rr = rightRanks.get(item);
-            double s1 = rankToScore(rl, nl);
-            double s2 = rankToScore(rr, nr);
-            double score = weight * s1 + (1.0-weight) * s2;
-            accum.add(new RankBlendResult(item, score,
-                                          rl >= 0 ? left.get(rl) : null, rl,
-                                          rr >= 0 ? right.get(rr) : null, rl));
+        // the n best scores so far, smallest first
+        DoubleHeapPriorityQueue best = n > 0 ? new DoubleHeapPriorityQueue(n + 1) : null;
+        for (int d = 0; d < depth; d++) {
+            if (d < nl) {
+                long item = left.get(d).getId();
+                int rr = rightRanks.get(item);
+                // items ranked higher on the right were added when the walk reached them there
+                if (rr < 0 || rr >= d) {
+                    addBlended(accum, best, n, weight, left, d, right, rr);
+                }
+            }
+            if (d < nr) {
+                long item = right.get(d).getId();
+                int rl = leftRanks.get(item);
+                if (rl < 0 || rl > d) {
+                    addBlended(accum, best, n, weight, left, rl, right, d);
+                }
+            }
+
+            if (best != null && best.size() == n) {
+                // an item not yet seen has rank > d in both lists, or is missing from one
+                double bound = weight * boundScore(d + 1, nl) + (1.0 - weight) * boundScore(d + 1, nr);
+                if (best.firstDouble() > bound) {
+                    break;
+                }
+            }
         }
         return accum.finish();
     }
 
+    private static void addBlended(ResultAccumulator accum, @Nullable DoubleHeapPriorityQueue best, int n, double weight,
+                                   ResultList left, int rl, ResultList right, int rr) {
+        double score = weight * rankToScore(rl, left.size()) + (1.0 - weight) * rankToScore(rr, right.size());
+        Result lr = rl >= 0 ? left.get(rl) : null;
+        Result rres = rr >= 0 ? right.get(rr) : null;
+        long item = lr != null ? lr.getId() : rres.getId();
+        accum.add(new RankBlendResult(item, score, lr, rl, rres, rr));
+        if (best != null) {
+            best.enqueue(score);
+            if (best.size() > n) {
+                best.dequeueDouble();
+            }
+        }
+    }
+
+    /**
+     * Get the best rank score an item at or below a rank can have.
+     */
+    private static double boundScore(int rank, int n) {
+        return rank < n ? rankToScore(rank, n) : 0;
+    }
+
     static double rankToScore(int rank, int n) {
         if (rank < 0) {
             return 0;
@@ -29,6 +29,8 @@ import com.google.common.base.Preconditions;
 import org.grouplens.grapht.*;
 import org.grouplens.grapht.graph.DAGNode;
 import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.util.metrics.Metrics;
+import org.lenskit.util.metrics.Timer;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -92,7 +94,14 @@ public abstract class NodeInstantiator implements Function<DAGNode<Component,Dep
 
         @Override
         public Object instantiate(DAGNode<Component, Dependency> node) throws InjectionException {
-            return container.makeInstantiator(node).instantiate();
+            if (!Metrics.isEnabled()) {
+                return container.makeInstantiator(node).instantiate();
+            }
+            // includes the time to build any dependencies not already instantiated
+            Class<?> type = node.getLabel().getSatisfaction().getErasedType();
+            try (Timer.Context ctx = Metrics.timer(type, "build").time()) {
+                return container.makeInstantiator(node).instantiate();
+            }
         }
     }
 }
@@ -0,0 +1,226 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.inject;
+
+import org.grouplens.grapht.CachePolicy;
+import org.grouplens.grapht.ConstructionException;
+import org.grouplens.grapht.Instantiator;
+import org.grouplens.grapht.LifecycleManager;
+import org.grouplens.grapht.reflect.Desire;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.SatisfactionVisitor;
+import org.grouplens.grapht.util.ClassProxy;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A satisfaction for a component stored in its own section of a {@linkplain SectionedGraphFile sectioned
+ * graph file}.  The component is deserialized the first time it is needed and then retained, so all
+ * recommenders created from the same engine share a single instance.
+ *
+ * @since 3.0
+ */
+public class SectionSatisfaction implements Satisfaction, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Class<?> type;
+    private final int section;
+    private transient volatile SectionedGraphFile.Source source;
+    private transient volatile Object instance;
+
+    /**
+     * Create a new section satisfaction.
+     * @param type The type of the stored component.
+     * @param section The index of the section holding the component.
+     */
+    public SectionSatisfaction(Class<?> type, int section) {
+        this.type = type;
+        this.section = section;
+    }
+
+    private Object writeReplace() {
+        return new SerialProxy(type, section);
+    }
+
+    /**
+     * Attach this satisfaction to the file it was read from.
+     * @param src The section source.
+     */
+    void attach(SectionedGraphFile.Source src) {
+        source = src;
+    }
+
+    /**
+     * Get the index of the section containing this component.
+     * @return The section index.
+     */
+    public int getSection() {
+        return section;
+    }
+
+    /**
+     * Query whether the component has been loaded yet.
+     * @return {@code true} if the component has been deserialized from its section.
+     */
+    public boolean isLoaded() {
+        return instance != null;
+    }
+
+    /**
+     * Get the component, loading it from its section if necessary.
+     * @return The component instance.
+     * @throws UncheckedIOException if there is an error reading the section.
+     * @throws IllegalStateException if the satisfaction is not attached to a file, or the section
+     *                               cannot be resolved to an instance of the expected type.
+     */
+    @Nonnull
+    public Object getInstance() {
+        Object obj = instance;
+        if (obj == null) {
+            synchronized (this) {
+                obj = instance;
+                if (obj == null) {
+                    SectionedGraphFile.Source src = source;
+                    if (src == null) {
+                        throw new IllegalStateException("section " + section + " is not attached to a file");
+                    }
+                    try {
+                        obj = src.load(section);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("error loading section " + section, e);
+                    } catch (ClassNotFoundException e) {
+                        throw new IllegalStateException("cannot resolve class in section " + section, e);
+                    }
+                    if (!type.isInstance(obj)) {
+                        throw new IllegalStateException("section " + section + " contains " + obj.getClass()
+                                                                + ", expected " + type);
+                    }
+                    instance = obj;
+                }
+            }
+        }
+        return obj;
+    }
+
+    @Override
+    public List<Desire> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public Class<?> getErasedType() {
+        return type;
+    }
+
+    @Override
+    public boolean hasInstance() {
+        return false;
+    }
+
+    @Override
+    public <T> T visit(SatisfactionVisitor<T> visitor) {
+        return visitor.visitProviderInstance(this::getInstance);
+    }
+
+    @Override
+    public CachePolicy getDefaultCachePolicy() {
+        return CachePolicy.MEMOIZE;
+    }
+
+    @Override
+    public Instantiator makeInstantiator(@Nonnull Map<Desire, Instantiator> dependencies, @Nullable LifecycleManager lm) {
+        return new Instantiator() {
+            @Override
+            public Object instantiate() throws ConstructionException {
+                try {
+                    return getInstance();
+                } catch (UncheckedIOException | IllegalStateException e) {
+                    throw new ConstructionException(type, "cannot load component from section " + section, e);
+                }
+            }
+
+            @Override
+            public Class<?> getType() {
+                return type;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SectionSatisfaction that = (SectionSatisfaction) o;
+        return section == that.section && type.equals(that.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + section;
+    }
+
+    @Override
+    public String toString() {
+        return "section " + section + " (" + type.getName() + ")";
+    }
+
+    private static class SerialProxy implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ClassProxy type;
+        private final int section;
+
+        private SerialProxy(Class<?> type, int section) {
+            this.type = ClassProxy.of(type);
+            this.section = section;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return new SectionSatisfaction(type.resolve(), section);
+            } catch (ClassNotFoundException e) {
+                InvalidObjectException ex = new InvalidObjectException("class not found");
+                ex.initCause(e);
+                throw ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.inject;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.InjectionException;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.graph.DAGNodeBuilder;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.Satisfactions;
+import org.grouplens.grapht.reflect.internal.InstanceSatisfaction;
+import org.grouplens.grapht.util.ClassLoaderContext;
+import org.grouplens.grapht.util.ClassLoaders;
+import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read and write recommender graphs in a sectioned container format.  Each shareable, serializable
+ * component instance is stored in its own section, and the graph refers to it with a
+ * {@link SectionSatisfaction}.  When a graph is read, only the graph itself is deserialized; each
+ * component is loaded (from a memory-mapped region of the file, when possible) the first time it is
+ * needed.  This keeps start-up fast and avoids paying for large models that are never used.
+ *
+ * The file layout is:
+ *
+ * 1.  An 8-byte magic header.
+ * 2.  The component sections, each a standalone Java serialization stream.
+ * 3.  The graph section, serialized the same way.
+ * 4.  The table of contents: the section count; the offset, length and type name of each component
+ *     section; and the offset and length of the graph section.
+ * 5.  An 8-byte trailer holding the offset of the table of contents.
+ *
+ * @since 3.0
+ */
+public final class SectionedGraphFile {
+    private static final Logger logger = LoggerFactory.getLogger(SectionedGraphFile.class);
+    private static final byte[] MAGIC = "LKSECT\u0000\u0001".getBytes(StandardCharsets.ISO_8859_1);
+
+    private SectionedGraphFile() {
+    }
+
+    /**
+     * Check whether a file is a sectioned graph file.
+     * @param file The file to check.
+     * @return {@code true} if the file starts with the sectioned graph header.
+     * @throws IOException if there is an error reading the file.
+     */
+    public static boolean isSectioned(File file) throws IOException {
+        if (!file.isFile() || file.length() < MAGIC.length + 8) {
+            return false;
+        }
+        byte[] header = new byte[MAGIC.length];
+        try (InputStream in = new FileInputStream(file)) {
+            ByteStreams.readFully(in, header);
+        }
+        return Arrays.equals(header, MAGIC);
+    }
+
+    /**
+     * Write a graph to a sectioned file.  Nodes that are already backed by sections of another file
+     * are loaded and re-written.
+     *
+     * @param graph The graph to write.
+     * @param file The output file.
+     * @throws IOException if there is an error writing the file.
+     */
+    public static void write(DAGNode<Component, Dependency> graph, File file) throws IOException {
+        graph = materialize(graph);
+
+        List<DAGNode<Component, Dependency>> nodes = new ArrayList<>();
+        for (DAGNode<Component, Dependency> node : graph.getSortedNodes()) {
+            Satisfaction sat = node.getLabel().getSatisfaction();
+            if (sat instanceof InstanceSatisfaction) {
+                Object obj = ((InstanceSatisfaction) sat).getInstance();
+                if (obj instanceof Serializable && obj.getClass().isAnnotationPresent(Shareable.class)) {
+                    nodes.add(node);
+                }
+            }
+        }
+        logger.debug("writing {} component sections to {}", nodes.size(), file);
+
+        long[] offsets = new long[nodes.size()];
+        long[] lengths = new long[nodes.size()];
+        String[] names = new String[nodes.size()];
+        Map<DAGNode<Component, Dependency>, Integer> sections = new HashMap<>();
+
+        try (CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.write(MAGIC);
+            for (int i = 0; i < nodes.size(); i++) {
+                DAGNode<Component, Dependency> node = nodes.get(i);
+                Object obj = ((InstanceSatisfaction) node.getLabel().getSatisfaction()).getInstance();
+                offsets[i] = out.getCount();
+                writeObject(out, obj);
+                lengths[i] = out.getCount() - offsets[i];
+                names[i] = obj.getClass().getName();
+                sections.put(node, i);
+            }
+
+            DAGNode<Component, Dependency> sectioned;
+            try {
+                sectioned = NodeProcessors.processNodes(graph, nodes, (node, original) -> {
+                    Component label = node.getLabel();
+                    Satisfaction sat = new SectionSatisfaction(label.getSatisfaction().getErasedType(),
+                                                               sections.get(original));
+                    return copyEdges(node, Component.create(sat, label.getCachePolicy()));
+                });
+            } catch (InjectionException e) {
+                throw new IOException("cannot replace component nodes", e);
+            }
+
+            long graphOffset = out.getCount();
+            writeObject(out, sectioned);
+            long graphLength = out.getCount() - graphOffset;
+
+            long tocOffset = out.getCount();
+            DataOutputStream toc = new DataOutputStream(out);
+            toc.writeInt(nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                toc.writeLong(offsets[i]);
+                toc.writeLong(lengths[i]);
+                toc.writeUTF(names[i]);
+            }
+            toc.writeLong(graphOffset);
+            toc.writeLong(graphLength);
+            toc.writeLong(tocOffset);
+            toc.flush();
+        }
+    }
+
+    /**
+     * Read a graph from a sectioned file.  The components stored in sections are not loaded.
+     *
+     * @param file The file to read.
+     * @param loader The class loader to use for graph and component classes, or {@code null} to use
+     *               the default.
+     * @return The graph.
+     * @throws IOException if there is an error reading the file.
+     * @throws ClassNotFoundException if a class in the graph cannot be resolved.
+     */
+    @SuppressWarnings("unchecked")
+    public static DAGNode<Component, Dependency> read(File file, @Nullable ClassLoader loader) throws IOException, ClassNotFoundException {
+        Source source = new Source(file, loader);
+        DAGNode<Component, Dependency> graph = (DAGNode<Component, Dependency>) source.load(-1);
+        int n = 0;
+        for (DAGNode<Component, Dependency> node : graph.getReachableNodes()) {
+            Satisfaction sat = node.getLabel().getSatisfaction();
+            if (sat instanceof SectionSatisfaction) {
+                ((SectionSatisfaction) sat).attach(source);
+                n++;
+            }
+        }
+        logger.debug("read graph from {} with {} lazy components", file, n);
+        return graph;
+    }
+
+    /**
+     * Replace every section-backed node in a graph with an instance node, loading components as
+     * needed.  Used when the graph must be written somewhere that cannot refer back to its file.
+     *
+     * @param graph The graph.
+     * @return The graph with all sections loaded and replaced by instances.
+     */
+    public static DAGNode<Component, Dependency> materialize(DAGNode<Component, Dependency> graph) {
+        List<DAGNode<Component, Dependency>> nodes = new ArrayList<>();
+        for (DAGNode<Component, Dependency> node : graph.getSortedNodes()) {
+            if (node.getLabel().getSatisfaction() instanceof SectionSatisfaction) {
+                nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return graph;
+        }
+        try {
+            return NodeProcessors.processNodes(graph, nodes, (node, original) -> {
+                Component label = node.getLabel();
+                Object obj = ((SectionSatisfaction) label.getSatisfaction()).getInstance();
+                return copyEdges(node, Component.create(Satisfactions.instance(obj), label.getCachePolicy()));
+            });
+        } catch (InjectionException e) {
+            throw new IllegalStateException("cannot materialize sections", e);
+        }
+    }
+
+    private static DAGNode<Component, Dependency> copyEdges(DAGNode<Component, Dependency> node, Component label) {
+        DAGNodeBuilder<Component, Dependency> bld = DAGNode.newBuilder(label);
+        for (DAGEdge<Component, Dependency> edge : node.getOutgoingEdges()) {
+            bld.addEdge(edge.getTail(), edge.getLabel());
+        }
+        return bld.build();
+    }
+
+    private static void writeObject(OutputStream out, Object obj) throws IOException {
+        // flush rather than close, so the underlying stream stays open for the next section
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(obj);
+        oos.flush();
+    }
+
+    /**
+     * The sections of an open sectioned file.
+     */
+    @ThreadSafe
+    static class Source {
+        private final File file;
+        private final ClassLoader classLoader;
+        private final long[] offsets;
+        private final long[] lengths;
+        private final String[] names;
+        private final long graphOffset;
+        private final long graphLength;
+
+        Source(File file, @Nullable ClassLoader loader) throws IOException {
+            this.file = file;
+            classLoader = loader;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                byte[] header = new byte[MAGIC.length];
+                raf.readFully(header);
+                if (!Arrays.equals(header, MAGIC)) {
+                    throw new IOException(file + ": not a sectioned graph file");
+                }
+                raf.seek(raf.length() - 8);
+                raf.seek(raf.readLong());
+                int n = raf.readInt();
+                offsets = new long[n];
+                lengths = new long[n];
+                names = new String[n];
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = raf.readLong();
+                    lengths[i] = raf.readLong();
+                    names[i] = raf.readUTF();
+                }
+                graphOffset = raf.readLong();
+                graphLength = raf.readLong();
+            }
+        }
+
+        /**
+         * Load the object in a section.
+         * @param section The section index, or -1 for the graph section.
+         * @return The deserialized object.
+         * @throws IOException if there is an error reading the section.
+         * @throws ClassNotFoundException if a class in the section cannot be resolved.
+         */
+        @Nonnull
+        Object load(int section) throws IOException, ClassNotFoundException {
+            long offset = section < 0 ? graphOffset : offsets[section];
+            long length = section < 0 ? graphLength : lengths[section];
+            if (section >= 0) {
+                logger.info("loading {} ({} bytes) from {}", names[section], length, file);
+            }
+            ClassLoaderContext ctx = null;
+            if (classLoader != null) {
+                // Grapht and class proxies resolve through the context class loader
+                ctx = ClassLoaders.pushContext(classLoader);
+            }
+            try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                InputStream in;
+                if (length <= Integer.MAX_VALUE) {
+                    in = new BufferInputStream(chan.map(FileChannel.MapMode.READ_ONLY, offset, length));
+                } else {
+                    chan.position(offset);
+                    in = new BufferedInputStream(ByteStreams.limit(Channels.newInputStream(chan), length));
+                }
+                try (ObjectInputStream oin = new CustomClassLoaderObjectInputStream(in, classLoader)) {
+                    return oin.readObject();
+                }
+            } finally {
+                if (ctx != null) {
+                    ctx.pop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Input stream reading from a (mapped) byte buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buf) {
+            buffer = buf;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
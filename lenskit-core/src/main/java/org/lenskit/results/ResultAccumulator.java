@@ -83,4 +83,11 @@ public class ResultAccumulator {
     public ResultMap finishMap() {
         return Results.newResultMap(accum.finish());
     }
+
+    /**
+     * Discard the accumulated results so the accumulator can be used again.
+     */
+    public void reset() {
+        accum.reset();
+    }
 }
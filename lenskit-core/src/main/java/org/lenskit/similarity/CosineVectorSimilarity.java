@@ -41,7 +41,7 @@ import java.io.Serializable;
  */
 @Shareable
 @ThreadSafe
-public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
+public class CosineVectorSimilarity implements DotProductSimilarity, Serializable {
     private static final long serialVersionUID = 1L;
 
     private final double dampingFactor;
@@ -76,6 +76,26 @@ public class CosineVectorSimilarity implements VectorSimilarity, Serializable {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation uses the vectors' cached norms.
+     */
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return similarityFromDot(Vectors.dotProduct(vec1.getVector(), vec2.getVector()), vec1, vec2);
+    }
+
+    @Override
+    public double similarityFromDot(double dot, PreparedVector vec1, PreparedVector vec2) {
+        final double denom = vec1.getNorm() * vec2.getNorm() + dampingFactor;
+        if (Scalars.isZero(denom)) {
+            return 0;
+        } else {
+            return dot / denom;
+        }
+    }
+
     @Override
     public boolean isSparse() {
         return true;
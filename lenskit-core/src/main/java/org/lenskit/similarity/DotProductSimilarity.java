@@ -0,0 +1,44 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.similarity;
+
+/**
+ * A vector similarity that depends on its two vectors only through their dot product and their
+ * individual statistics (norms, sizes, etc.).  Such a similarity over many vectors can be computed
+ * from a sparse matrix product rather than pair-by-pair, as the item-item model builder does.
+ *
+ * Implementations must be sparse and symmetric, and must return 0 when the dot product is 0.
+ */
+public interface DotProductSimilarity extends VectorSimilarity {
+    /**
+     * Compute the similarity of two vectors from their dot product.
+     *
+     * @param dot The dot product of the two vectors' values.
+     * @param vec1 The left vector.
+     * @param vec2 The right vector.
+     * @return The similarity; identical to {@link #similarity(PreparedVector, PreparedVector)}.
+     */
+    double similarityFromDot(double dot, PreparedVector vec1, PreparedVector vec2);
+}
@@ -31,6 +31,7 @@ import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import net.jcip.annotations.ThreadSafe;
 import org.lenskit.inject.Shareable;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
 import javax.inject.Inject;
 import java.io.Serializable;
@@ -83,6 +84,10 @@ public class PearsonCorrelation implements VectorSimilarity, Serializable {
          * are discarded for the purpose of similarity computation.
          */
 
+        if (vec1 instanceof Long2DoubleSortedArrayMap && vec2 instanceof Long2DoubleSortedArrayMap) {
+            return sortedSimilarity((Long2DoubleSortedArrayMap) vec1, (Long2DoubleSortedArrayMap) vec2);
+        }
+
         // first compute means of common items
         LongSortedSet commonKeys = LongUtils.setIntersect(vec1.keySet(), vec2.keySet());
         int n = commonKeys.size();
@@ -125,6 +130,74 @@ public class PearsonCorrelation implements VectorSimilarity, Serializable {
         }
     }
 
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return sortedSimilarity(vec1.getVector(), vec2.getVector());
+    }
+
+    /**
+     * Compute the correlation of two sorted vectors by merging their key arrays.  This is the same
+     * computation as the general method, in the same order, without building the key intersection
+     * or doing hash lookups.
+     */
+    private double sortedSimilarity(Long2DoubleSortedArrayMap vec1, Long2DoubleSortedArrayMap vec2) {
+        final int sz1 = vec1.size();
+        final int sz2 = vec2.size();
+
+        // first pass: means of common items
+        double sum1 = 0;
+        double sum2 = 0;
+        int n = 0;
+        int i1 = 0, i2 = 0;
+        while (i1 < sz1 && i2 < sz2) {
+            final long k1 = vec1.getKeyByIndex(i1);
+            final long k2 = vec2.getKeyByIndex(i2);
+            if (k1 < k2) {
+                i1++;
+            } else if (k2 < k1) {
+                i2++;
+            } else {
+                sum1 += vec1.getValueByIndex(i1);
+                sum2 += vec2.getValueByIndex(i2);
+                n += 1;
+                i1++;
+                i2++;
+            }
+        }
+        if (n == 0) {
+            return 0;
+        }
+
+        final double mu1 = sum1 / n;
+        final double mu2 = sum2 / n;
+
+        // second pass: variances and covariance of common items
+        double var1 = 0;
+        double var2 = 0;
+        double dot = 0;
+        i1 = 0;
+        i2 = 0;
+        while (i1 < sz1 && i2 < sz2) {
+            final long k1 = vec1.getKeyByIndex(i1);
+            final long k2 = vec2.getKeyByIndex(i2);
+            if (k1 < k2) {
+                i1++;
+            } else if (k2 < k1) {
+                i2++;
+            } else {
+                final double v1 = vec1.getValueByIndex(i1) - mu1;
+                final double v2 = vec2.getValueByIndex(i2) - mu2;
+                var1 += v1 * v1;
+                var2 += v2 * v2;
+                dot += v1 * v2;
+                i1++;
+                i2++;
+            }
+        }
+
+        return dot / (sqrt(var1 * var2) + shrinkage);
+    }
+
     @Override
     public boolean isSparse() {
         return true;
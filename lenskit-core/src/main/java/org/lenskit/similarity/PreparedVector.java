@@ -0,0 +1,127 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.similarity;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.math.Vectors;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+
+/**
+ * A sorted vector with precomputed summary statistics, for fast repeated similarity computations.
+ * Model builds that compare each vector many times should prepare their vectors once and use
+ * {@link VectorSimilarity#similarity(PreparedVector, PreparedVector)}, so norms and other
+ * per-vector values are not recomputed for every pair.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public final class PreparedVector implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Long2DoubleSortedArrayMap vector;
+    private final double sum;
+    private final double norm;
+    private transient volatile PreparedVector ranks;
+
+    private PreparedVector(Long2DoubleSortedArrayMap vec) {
+        vector = vec;
+        sum = Vectors.sum(vec);
+        norm = Vectors.euclideanNorm(vec);
+    }
+
+    /**
+     * Prepare a vector.
+     * @param vec The vector to prepare.  If it is a {@link Long2DoubleSortedArrayMap}, it is used
+     *            without copying.
+     * @return The prepared vector.
+     */
+    public static PreparedVector create(Long2DoubleMap vec) {
+        return new PreparedVector(Long2DoubleSortedArrayMap.create(vec));
+    }
+
+    /**
+     * Get the underlying vector.
+     * @return The vector.
+     */
+    @Nonnull
+    public Long2DoubleSortedArrayMap getVector() {
+        return vector;
+    }
+
+    /**
+     * Get the number of entries in the vector.
+     * @return The vector's size.
+     */
+    public int size() {
+        return vector.size();
+    }
+
+    /**
+     * Get the sum of the vector's values.
+     * @return The sum of the values.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the mean of the vector's values.
+     * @return The mean of the values, or 0 if the vector is empty.
+     */
+    public double getMean() {
+        return vector.isEmpty() ? 0 : sum / vector.size();
+    }
+
+    /**
+     * Get the Euclidean norm of the vector.
+     * @return The vector's norm.
+     */
+    public double getNorm() {
+        return norm;
+    }
+
+    /**
+     * Get the rank vector, computing it on first use.
+     * @return The prepared vector of ranks, as computed by {@link SpearmanRankCorrelation}.
+     */
+    PreparedVector getRanks() {
+        PreparedVector r = ranks;
+        if (r == null) {
+            // benign race: concurrent callers compute equal rank vectors
+            r = create(SpearmanRankCorrelation.rank(vector));
+            ranks = r;
+        }
+        return r;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedVector" + vector;
+    }
+}
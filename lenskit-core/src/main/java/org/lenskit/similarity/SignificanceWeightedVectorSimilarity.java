@@ -84,6 +84,14 @@ public class SignificanceWeightedVectorSimilarity implements VectorSimilarity, S
         return s / max(n, threshold);
     }
 
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        double s = delegate.similarity(vec1, vec2);
+        int n = LongUtils.intersectSize(vec1.getVector().keySet(), vec2.getVector().keySet());
+        s *= n;
+        return s / max(n, threshold);
+    }
+
     @Override
     public boolean isSparse() {
         return delegate.isSparse();
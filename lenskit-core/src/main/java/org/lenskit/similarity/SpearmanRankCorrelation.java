@@ -106,6 +106,16 @@ public class SpearmanRankCorrelation implements VectorSimilarity, Serializable {
         return pearson.similarity(rank(vec1), rank(vec2));
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation uses rank vectors cached on the prepared vectors.
+     */
+    @Override
+    public double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return pearson.similarity(vec1.getRanks(), vec2.getRanks());
+    }
+
     @Override
     public boolean isSparse() {
         return true;
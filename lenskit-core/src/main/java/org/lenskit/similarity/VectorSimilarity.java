@@ -45,6 +45,19 @@ public interface VectorSimilarity {
      */
     double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2);
 
+    /**
+     * Compute the similarity between two prepared vectors.  Implementations should override this
+     * to use the prepared vectors' cached statistics; the default implementation delegates to
+     * {@link #similarity(Long2DoubleMap, Long2DoubleMap)}.
+     *
+     * @param vec1 The left vector to compare.
+     * @param vec2 The right vector to compare.
+     * @return The similarity, in the range [-1,1].
+     */
+    default double similarity(PreparedVector vec1, PreparedVector vec2) {
+        return similarity(vec1.getVector(), vec2.getVector());
+    }
+
     /**
      * Query whether this similarity function is sparse (returns 0 for vectors with
      * disjoint key sets).
@@ -28,8 +28,10 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.baseline.BaselineScorer;
 import org.lenskit.util.InvertibleFunction;
+import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -69,19 +71,7 @@ public class BaselineSubtractingUserVectorNormalizer extends AbstractUserVectorN
         public Long2DoubleMap unapply(Long2DoubleMap input) {
             if (input == null) return null;
 
-            Map<Long,Double> base = baselineScorer.score(user, input.keySet());
-
-            SortedKeyIndex idx = SortedKeyIndex.fromCollection(input.keySet());
-            int n = idx.size();
-            double[] values = new double[n];
-            for (int i = 0; i < n; i++) {
-                long k = idx.getKey(i);
-                Double bp = base.get(k);
-                double bpv = bp != null ? bp : 0;
-                values[i] = input.get(idx.getKey(i)) + bpv;
-            }
-
-            return Long2DoubleSortedArrayMap.wrap(idx, values);
+            return VectorTransformations.unapply(this, input);
         }
 
         @Nullable
@@ -89,21 +79,53 @@ public class BaselineSubtractingUserVectorNormalizer extends AbstractUserVectorN
         public Long2DoubleMap apply(@Nullable Long2DoubleMap input) {
             if (input == null) return null;
 
-            Map<Long,Double> base = baselineScorer.score(user, input.keySet());
+            return VectorTransformations.apply(this, input);
+        }
 
-            SortedKeyIndex idx = SortedKeyIndex.fromCollection(input.keySet());
-            int n = idx.size();
-            double[] values = new double[n];
-            for (int i = 0; i < n; i++) {
-                long k = idx.getKey(i);
-                Double bp = base.get(k);
-                double bpv = bp != null ? bp : 0;
-                values[i] = input.get(idx.getKey(i)) - bpv;
-            }
+        @Override
+        public void applyInPlace(long[] keys, double[] values, int n) {
+            addBaseline(keys, values, n, -1);
+        }
 
-            return Long2DoubleSortedArrayMap.wrap(idx, values);
+        @Override
+        public void unapplyInPlace(long[] keys, double[] values, int n) {
+            addBaseline(keys, values, n, 1);
         }
 
+        /**
+         * Add the scaled baseline scores to a vector.  Items the baseline cannot score are left unchanged.
+         */
+        private void addBaseline(long[] keys, double[] values, int n, double scale) {
+            SortedKeyIndex idx = SortedKeyIndex.wrap(keys, n);
+            Map<Long,Double> base = baselineScorer.score(user, idx.keySet());
+
+            if (base instanceof Long2DoubleSortedArrayMap) {
+                // merge the two sorted key arrays
+                Long2DoubleSortedArrayMap sbase = (Long2DoubleSortedArrayMap) base;
+                int bn = sbase.size();
+                int i = 0, j = 0;
+                while (i < n && j < bn) {
+                    long bk = sbase.getKeyByIndex(j);
+                    if (keys[i] == bk) {
+                        values[i] += scale * sbase.getValueByIndex(j);
+                        i++;
+                        j++;
+                    } else if (keys[i] < bk) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                }
+            } else {
+                // look up each baseline score's position in the key array
+                for (Long2DoubleMap.Entry e: Vectors.fastEntries(LongUtils.asLong2DoubleMap(base))) {
+                    int i = idx.tryGetIndex(e.getLongKey());
+                    if (i >= 0) {
+                        values[i] += scale * e.getDoubleValue();
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -71,5 +71,19 @@ public class BiasItemVectorNormalizer extends AbstractItemVectorNormalizer {
             Long2DoubleMap biases = model.getUserBiases(input.keySet());
             return Vectors.combine(input, biases, -1.0, -itemBias);
         }
+
+        @Override
+        public void applyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] -= itemBias + model.getUserBias(keys[i]);
+            }
+        }
+
+        @Override
+        public void unapplyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] += itemBias + model.getUserBias(keys[i]);
+            }
+        }
     }
 }
@@ -71,5 +71,19 @@ public class BiasUserVectorNormalizer extends AbstractUserVectorNormalizer {
             Long2DoubleMap biases = model.getItemBiases(input.keySet());
             return Vectors.combine(input, biases, -1.0, -userBias);
         }
+
+        @Override
+        public void applyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] -= userBias + model.getItemBias(keys[i]);
+            }
+        }
+
+        @Override
+        public void unapplyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] += userBias + model.getItemBias(keys[i]);
+            }
+        }
     }
 }
@@ -51,6 +51,16 @@ public final class IdentityVectorNormalizer extends AbstractVectorNormalizer imp
         public Long2DoubleMap unapply(Long2DoubleMap vector) {
             return Long2DoubleSortedArrayMap.create(vector);
         }
+
+        @Override
+        public void applyInPlace(long[] keys, double[] values, int n) {
+            /* no-op */
+        }
+
+        @Override
+        public void unapplyInPlace(long[] keys, double[] values, int n) {
+            /* no-op */
+        }
     };
 
     @Override
@@ -71,6 +71,19 @@ public class MeanCenteringVectorNormalizer extends AbstractVectorNormalizer impl
             return Vectors.addScalar(input, mean);
         }
 
+        @Override
+        public void applyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] -= mean;
+            }
+        }
+
+        @Override
+        public void unapplyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] += mean;
+            }
+        }
 
     }
 }
@@ -92,5 +92,20 @@ public class UnitVectorNormalizer extends AbstractVectorNormalizer implements Se
             return input == null ? null : Vectors.multiplyScalar(input, 1.0 / factor);
         }
 
+        @Override
+        public void applyInPlace(long[] keys, double[] values, int n) {
+            double scale = 1.0 / factor;
+            for (int i = 0; i < n; i++) {
+                values[i] *= scale;
+            }
+        }
+
+        @Override
+        public void unapplyInPlace(long[] keys, double[] values, int n) {
+            for (int i = 0; i < n; i++) {
+                values[i] *= factor;
+            }
+        }
+
     }
 }
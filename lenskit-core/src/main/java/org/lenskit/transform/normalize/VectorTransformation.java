@@ -26,12 +26,46 @@ package org.lenskit.transform.normalize;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.util.InvertibleFunction;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 /**
  * Reversible in-place vector transformations.
  *
+ * In addition to the map-based {@link #apply(Object)} and {@link #unapply(Object)} methods, vector transformations
+ * can operate in bulk on vectors stored as parallel arrays of sorted keys and values.  The default implementations
+ * of these methods go through the map-based methods; transformations that can do better should override them.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public interface VectorTransformation extends InvertibleFunction<Long2DoubleMap,Long2DoubleMap> {
+    /**
+     * Apply this transformation in place to a vector stored in parallel arrays.
+     *
+     * @param keys The vector keys. The first {@code n} keys must be sorted in ascending order and free of duplicates.
+     *             This array is not modified.
+     * @param values The vector values.  The first {@code n} values are replaced with their transformed values.
+     * @param n The number of entries in the vector.
+     */
+    default void applyInPlace(long[] keys, double[] values, int n) {
+        Long2DoubleMap result = apply(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values));
+        for (int i = 0; i < n; i++) {
+            values[i] = result.get(keys[i]);
+        }
+    }
 
+    /**
+     * Unapply this transformation in place to a vector stored in parallel arrays.
+     *
+     * @param keys The vector keys. The first {@code n} keys must be sorted in ascending order and free of duplicates.
+     *             This array is not modified.
+     * @param values The vector values.  The first {@code n} values are replaced with their un-transformed values.
+     * @param n The number of entries in the vector.
+     */
+    default void unapplyInPlace(long[] keys, double[] values, int n) {
+        Long2DoubleMap result = unapply(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values));
+        for (int i = 0; i < n; i++) {
+            values[i] = result.get(keys[i]);
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.transform.normalize;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.InvertibleFunction;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+/**
+ * Utility methods for applying vector transformations in bulk.  These methods use the array-based methods of
+ * {@link VectorTransformation} when they are available, and fall back to the map-based methods otherwise.
+ */
+public final class VectorTransformations {
+    private VectorTransformations() {}
+
+    /**
+     * Apply a transformation in place to a vector stored in parallel arrays.
+     *
+     * @param xf The transformation.
+     * @param keys The keys, sorted and free of duplicates.
+     * @param values The values, which will be replaced with their transformed values.
+     * @param n The number of entries in the vector.
+     * @see VectorTransformation#applyInPlace(long[], double[], int)
+     */
+    public static void applyInPlace(InvertibleFunction<Long2DoubleMap,Long2DoubleMap> xf,
+                                    long[] keys, double[] values, int n) {
+        if (xf instanceof VectorTransformation) {
+            ((VectorTransformation) xf).applyInPlace(keys, values, n);
+        } else {
+            Long2DoubleMap result = xf.apply(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values));
+            copyValues(result, keys, values, n);
+        }
+    }
+
+    /**
+     * Unapply a transformation in place to a vector stored in parallel arrays.
+     *
+     * @param xf The transformation.
+     * @param keys The keys, sorted and free of duplicates.
+     * @param values The values, which will be replaced with their un-transformed values.
+     * @param n The number of entries in the vector.
+     * @see VectorTransformation#unapplyInPlace(long[], double[], int)
+     */
+    public static void unapplyInPlace(InvertibleFunction<Long2DoubleMap,Long2DoubleMap> xf,
+                                      long[] keys, double[] values, int n) {
+        if (xf instanceof VectorTransformation) {
+            ((VectorTransformation) xf).unapplyInPlace(keys, values, n);
+        } else {
+            Long2DoubleMap result = xf.unapply(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values));
+            copyValues(result, keys, values, n);
+        }
+    }
+
+    /**
+     * Apply a transformation to a vector, using the array-based implementation.
+     *
+     * @param xf The transformation.
+     * @param vector The vector to transform.  It is not modified.
+     * @return The transformed vector.
+     */
+    public static Long2DoubleSortedArrayMap apply(InvertibleFunction<Long2DoubleMap,Long2DoubleMap> xf,
+                                                  Long2DoubleMap vector) {
+        Long2DoubleSortedArrayMap sorted = Long2DoubleSortedArrayMap.create(vector);
+        int n = sorted.size();
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        copyArrays(sorted, keys, values);
+        applyInPlace(xf, keys, values, n);
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values);
+    }
+
+    /**
+     * Unapply a transformation to a vector, using the array-based implementation.
+     *
+     * @param xf The transformation.
+     * @param vector The vector to un-transform.  It is not modified.
+     * @return The un-transformed vector.
+     */
+    public static Long2DoubleSortedArrayMap unapply(InvertibleFunction<Long2DoubleMap,Long2DoubleMap> xf,
+                                                    Long2DoubleMap vector) {
+        Long2DoubleSortedArrayMap sorted = Long2DoubleSortedArrayMap.create(vector);
+        int n = sorted.size();
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        copyArrays(sorted, keys, values);
+        unapplyInPlace(xf, keys, values, n);
+        return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values);
+    }
+
+    private static void copyArrays(Long2DoubleSortedArrayMap map, long[] keys, double[] values) {
+        int n = map.size();
+        for (int i = 0; i < n; i++) {
+            keys[i] = map.getKeyByIndex(i);
+            values[i] = map.getValueByIndex(i);
+        }
+    }
+
+    private static void copyValues(Long2DoubleMap result, long[] keys, double[] values, int n) {
+        for (int i = 0; i < n; i++) {
+            values[i] = result.get(keys[i]);
+        }
+    }
+}
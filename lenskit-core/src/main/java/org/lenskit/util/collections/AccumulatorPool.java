@@ -0,0 +1,135 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.collections;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+
+import java.util.ArrayDeque;
+
+/**
+ * Per-thread pool of reusable scratch accumulators.  Scorers and recommenders use it to avoid
+ * allocating a fresh accumulator (and its backing arrays) for every request or candidate item:
+ *
+ * ```java
+ * Long2DoubleAccumulator acc = AccumulatorPool.acquire(n);
+ * try {
+ *     // put items, then finish
+ * } finally {
+ *     AccumulatorPool.release(acc);
+ * }
+ * ```
+ *
+ * Each thread keeps a small stack of free accumulators, so nested use (a recommender holding an
+ * accumulator while its scorer acquires another) works and still reuses storage.  An accumulator
+ * must not be used after it is released, and must be released by the thread that acquired it.
+ */
+public final class AccumulatorPool {
+    /**
+     * The maximum number of free accumulators of each kind retained per thread.
+     */
+    private static final int MAX_FREE = 8;
+    /**
+     * The largest scratch map retained for reuse; clearing and iterating a map costs time
+     * proportional to its capacity, so very large maps are dropped.
+     */
+    private static final int MAX_MAP_SIZE = 4096;
+
+    private static final ThreadLocal<AccumulatorPool> POOLS = ThreadLocal.withInitial(AccumulatorPool::new);
+
+    private final ArrayDeque<TopNLong2DoubleAccumulator> topN = new ArrayDeque<>();
+    private final ArrayDeque<UnlimitedLong2DoubleAccumulator> unlimited = new ArrayDeque<>();
+    private final ArrayDeque<Long2DoubleOpenHashMap> maps = new ArrayDeque<>();
+
+    private AccumulatorPool() {}
+
+    /**
+     * Acquire an empty accumulator from the current thread's pool.
+     *
+     * @param n The number of items to retain, or a negative number for no limit.
+     * @return An empty accumulator; a {@link TopNLong2DoubleAccumulator} if {@code n} is
+     *         non-negative, and an {@link UnlimitedLong2DoubleAccumulator} otherwise.
+     */
+    public static Long2DoubleAccumulator acquire(int n) {
+        AccumulatorPool pool = POOLS.get();
+        if (n >= 0) {
+            TopNLong2DoubleAccumulator acc = pool.topN.pollFirst();
+            if (acc == null) {
+                return new TopNLong2DoubleAccumulator(n);
+            } else {
+                acc.reset(n);
+                return acc;
+            }
+        } else {
+            UnlimitedLong2DoubleAccumulator acc = pool.unlimited.pollFirst();
+            return acc != null ? acc : new UnlimitedLong2DoubleAccumulator();
+        }
+    }
+
+    /**
+     * Return an accumulator to the current thread's pool.  Its contents are discarded.
+     *
+     * @param acc The accumulator to release.
+     */
+    public static void release(Long2DoubleAccumulator acc) {
+        AccumulatorPool pool = POOLS.get();
+        acc.reset();
+        if (acc instanceof TopNLong2DoubleAccumulator) {
+            if (pool.topN.size() < MAX_FREE) {
+                pool.topN.addFirst((TopNLong2DoubleAccumulator) acc);
+            }
+        } else if (acc instanceof UnlimitedLong2DoubleAccumulator) {
+            if (pool.unlimited.size() < MAX_FREE) {
+                pool.unlimited.addFirst((UnlimitedLong2DoubleAccumulator) acc);
+            }
+        }
+    }
+
+    /**
+     * Acquire an empty scratch map from the current thread's pool, e.g. to receive
+     * {@link Long2DoubleAccumulator#finishInto(it.unimi.dsi.fastutil.longs.Long2DoubleMap)}.
+     *
+     * @return An empty map.
+     */
+    public static Long2DoubleOpenHashMap acquireMap() {
+        Long2DoubleOpenHashMap map = POOLS.get().maps.pollFirst();
+        return map != null ? map : new Long2DoubleOpenHashMap();
+    }
+
+    /**
+     * Return a scratch map to the current thread's pool.  Its contents are discarded.
+     *
+     * @param map The map to release.
+     */
+    public static void releaseMap(Long2DoubleOpenHashMap map) {
+        AccumulatorPool pool = POOLS.get();
+        if (map.size() > MAX_MAP_SIZE) {
+            return;
+        }
+        map.clear();
+        if (pool.maps.size() < MAX_FREE) {
+            pool.maps.addFirst(map);
+        }
+    }
+}
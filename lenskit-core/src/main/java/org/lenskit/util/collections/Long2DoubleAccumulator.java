@@ -77,6 +77,17 @@ public interface Long2DoubleAccumulator {
      */
     Long2DoubleMap finishMap();
 
+    /**
+     * Accumulate the scores into a caller-provided map and reset the accumulator.  Existing entries
+     * in the map are not removed.  Implementations that keep their own buffers can use this to
+     * finish an accumulation without allocating a new map.
+     *
+     * @param out The map to receive the accumulated scores.
+     */
+    default void finishInto(Long2DoubleMap out) {
+        out.putAll(finishMap());
+    }
+
     /**
      * Accumulate the scored items into a set.
      * @return The set of items accumulated.
@@ -88,4 +99,18 @@ public interface Long2DoubleAccumulator {
      * @return The list of items accumulated, in decreasing order of score.
      */
     LongList finishList();
+
+    /**
+     * Accumulate the scored items into a list, also reporting their scores.
+     * @param scores A map to receive the scores of the accumulated items.  Existing entries are not removed.
+     * @return The list of items accumulated, in the same order as {@link #finishList()}.
+     */
+    LongList finishList(Long2DoubleMap scores);
+
+    /**
+     * Discard the accumulated items so the accumulator can be used again.
+     */
+    default void reset() {
+        finishMap();
+    }
 }
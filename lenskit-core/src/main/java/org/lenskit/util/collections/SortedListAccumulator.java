@@ -80,6 +80,20 @@ public abstract class SortedListAccumulator<T> {
      */
     public abstract List<T> finish();
 
+    /**
+     * Finish accumulating and append the accumulated items to a caller-provided list, in the same
+     * order as {@link #finish()}.  Unlike {@link #finish()}, this keeps the accumulator's buffers
+     * for the next accumulation.
+     *
+     * @param out The list to receive the items.
+     */
+    public abstract void finishInto(List<? super T> out);
+
+    /**
+     * Discard the accumulated items so the accumulator can be used again.
+     */
+    public abstract void reset();
+
     private static class Unlimited<T> extends SortedListAccumulator<T> {
         private final Ordering<? super T> ordering;
         List<T> items = new ArrayList<>();
@@ -101,6 +115,18 @@ public abstract class SortedListAccumulator<T> {
             items = new ArrayList<>();
             return result;
         }
+
+        @Override
+        public void finishInto(List<? super T> out) {
+            Collections.sort(items, ordering.reverse());
+            out.addAll(items);
+            items.clear();
+        }
+
+        @Override
+        public void reset() {
+            items.clear();
+        }
     }
 
     private static class TopN<T> extends SortedListAccumulator<T> {
@@ -135,5 +161,26 @@ public abstract class SortedListAccumulator<T> {
             Collections.reverse(list);
             return list;
         }
+
+        @Override
+        public void finishInto(List<? super T> out) {
+            int start = out.size();
+            while (!results.isEmpty()) {
+                out.add(results.remove());
+            }
+            // reverse the appended items in place, so they are greatest-first
+            for (int i = start, j = out.size() - 1; i < j; i++, j--) {
+                swap(out, i, j);
+            }
+        }
+
+        private static <E> void swap(List<E> list, int i, int j) {
+            list.set(i, list.set(j, list.get(i)));
+        }
+
+        @Override
+        public void reset() {
+            results.clear();
+        }
     }
 }
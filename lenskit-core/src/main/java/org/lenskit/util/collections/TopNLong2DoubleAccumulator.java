@@ -25,7 +25,8 @@
 package org.lenskit.util.collections;
 
 import com.google.common.primitives.Doubles;
-import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrays;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 import it.unimi.dsi.fastutil.ints.IntPriorityQueue;
 import it.unimi.dsi.fastutil.longs.*;
@@ -34,18 +35,26 @@ import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 /**
  * Accumulate the top <i>N</i> scored IDs.  IDs are sorted by their associated
  * scores.
+ *
+ * The accumulator keeps its buffers when it is finished or {@linkplain #reset(int) reset}, so one
+ * instance can be reused for many accumulations without further allocation; see
+ * {@link AccumulatorPool}.
  */
 public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator {
-    private final int targetCount;
-    private DoubleArrayList scores;
-    private CompactableLongArrayList items;
+    private int targetCount;
+    private double[] scores;
+    private long[] items;
+    // scratch space for draining the heap in order
+    private int[] order = IntArrays.EMPTY_ARRAY;
 
     // The index of the empty space to use.  Once the accumulator is at capacity, this will be the
     // index of the last-removed item.
     private int slot;
     // The current size of the accumulator.
     private int size;
-    private IntPriorityQueue heap;
+    // The number of slots that have been filled.
+    private int used;
+    private final IntPriorityQueue heap;
 
     /**
      * Create a new accumulator to accumulate the top <var>n</var> IDs.
@@ -57,17 +66,16 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
 
         slot = 0;
         size = 0;
+        used = 0;
 
         int isz = findInitialSize(targetCount + 1);
-        scores = new DoubleArrayList(isz);
-        items = new CompactableLongArrayList(isz);
+        scores = new double[isz];
+        items = new long[isz];
         heap = new IntHeapPriorityQueue(this::comparePositions);
-
-        // item lists are lazy-allocated
     }
 
     private int comparePositions(int i1, int i2) {
-        return Doubles.compare(scores.getDouble(i1), scores.getDouble(i2));
+        return Doubles.compare(scores[i1], scores[i2]);
     }
 
     /**
@@ -95,6 +103,14 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
         return best;
     }
 
+    /**
+     * Get the number of items this accumulator retains.
+     * @return The target count.
+     */
+    public int getTargetCount() {
+        return targetCount;
+    }
+
     @Override
     public boolean isEmpty() {
         return size == 0;
@@ -110,29 +126,23 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
         assert slot <= targetCount;
         assert heap.size() == size;
 
-        if (items == null) {
-            int isz = findInitialSize(targetCount + 1);
-            scores = new DoubleArrayList(isz);
-            items = new CompactableLongArrayList(isz);
-            heap = new IntHeapPriorityQueue(this::comparePositions);
-        }
-
         /*
          * Store the new item. The slot shows where the current item is, and
          * then we deal with it based on whether we're oversized.
          */
-        if (slot == items.size()) {
+        if (slot == used) {
             // we are still adding items
-            items.add(item);
-            scores.add(score);
-        } else {
-            // we are reusing slots
-            if (!heap.isEmpty() && score <= scores.getDouble(heap.firstInt())) {
-                return; // the item won't beat anything else
+            if (used == items.length) {
+                items = LongArrays.grow(items, used + 1);
+                scores = DoubleArrays.grow(scores, used + 1);
             }
-            items.set(slot, item);
-            scores.set(slot, score);
+            used += 1;
+        } else if (!heap.isEmpty() && score <= scores[heap.firstInt()]) {
+            // we are reusing slots, and the item won't beat anything else
+            return;
         }
+        items[slot] = item;
+        scores[slot] = score;
         heap.enqueue(slot);
 
         if (size == targetCount) {
@@ -145,38 +155,64 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
         }
     }
 
-    @Override
-    public Long2DoubleMap finishMap() {
-        if (scores == null) {
-            return Long2DoubleMaps.EMPTY_MAP;
-        }
-
+    /**
+     * Empty the heap into the order buffer, highest score first.
+     * @return The number of items.
+     */
+    private int drain() {
         assert size == heap.size();
-        int[] indices = new int[size];
+        int n = size;
+        if (order.length < n) {
+            order = new int[Math.max(n, Math.min(order.length * 2, targetCount))];
+        }
         // Copy backwards so the scored list is sorted.
-        for (int i = size - 1; i >= 0; i--) {
-            indices[i] = heap.dequeueInt();
+        for (int i = n - 1; i >= 0; i--) {
+            order[i] = heap.dequeueInt();
         }
         assert heap.isEmpty();
+        return n;
+    }
 
-        long[] keys = new long[indices.length];
-        double[] values = new double[indices.length];
-        for (int i = 0; i < indices.length; i++) {
-            keys[i] = items.getLong(indices[i]);
-            values[i] = scores.getDouble(indices[i]);
+    @Override
+    public Long2DoubleMap finishMap() {
+        if (size == 0) {
+            clear();
+            return Long2DoubleMaps.EMPTY_MAP;
+        }
+
+        int n = drain();
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = items[order[i]];
+            values[i] = scores[order[i]];
         }
         clear();
 
         return Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation allocates nothing beyond any growth of {@code out}.
+     */
+    @Override
+    public void finishInto(Long2DoubleMap out) {
+        int n = drain();
+        for (int i = 0; i < n; i++) {
+            out.put(items[order[i]], scores[order[i]]);
+        }
+        clear();
+    }
+
     @Override
     public LongSet finishSet() {
         assert size == heap.size();
 
         LongSet longs = new LongOpenHashSet(size);
         while (!heap.isEmpty()) {
-            longs.add(items.getLong(heap.dequeueInt()));
+            longs.add(items[heap.dequeueInt()]);
         }
         clear();
 
@@ -185,28 +221,49 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
 
     @Override
     public LongList finishList() {
-        assert size == heap.size();
-        int[] indices = new int[size];
-        // Copy backwards so the scored list is sorted.
-        for (int i = size - 1; i >= 0; i--) {
-            indices[i] = heap.dequeueInt();
-        }
-        LongList list = new LongArrayList(size);
-        for (int i : indices) {
-            list.add(items.getLong(i));
+        int n = drain();
+        LongArrayList list = new LongArrayList(n);
+        for (int i = 0; i < n; i++) {
+            list.add(items[order[i]]);
         }
+        clear();
 
-        assert heap.isEmpty();
+        return list;
+    }
 
+    @Override
+    public LongList finishList(Long2DoubleMap out) {
+        int n = drain();
+        LongArrayList list = new LongArrayList(n);
+        for (int i = 0; i < n; i++) {
+            list.add(items[order[i]]);
+            out.put(items[order[i]], scores[order[i]]);
+        }
         clear();
 
         return list;
     }
 
+    @Override
+    public void reset() {
+        clear();
+    }
+
+    /**
+     * Discard the accumulator's contents and change the number of IDs it retains.  Buffers are kept
+     * for the next accumulation.
+     *
+     * @param n The number of IDs to retain.
+     */
+    public void reset(int n) {
+        clear();
+        targetCount = n;
+    }
+
     private void clear() {
         size = 0;
         slot = 0;
-        items = null;
-        scores = null;
+        used = 0;
+        heap.clear();
     }
 }
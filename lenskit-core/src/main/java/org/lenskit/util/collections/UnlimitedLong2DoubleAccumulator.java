@@ -29,9 +29,19 @@ import it.unimi.dsi.fastutil.longs.*;
 
 /**
  * Scored item accumulator with no upper bound.
+ *
+ * Apart from {@link #finishMap()}, which hands its map to the caller, finishing or resetting the
+ * accumulator keeps its buffers for reuse unless they have grown very large.
  */
 public final class UnlimitedLong2DoubleAccumulator implements Long2DoubleAccumulator {
-    private Long2DoubleMap entries;
+    /**
+     * The largest number of entries whose storage is retained for reuse.
+     */
+    private static final int MAX_RETAINED = 4096;
+
+    private Long2DoubleOpenHashMap entries;
+    private long[] keys = LongArrays.EMPTY_ARRAY;
+    private final LongComparator order = (k1, k2) -> Doubles.compare(entries.get(k2), entries.get(k1));
 
     public UnlimitedLong2DoubleAccumulator() {}
 
@@ -63,6 +73,17 @@ public final class UnlimitedLong2DoubleAccumulator implements Long2DoubleAccumul
         return map;
     }
 
+    @Override
+    public void finishInto(Long2DoubleMap out) {
+        if (entries == null) {
+            return;
+        }
+        for (Long2DoubleMap.Entry e: entries.long2DoubleEntrySet()) {
+            out.put(e.getLongKey(), e.getDoubleValue());
+        }
+        clear();
+    }
+
     @Override
     public LongSet finishSet() {
         if (entries == null) {
@@ -70,7 +91,7 @@ public final class UnlimitedLong2DoubleAccumulator implements Long2DoubleAccumul
         }
 
         LongSet set = new LongOpenHashSet(entries.keySet());
-        entries = null;
+        clear();
         return set;
     }
 
@@ -80,14 +101,39 @@ public final class UnlimitedLong2DoubleAccumulator implements Long2DoubleAccumul
             return LongLists.EMPTY_LIST;
         }
 
-        long[] longs = entries.keySet().toLongArray();
-        LongArrays.quickSort(longs, new AbstractLongComparator() {
-            @Override
-            public int compare(long k1, long k2) {
-                return Doubles.compare(entries.get(k2), entries.get(k1));
-            }
-        });
-        entries = null;
-        return new LongArrayList(longs);
+        int n = entries.size();
+        if (keys.length < n) {
+            keys = new long[n];
+        }
+        entries.keySet().toArray(keys);
+        LongArrays.quickSort(keys, 0, n, order);
+        LongList list = LongArrayList.wrap(LongArrays.copy(keys, 0, n));
+        clear();
+        return list;
+    }
+
+    @Override
+    public LongList finishList(Long2DoubleMap out) {
+        if (entries != null) {
+            out.putAll(entries);
+        }
+        return finishList();
+    }
+
+    @Override
+    public void reset() {
+        clear();
+    }
+
+    private void clear() {
+        if (entries == null) {
+            return;
+        }
+        if (entries.size() > MAX_RETAINED) {
+            entries = null;
+            keys = LongArrays.EMPTY_ARRAY;
+        } else {
+            entries.clear();
+        }
     }
 }
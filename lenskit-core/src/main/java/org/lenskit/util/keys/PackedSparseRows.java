@@ -0,0 +1,419 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.keys;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.AbstractLong2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
+import net.jcip.annotations.Immutable;
+import org.lenskit.util.math.StoragePrecision;
+import org.lenskit.util.math.Vectors;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact, immutable storage for a list of sparse rows (such as the neighborhoods of a similarity
+ * matrix).  Keys are stored as `int` positions in a shared {@link SortedKeyIndex}, and values at a
+ * chosen {@link StoragePrecision}.  Rows are exposed as read-only {@link Long2DoubleMap} views;
+ * quantized values are decoded on access.
+ *
+ * @since 3.0
+ */
+@Immutable
+public final class PackedSparseRows implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final SortedKeyIndex domain;
+    private final int[] rowStarts;
+    private final int[] columns;
+    private final Values values;
+    private final double maxError;
+
+    private PackedSparseRows(SortedKeyIndex dom, int[] starts, int[] cols, Values vals, double err) {
+        domain = dom;
+        rowStarts = starts;
+        columns = cols;
+        values = vals;
+        maxError = err;
+    }
+
+    /**
+     * Pack a list of rows.
+     *
+     * @param domain The key domain, or `null` to use the keys of the rows.  If a domain is given,
+     *               every key in the rows must be in it.
+     * @param rows The rows to pack.
+     * @param precision The precision at which to store values.
+     * @return The packed rows.
+     */
+    public static PackedSparseRows pack(@Nullable SortedKeyIndex domain, List<? extends Long2DoubleMap> rows,
+                                        StoragePrecision precision) {
+        if (domain == null) {
+            LongSet keys = new LongOpenHashSet();
+            for (Long2DoubleMap row: rows) {
+                keys.addAll(row.keySet());
+            }
+            domain = SortedKeyIndex.fromCollection(keys);
+        }
+
+        int n = rows.size();
+        int[] starts = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            starts[i + 1] = starts[i] + rows.get(i).size();
+        }
+        int[] cols = new int[starts[n]];
+        int base = domain.getLowerBound();
+        for (int i = 0; i < n; i++) {
+            int pos = starts[i];
+            for (Long2DoubleMap.Entry e: Vectors.fastEntries(rows.get(i))) {
+                int idx = domain.tryGetIndex(e.getLongKey());
+                Preconditions.checkArgument(idx >= 0, "key %s not in domain", e.getLongKey());
+                cols[pos++] = idx - base;
+            }
+            // the domain is sorted, so sorting positions sorts each row by key
+            Arrays.sort(cols, starts[i], starts[i + 1]);
+        }
+
+        PackedSparseRows structure = new PackedSparseRows(domain, starts, cols, null, 0);
+        return structure.withValues(rows, precision);
+    }
+
+    /**
+     * Create packed rows with the same keys as these rows, but different values.  This allows
+     * several sets of values over the same keys (e.g. raw and normalized vectors) to share storage
+     * for their keys.
+     *
+     * @param rows The rows of values.  Each row must have the same keys as the corresponding row
+     *             of this object.
+     * @param precision The precision at which to store values.
+     * @return The packed rows.
+     */
+    public PackedSparseRows withValues(List<? extends Long2DoubleMap> rows, StoragePrecision precision) {
+        Preconditions.checkArgument(rows.size() == getRowCount(), "row count mismatch");
+        double[] raw = new double[columns.length];
+        int base = domain.getLowerBound();
+        for (int i = 0; i < rows.size(); i++) {
+            Long2DoubleMap row = rows.get(i);
+            Preconditions.checkArgument(row.size() == rowStarts[i + 1] - rowStarts[i],
+                                        "row %s has different keys", i);
+            for (int p = rowStarts[i]; p < rowStarts[i + 1]; p++) {
+                long key = domain.getKey(base + columns[p]);
+                Preconditions.checkArgument(row.containsKey(key), "row %s has different keys", i);
+                raw[p] = row.get(key);
+            }
+        }
+
+        Values vals;
+        switch (precision) {
+        case DOUBLE:
+            vals = new DoubleValues(raw);
+            break;
+        case FLOAT:
+            vals = new FloatValues(raw);
+            break;
+        default:
+            vals = new QuantizedValues(raw, precision.getBits());
+        }
+
+        double err = 0;
+        for (int p = 0; p < raw.length; p++) {
+            err = Math.max(err, Math.abs(raw[p] - vals.get(p)));
+        }
+        return new PackedSparseRows(domain, rowStarts, columns, vals, err);
+    }
+
+    /**
+     * Get the key domain of the rows.
+     * @return The key domain.
+     */
+    public SortedKeyIndex getDomain() {
+        return domain;
+    }
+
+    /**
+     * Get the number of rows.
+     * @return The number of rows.
+     */
+    public int getRowCount() {
+        return rowStarts.length - 1;
+    }
+
+    /**
+     * Get the total number of entries in all rows.
+     * @return The number of entries.
+     */
+    public int getEntryCount() {
+        return columns.length;
+    }
+
+    /**
+     * Get a row.
+     * @param i The row number.
+     * @return A read-only view of the row.
+     */
+    public Long2DoubleMap getRow(int i) {
+        Preconditions.checkElementIndex(i, getRowCount(), "row");
+        return new RowMap(this, i);
+    }
+
+    /**
+     * Get the precision at which values are stored.
+     * @return The storage precision.
+     */
+    public StoragePrecision getPrecision() {
+        return values.getPrecision();
+    }
+
+    /**
+     * Get the largest absolute difference between a stored value and the value it was packed from.
+     * @return The maximum storage error (0 for double precision).
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Estimate the number of bytes used by the packed arrays.  This approximates both the heap
+     * and the serialized size of the data, excluding the key domain.
+     * @return The approximate size in bytes.
+     */
+    public long getByteSize() {
+        return 4L * rowStarts.length + 4L * columns.length + values.getByteSize();
+    }
+
+    /**
+     * Describe the storage for use in model descriptions.
+     * @return A description of the precision, size and maximum error.
+     */
+    public String describeStorage() {
+        return String.format("%s, %.1f KiB, max error %.3g",
+                             getPrecision().name().toLowerCase(), getByteSize() / 1024.0, maxError);
+    }
+
+    /**
+     * Find the position of a key in a row.
+     * @return The position in the column array, or a negative value if absent.
+     */
+    private int find(int row, long key) {
+        int idx = domain.tryGetIndex(key);
+        if (idx < 0) {
+            return -1;
+        }
+        int p = Arrays.binarySearch(columns, rowStarts[row], rowStarts[row + 1], idx - domain.getLowerBound());
+        return p >= 0 ? p : -1;
+    }
+
+    private long keyAt(int p) {
+        return domain.getKey(domain.getLowerBound() + columns[p]);
+    }
+
+    private abstract static class Values implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        abstract double get(int p);
+
+        abstract StoragePrecision getPrecision();
+
+        abstract long getByteSize();
+    }
+
+    private static class DoubleValues extends Values {
+        private static final long serialVersionUID = 1L;
+        private final double[] data;
+
+        DoubleValues(double[] vs) {
+            data = vs;
+        }
+
+        @Override
+        double get(int p) {
+            return data[p];
+        }
+
+        @Override
+        StoragePrecision getPrecision() {
+            return StoragePrecision.DOUBLE;
+        }
+
+        @Override
+        long getByteSize() {
+            return 8L * data.length;
+        }
+    }
+
+    private static class FloatValues extends Values {
+        private static final long serialVersionUID = 1L;
+        private final float[] data;
+
+        FloatValues(double[] vs) {
+            data = new float[vs.length];
+            for (int i = 0; i < vs.length; i++) {
+                data[i] = (float) vs[i];
+            }
+        }
+
+        @Override
+        double get(int p) {
+            return data[p];
+        }
+
+        @Override
+        StoragePrecision getPrecision() {
+            return StoragePrecision.FLOAT;
+        }
+
+        @Override
+        long getByteSize() {
+            return 4L * data.length;
+        }
+    }
+
+    /**
+     * Values quantized linearly onto the levels between the minimum and maximum value.  Levels are
+     * stored offset by half the range, so they fit in signed shorts or bytes.
+     */
+    private static class QuantizedValues extends Values {
+        private static final long serialVersionUID = 1L;
+        private final int bits;
+        private final double min;
+        private final double step;
+        @Nullable
+        private final short[] shorts;
+        @Nullable
+        private final byte[] bytes;
+
+        QuantizedValues(double[] vs, int nbits) {
+            bits = nbits;
+            double lo = Double.POSITIVE_INFINITY;
+            double hi = Double.NEGATIVE_INFINITY;
+            for (double v: vs) {
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+            }
+            int levels = (1 << bits) - 1;
+            int offset = 1 << (bits - 1);
+            min = vs.length > 0 ? lo : 0;
+            step = hi > lo ? (hi - lo) / levels : 0;
+            short[] ss = bits == 16 ? new short[vs.length] : null;
+            byte[] bs = bits == 8 ? new byte[vs.length] : null;
+            for (int i = 0; i < vs.length; i++) {
+                int q = step > 0 ? (int) Math.round((vs[i] - min) / step) : 0;
+                if (ss != null) {
+                    ss[i] = (short) (q - offset);
+                } else {
+                    bs[i] = (byte) (q - offset);
+                }
+            }
+            shorts = ss;
+            bytes = bs;
+        }
+
+        @Override
+        double get(int p) {
+            int q = shorts != null ? shorts[p] : bytes[p];
+            return min + (q + (1 << (bits - 1))) * step;
+        }
+
+        @Override
+        StoragePrecision getPrecision() {
+            return bits == 16 ? StoragePrecision.QUANTIZED_16 : StoragePrecision.QUANTIZED_8;
+        }
+
+        @Override
+        long getByteSize() {
+            return shorts != null ? 2L * shorts.length : (long) bytes.length;
+        }
+    }
+
+    /**
+     * Read-only view of one row.
+     */
+    private static class RowMap extends AbstractLong2DoubleMap {
+        private static final long serialVersionUID = 1L;
+        private final PackedSparseRows rows;
+        private final int row;
+
+        RowMap(PackedSparseRows rs, int r) {
+            rows = rs;
+            row = r;
+        }
+
+        @Override
+        public int size() {
+            return rows.rowStarts[row + 1] - rows.rowStarts[row];
+        }
+
+        @Override
+        public boolean containsKey(long key) {
+            return rows.find(row, key) >= 0;
+        }
+
+        @Override
+        public double get(long key) {
+            int p = rows.find(row, key);
+            return p >= 0 ? rows.values.get(p) : defaultReturnValue();
+        }
+
+        @Override
+        public ObjectSet<Entry> long2DoubleEntrySet() {
+            return new AbstractObjectSet<Entry>() {
+                @Override
+                public ObjectIterator<Entry> iterator() {
+                    return new ObjectIterator<Entry>() {
+                        int pos = rows.rowStarts[row];
+
+                        @Override
+                        public boolean hasNext() {
+                            return pos < rows.rowStarts[row + 1];
+                        }
+
+                        @Override
+                        public Entry next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int p = pos++;
+                            return new BasicEntry(rows.keyAt(p), rows.values.get(p));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return RowMap.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.math;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.io.Serializable;
+
+/**
+ * Dense real matrix that stores its entries as single-precision floats, in row-major order.  It
+ * uses half the memory of a double matrix; entries set on it are rounded to float precision.
+ *
+ * @since 3.0
+ */
+public class FloatMatrix extends AbstractRealMatrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int rows;
+    private final int columns;
+    private final float[] data;
+
+    /**
+     * Create a new zero matrix.
+     * @param nr The number of rows.
+     * @param nc The number of columns.
+     */
+    public FloatMatrix(int nr, int nc) {
+        rows = nr;
+        columns = nc;
+        data = new float[nr * nc];
+    }
+
+    /**
+     * Create a float copy of a matrix.
+     * @param mat The matrix to copy.
+     * @return A float matrix with the entries of `mat`, rounded to float precision.
+     */
+    public static FloatMatrix copyOf(RealMatrix mat) {
+        FloatMatrix copy = new FloatMatrix(mat.getRowDimension(), mat.getColumnDimension());
+        for (int i = 0; i < copy.rows; i++) {
+            for (int j = 0; j < copy.columns; j++) {
+                copy.data[i * copy.columns + j] = (float) mat.getEntry(i, j);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Compute the largest difference between the entries of this matrix and another.
+     * @param mat A matrix of the same dimensions (usually the one this matrix was copied from).
+     * @return The maximum absolute difference between corresponding entries.
+     */
+    public double maxDifference(RealMatrix mat) {
+        checkSameDimensions(mat);
+        double max = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                max = Math.max(max, Math.abs(data[i * columns + j] - mat.getEntry(i, j)));
+            }
+        }
+        return max;
+    }
+
+    private void checkSameDimensions(RealMatrix mat) {
+        if (mat.getRowDimension() != rows || mat.getColumnDimension() != columns) {
+            throw new IllegalArgumentException("matrix dimensions do not match");
+        }
+    }
+
+    @Override
+    public int getRowDimension() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return columns;
+    }
+
+    @Override
+    public RealMatrix createMatrix(int nr, int nc) {
+        return new FloatMatrix(nr, nc);
+    }
+
+    @Override
+    public RealMatrix copy() {
+        FloatMatrix copy = new FloatMatrix(rows, columns);
+        System.arraycopy(data, 0, copy.data, 0, data.length);
+        return copy;
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+        return data[offset(row, column)];
+    }
+
+    @Override
+    public void setEntry(int row, int column, double value) {
+        data[offset(row, column)] = (float) value;
+    }
+
+    private int offset(int row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new OutOfRangeException(row, 0, rows - 1);
+        }
+        if (column < 0 || column >= columns) {
+            throw new OutOfRangeException(column, 0, columns - 1);
+        }
+        return row * columns + column;
+    }
+}
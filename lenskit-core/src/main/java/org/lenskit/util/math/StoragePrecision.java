@@ -0,0 +1,76 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.math;
+
+/**
+ * Precision used to store the values of a model.  Lower precisions trade accuracy for memory:
+ * floats round each value to single precision, while the quantized precisions map values linearly
+ * onto 2<sup>16</sup> or 2<sup>8</sup> levels spanning the range of stored values.
+ *
+ * @since 3.0
+ */
+public enum StoragePrecision {
+    DOUBLE(64),
+    FLOAT(32),
+    QUANTIZED_16(16),
+    QUANTIZED_8(8);
+
+    private final int bits;
+
+    StoragePrecision(int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * Get the number of bits used to store each value.
+     * @return The number of bits per value.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Query whether this precision quantizes values to a fixed number of levels.
+     * @return `true` for the quantized precisions.
+     */
+    public boolean isQuantized() {
+        return this == QUANTIZED_16 || this == QUANTIZED_8;
+    }
+
+    /**
+     * Get the precision with a number of bits per value.
+     * @param bits The number of bits (64, 32, 16, or 8).
+     * @return The storage precision.
+     * @throws IllegalArgumentException if there is no precision with `bits` bits.
+     */
+    public static StoragePrecision fromBits(int bits) {
+        for (StoragePrecision p: values()) {
+            if (p.bits == bits) {
+                return p;
+            }
+        }
+        throw new IllegalArgumentException("no storage precision with " + bits + " bits");
+    }
+}
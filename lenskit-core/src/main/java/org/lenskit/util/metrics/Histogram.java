@@ -0,0 +1,67 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.metrics;
+
+/**
+ * A metric recording the distribution of non-negative values.
+ */
+public interface Histogram {
+    /**
+     * Record a value.
+     * @param value The value; negative values are recorded as 0.
+     */
+    void update(long value);
+
+    /**
+     * Get the number of values recorded.
+     * @return The number of values.
+     */
+    long getCount();
+
+    /**
+     * Get the mean of the recorded values.
+     * @return The mean, or 0 if no values were recorded.
+     */
+    double getMean();
+
+    /**
+     * Get the smallest recorded value.
+     * @return The minimum, or 0 if no values were recorded.
+     */
+    long getMin();
+
+    /**
+     * Get the largest recorded value.
+     * @return The maximum, or 0 if no values were recorded.
+     */
+    long getMax();
+
+    /**
+     * Get a quantile of the recorded values.  Implementations may approximate.
+     * @param q The quantile, in the range [0,1].
+     * @return The value at quantile {@code q}, or 0 if no values were recorded.
+     */
+    long getQuantile(double q);
+}
@@ -0,0 +1,107 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Access to the global metric registry.  By default, the registry is a no-op registry that records nothing, and
+ * instrumented LensKit code checks {@link #isEnabled()} before measuring, so metrics cost a single field read when
+ * they are turned off.  Install a registry with {@link #setRegistry(MetricRegistry)} to collect them.
+ *
+ * Metric names are built from the class name of the instrumented component and an operation, such as
+ * `org.lenskit.basic.TopNItemRecommender.recommend`.
+ */
+public final class Metrics {
+    private static volatile MetricRegistry registry = NoopRegistry.INSTANCE;
+
+    private Metrics() {}
+
+    /**
+     * Get the global metric registry.
+     * @return The current registry.
+     */
+    @Nonnull
+    public static MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Set the global metric registry.
+     * @param reg The registry to use, or {@code null} to stop collecting metrics.
+     */
+    public static void setRegistry(@Nullable MetricRegistry reg) {
+        registry = reg != null ? reg : NoopRegistry.INSTANCE;
+    }
+
+    /**
+     * Query whether metrics are being collected.
+     * @return {@code true} if the global registry records metrics.
+     */
+    public static boolean isEnabled() {
+        return registry.isEnabled();
+    }
+
+    /**
+     * Get a timer for an operation of a component.
+     * @param type The component type.
+     * @param op The operation name.
+     * @return The timer from the global registry.
+     */
+    public static Timer timer(Class<?> type, String op) {
+        return registry.timer(metricName(type, op));
+    }
+
+    /**
+     * Get a counter for an operation of a component.
+     * @param type The component type.
+     * @param op The operation name.
+     * @return The counter from the global registry.
+     */
+    public static Counter counter(Class<?> type, String op) {
+        return registry.counter(metricName(type, op));
+    }
+
+    /**
+     * Get a histogram for an operation of a component.
+     * @param type The component type.
+     * @param op The operation name.
+     * @return The histogram from the global registry.
+     */
+    public static Histogram histogram(Class<?> type, String op) {
+        return registry.histogram(metricName(type, op));
+    }
+
+    /**
+     * Get the metric name for an operation of a component.
+     * @param type The component type.
+     * @param op The operation name.
+     * @return The metric name.
+     */
+    public static String metricName(Class<?> type, String op) {
+        return type.getName() + "." + op;
+    }
+}
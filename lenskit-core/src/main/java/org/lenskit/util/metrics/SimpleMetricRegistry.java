@@ -0,0 +1,387 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.metrics;
+
+import com.google.common.base.Preconditions;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.table.TableLayout;
+import org.lenskit.util.table.TableLayoutBuilder;
+import org.lenskit.util.table.writer.CSVWriter;
+import org.lenskit.util.table.writer.TableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.management.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * In-memory metric registry.  Histograms and timers keep counts in exponential buckets with eight sub-buckets per
+ * power of two, so quantiles are accurate to within 12.5% and recording a value never allocates.
+ *
+ * Metrics can be exported with {@link #writeTo(File)} or exposed over JMX with {@link #registerMBeans(String)}.
+ */
+@ThreadSafe
+public class SimpleMetricRegistry implements MetricRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SimpleMetricRegistry.class);
+    private static final String[] COLUMNS = {
+            "Name", "Kind", "Count", "Mean", "Min", "Max", "Median", "P95", "P99"
+    };
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<>();
+    @Nullable
+    private volatile String jmxDomain;
+
+    @Override
+    public Counter counter(String name) {
+        return lookup(name, SimpleCounter.class, SimpleCounter::new);
+    }
+
+    @Override
+    public Histogram histogram(String name) {
+        return lookup(name, BucketHistogram.class, BucketHistogram::new);
+    }
+
+    @Override
+    public Timer timer(String name) {
+        return lookup(name, SimpleTimer.class, SimpleTimer::new);
+    }
+
+    private <M extends Metric> M lookup(String name, Class<M> type, Function<String, M> ctor) {
+        Metric m = metrics.get(name);
+        if (m == null) {
+            m = metrics.computeIfAbsent(name, n -> {
+                M nm = ctor.apply(n);
+                String domain = jmxDomain;
+                if (domain != null) {
+                    register(domain, nm);
+                }
+                return nm;
+            });
+        }
+        Preconditions.checkArgument(type.isInstance(m), "metric %s is a %s", name, m.getKind());
+        return type.cast(m);
+    }
+
+    /**
+     * Get a snapshot of the metrics in this registry.
+     * @return The metrics, by name.  Counters are {@link Counter}s, and histograms and timers are {@link Histogram}s.
+     */
+    public SortedMap<String, Object> getMetrics() {
+        return new TreeMap<>(metrics);
+    }
+
+    /**
+     * Write the metrics to a table, one row per metric.  Timer values are in nanoseconds.
+     * @param out The table writer; its layout must have the columns of {@link #getTableLayout()}.
+     * @throws IOException if there is an error writing the table.
+     */
+    public void writeTo(TableWriter out) throws IOException {
+        for (Map.Entry<String, Object> e: getMetrics().entrySet()) {
+            Metric m = (Metric) e.getValue();
+            if (m instanceof Histogram) {
+                Histogram h = (Histogram) m;
+                out.writeRow(e.getKey(), m.getKind(), h.getCount(), h.getMean(), h.getMin(), h.getMax(),
+                             h.getQuantile(0.5), h.getQuantile(0.95), h.getQuantile(0.99));
+            } else {
+                out.writeRow(e.getKey(), m.getKind(), ((Counter) m).getCount(),
+                             null, null, null, null, null, null);
+            }
+        }
+    }
+
+    /**
+     * Write the metrics to a CSV file.
+     * @param file The output file; it is compressed if its name has a compression extension.
+     * @throws IOException if there is an error writing the file.
+     */
+    public void writeTo(File file) throws IOException {
+        try (TableWriter out = CSVWriter.open(file, getTableLayout())) {
+            writeTo(out);
+        }
+    }
+
+    /**
+     * Get the table layout used to export metrics.
+     * @return The table layout.
+     */
+    public static TableLayout getTableLayout() {
+        return new TableLayoutBuilder().addColumns(COLUMNS).build();
+    }
+
+    /**
+     * Expose the metrics in this registry, including ones created later, as MBeans on the platform MBean server.
+     * Each metric is registered as {@code domain:type=Metric,name=NAME}.
+     *
+     * @param domain The JMX domain.
+     */
+    public void registerMBeans(String domain) {
+        Preconditions.checkState(jmxDomain == null, "metrics already registered with JMX");
+        jmxDomain = domain;
+        for (Metric m: metrics.values()) {
+            register(domain, m);
+        }
+    }
+
+    /**
+     * Remove this registry's MBeans from the platform MBean server.
+     */
+    public void unregisterMBeans() {
+        String domain = jmxDomain;
+        if (domain == null) {
+            return;
+        }
+        jmxDomain = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Metric m: metrics.values()) {
+            try {
+                server.unregisterMBean(objectName(domain, m));
+            } catch (InstanceNotFoundException e) {
+                /* already gone */
+            } catch (JMException e) {
+                logger.warn("could not unregister metric {}: {}", m.name, e.toString());
+            }
+        }
+    }
+
+    private static void register(String domain, Metric m) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(m, objectName(domain, m));
+        } catch (JMException e) {
+            logger.warn("could not register metric {} with JMX: {}", m.name, e.toString());
+        }
+    }
+
+    private static ObjectName objectName(String domain, Metric m) throws MalformedObjectNameException {
+        return new ObjectName(domain + ":type=Metric,name=" + ObjectName.quote(m.name));
+    }
+
+    /**
+     * Base class for metrics in this registry.
+     */
+    private abstract static class Metric implements MetricMXBean {
+        final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return getKind() + " " + name;
+        }
+    }
+
+    private static class SimpleCounter extends Metric implements Counter {
+        private final LongAdder count = new LongAdder();
+
+        SimpleCounter(String name) {
+            super(name);
+        }
+
+        @Override
+        public String getKind() {
+            return "counter";
+        }
+
+        @Override
+        public void inc(long n) {
+            count.add(n);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMean() {
+            return 0;
+        }
+
+        @Override
+        public long getMin() {
+            return 0;
+        }
+
+        @Override
+        public long getMax() {
+            return 0;
+        }
+
+        @Override
+        public long getMedian() {
+            return 0;
+        }
+
+        @Override
+        public long get95thPercentile() {
+            return 0;
+        }
+
+        @Override
+        public long get99thPercentile() {
+            return 0;
+        }
+    }
+
+    private static class BucketHistogram extends Metric implements Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        BucketHistogram(String name) {
+            super(name);
+        }
+
+        @Override
+        public String getKind() {
+            return "histogram";
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_COUNT) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        static long bucketUpperBound(int bucket) {
+            if (bucket < SUB_COUNT) {
+                return bucket;
+            }
+            int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+            long sub = bucket % SUB_COUNT;
+            long lower = (SUB_COUNT + sub) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        @Override
+        public void update(long value) {
+            long v = Math.max(value, 0);
+            buckets.incrementAndGet(bucket(v));
+            count.increment();
+            sum.add(v);
+            min.accumulateAndGet(v, Math::min);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getMean() {
+            long n = count.sum();
+            return n > 0 ? (double) sum.sum() / n : 0;
+        }
+
+        @Override
+        public long getMin() {
+            long m = min.get();
+            return m == Long.MAX_VALUE ? 0 : m;
+        }
+
+        @Override
+        public long getMax() {
+            long m = max.get();
+            return m == Long.MIN_VALUE ? 0 : m;
+        }
+
+        @Override
+        public long getQuantile(double q) {
+            Preconditions.checkArgument(q >= 0 && q <= 1, "quantile out of range");
+            long total = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(Math.max(bucketUpperBound(i), getMin()), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public long getMedian() {
+            return getQuantile(0.5);
+        }
+
+        @Override
+        public long get95thPercentile() {
+            return getQuantile(0.95);
+        }
+
+        @Override
+        public long get99thPercentile() {
+            return getQuantile(0.99);
+        }
+    }
+
+    private static class SimpleTimer extends BucketHistogram implements Timer {
+        SimpleTimer(String name) {
+            super(name);
+        }
+
+        @Override
+        public String getKind() {
+            return "timer";
+        }
+
+        @Override
+        public Context time() {
+            final long start = System.nanoTime();
+            return () -> update(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A metric recording the distribution of durations, in nanoseconds.  Time a block of code with:
+ *
+ * ```java
+ * try (Timer.Context ctx = timer.time()) {
+ *     // do work
+ * }
+ * ```
+ */
+public interface Timer extends Histogram {
+    /**
+     * Start timing an operation.
+     * @return A context that records the elapsed time when closed.
+     */
+    Context time();
+
+    /**
+     * Record a duration.
+     * @param duration The duration.
+     * @param unit The duration's unit.
+     */
+    default void update(long duration, TimeUnit unit) {
+        update(unit.toNanos(duration));
+    }
+
+    /**
+     * A timing in progress.
+     */
+    interface Context extends AutoCloseable {
+        /**
+         * Stop timing and record the elapsed time.
+         */
+        @Override
+        void close();
+    }
+}
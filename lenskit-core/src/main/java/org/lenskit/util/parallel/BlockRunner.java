@@ -0,0 +1,154 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.parallel;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.lenskit.util.collections.LongUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Run a task over fixed-size blocks of a list of IDs on a bounded number of threads.  Each worker
+ * thread takes the next unprocessed block when it finishes its current one, so at most one block
+ * per thread is in flight at any time; a task that hands off its results before returning
+ * therefore runs in memory bounded by the block size and thread count, not the list size.
+ */
+public class BlockRunner {
+    private static final Logger logger = LoggerFactory.getLogger(BlockRunner.class);
+
+    private final int blockSize;
+    private final int threadCount;
+
+    /**
+     * Create a new block runner.
+     * @param size The number of IDs in each block.
+     * @param threads The number of threads to use; 0 to use one per available processor, and 1 to
+     *                run all blocks on the calling thread.
+     */
+    public BlockRunner(int size, int threads) {
+        Preconditions.checkArgument(size > 0, "block size must be positive");
+        Preconditions.checkArgument(threads >= 0, "thread count must be non-negative");
+        blockSize = size;
+        threadCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Run a task over the blocks of a list.  This method returns when all blocks are done; if a
+     * task fails, no further blocks are started and the failure is rethrown.
+     *
+     * @param idCollection The IDs to process.
+     * @param task The task to run on each block.  It may be invoked concurrently from several threads.
+     */
+    public void run(Collection<Long> idCollection, Consumer<LongList> task) {
+        LongList ids;
+        if (idCollection instanceof List) {
+            ids = LongUtils.asLongList((List<Long>) idCollection);
+        } else {
+            ids = new LongArrayList(idCollection);
+        }
+        int nblocks = (ids.size() + blockSize - 1) / blockSize;
+        int nthreads = Math.min(threadCount, nblocks);
+        logger.debug("processing {} IDs in {} blocks on {} threads", ids.size(), nblocks, nthreads);
+        if (nthreads <= 1) {
+            for (int b = 0; b < nblocks; b++) {
+                task.accept(getBlock(ids, b));
+            }
+            return;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        Callable<Void> worker = () -> {
+            int b;
+            while ((b = next.getAndIncrement()) < nblocks) {
+                try {
+                    task.accept(getBlock(ids, b));
+                } catch (Throwable th) {
+                    // stop the other workers from starting new blocks
+                    next.set(nblocks);
+                    throw th;
+                }
+            }
+            return null;
+        };
+
+        ExecutorService exec = Executors.newFixedThreadPool(nthreads, new ThreadFactoryBuilder()
+                .setNameFormat("lenskit-block-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<Void>> futures = new ArrayList<>(nthreads);
+            for (int i = 0; i < nthreads; i++) {
+                futures.add(exec.submit(worker));
+            }
+            Throwable failure = null;
+            for (Future<Void> f: futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                Throwables.throwIfUnchecked(failure);
+                throw new UncheckedExecutionException(failure);
+            }
+        } catch (InterruptedException e) {
+            next.set(nblocks);
+            Thread.currentThread().interrupt();
+            throw new UncheckedExecutionException("interrupted while processing blocks", e);
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private LongList getBlock(LongList ids, int block) {
+        int start = block * blockSize;
+        return ids.subList(start, Math.min(start + blockSize, ids.size()));
+    }
+}
@@ -26,6 +26,9 @@ package org.lenskit.util.parallel;
 
 import com.google.common.util.concurrent.Monitor;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
 
@@ -49,6 +52,24 @@ public class Blockers {
         ForkJoinPool.managedBlock(new SemaphoreBlocker(s));
     }
 
+    /**
+     * Acquire an exclusive lock on a file, coordinating with the fork-join pool if one is running.
+     * File locks are held on behalf of the whole JVM, so callers must make sure that only one thread
+     * at a time tries to lock the same file.
+     *
+     * @param channel The channel of the file to lock.
+     * @return The lock.
+     * @throws IOException if there is an error locking the file.
+     */
+    public static FileLock lockFile(FileChannel channel) throws IOException, InterruptedException {
+        FileLockBlocker blocker = new FileLockBlocker(channel);
+        ForkJoinPool.managedBlock(blocker);
+        if (blocker.error != null) {
+            throw blocker.error;
+        }
+        return blocker.lock;
+    }
+
     private static class MonitorBlocker implements ForkJoinPool.ManagedBlocker {
         private final Monitor monitor;
 
@@ -93,4 +114,39 @@ public class Blockers {
             return acquired || (acquired = semaphore.tryAcquire());
         }
     }
+
+    private static class FileLockBlocker implements ForkJoinPool.ManagedBlocker {
+        private final FileChannel channel;
+        private FileLock lock;
+        private IOException error;
+
+        FileLockBlocker(FileChannel ch) {
+            channel = ch;
+        }
+
+        @Override
+        public boolean block() {
+            if (lock == null && error == null) {
+                try {
+                    lock = channel.lock();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (lock != null || error != null) {
+                return true;
+            }
+            try {
+                lock = channel.tryLock();
+            } catch (IOException e) {
+                error = e;
+            }
+            return lock != null || error != null;
+        }
+    }
 }
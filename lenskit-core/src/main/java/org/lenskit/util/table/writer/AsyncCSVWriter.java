@@ -0,0 +1,335 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.table.writer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.Files;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.io.CompressionMode;
+import org.lenskit.util.io.LKFileUtils;
+import org.lenskit.util.table.TableLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillCloseWhenClosed;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CSV table writer that does its output on a background thread.  Each writing thread formats rows
+ * into its own reusable buffer; full buffers are handed to a single background thread through a
+ * bounded queue, and that thread does all writing (and compression, if the output is compressed).
+ * If the background thread falls behind, writers block until the queue has room.
+ *
+ * <p>Rows written by a single thread appear in the output in the order they were written; rows from
+ * different threads may be interleaved.  Buffered rows are only guaranteed to reach the output after
+ * {@link #flush()} or {@link #close()}.  If the background thread fails, the error is reported by
+ * the next call to any of the writing methods.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class AsyncCSVWriter extends AbstractTableWriter {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncCSVWriter.class);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    /**
+     * The default number of chunks that can be waiting for output.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    /**
+     * The default number of characters each thread buffers before handing rows off.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+    /**
+     * How often threads waiting on the output thread check that it is still running.
+     */
+    private static final long WAIT_CHECK_MILLIS = 100;
+
+    private final TableLayout layout;
+    private final Writer writer;
+    private final int chunkSize;
+    private final BlockingQueue<Object> queue;
+    private final Map<Thread, StringBuilder> buffers = new ConcurrentHashMap<>();
+    private final ThreadLocal<StringBuilder> localBuffer = ThreadLocal.withInitial(this::registerBuffer);
+    private final Thread outputThread;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Construct a new asynchronous CSV writer with default buffer sizes.
+     *
+     * @param w The underlying writer to output to.
+     * @param l The table layout, or {@code null} if the table has no headers.
+     * @throws IOException if there is an error writing the column headers.
+     */
+    public AsyncCSVWriter(@WillCloseWhenClosed @Nonnull Writer w, @Nullable TableLayout l) throws IOException {
+        this(w, l, DEFAULT_QUEUE_SIZE, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Construct a new asynchronous CSV writer.
+     *
+     * @param w The underlying writer to output to.
+     * @param l The table layout, or {@code null} if the table has no headers.
+     * @param queueSize The number of chunks that can be waiting for output before writers block.
+     * @param chunkSize The number of characters each thread buffers before handing its rows off.
+     * @throws IOException if there is an error writing the column headers.
+     */
+    public AsyncCSVWriter(@WillCloseWhenClosed @Nonnull Writer w, @Nullable TableLayout l,
+                          int queueSize, int chunkSize) throws IOException {
+        Preconditions.checkNotNull(w, "writer");
+        Preconditions.checkArgument(queueSize > 0, "queue size must be positive");
+        layout = l;
+        writer = w instanceof BufferedWriter ? w : new BufferedWriter(w);
+        this.chunkSize = chunkSize;
+        queue = new ArrayBlockingQueue<>(queueSize);
+        if (layout != null) {
+            CSVWriter.appendRow(writer, layout.getColumns());
+        }
+
+        outputThread = new Thread(this::runOutput, "csv-writer-" + threadCount.incrementAndGet());
+        outputThread.setDaemon(true);
+        outputThread.start();
+    }
+
+    @Override
+    public TableLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public void writeRow(List<?> row) throws IOException {
+        Preconditions.checkState(!closed, "writer has been closed");
+        checkFailure();
+        if (layout != null) {
+            checkRowWidth(row.size());
+        }
+
+        StringBuilder buf = localBuffer.get();
+        synchronized (buf) {
+            // close() marks the writer closed before handing off the buffers, so a row that gets
+            // past this check is handed off by close()
+            Preconditions.checkState(!closed, "writer has been closed");
+            CSVWriter.appendRow(buf, row);
+            if (buf.length() >= chunkSize) {
+                handOff(buf);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This hands off all threads' buffered rows and waits for the background thread to write them.
+     */
+    @Override
+    public void flush() throws IOException {
+        Preconditions.checkState(!closed, "writer has been closed");
+        handOffAll();
+        Command cmd = new Command(false);
+        enqueue(cmd);
+        cmd.await();
+        checkFailure();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            handOffAll();
+        } finally {
+            Command cmd = new Command(true);
+            enqueue(cmd);
+            cmd.await();
+            buffers.clear();
+        }
+        checkFailure();
+    }
+
+    private StringBuilder registerBuffer() {
+        StringBuilder buf = new StringBuilder(chunkSize + chunkSize / 4);
+        buffers.put(Thread.currentThread(), buf);
+        return buf;
+    }
+
+    /**
+     * Hand off buffered text to the output thread.  The caller must hold the buffer's monitor.
+     */
+    private void handOff(StringBuilder buf) throws IOException {
+        if (buf.length() > 0) {
+            String chunk = buf.toString();
+            buf.setLength(0);
+            enqueue(chunk);
+        }
+    }
+
+    private void handOffAll() throws IOException {
+        for (StringBuilder buf: buffers.values()) {
+            synchronized (buf) {
+                handOff(buf);
+            }
+        }
+    }
+
+    private void enqueue(Object item) throws IOException {
+        try {
+            while (!queue.offer(item, WAIT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkOutputThread();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for output queue");
+        }
+    }
+
+    /**
+     * Fail if the output thread has stopped, so callers waiting on it do not block forever.
+     */
+    private void checkOutputThread() throws IOException {
+        if (!outputThread.isAlive()) {
+            checkFailure();
+            throw new IOException("CSV output thread has stopped");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable th = failure;
+        if (th != null) {
+            throw new IOException("background CSV output failed", th);
+        }
+    }
+
+    private void runOutput() {
+        while (true) {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                // keep draining, like after a write error, so writers and waiters do not block forever
+                if (failure == null) {
+                    logger.error("CSV output thread interrupted, discarding remaining output");
+                    failure = e;
+                }
+                continue;
+            }
+
+            if (item instanceof Command) {
+                Command cmd = (Command) item;
+                try {
+                    if (cmd.close) {
+                        closeQuietly();
+                        return;
+                    } else if (failure == null) {
+                        writer.flush();
+                    }
+                } catch (Throwable th) {
+                    failure = th;
+                } finally {
+                    cmd.done.countDown();
+                }
+            } else if (failure == null) {
+                // after a failure, keep draining so writers do not block forever
+                try {
+                    writer.write((String) item);
+                } catch (Throwable th) {
+                    logger.error("error writing CSV output", th);
+                    failure = th;
+                }
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            writer.close();
+        } catch (Throwable th) {
+            if (failure == null) {
+                failure = th;
+            }
+        }
+    }
+
+    /**
+     * Open an asynchronous CSV writer to write to a file.
+     *
+     * @param file        The file to write to.
+     * @param layout      The layout of the table.
+     * @param compression What compression, if any, to use.
+     * @return A CSV writer outputting to {@code file}.
+     * @throws IOException if there is an error opening the file or writing the column header.
+     */
+    public static AsyncCSVWriter open(File file, @Nullable TableLayout layout, CompressionMode compression) throws IOException {
+        Files.createParentDirs(file);
+        Writer writer = LKFileUtils.openOutput(file, Charset.defaultCharset(), compression);
+        try {
+            return new AsyncCSVWriter(writer, layout);
+        } catch (Throwable th) {
+            try {
+                writer.close();
+            } catch (Throwable th2) {
+                th.addSuppressed(th2);
+            }
+            Throwables.propagateIfInstanceOf(th, IOException.class);
+            throw Throwables.propagate(th);
+        }
+    }
+
+    /**
+     * A control message for the output thread.
+     */
+    private class Command {
+        final boolean close;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Command(boolean close) {
+            this.close = close;
+        }
+
+        void await() throws IOException {
+            try {
+                while (!done.await(WAIT_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkOutputThread();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for CSV output");
+            }
+        }
+    }
+}
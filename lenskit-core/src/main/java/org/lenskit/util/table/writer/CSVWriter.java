@@ -93,19 +93,30 @@ public class CSVWriter extends AbstractTableWriter {
             checkRowWidth(row.size());
         }
 
+        appendRow(writer, row);
+    }
+
+    /**
+     * Format a row as a line of CSV, including the line terminator.
+     *
+     * @param out The output to append to.
+     * @param row The row values.
+     * @throws IOException if there is an error writing to the output.
+     */
+    static void appendRow(Appendable out, List<?> row) throws IOException {
         boolean first = true;
         for (Object val: row) {
             if (!first) {
-                writer.write(',');
+                out.append(',');
             }
             first = false;
             if (val instanceof Number) {
-                writer.write(val.toString());
+                out.append(val.toString());
             } else if (val != null) {
-                writer.write(escapeCsv(val.toString()));
+                out.append(escapeCsv(val.toString()));
             }
         }
-        writer.newLine();
+        out.append(System.lineSeparator());
     }
 
     @Override
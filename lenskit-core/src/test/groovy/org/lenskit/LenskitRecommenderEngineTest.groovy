@@ -27,6 +27,7 @@ package org.lenskit
 import org.grouplens.grapht.Component
 import org.grouplens.grapht.Dependency
 import org.grouplens.grapht.graph.DAGNode
+import org.grouplens.grapht.reflect.Qualifiers
 import org.grouplens.grapht.reflect.Satisfaction
 import org.grouplens.grapht.reflect.internal.InstanceSatisfaction
 import org.grouplens.lenskit.iterative.StoppingThreshold
@@ -44,6 +45,9 @@ import org.lenskit.data.dao.DataAccessObject
 import org.lenskit.data.dao.EntityCollectionDAO
 import org.lenskit.data.dao.file.StaticDataSource
 import org.lenskit.data.ratings.RatingMatrix
+import org.lenskit.inject.GraphtUtils
+import org.lenskit.inject.SectionSatisfaction
+import org.lenskit.inject.SectionedGraphFile
 import org.lenskit.inject.Shareable
 import org.lenskit.transform.normalize.MeanVarianceNormalizer
 import org.lenskit.transform.normalize.VectorNormalizer
@@ -323,6 +327,47 @@ public class LenskitRecommenderEngineTest {
         }
     }
 
+    @Test
+    public void testSerializeSectioned() throws RecommenderBuildException, IOException, ClassNotFoundException {
+        LenskitConfiguration config = configureBasicRecommender()
+
+        def engine = LenskitRecommenderEngine.newBuilder()
+                                             .addConfiguration(config)
+                                             .build(dao)
+
+        File tfile = File.createTempFile("lenskit", "engine")
+        File tfile2 = File.createTempFile("lenskit", "engine")
+        try {
+            engine.writeSectioned(tfile)
+            assertThat(SectionedGraphFile.isSectioned(tfile), equalTo(true))
+            def e2 = LenskitRecommenderEngine.newLoader()
+                                             .load(tfile)
+            def node = GraphtUtils.findSatisfyingNode(e2.graph, Qualifiers.matchDefault(), ItemScorer)
+            def sat = node.label.satisfaction
+            assertThat(sat, instanceOf(SectionSatisfaction))
+            assertThat(sat.loaded, equalTo(false))
+
+            def rec = e2.createRecommender(dao)
+            try {
+                verifyBasicRecommender(rec)
+            } finally {
+                rec.close()
+            }
+            assertThat(sat.loaded, equalTo(true))
+            assertThat(e2.getComponent(ItemScorer), sameInstance(sat.instance))
+
+            // a lazily-loaded engine can be written back out in the plain format
+            e2.write(tfile2)
+            assertThat(SectionedGraphFile.isSectioned(tfile2), equalTo(false))
+            def e3 = LenskitRecommenderEngine.newLoader()
+                                             .load(tfile2)
+            assertThat(e3.getComponent(ItemScorer), instanceOf(ConstantItemScorer))
+        } finally {
+            tfile.delete()
+            tfile2.delete()
+        }
+    }
+
     @Test
     public void testSerializeAddConfig() throws RecommenderBuildException, IOException, ClassNotFoundException {
         LenskitConfiguration config = configureBasicRecommender()
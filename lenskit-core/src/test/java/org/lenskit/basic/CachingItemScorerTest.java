@@ -0,0 +1,143 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.results.Results;
+import org.lenskit.util.collections.LongUtils;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CachingItemScorerTest {
+    private CountingScorer baseScorer;
+    private CachingItemScorer cachedScorer;
+
+    @Before
+    public void setup() {
+        ItemScorer scores = PrecomputedItemScorer.newBuilder()
+                                                 .addScore(1, 3, 3.5)
+                                                 .addScore(2, 4, 5)
+                                                 .addScore(2, 6, 3)
+                                                 .addScore(3, 1, 5)
+                                                 .addScore(3, 2, 4.5)
+                                                 .addScore(3, 4, 1)
+                                                 .build();
+        baseScorer = new CountingScorer(scores);
+        cachedScorer = new CachingItemScorer(baseScorer, 2, 0);
+    }
+
+    @Test
+    public void testScore() {
+        assertThat(cachedScorer.score(1, 3),
+                   equalTo((Result) Results.create(3, 3.5)));
+        assertThat(cachedScorer.score(1, 3),
+                   equalTo((Result) Results.create(3, 3.5)));
+        assertThat(baseScorer.scored.get(), equalTo(1));
+        assertThat(cachedScorer.getHitCount(), equalTo(1L));
+        assertThat(cachedScorer.getMissCount(), equalTo(1L));
+        assertThat(cachedScorer.getHitRate(), closeTo(0.5, 1.0e-6));
+    }
+
+    @Test
+    public void testPartialHit() {
+        ResultMap first = cachedScorer.scoreWithDetails(3, LongUtils.packedSet(1, 2));
+        assertThat(first.keySet(), containsInAnyOrder(1L, 2L));
+        ResultMap second = cachedScorer.scoreWithDetails(3, LongUtils.packedSet(1, 2, 3, 4));
+        // item 3 cannot be scored
+        assertThat(second.keySet(), containsInAnyOrder(1L, 2L, 4L));
+        assertThat(second.getScore(4), equalTo(1.0));
+        // items 3 and 4 were requested once each, and 3 is remembered as unscorable
+        cachedScorer.scoreWithDetails(3, LongUtils.packedSet(3, 4));
+        assertThat(baseScorer.scored.get(), equalTo(4));
+        assertThat(cachedScorer.getHitCount(), equalTo(4L));
+    }
+
+    @Test
+    public void testInvalidate() {
+        cachedScorer.score(2, 4);
+        cachedScorer.invalidate(2);
+        cachedScorer.score(2, 4);
+        assertThat(baseScorer.scored.get(), equalTo(2));
+
+        cachedScorer.score(1, 3);
+        cachedScorer.invalidateAll();
+        assertThat(cachedScorer.getCachedUserCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testEvictUsers() {
+        cachedScorer.score(1, 3);
+        cachedScorer.score(2, 4);
+        cachedScorer.score(3, 1);
+        assertThat(cachedScorer.getCachedUserCount(), lessThanOrEqualTo(2L));
+    }
+
+    @Test
+    public void testConcurrentUsers() throws Exception {
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            Collection<Callable<Double>> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                long user = (i % 2) + 2;
+                long item = user == 2 ? 4 : 2;
+                tasks.add(() -> cachedScorer.score(user, item).getScore());
+            }
+            for (Future<Double> f: exec.invokeAll(tasks)) {
+                assertThat(f.get(), anyOf(equalTo(5.0), equalTo(4.5)));
+            }
+        } finally {
+            exec.shutdown();
+        }
+        assertThat(cachedScorer.getHitCount() + cachedScorer.getMissCount(), equalTo(100L));
+        assertThat(baseScorer.scored.get(), lessThan(100));
+    }
+
+    private static class CountingScorer extends AbstractItemScorer {
+        private final ItemScorer delegate;
+        final AtomicInteger scored = new AtomicInteger();
+
+        CountingScorer(ItemScorer d) {
+            delegate = d;
+        }
+
+        @Nonnull
+        @Override
+        public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
+            scored.addAndGet(items.size());
+            return delegate.scoreWithDetails(user, items);
+        }
+    }
+}
@@ -24,6 +24,8 @@
  */
 package org.lenskit.basic;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.junit.Before;
 import org.junit.Test;
@@ -109,4 +111,15 @@ public class FallbackItemScorerTest {
 
         assertThat(results.get(10L), nullValue());
     }
+
+    @Test
+    public void testStreamScores() {
+        LongSet items = LongUtils.packedSet(10, 30, 39);
+        Long2DoubleMap scores = new Long2DoubleOpenHashMap();
+        scorer.scoreInto(42, items, scores::put);
+        assertThat(scores.size(), equalTo(2));
+        assertThat(scores.get(39), equalTo(3.5));
+        assertThat(scores.get(30), equalTo(4.0));
+        assertThat(scores.containsKey(10), equalTo(false));
+    }
 }
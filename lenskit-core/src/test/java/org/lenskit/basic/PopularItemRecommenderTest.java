@@ -35,8 +35,12 @@ import org.lenskit.data.ratings.InteractionStatistics;
 import org.lenskit.data.ratings.Rating;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
 
 public class PopularItemRecommenderTest {
@@ -120,4 +124,19 @@ public class PopularItemRecommenderTest {
         List<Long> results = recommender.recommend(100, 1);
         assertThat(results, contains(1L));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRecommendForUsers() {
+        Map<Long, List<Long>> results = new ConcurrentHashMap<>();
+        recommender.recommendForUsers(ImmutableList.of(39L, 42L, 17L), -1, null, null, results::put);
+        assertThat(results.keySet(), containsInAnyOrder(39L, 42L, 17L));
+        assertThat(results.get(39L), contains(2L));
+        assertThat(results.get(42L), hasSize(0));
+        assertThat(results.get(17L), contains(1L, 2L));
+
+        results.clear();
+        recommender.recommendForUsers(ImmutableList.of(39L, 17L), 1, ImmutableSet.of(2L), null, results::put);
+        assertThat(results.get(39L), contains(2L));
+        assertThat(results.get(17L), contains(2L));
+    }
+}
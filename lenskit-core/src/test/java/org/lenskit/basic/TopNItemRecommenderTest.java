@@ -25,18 +25,29 @@
 package org.lenskit.basic;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSets;
 import org.junit.Test;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
+import org.lenskit.bias.BiasItemScorer;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entities;
+import org.lenskit.data.ratings.Rating;
 import org.lenskit.results.Results;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -116,4 +127,56 @@ public class TopNItemRecommenderTest {
         assertThat(details, hasSize(2));
         assertThat(details.idList(), contains(3L, 2L));
     }
+
+    @Test
+    public void testRecommendForUsersMatchesPerUser() {
+        List<Rating> ratings = new ArrayList<>();
+        Long2DoubleMap userBiases = new Long2DoubleOpenHashMap();
+        Long2DoubleMap itemBiases = new Long2DoubleOpenHashMap();
+        Random rng = new Random(42);
+        for (long item = 1; item <= 30; item++) {
+            itemBiases.put(item, rng.nextGaussian());
+        }
+        for (long user = 100; user < 120; user++) {
+            userBiases.put(user, rng.nextGaussian());
+            for (int j = 0; j < 5; j++) {
+                ratings.add(Rating.create(user, 1 + rng.nextInt(30), 3.0));
+            }
+        }
+        StaticDataSource source = StaticDataSource.fromList(ratings);
+        source.addSource(LongStream.rangeClosed(1, 30)
+                                   .mapToObj(i -> Entities.create(CommonTypes.ITEM, i))
+                                   .collect(Collectors.toList()));
+        DataAccessObject dao = source.get();
+        BiasItemScorer scorer = new BiasItemScorer(new UserItemBiasModel(3.0, userBiases, itemBiases));
+        ItemRecommender single = new TopNItemRecommender(dao, scorer);
+        ItemRecommender batch = new TopNItemRecommender(dao, scorer, new UserContextManager(), 3, 2);
+
+        List<Long> users = LongStream.range(95, 120).boxed().collect(Collectors.toList());
+        Map<Long, List<Long>> results = new ConcurrentHashMap<>();
+        batch.recommendForUsers(users, 5, null, null, results::put);
+        assertThat(results.keySet(), hasSize(users.size()));
+        for (long user: users) {
+            assertThat(results.get(user), equalTo(single.recommend(user, 5)));
+        }
+
+        results.clear();
+        Set<Long> candidates = ImmutableSet.of(2L, 4L, 6L, 8L);
+        batch.recommendForUsers(users, -1, candidates, ImmutableSet.of(4L), results::put);
+        for (long user: users) {
+            assertThat(results.get(user), equalTo(single.recommend(user, -1, candidates, ImmutableSet.of(4L))));
+            assertThat(results.get(user), hasSize(3));
+        }
+
+        Map<Long, ResultList> details = new ConcurrentHashMap<>();
+        batch.recommendWithDetailsForUsers(users, 5, null, null, details::put);
+        assertThat(details.keySet(), hasSize(users.size()));
+        for (long user: users) {
+            ResultList recs = details.get(user);
+            assertThat(recs.idList(), equalTo(single.recommend(user, 5)));
+            for (Result r: recs) {
+                assertThat(r.getScore(), equalTo(scorer.score(user, r.getId()).getScore()));
+            }
+        }
+    }
 }
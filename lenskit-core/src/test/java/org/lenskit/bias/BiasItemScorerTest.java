@@ -24,6 +24,10 @@
  */
 package org.lenskit.bias;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import org.junit.Before;
 import org.junit.Test;
 import org.lenskit.LenskitConfiguration;
@@ -32,6 +36,7 @@ import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.baseline.GlobalMeanRatingItemScorer;
+import org.lenskit.basic.ScoreSink;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.EntityFactory;
@@ -39,9 +44,7 @@ import org.lenskit.data.ratings.Rating;
 import org.lenskit.data.ratings.RatingSummary;
 import org.lenskit.util.collections.LongUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
@@ -180,4 +183,59 @@ public class BiasItemScorerTest {
         assertThat(basic.get(5L),
                    closeTo(3.5, 0.001));
     }
-}
\ No newline at end of file
+
+    private BiasItemScorer makeUserItemScorer(int blockSize) {
+        Long2DoubleMap users = new Long2DoubleOpenHashMap();
+        users.put(1, -0.5);
+        users.put(8, 0.5);
+        Long2DoubleMap items = new Long2DoubleOpenHashMap();
+        items.put(4, 1.25);
+        items.put(5, -0.75);
+        items.put(7, 0.25);
+        return new BiasItemScorer(new UserItemBiasModel(RATINGS_DAT_MEAN, users, items), blockSize);
+    }
+
+    private void assertScoresMatch(ItemScorer scorer, long user, Collection<Long> items, Map<Long, Double> scores) {
+        Map<Long, Double> expected = scorer.score(user, items);
+        assertThat(scores.keySet(), equalTo(expected.keySet()));
+        for (Map.Entry<Long, Double> e: expected.entrySet()) {
+            assertThat(scores.get(e.getKey()), closeTo(e.getValue(), 1.0e-10));
+        }
+    }
+
+    @Test
+    public void testScoreBlockMatchesScore() {
+        BiasItemScorer scorer = makeUserItemScorer(64);
+        // item 10 and user 28 are not in the model
+        List<Long> items = Arrays.asList(7L, 10L, 4L, 5L);
+        LongList users = new LongArrayList(new long[]{8, 28, 1});
+        Long2DoubleMap[] scores = new Long2DoubleMap[users.size()];
+        ScoreSink[] sinks = new ScoreSink[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            Long2DoubleMap map = new Long2DoubleOpenHashMap();
+            scores[i] = map;
+            sinks[i] = map::put;
+        }
+
+        scorer.scoreBlockInto(users, items, sinks);
+
+        for (int i = 0; i < users.size(); i++) {
+            assertScoresMatch(scorer, users.getLong(i), items, scores[i]);
+        }
+        assertThat(scores[1].get(10L), closeTo(RATINGS_DAT_MEAN, 1.0e-10));
+    }
+
+    @Test
+    public void testScoreForUsersMatchesScore() {
+        BiasItemScorer scorer = makeUserItemScorer(2);
+        List<Long> items = Arrays.asList(7L, 10L, 4L, 5L);
+        List<Long> users = Arrays.asList(8L, 28L, 1L, 3L, 5L);
+        Map<Long, Map<Long, Double>> results = new HashMap<>();
+        scorer.scoreForUsers(users, items, results::put);
+
+        assertThat(results.keySet(), equalTo(new HashSet<>(users)));
+        for (long user: users) {
+            assertScoresMatch(scorer, user, items, results.get(user));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.context;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class UserContextManagerTest {
+    UserContextManager manager;
+    UserContext.Key<String> key;
+    AtomicInteger computations;
+
+    @Before
+    public void setUp() {
+        manager = new UserContextManager();
+        key = new UserContext.Key<>("test");
+        computations = new AtomicInteger();
+    }
+
+    private String compute(long user) {
+        computations.incrementAndGet();
+        return "user " + user;
+    }
+
+    @Test
+    public void testNoContext() {
+        assertThat(manager.getCurrentContext(), nullValue());
+        assertThat(manager.lookup(42, key, this::compute), equalTo("user 42"));
+        assertThat(manager.lookup(42, key, this::compute), equalTo("user 42"));
+        assertThat(computations.get(), equalTo(2));
+        assertThat(manager.getUncachedCount(), equalTo(2L));
+        assertThat(manager.getHitCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testCacheInContext() {
+        try (UserContext ctx = manager.open(42)) {
+            assertThat(manager.getCurrentContext(), sameInstance(ctx));
+            assertThat(manager.lookup(42, key, this::compute), equalTo("user 42"));
+            assertThat(manager.lookup(42, key, this::compute), equalTo("user 42"));
+            assertThat(ctx.getHitCount(), equalTo(1));
+            assertThat(ctx.getMissCount(), equalTo(1));
+            // other users are not cached
+            assertThat(manager.lookup(39, key, this::compute), equalTo("user 39"));
+        }
+        assertThat(computations.get(), equalTo(2));
+        assertThat(manager.getHitCount(), equalTo(1L));
+        assertThat(manager.getMissCount(), equalTo(1L));
+        assertThat(manager.getUncachedCount(), equalTo(1L));
+        assertThat(manager.getCurrentContext(), nullValue());
+    }
+
+    @Test
+    public void testCloseDiscardsValues() {
+        try (UserContext ctx = manager.open(42)) {
+            manager.lookup(42, key, this::compute);
+        }
+        try (UserContext ctx = manager.open(42)) {
+            manager.lookup(42, key, this::compute);
+        }
+        assertThat(computations.get(), equalTo(2));
+        assertThat(manager.getOpenedCount(), equalTo(2L));
+    }
+
+    @Test
+    public void testReenterContext() {
+        try (UserContext outer = manager.open(42)) {
+            manager.lookup(42, key, this::compute);
+            try (UserContext inner = manager.open(42)) {
+                assertThat(inner, sameInstance(outer));
+                manager.lookup(42, key, this::compute);
+            }
+            assertThat(outer.isOpen(), equalTo(true));
+            manager.lookup(42, key, this::compute);
+        }
+        assertThat(computations.get(), equalTo(1));
+        assertThat(manager.getOpenedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testNestedUsers() {
+        try (UserContext outer = manager.open(42)) {
+            manager.lookup(42, key, this::compute);
+            try (UserContext inner = manager.open(39)) {
+                assertThat(manager.getCurrentContext(), sameInstance(inner));
+                manager.lookup(39, key, this::compute);
+                manager.lookup(39, key, this::compute);
+            }
+            assertThat(manager.getCurrentContext(), sameInstance(outer));
+            manager.lookup(42, key, this::compute);
+        }
+        assertThat(computations.get(), equalTo(2));
+    }
+
+    @Test
+    public void testRecommenderSharesRatingVector() {
+        EntityFactory ef = new EntityFactory();
+        EntityCollectionDAO dao = EntityCollectionDAO.create(ef.rating(42, 39, 2.5),
+                                                             ef.rating(42, 20, 3.5));
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.addRoot(RatingVectorPDAO.class);
+
+        try (LenskitRecommender rec = LenskitRecommender.build(config, dao)) {
+            RatingVectorPDAO pdao = rec.get(RatingVectorPDAO.class);
+            UserContextManager mgr = rec.getUserContextManager();
+            try (UserContext ctx = rec.openUserContext(42)) {
+                Long2DoubleMap v1 = pdao.userRatingVector(42);
+                Long2DoubleMap v2 = pdao.userRatingVector(42);
+                assertThat(v2, sameInstance(v1));
+                assertThat(v1.size(), equalTo(2));
+            }
+            assertThat(mgr.getMissCount(), equalTo(1L));
+            assertThat(mgr.getHitCount(), equalTo(1L));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class EntityTimelineTest {
+    private static Rating rating(long id, long user, long item, long ts) {
+        return Rating.newBuilder()
+                     .setId(id)
+                     .setUserId(user)
+                     .setItemId(item)
+                     .setRating(3.5)
+                     .setTimestamp(ts)
+                     .build();
+    }
+
+    // rating IDs deliberately out of timeline order
+    private static final List<Rating> RATINGS = ImmutableList.of(
+            rating(30, 1, 100, 1),
+            rating(10, 2, 100, 2),
+            rating(20, 1, 101, 3),
+            rating(50, 3, 102, 4),
+            rating(40, 2, 101, 5));
+
+    @Test
+    public void testEmptyPrefix() {
+        EntityTimeline tl = EntityTimeline.create(RATINGS);
+        assertThat(tl.size(), equalTo(5));
+        DataAccessObject dao = tl.getPrefixDAO(0);
+        assertThat(dao.query(Rating.class).count(), equalTo(0));
+        assertThat(dao.getEntityIds(CommonTypes.USER), hasSize(0));
+        assertThat(dao.lookupEntity(CommonTypes.RATING, 30), nullValue());
+    }
+
+    @Test
+    public void testFullPrefix() {
+        EntityTimeline tl = EntityTimeline.create(RATINGS);
+        DataAccessObject dao = tl.getPrefixDAO(5);
+        assertThat(dao.query(Rating.class).get(), containsInAnyOrder(RATINGS.toArray()));
+        assertThat(dao.getEntityIds(CommonTypes.USER), containsInAnyOrder(1L, 2L, 3L));
+        assertThat(dao.getEntityIds(CommonTypes.ITEM), containsInAnyOrder(100L, 101L, 102L));
+    }
+
+    @Test
+    public void testPartialPrefix() {
+        EntityTimeline tl = EntityTimeline.create(RATINGS);
+        DataAccessObject dao = tl.getPrefixDAO(3);
+        assertThat(dao.query(Rating.class).get(),
+                   containsInAnyOrder(RATINGS.subList(0, 3).toArray()));
+        assertThat(dao.lookupEntity(CommonTypes.RATING, 10), equalTo(RATINGS.get(1)));
+        assertThat(dao.lookupEntity(CommonTypes.RATING, 40), nullValue());
+        assertThat(dao.getEntityIds(CommonTypes.RATING), containsInAnyOrder(10L, 20L, 30L));
+        assertThat(dao.getEntityIds(CommonTypes.USER), containsInAnyOrder(1L, 2L));
+        assertThat(dao.getEntityIds(CommonTypes.ITEM), containsInAnyOrder(100L, 101L));
+        assertThat(dao.lookupEntity(CommonTypes.ITEM, 102), nullValue());
+
+        assertThat(dao.query(Rating.class)
+                      .withAttribute(CommonAttributes.USER_ID, 2L)
+                      .get(),
+                   contains(RATINGS.get(1)));
+        assertThat(dao.query(Rating.class)
+                      .withAttribute(CommonAttributes.ITEM_ID, 101L)
+                      .get(),
+                   contains(RATINGS.get(2)));
+    }
+
+    @Test
+    public void testPrefixesAreIndependent() {
+        EntityTimeline tl = EntityTimeline.create(RATINGS);
+        DataAccessObject small = tl.getPrefixDAO(1);
+        DataAccessObject large = tl.getPrefixDAO(4);
+        assertThat(small.query(Rating.class).count(), equalTo(1));
+        assertThat(large.query(Rating.class).count(), equalTo(4));
+        assertThat(small.getEntityIds(CommonTypes.USER), contains(1L));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPrefixTooLong() {
+        EntityTimeline.create(RATINGS).getPrefixDAO(6);
+    }
+}
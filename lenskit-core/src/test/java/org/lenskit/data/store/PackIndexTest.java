@@ -0,0 +1,93 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import org.junit.Test;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.lang.reflect.Field;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PackIndexTest {
+    @Test
+    public void testEmptyLongIndex() {
+        PackIndex index = new PackIndex.LongBuilder().build();
+        assertThat(index.getValues(), hasSize(0));
+        assertThat(index.getPositions(10L), hasSize(0));
+    }
+
+    @Test
+    public void testLongIndex() {
+        PackIndex.Builder bld = new PackIndex.LongBuilder();
+        bld.add(42L, 0);
+        bld.add(10L, 1);
+        bld.add(42L, 2);
+        bld.add(null, 3);
+        bld.add(-5L, 4);
+        bld.add(10L, 5);
+        bld.add(42L, 6);
+        PackIndex index = bld.build();
+
+        assertThat(index.getValues(), contains(-5L, 10L, 42L));
+        assertThat(index.getPositions(42L), contains(0, 2, 6));
+        assertThat(index.getPositions(10L), contains(1, 5));
+        assertThat(index.getPositions(-5L), contains(4));
+        assertThat(index.getPositions(7L), hasSize(0));
+        assertThat(index.getPositions((Object) 10L), contains(1, 5));
+        assertThat(index.getPositions("10"), hasSize(0));
+    }
+
+    @Test
+    public void testLongIndexKeysTrimmed() throws ReflectiveOperationException {
+        PackIndex.Builder bld = new PackIndex.LongBuilder();
+        for (int i = 0; i < 100; i++) {
+            bld.add((long) (i % 3), i);
+        }
+        PackIndex.LongIndex index = (PackIndex.LongIndex) bld.build();
+        SortedKeyIndex keys = index.getKeyIndex();
+        assertThat(keys.size(), equalTo(3));
+
+        // the key array must only have room for the distinct keys, not for every value
+        Field field = keys.getClass().getDeclaredField("keys");
+        field.setAccessible(true);
+        long[] backing = (long[]) field.get(keys);
+        assertThat(backing.length, equalTo(3));
+    }
+
+    @Test
+    public void testGenericIndex() {
+        PackIndex.Builder bld = new PackIndex.GenericBuilder();
+        bld.add("foo", 0);
+        bld.add("bar", 1);
+        bld.add("foo", 2);
+        PackIndex index = bld.build();
+
+        assertThat(index.getValues(), containsInAnyOrder("foo", "bar"));
+        assertThat(index.getPositions("foo"), contains(0, 2));
+        assertThat(index.getPositions("wombat"), hasSize(0));
+    }
+}
@@ -24,8 +24,12 @@
  */
 package org.lenskit.data.store;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.junit.Test;
+import org.lenskit.data.dao.SortKey;
+import org.lenskit.data.dao.SortOrder;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.Rating;
 
@@ -194,4 +198,70 @@ public class PackedEntityCollectionTest {
                                               .build();
         assertThat(ec, contains(r));
     }
+
+    @Test
+    public void testProjectRatings() {
+        Entity r1 = Entities.newBuilder(CommonTypes.RATING)
+                            .setId(37)
+                            .setAttribute(CommonAttributes.USER_ID, 10L)
+                            .setAttribute(CommonAttributes.ITEM_ID, 203L)
+                            .setAttribute(CommonAttributes.RATING, 3.5)
+                            .setAttribute(CommonAttributes.TIMESTAMP, 1000L)
+                            .build();
+        Entity r2 = Entities.newBuilder(CommonTypes.RATING)
+                            .setId(38)
+                            .setAttribute(CommonAttributes.USER_ID, 10L)
+                            .setAttribute(CommonAttributes.ITEM_ID, 205L)
+                            .setAttribute(CommonAttributes.RATING, 2.0)
+                            .build();
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING, Rating.ATTRIBUTES)
+                                              .add(r1)
+                                              .add(r2)
+                                              .build();
+        Function<Entity, Rating> proj = ec.projection(Rating.class);
+        List<Rating> ratings = Lists.transform(ec.find(CommonAttributes.USER_ID, 10L), proj);
+        assertThat(ratings, contains(Entities.project(r1, Rating.class),
+                                     Entities.project(r2, Rating.class)));
+        assertThat(ratings.get(0).getTimestamp(), equalTo(1000L));
+        assertThat(ratings.get(1).getTimestamp(), equalTo(-1L));
+        assertThat(ratings.get(1).getId(), equalTo(38L));
+
+        // entities from elsewhere are still projected
+        Rating r3 = Rating.newBuilder().setId(50).setUserId(5).setItemId(7).setRating(1.0).build();
+        assertThat(proj.apply(r3), sameInstance(r3));
+    }
+
+    @Test
+    public void testPlannedFind() {
+        EntityFactory efac = new EntityFactory();
+        Rating r1 = efac.rating(100, 200, 3.5, 30);
+        Rating r2 = efac.rating(100, 201, 4.0, 10);
+        Rating r3 = efac.rating(101, 200, 2.0, 20);
+        Rating r4 = efac.rating(100, 202, 2.5, 20);
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING, Rating.ATTRIBUTES)
+                                              .add(r1)
+                                              .add(r2)
+                                              .add(r3)
+                                              .add(r4)
+                                              .addIndex(CommonAttributes.USER_ID)
+                                              .addIndex(CommonAttributes.ITEM_ID)
+                                              .build();
+
+        List<Attribute<?>> userItem = ImmutableList.of(Attribute.create(CommonAttributes.USER_ID, 100L),
+                                                       Attribute.create(CommonAttributes.ITEM_ID, 200L));
+        assertThat(ec.find(userItem, ImmutableList.of()), contains(r1));
+
+        // filter on an unindexed attribute
+        List<Attribute<?>> userRating = ImmutableList.of(Attribute.create(CommonAttributes.USER_ID, 100L),
+                                                         Attribute.create(CommonAttributes.RATING, 2.5));
+        assertThat(ec.find(userRating, ImmutableList.of()), contains(r4));
+
+        List<Attribute<?>> user = ImmutableList.of(Attribute.create(CommonAttributes.USER_ID, 100L));
+        assertThat(ec.find(user, ImmutableList.of(SortKey.create(CommonAttributes.TIMESTAMP))),
+                   contains(r2, r4, r1));
+        assertThat(ec.find(ImmutableList.of(),
+                           ImmutableList.of(SortKey.create(CommonAttributes.TIMESTAMP, SortOrder.DESCENDING),
+                                            SortKey.create(CommonAttributes.RATING))),
+                   contains(r1, r3, r4, r2));
+    }
 }
@@ -24,10 +24,17 @@
  */
 package org.lenskit.hybrid;
 
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.junit.Test;
+import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ResultList;
+import org.lenskit.basic.AbstractItemRecommender;
 import org.lenskit.results.Results;
 
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 import static org.lenskit.hybrid.RankBlendingItemRecommender.merge;
@@ -61,4 +68,55 @@ public class RankBlendingItemRecommenderTest {
         assertThat(res.get(3).getScore(),
                    closeTo(0.0, 1.0e-6));
     }
+
+    @Test
+    public void testTruncatedMergeMatchesFull() {
+        ResultList left = Results.newResultList(Results.create(1, 5.0),
+                                                Results.create(2, 4.0),
+                                                Results.create(3, 3.0),
+                                                Results.create(4, 2.0),
+                                                Results.create(5, 1.0));
+        ResultList right = Results.newResultList(Results.create(2, 5.0),
+                                                 Results.create(6, 4.0),
+                                                 Results.create(1, 3.0),
+                                                 Results.create(5, 2.0),
+                                                 Results.create(3, 1.0));
+        ResultList full = merge(-1, left, right, 0.6);
+        assertThat(full, hasSize(6));
+        for (int n = 1; n <= 6; n++) {
+            ResultList part = merge(n, left, right, 0.6);
+            assertThat(part.idList(), equalTo(full.idList().subList(0, n)));
+        }
+        RankBlendResult r6 = full.get(full.idList().indexOf(6L)).as(RankBlendResult.class);
+        assertThat(r6.getLeftRank(), equalTo(-1));
+        assertThat(r6.getRightRank(), equalTo(1));
+    }
+
+    @Test
+    public void testConcurrentComponents() {
+        ItemRecommender left = new FixedRecommender(Results.newResultList(Results.create(1, 2.0),
+                                                                          Results.create(2, 1.0)));
+        ItemRecommender right = new FixedRecommender(Results.newResultList(Results.create(2, 2.0),
+                                                                           Results.create(1, 1.0)));
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            RankBlendingItemRecommender rec = new RankBlendingItemRecommender(left, right, 0.8, exec);
+            assertThat(rec.recommend(42, 2), contains(1L, 2L));
+        } finally {
+            exec.shutdown();
+        }
+    }
+
+    private static class FixedRecommender extends AbstractItemRecommender {
+        private final ResultList results;
+
+        FixedRecommender(ResultList res) {
+            results = res;
+        }
+
+        @Override
+        protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+            return results;
+        }
+    }
 }
@@ -92,4 +92,24 @@ public class PearsonCorrelationTest {
         Long2DoubleMap v2 = Long2DoubleSortedArrayMap.wrapUnsorted(k2, val2);
         assertThat(sim.similarity(v1, v2), closeTo(0.6185896, EPSILON));
     }
+
+    @Test
+    public void testPreparedMatchesMaps() {
+        long k1[] = {1, 5, 7, 8};
+        double val1[] = {1.5, 2.5, 2, 3.5};
+        long k2[] = {1, 5, 7, 9};
+        double val2[] = {2, 2.5, 1.7, 0.8};
+        Long2DoubleMap v1 = Long2DoubleSortedArrayMap.wrapUnsorted(k1, val1);
+        Long2DoubleMap v2 = Long2DoubleSortedArrayMap.wrapUnsorted(k2, val2);
+        double expected = sim.similarity(new Long2DoubleOpenHashMap(v1), new Long2DoubleOpenHashMap(v2));
+        assertThat(sim.similarity(PreparedVector.create(v1), PreparedVector.create(v2)),
+                   equalTo(expected));
+        assertThat(new SpearmanRankCorrelation().similarity(PreparedVector.create(v1), PreparedVector.create(v2)),
+                   closeTo(new SpearmanRankCorrelation().similarity(v1, v2), EPSILON));
+        assertThat(new CosineVectorSimilarity().similarity(PreparedVector.create(v1), PreparedVector.create(v2)),
+                   closeTo(new CosineVectorSimilarity().similarity(v1, v2), EPSILON));
+        assertThat(new SignificanceWeightedVectorSimilarity(10, sim).similarity(PreparedVector.create(v1),
+                                                                                PreparedVector.create(v2)),
+                   closeTo(expected * 0.3, EPSILON));
+    }
 }
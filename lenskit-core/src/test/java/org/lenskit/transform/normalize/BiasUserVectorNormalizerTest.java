@@ -83,4 +83,24 @@ public class BiasUserVectorNormalizerTest {
         assertThat(out.get(2L), closeTo(-0.5 + 3.0 + 0.5 - 0.1, 0.0001));
         assertThat(out.get(3L), closeTo(0.2 + 3.0 + 0.5, 0.0001));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInPlaceRoundTrip() {
+        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> tx =
+                normalizer.makeTransformation(42L, Long2DoubleMaps.EMPTY_MAP);
+        assertThat(tx, instanceOf(VectorTransformation.class));
+        VectorTransformation vt = (VectorTransformation) tx;
+
+        long[] keys = {1L, 2L, 3L};
+        double[] values = {3.0, 3.5, 4.0};
+        vt.applyInPlace(keys, values, 3);
+        assertThat(values[0], closeTo(3.0 - 3.0 - 0.5 - 0.2, 0.0001));
+        assertThat(values[1], closeTo(3.5 - 3.0 - 0.5 + 0.1, 0.0001));
+        assertThat(values[2], closeTo(4.0 - 3.0 - 0.5, 0.0001));
+
+        vt.unapplyInPlace(keys, values, 3);
+        assertThat(values[0], closeTo(3.0, 0.0001));
+        assertThat(values[1], closeTo(3.5, 0.0001));
+        assertThat(values[2], closeTo(4.0, 0.0001));
+    }
+}
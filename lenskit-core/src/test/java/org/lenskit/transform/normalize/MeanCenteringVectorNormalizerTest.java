@@ -56,4 +56,24 @@ public class MeanCenteringVectorNormalizerTest {
         out = tx.unapply(toRev);
         assertThat(out.get(4L), closeTo(5, 1.0e-5));
     }
+
+    @Test
+    public void testTransformInPlace() {
+        Long2DoubleMap reference = new Long2DoubleOpenHashMap();
+        reference.put(4L, 3.5);
+        reference.put(5L, 2.5);
+
+        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> tx = norm.makeTransformation(reference);
+
+        long[] keys = {3L, 4L, 5L};
+        double[] values = {4.0, 3.5, 2.5};
+        VectorTransformations.applyInPlace(tx, keys, values, 3);
+        assertThat(values[0], closeTo(1.0, 1.0e-5));
+        assertThat(values[1], closeTo(0.5, 1.0e-5));
+        assertThat(values[2], closeTo(-0.5, 1.0e-5));
+
+        VectorTransformations.unapplyInPlace(tx, keys, values, 3);
+        assertThat(values[0], closeTo(4.0, 1.0e-5));
+        assertThat(values[2], closeTo(2.5, 1.0e-5));
+    }
 }
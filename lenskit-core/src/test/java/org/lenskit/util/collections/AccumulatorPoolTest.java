@@ -0,0 +1,93 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.collections;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AccumulatorPoolTest {
+    @Test
+    public void testReleasedAccumulatorIsReused() {
+        Long2DoubleAccumulator acc = AccumulatorPool.acquire(5);
+        assertThat(acc, instanceOf(TopNLong2DoubleAccumulator.class));
+        acc.put(42, 3.5);
+        AccumulatorPool.release(acc);
+
+        Long2DoubleAccumulator acc2 = AccumulatorPool.acquire(2);
+        try {
+            assertThat(acc2, sameInstance(acc));
+            assertThat(acc2.isEmpty(), equalTo(true));
+            assertThat(((TopNLong2DoubleAccumulator) acc2).getTargetCount(), equalTo(2));
+        } finally {
+            AccumulatorPool.release(acc2);
+        }
+    }
+
+    @Test
+    public void testNestedAcquire() {
+        Long2DoubleAccumulator outer = AccumulatorPool.acquire(3);
+        try {
+            Long2DoubleAccumulator inner = AccumulatorPool.acquire(3);
+            try {
+                assertThat(inner, not(sameInstance(outer)));
+                inner.put(1, 1.0);
+                outer.put(2, 2.0);
+                assertThat(inner.finishList(), contains(1L));
+            } finally {
+                AccumulatorPool.release(inner);
+            }
+            assertThat(outer.finishList(), contains(2L));
+        } finally {
+            AccumulatorPool.release(outer);
+        }
+    }
+
+    @Test
+    public void testUnlimited() {
+        Long2DoubleAccumulator acc = AccumulatorPool.acquire(-1);
+        try {
+            assertThat(acc, instanceOf(UnlimitedLong2DoubleAccumulator.class));
+        } finally {
+            AccumulatorPool.release(acc);
+        }
+    }
+
+    @Test
+    public void testScratchMap() {
+        Long2DoubleOpenHashMap map = AccumulatorPool.acquireMap();
+        map.put(1, 2.0);
+        AccumulatorPool.releaseMap(map);
+        Long2DoubleOpenHashMap map2 = AccumulatorPool.acquireMap();
+        try {
+            assertThat(map2, sameInstance(map));
+            assertThat(map2.isEmpty(), equalTo(true));
+        } finally {
+            AccumulatorPool.releaseMap(map2);
+        }
+    }
+}
@@ -26,6 +26,7 @@ package org.lenskit.util.collections;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.Matchers.contains;
@@ -95,4 +96,34 @@ public class SortedListAccumulatorTest {
         assertThat(res, hasSize(3));
         assertThat(res, contains("zed", "foo", "bar"));
     }
+
+    @Test
+    public void testFinishIntoReuse() {
+        SortedListAccumulator<String> acc = SortedListAccumulator.decreasing(2);
+        acc.add("foo");
+        acc.add("bar");
+        acc.add("zed");
+        List<String> res = new ArrayList<>();
+        res.add("first");
+        acc.finishInto(res);
+        assertThat(res, contains("first", "zed", "foo"));
+
+        acc.add("wumpus");
+        acc.reset();
+        acc.add("bar");
+        assertThat(acc.finish(), contains("bar"));
+    }
+
+    @Test
+    public void testUnlimitedFinishInto() {
+        SortedListAccumulator<String> acc = SortedListAccumulator.decreasing(-1);
+        acc.add("foo");
+        acc.add("bar");
+        acc.add("zed");
+        List<String> res = new ArrayList<>();
+        acc.finishInto(res);
+        assertThat(res, contains("zed", "foo", "bar"));
+        acc.add("wumpus");
+        assertThat(acc.finish(), contains("wumpus"));
+    }
 }
@@ -25,6 +25,7 @@
 package org.lenskit.util.collections;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongList;
 import org.junit.Before;
 import org.junit.Test;
@@ -61,6 +62,21 @@ public class TopNLong2DoubleAccumulatorTest {
         assertThat(out, hasEntry(3L, 2.9));
     }
 
+    @Test
+    public void testAccumListWithScores() {
+        accum.put(7, 1.0);
+        accum.put(5, 4.2);
+        accum.put(3, 2.9);
+        accum.put(2, 9.8);
+        Long2DoubleMap scores = new Long2DoubleOpenHashMap();
+        LongList out = accum.finishList(scores);
+        assertThat(out, contains(2L, 5L, 3L));
+        assertThat(scores.size(), equalTo(3));
+        assertThat(scores, hasEntry(2L, 9.8));
+        assertThat(scores, hasEntry(3L, 2.9));
+        assertThat(accum.isEmpty(), equalTo(true));
+    }
+
     @Test
     public void testAccumMapLimit() {
         accum.put(7, 1.0);
@@ -83,4 +99,36 @@ public class TopNLong2DoubleAccumulatorTest {
         LongList out = accum.finishList();
         assertThat(out, contains(2L, 5L, 3L));
     }
+
+    @Test
+    public void testReuseAfterFinish() {
+        accum.put(5, 4.2);
+        accum.put(3, 2.9);
+        accum.put(2, 9.8);
+        accum.put(8, 2.1);
+        Long2DoubleMap out = new Long2DoubleOpenHashMap();
+        accum.finishInto(out);
+        assertThat(out.size(), equalTo(3));
+        assertThat(out, hasEntry(2L, 9.8));
+        assertThat(out, hasEntry(5L, 4.2));
+        assertThat(out, hasEntry(3L, 2.9));
+        assertThat(accum.isEmpty(), equalTo(true));
+
+        accum.put(7, 1.0);
+        accum.put(4, 3.0);
+        assertThat(accum.finishList(), contains(4L, 7L));
+    }
+
+    @Test
+    public void testResetLimit() {
+        TopNLong2DoubleAccumulator acc = (TopNLong2DoubleAccumulator) accum;
+        acc.put(7, 1.0);
+        acc.reset(5);
+        assertThat(acc.isEmpty(), equalTo(true));
+        for (int i = 0; i < 20; i++) {
+            acc.put(i, i);
+        }
+        assertThat(acc.size(), equalTo(5));
+        assertThat(acc.finishList(), contains(19L, 18L, 17L, 16L, 15L));
+    }
 }
@@ -24,13 +24,15 @@
  */
 package org.lenskit.util.collections;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongList;
 import org.junit.Before;
 import org.junit.Test;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
 
-import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -59,4 +61,20 @@ public class UnlimitedLong2DoubleAccumulatorTest {
         LongList out = accum.finishList();
         assertThat(out, contains(2L, 5L, 3L));
     }
+
+    @Test
+    public void testFinishIntoAndReuse() {
+        accum.put(5, 4.2);
+        accum.put(3, 2.9);
+        Long2DoubleMap out = new Long2DoubleOpenHashMap();
+        accum.finishInto(out);
+        assertThat(out.size(), equalTo(2));
+        assertThat(out, hasEntry(5L, 4.2));
+        assertThat(out, hasEntry(3L, 2.9));
+        assertThat(accum.isEmpty(), equalTo(true));
+
+        accum.put(2, 9.8);
+        accum.put(7, 1.0);
+        assertThat(accum.finishList(), contains(2L, 7L));
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.keys;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+import org.lenskit.util.math.StoragePrecision;
+
+import java.io.*;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class PackedSparseRowsTest {
+    private static Long2DoubleMap row(long[] keys, double[] values) {
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return map;
+    }
+
+    private static final List<Long2DoubleMap> ROWS = ImmutableList.of(
+            row(new long[]{42, 7, 100}, new double[]{0.5, -0.25, 0.9}),
+            row(new long[0], new double[0]),
+            row(new long[]{7, 39}, new double[]{1.0, -1.0}));
+
+    @Test
+    public void testDoubleRows() {
+        PackedSparseRows rows = PackedSparseRows.pack(null, ROWS, StoragePrecision.DOUBLE);
+        assertThat(rows.getRowCount(), equalTo(3));
+        assertThat(rows.getEntryCount(), equalTo(5));
+        assertThat(rows.getDomain().keySet(), contains(7L, 39L, 42L, 100L));
+        assertThat(rows.getMaxError(), equalTo(0.0));
+        for (int i = 0; i < ROWS.size(); i++) {
+            assertThat(rows.getRow(i), equalTo(ROWS.get(i)));
+        }
+        Long2DoubleMap r0 = rows.getRow(0);
+        assertThat(r0.keySet(), contains(7L, 42L, 100L));
+        assertThat(r0.containsKey(39), equalTo(false));
+        assertThat(r0.get(39), equalTo(0.0));
+        assertThat(r0.get(12345), equalTo(0.0));
+        assertThat(rows.getRow(1).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void testFloatRows() {
+        PackedSparseRows rows = PackedSparseRows.pack(null, ROWS, StoragePrecision.FLOAT);
+        assertThat(rows.getPrecision(), equalTo(StoragePrecision.FLOAT));
+        assertThat(rows.getRow(0).get(100), equalTo((double) 0.9f));
+        assertThat(rows.getMaxError(), closeTo(0, 1.0e-7));
+        assertThat(rows.getByteSize(), equalTo(4L * 4 + 4L * 5 + 4L * 5));
+    }
+
+    @Test
+    public void testQuantizedRows() {
+        for (StoragePrecision prec: new StoragePrecision[]{StoragePrecision.QUANTIZED_16, StoragePrecision.QUANTIZED_8}) {
+            PackedSparseRows rows = PackedSparseRows.pack(null, ROWS, prec);
+            double step = 2.0 / ((1 << prec.getBits()) - 1);
+            assertThat(rows.getMaxError(), lessThanOrEqualTo(step / 2 + 1.0e-12));
+            // the extremes are represented exactly
+            assertThat(rows.getRow(2).get(7), closeTo(1.0, 1.0e-12));
+            assertThat(rows.getRow(2).get(39), closeTo(-1.0, 1.0e-12));
+            for (int i = 0; i < ROWS.size(); i++) {
+                for (Long2DoubleMap.Entry e: ROWS.get(i).long2DoubleEntrySet()) {
+                    assertThat(rows.getRow(i).get(e.getLongKey()), closeTo(e.getDoubleValue(), step / 2 + 1.0e-12));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSharedKeys() {
+        PackedSparseRows rows = PackedSparseRows.pack(null, ROWS, StoragePrecision.FLOAT);
+        List<Long2DoubleMap> doubled = ImmutableList.of(
+                row(new long[]{42, 7, 100}, new double[]{1.0, -0.5, 1.8}),
+                row(new long[0], new double[0]),
+                row(new long[]{7, 39}, new double[]{2.0, -2.0}));
+        PackedSparseRows other = rows.withValues(doubled, StoragePrecision.DOUBLE);
+        assertThat(other.getDomain(), sameInstance(rows.getDomain()));
+        assertThat(other.getRow(0), equalTo(doubled.get(0)));
+        assertThat(other.getRow(2), equalTo(doubled.get(2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSharedKeysMismatch() {
+        PackedSparseRows rows = PackedSparseRows.pack(null, ROWS, StoragePrecision.FLOAT);
+        rows.withValues(ImmutableList.of(ROWS.get(2), ROWS.get(1), ROWS.get(0)), StoragePrecision.FLOAT);
+    }
+
+    @Test
+    public void testSerialize() throws IOException, ClassNotFoundException {
+        PackedSparseRows rows = PackedSparseRows.pack(null, ROWS, StoragePrecision.QUANTIZED_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rows.getRow(0));
+        }
+        Long2DoubleMap copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Long2DoubleMap) in.readObject();
+        }
+        assertThat(copy, equalTo(rows.getRow(0)));
+    }
+}
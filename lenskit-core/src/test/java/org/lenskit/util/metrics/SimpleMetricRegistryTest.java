@@ -0,0 +1,144 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.metrics;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.basic.PrecomputedItemScorer;
+import org.lenskit.util.collections.LongUtils;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SimpleMetricRegistryTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void resetRegistry() {
+        Metrics.setRegistry(null);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertThat(Metrics.isEnabled(), equalTo(false));
+        Timer timer = Metrics.timer(getClass(), "test");
+        try (Timer.Context ctx = timer.time()) {
+            Metrics.counter(getClass(), "count").inc();
+        }
+        assertThat(timer.getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testCounter() {
+        SimpleMetricRegistry reg = new SimpleMetricRegistry();
+        reg.counter("foo").inc();
+        reg.counter("foo").inc(4);
+        assertThat(reg.counter("foo").getCount(), equalTo(5L));
+        assertThat(reg.getMetrics().keySet(), contains("foo"));
+    }
+
+    @Test
+    public void testHistogram() {
+        SimpleMetricRegistry reg = new SimpleMetricRegistry();
+        Histogram h = reg.histogram("sizes");
+        assertThat(h.getQuantile(0.5), equalTo(0L));
+        for (int i = 1; i <= 1000; i++) {
+            h.update(i);
+        }
+        assertThat(h.getCount(), equalTo(1000L));
+        assertThat(h.getMean(), closeTo(500.5, 1.0e-6));
+        assertThat(h.getMin(), equalTo(1L));
+        assertThat(h.getMax(), equalTo(1000L));
+        assertThat((double) h.getQuantile(0.5), closeTo(500, 500 * 0.125));
+        assertThat((double) h.getQuantile(0.99), closeTo(990, 990 * 0.125));
+        assertThat(h.getQuantile(1.0), equalTo(1000L));
+    }
+
+    @Test
+    public void testTimer() {
+        SimpleMetricRegistry reg = new SimpleMetricRegistry();
+        Timer t = reg.timer("op");
+        try (Timer.Context ctx = t.time()) {
+            assertThat(t.getCount(), equalTo(0L));
+        }
+        assertThat(t.getCount(), equalTo(1L));
+        assertThat(t.getMax(), greaterThanOrEqualTo(0L));
+    }
+
+    @Test
+    public void testInstrumentScorer() {
+        SimpleMetricRegistry reg = new SimpleMetricRegistry();
+        Metrics.setRegistry(reg);
+        ItemScorer scorer = PrecomputedItemScorer.newBuilder()
+                                                 .addScore(1, 2, 3.5)
+                                                 .build();
+        scorer.score(1, LongUtils.packedSet(2, 3));
+        assertThat(Metrics.timer(PrecomputedItemScorer.class, "score").getCount(), equalTo(1L));
+        assertThat(Metrics.counter(PrecomputedItemScorer.class, "items").getCount(), equalTo(2L));
+    }
+
+    @Test
+    public void testWriteFile() throws Exception {
+        SimpleMetricRegistry reg = new SimpleMetricRegistry();
+        reg.counter("foo").inc(3);
+        reg.timer("bar").update(10);
+        File file = tmp.newFile("metrics.csv");
+        reg.writeTo(file);
+        List<String> lines = Files.readLines(file, StandardCharsets.UTF_8);
+        assertThat(lines, hasSize(3));
+        assertThat(lines.get(0), startsWith("Name,Kind,Count"));
+        assertThat(lines.get(1), startsWith("bar,timer,1,10.0"));
+        assertThat(lines.get(2), startsWith("foo,counter,3"));
+    }
+
+    @Test
+    public void testRegisterMBeans() throws Exception {
+        SimpleMetricRegistry reg = new SimpleMetricRegistry();
+        reg.counter("before").inc(2);
+        reg.registerMBeans("org.lenskit.test");
+        try {
+            reg.histogram("after").update(5);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName before = new ObjectName("org.lenskit.test:type=Metric,name=" + ObjectName.quote("before"));
+            ObjectName after = new ObjectName("org.lenskit.test:type=Metric,name=" + ObjectName.quote("after"));
+            assertThat(server.getAttribute(before, "Count"), equalTo((Object) 2L));
+            assertThat(server.getAttribute(after, "Max"), equalTo((Object) 5L));
+        } finally {
+            reg.unregisterMBeans();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.parallel;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BlockRunnerTest {
+    @Test
+    public void testRunAllBlocks() {
+        List<Long> ids = LongStream.range(0, 1000).boxed().collect(Collectors.toList());
+        for (int threads: new int[]{1, 4}) {
+            Set<Long> seen = ConcurrentHashMap.newKeySet();
+            AtomicInteger blocks = new AtomicInteger();
+            new BlockRunner(64, threads).run(ids, block -> {
+                assertThat(block.size(), lessThanOrEqualTo(64));
+                blocks.incrementAndGet();
+                seen.addAll(block);
+            });
+            assertThat(seen, hasSize(1000));
+            assertThat(blocks.get(), equalTo(16));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        new BlockRunner(10, 4).run(new LongArrayList(), block -> fail("no blocks expected"));
+    }
+
+    @Test
+    public void testFailurePropagates() {
+        LongList ids = new LongArrayList(LongStream.range(0, 100).toArray());
+        try {
+            new BlockRunner(5, 3).run(ids, block -> {
+                if (block.contains(42L)) {
+                    throw new IllegalStateException("bad block");
+                }
+            });
+            fail("block failure should propagate");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("bad block"));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.table.writer;
+
+import org.junit.Test;
+import org.lenskit.util.table.TableLayout;
+import org.lenskit.util.table.TableLayoutBuilder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class AsyncCSVWriterTest {
+    private static final String NL = System.lineSeparator();
+
+    private TableLayout makeLayout() {
+        return new TableLayoutBuilder().addColumn("User")
+                                       .addColumn("Name")
+                                       .build();
+    }
+
+    @Test
+    public void testWriteRows() throws IOException {
+        StringWriter out = new StringWriter();
+        try (AsyncCSVWriter writer = new AsyncCSVWriter(out, makeLayout())) {
+            writer.writeRow(42, "foo");
+            writer.writeRow(39, "bar, baz");
+            writer.flush();
+            assertThat(out.toString(),
+                       equalTo("User,Name" + NL + "42,foo" + NL + "39,\"bar, baz\"" + NL));
+        }
+    }
+
+    @Test
+    public void testWrongWidth() throws IOException {
+        try (AsyncCSVWriter writer = new AsyncCSVWriter(new StringWriter(), makeLayout())) {
+            writer.writeRow(42);
+            fail("writing a short row should fail");
+        } catch (IllegalArgumentException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        StringWriter out = new StringWriter();
+        AsyncCSVWriter writer = new AsyncCSVWriter(out, null, 2, 64);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int tid = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    try {
+                        writer.writeRow(tid, i);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        for (Thread th: threads) {
+            th.start();
+        }
+        for (Thread th: threads) {
+            th.join();
+        }
+        writer.close();
+
+        String[] lines = out.toString().split(NL);
+        assertThat(lines.length, equalTo(2000));
+        Map<String, Integer> last = new HashMap<>();
+        for (String line: lines) {
+            String[] fields = line.split(",");
+            int i = Integer.parseInt(fields[1]);
+            // rows from each thread must stay in order
+            assertThat(i, equalTo(last.getOrDefault(fields[0], -1) + 1));
+            last.put(fields[0], i);
+        }
+    }
+
+    @Test
+    public void testOutputFailure() throws IOException {
+        Writer broken = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        AsyncCSVWriter writer = new AsyncCSVWriter(broken, null, 4, 1);
+        writer.writeRow("foo");
+        try {
+            writer.flush();
+            fail("flush should report the output failure");
+        } catch (IOException e) {
+            assertThat(e.getCause().getMessage(), equalTo("disk full"));
+        }
+        try {
+            writer.close();
+            fail("close should report the output failure");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testOutputThreadInterrupted() throws IOException {
+        StringWriter out = new StringWriter();
+        Writer interrupting = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                out.write(cbuf, off, len);
+                // interrupt the output thread, so its next wait for the queue fails
+                Thread.currentThread().interrupt();
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        AsyncCSVWriter writer = new AsyncCSVWriter(interrupting, null, 1, 1);
+        try {
+            for (int i = 0; i < 20; i++) {
+                writer.writeRow(i);
+            }
+            writer.flush();
+            fail("flush should report the interruption");
+        } catch (IOException e) {
+            assertThat(e.getCause(), instanceOf(InterruptedException.class));
+        }
+        try {
+            writer.close();
+            fail("close should report the interruption");
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    @Test
+    public void testWriteAfterClose() throws IOException {
+        StringWriter out = new StringWriter();
+        AsyncCSVWriter writer = new AsyncCSVWriter(out, null);
+        writer.writeRow("foo");
+        writer.close();
+        try {
+            writer.writeRow("bar");
+            fail("writing after close should fail");
+        } catch (IllegalStateException e) {
+            /* expected */
+        }
+        assertThat(out.toString(), equalTo("foo" + NL));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.crossfold;
+
+import com.google.common.io.Files;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.lenskit.util.io.CompressionMode;
+
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Write byte ranges to a file on a background thread, compressing the output if the file name calls for it.
+ * Only one thread may submit data to a writer.
+ */
+class BackgroundFileWriter implements Closeable {
+    private static final int QUEUE_SIZE = 16;
+    private static final Chunk END = new Chunk(null, null);
+
+    private final File file;
+    private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Thread thread;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    /**
+     * Open a background writer.
+     * @param file The file to write.
+     * @throws IOException if there is an error opening the file.
+     */
+    BackgroundFileWriter(File file) throws IOException {
+        this.file = file;
+        Files.createParentDirs(file);
+        CompressionMode comp = CompressionMode.AUTO.getEffectiveCompressionMode(file.getName());
+        OutputStream raw = new FileOutputStream(file);
+        OutputStream out;
+        try {
+            out = new BufferedOutputStream(comp.wrapOutput(raw));
+        } catch (IOException ex) {
+            try {
+                raw.close();
+            } catch (IOException ex2) {
+                ex.addSuppressed(ex2);
+            }
+            throw ex;
+        }
+        thread = new Thread(() -> run(out), "crossfold-writer-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Write ranges of a buffer.  The buffer must not be modified after it is submitted.
+     * @param data The data.
+     * @param ranges Alternating start and end offsets of the ranges to write.
+     * @throws IOException if a previous write failed.
+     */
+    void write(byte[] data, IntArrayList ranges) throws IOException {
+        checkFailure();
+        try {
+            queue.put(new Chunk(data, ranges));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted writing " + file);
+        }
+    }
+
+    private void run(OutputStream out) {
+        try (OutputStream os = out) {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk == END) {
+                    break;
+                }
+                int n = chunk.ranges.size();
+                for (int i = 0; i < n; i += 2) {
+                    int start = chunk.ranges.getInt(i);
+                    os.write(chunk.data, start, chunk.ranges.getInt(i + 1) - start);
+                }
+            }
+        } catch (Throwable th) {
+            failure = th;
+            // drain so the submitting thread does not block forever
+            queue.clear();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable th = failure;
+        if (th != null) {
+            throw new IOException("error writing " + file, th);
+        }
+    }
+
+    /**
+     * Finish writing the file and close it.
+     * @throws IOException if there was an error writing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failure == null) {
+                queue.put(END);
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted closing " + file);
+        }
+        checkFailure();
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final IntArrayList ranges;
+
+        Chunk(byte[] data, IntArrayList ranges) {
+            this.data = data;
+            this.ranges = ranges;
+        }
+    }
+}
@@ -24,9 +24,9 @@
  */
 package org.lenskit.eval.crossfold;
 
-import com.google.common.collect.Lists;
 import com.google.common.io.Closer;
 import org.lenskit.data.output.RatingWriter;
+import org.lenskit.data.ratings.Rating;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -35,26 +35,40 @@ import java.util.List;
 import java.util.Random;
 
 /**
- * Manager for outputs for a crossfold operation.
+ * Manager for outputs for a crossfold operation.  Each output file is written by its own background thread, so
+ * formatting, compression and I/O for the different folds proceed in parallel.
+ *
+ * Ratings can be written either through the per-file {@link RatingWriter}s or by submitting {@link RatingChunk}s
+ * that route each formatted rating to several files; a crossfold method should use only one of the two.  Train
+ * file <var>i</var> is destination <var>i</var> of a chunk, and test file <var>i</var> is destination
+ * <var>count + i</var>.
  */
 class CrossfoldOutput implements Closeable {
+    /**
+     * The size at which chunks are handed to the writer threads.
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+
     private final Random random;
     private final Closer closer;
     private final int count;
-    private final List<RatingWriter> trainWriters, testWriters;
+    private final boolean includeTimestamps;
+    private final BackgroundFileWriter[] files;
+    private final ChunkRatingWriter[] writers;
 
     public CrossfoldOutput(Crossfolder cf, Random rng) throws IOException {
         random = rng;
         closer = Closer.create();
         count = cf.getPartitionCount();
-        trainWriters = Lists.newArrayListWithCapacity(count);
-        testWriters = Lists.newArrayListWithCapacity(count);
+        includeTimestamps = cf.getWriteTimestamps();
+        files = new BackgroundFileWriter[count * 2];
+        writers = new ChunkRatingWriter[count * 2];
         try {
-            for (Path path: cf.getTrainingFiles()) {
-                trainWriters.add(closer.register(cf.openWriter(path)));
-            }
-            for (Path path: cf.getTestFiles()) {
-                testWriters.add(closer.register(cf.openWriter(path)));
+            List<Path> train = cf.getTrainingFiles();
+            List<Path> test = cf.getTestFiles();
+            for (int i = 0; i < count; i++) {
+                files[i] = closer.register(new BackgroundFileWriter(train.get(i).toFile()));
+                files[count + i] = closer.register(new BackgroundFileWriter(test.get(i).toFile()));
             }
         } catch (Exception ex) {
             // this funny logic is needed to make the closer add any close exceptions as suppressed exceptions
@@ -81,15 +95,94 @@ class CrossfoldOutput implements Closeable {
     }
 
     public RatingWriter getTrainWriter(int i) {
-        return trainWriters.get(i);
+        return getWriter(i);
     }
 
     public RatingWriter getTestWriter(int i) {
-        return testWriters.get(i);
+        return getWriter(count + i);
+    }
+
+    private RatingWriter getWriter(int dest) {
+        ChunkRatingWriter w = writers[dest];
+        if (w == null) {
+            w = writers[dest] = new ChunkRatingWriter(dest);
+        }
+        return w;
+    }
+
+    /**
+     * Create a new chunk for this output's destinations.
+     * @return A new, empty chunk.
+     */
+    RatingChunk newChunk() {
+        return new RatingChunk(count * 2, CHUNK_SIZE + CHUNK_SIZE / 4, includeTimestamps);
+    }
+
+    /**
+     * Hand a chunk to the writer threads.  The chunk must not be modified afterwards.
+     * @param chunk The chunk to write.
+     * @throws IOException if there was an error writing to one of the files.
+     */
+    void submit(RatingChunk chunk) throws IOException {
+        for (int d = 0; d < files.length; d++) {
+            if (chunk.getRanges(d) != null) {
+                files[d].write(chunk.getData(), chunk.getRanges(d));
+            }
+        }
     }
 
     @Override
     public void close() throws IOException {
-        closer.close();
+        try {
+            for (ChunkRatingWriter w: writers) {
+                if (w != null) {
+                    w.flush();
+                }
+            }
+        } catch (Throwable th) {
+            throw closer.rethrow(th);
+        } finally {
+            closer.close();
+        }
+    }
+
+    /**
+     * Rating writer that buffers formatted ratings for a single destination.
+     */
+    private class ChunkRatingWriter implements RatingWriter {
+        private final int dest;
+        private RatingChunk chunk;
+
+        ChunkRatingWriter(int d) {
+            dest = d;
+        }
+
+        @Override
+        public void writeRating(Rating r) throws IOException {
+            if (chunk == null) {
+                chunk = newChunk();
+            }
+            int start = chunk.size();
+            chunk.append(r);
+            chunk.addRange(dest, start, chunk.size());
+            if (chunk.size() >= CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if (chunk != null && chunk.size() > 0) {
+                submit(chunk);
+            }
+            chunk = null;
+        }
+
+        /**
+         * Flush buffered ratings.  The file itself is closed with the crossfold output.
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
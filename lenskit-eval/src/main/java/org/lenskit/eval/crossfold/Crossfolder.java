@@ -44,8 +44,6 @@ import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.EntityType;
 import org.lenskit.data.output.OutputFormat;
-import org.lenskit.data.output.RatingWriter;
-import org.lenskit.data.output.RatingWriters;
 import org.lenskit.eval.traintest.DataSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -472,10 +470,6 @@ public class Crossfolder {
         }
     }
 
-    RatingWriter openWriter(Path file) throws IOException {
-        return RatingWriters.csv(file.toFile(), writeTimestamps);
-    }
-
     @Override
     public String toString() {
         return String.format("{CXManager %s}", source);
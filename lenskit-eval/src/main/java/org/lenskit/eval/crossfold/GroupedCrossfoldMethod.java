@@ -70,29 +70,46 @@ class GroupedCrossfoldMethod implements CrossfoldMethod {
                                                                  .asType(Rating.class)
                                                                  .groupBy(groupAttribute)
                                                                  .stream()) {
+            RatingChunk chunk = output.newChunk();
             for (IdBox<List<Rating>> history : userStream) {
                 int foldNum = splits.get(history.getId());
                 List<Rating> ratings = new ArrayList<>(history.getValue());
                 final int n = ratings.size();
 
+                // format each rating once, then route its bytes to every fold's file
+                int p = n;
+                if (foldNum >= 0) {
+                    order.apply(ratings, output.getRandom());
+                    p = partition.partition(ratings);
+                }
+                final int start = chunk.size();
+                int split = start;
+                for (int j = 0; j < n; j++) {
+                    if (j == p) {
+                        split = chunk.size();
+                    }
+                    chunk.append(ratings.get(j));
+                }
+                final int end = chunk.size();
+                if (p >= n) {
+                    split = end;
+                }
+
                 for (int f = 0; f < count; f++) {
                     if (f == foldNum) {
-                        order.apply(ratings, output.getRandom());
-                        final int p = partition.partition(ratings);
-                        for (int j = 0; j < p; j++) {
-                            output.getTrainWriter(f).writeRating(ratings.get(j));
-                        }
-                        for (int j = p; j < n; j++) {
-                            output.getTestWriter(f).writeRating(ratings.get(j));
-                        }
+                        chunk.addRange(f, start, split);
+                        chunk.addRange(count + f, split, end);
                     } else {
-                        for (Rating rating : ratings) {
-                            output.getTrainWriter(f).writeRating(rating);
-                        }
+                        chunk.addRange(f, start, end);
                     }
                 }
 
+                if (chunk.size() >= CrossfoldOutput.CHUNK_SIZE) {
+                    output.submit(chunk);
+                    chunk = output.newChunk();
+                }
             }
+            output.submit(chunk);
         }
     }
 
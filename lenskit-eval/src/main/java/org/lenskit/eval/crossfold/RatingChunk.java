@@ -0,0 +1,125 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.crossfold;
+
+import it.unimi.dsi.fastutil.bytes.ByteArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.lenskit.data.ratings.Rating;
+
+/**
+ * A chunk of ratings formatted as CSV text, with the byte ranges destined for each output file.  Each rating is
+ * formatted once, no matter how many output files it is written to.  Once a chunk has been
+ * {@linkplain CrossfoldOutput#submit(RatingChunk) submitted}, it must not be modified.
+ */
+class RatingChunk {
+    private static final String EOL = System.lineSeparator();
+
+    private final boolean includeTimestamps;
+    private final IntArrayList[] ranges;
+    private final StringBuilder line = new StringBuilder();
+    private byte[] data;
+    private int size;
+
+    /**
+     * Create a new rating chunk.
+     * @param ndests The number of output destinations.
+     * @param capacity The initial capacity, in bytes.
+     * @param ts Whether to write timestamps.
+     */
+    RatingChunk(int ndests, int capacity, boolean ts) {
+        includeTimestamps = ts;
+        ranges = new IntArrayList[ndests];
+        data = new byte[capacity];
+    }
+
+    /**
+     * Get the number of bytes in the chunk.
+     * @return The size of the formatted data.
+     */
+    int size() {
+        return size;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Get the ranges to write to a destination.
+     * @param dest The destination.
+     * @return The start and end offsets of the ranges, alternating, or {@code null} if there are none.
+     */
+    IntArrayList getRanges(int dest) {
+        return ranges[dest];
+    }
+
+    /**
+     * Format a rating and append it to the chunk.
+     * @param r The rating.
+     */
+    void append(Rating r) {
+        line.setLength(0);
+        line.append(r.getUserId())
+            .append(',')
+            .append(r.getItemId())
+            .append(',')
+            .append(r.getValue());
+        if (includeTimestamps) {
+            line.append(',').append(r.getTimestamp());
+        }
+        line.append(EOL);
+
+        int n = line.length();
+        data = ByteArrays.grow(data, size + n);
+        // the formatted line is plain ASCII
+        for (int i = 0; i < n; i++) {
+            data[size + i] = (byte) line.charAt(i);
+        }
+        size += n;
+    }
+
+    /**
+     * Add a range of this chunk to a destination.  Adjacent ranges are merged.
+     * @param dest The destination.
+     * @param start The start offset.
+     * @param end The end offset.
+     */
+    void addRange(int dest, int start, int end) {
+        if (start == end) {
+            return;
+        }
+        IntArrayList rs = ranges[dest];
+        if (rs == null) {
+            rs = ranges[dest] = new IntArrayList();
+        }
+        int n = rs.size();
+        if (n > 0 && rs.getInt(n - 1) == start) {
+            rs.set(n - 1, end);
+        } else {
+            rs.add(start);
+            rs.add(end);
+        }
+    }
+}
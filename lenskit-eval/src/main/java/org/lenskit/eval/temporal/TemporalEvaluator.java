@@ -33,14 +33,16 @@ import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.util.io.CompressionMode;
 import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
 import org.lenskit.api.*;
+import org.lenskit.context.UserContext;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
-import org.lenskit.data.entities.Entity;
 import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.store.EntityTimeline;
 import org.lenskit.eval.traintest.AlgorithmInstance;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.table.TableLayout;
@@ -221,7 +223,7 @@ public class TemporalEvaluator {
 
         //Initialize recommender engine and recommender
         LenskitRecommenderEngine lre = null;
-        Recommender recommender = null;
+        LenskitRecommender recommender = null;
 
         //Start try block -- will try to write output on file
         try (TableWriter tableWriter = openOutput();
@@ -231,7 +233,9 @@ public class TemporalEvaluator {
                                              .orderBy(CommonAttributes.TIMESTAMP)
                                              .get();
 
-            DataAccessObject limitedDao = StaticDataSource.fromList(Collections.<Entity>emptyList()).get();
+            // pack the history once; each step takes a view of the ratings seen so far
+            EntityTimeline timeline = EntityTimeline.create(ratings);
+            DataAccessObject limitedDao = timeline.getPrefixDAO(0);
             long limitTimestamp = 0;
 
             //Initialize local variables, will use to calculate RMSE
@@ -254,7 +258,8 @@ public class TemporalEvaluator {
                 json.put("rating", r.getValue());
 
                 if (recommender == null || (r.getTimestamp() > 0 && limitTimestamp < r.getTimestamp())) {
-                    limitedDao = StaticDataSource.fromList(ratings.subList(0, ridx)).get();
+                    limitedDao = timeline.getPrefixDAO(ridx);
+                    limitTimestamp = r.getTimestamp();
 
                     //rebuild recommender system if its older then rebuild period set or null
                     if ((r.getTimestamp() - buildTime >= rebuildPeriod) || lre == null) {
@@ -282,37 +287,39 @@ public class TemporalEvaluator {
 
                 json.put("modelAge", r.getTimestamp() - buildTime);
 
-                // get rating prediction if available
                 Double predict = null;
-                RatingPredictor predictor = recommender.getRatingPredictor();
-                Result predictionResult = null;
-                if (predictor != null) {
-                    predictionResult = predictor.predict(r.getUserId(), r.getItemId());
-                }
+                double rmse = 0.0;
+                Integer rank = null;
+                try (UserContext ctx = recommender.openUserContext(r.getUserId())) {
+                    // get rating prediction if available
+                    RatingPredictor predictor = recommender.getRatingPredictor();
+                    Result predictionResult = null;
+                    if (predictor != null) {
+                        predictionResult = predictor.predict(r.getUserId(), r.getItemId());
+                    }
 
-                if (predictionResult != null) {
-                    predict = predictionResult.getScore();
-                    logger.debug("predicted {} for rating {}", predict, r);
-                    json.put("prediction", predict);
-                } else {
-                    json.put("prediction", null);
-                }
+                    if (predictionResult != null) {
+                        predict = predictionResult.getScore();
+                        logger.debug("predicted {} for rating {}", predict, r);
+                        json.put("prediction", predict);
+                    } else {
+                        json.put("prediction", null);
+                    }
 
-                /***calculate Time Averaged RMSE***/
-                double rmse = 0.0;
-                if (predict != null && !Double.isNaN(predict)) {
-                    double err = predict - r.getValue();
-                    sse += err * err;
-                    n++;
-                    rmse = sqrt(sse / n);
-                }
+                    /***calculate Time Averaged RMSE***/
+                    if (predict != null && !Double.isNaN(predict)) {
+                        double err = predict - r.getValue();
+                        sse += err * err;
+                        n++;
+                        rmse = sqrt(sse / n);
+                    }
 
-                // Compute recommendations
-                Integer rank = null;
-                ItemRecommender irec = recommender.getItemRecommender();
-                if (irec != null) {
-                    rank = getRecommendationRank(limitedDao, r, json, irec);
+                    // Compute recommendations
+                    ItemRecommender irec = recommender.getItemRecommender();
+                    if (irec != null) {
+                        rank = getRecommendationRank(limitedDao, r, json, irec);
 
+                    }
                 }
 
                 /**writes the Prediction Score, Rank and TARMSE on file.**/
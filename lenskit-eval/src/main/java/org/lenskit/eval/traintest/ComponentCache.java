@@ -25,6 +25,9 @@
 package org.lenskit.eval.traintest;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.util.concurrent.Monitor;
 import net.jcip.annotations.ThreadSafe;
 import org.grouplens.grapht.Component;
@@ -40,6 +43,7 @@ import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.NodeInstantiator;
 import org.lenskit.inject.NodeProcessor;
 import org.lenskit.util.describe.*;
+import org.lenskit.util.io.CompressionMode;
 import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
 import org.lenskit.util.io.StagedWrite;
 import org.lenskit.util.parallel.Blockers;
@@ -52,25 +56,37 @@ import javax.inject.Provider;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Shared cache for components in merged compilations.  This cache implements two kinds of caching for shareable nodes:
  *
- * -   Soft references to allow instances to be opportunistically reused between invocations
- * -   Optional disk-based caching to allow shareable components to be shared between all uses, even if their soft
- *     references might be flushed out of memory, as well as reused by subsequent evaluator invocations.
+ * -   In-memory retention, to allow instances to be reused between invocations.  Objects whose size is known (the
+ *     uncompressed size of their serialized form, measured when writing or reading the disk cache) are kept within an
+ *     explicit {@linkplain #setMemoryBudget(long) byte budget}, evicting the least recently used; other objects are
+ *     kept behind soft references.  Looking up an object that is in memory
+ *     takes no locks.
+ * -   Optional disk-based caching to allow shareable components to be shared between all uses, even if they have
+ *     been evicted from memory, as well as reused by subsequent evaluator invocations.  Other processes sharing the
+ *     cache directory coordinate through a lock file per component, so each component is only built once.
+ *
+ * Disk cache files are Java serialization streams, compressed with the configured {@linkplain #setCompression
+ * compression mode}.  Uncompressed files are the fastest to load, and are read through memory mapping.  Files written
+ * with any mode are read.
  */
 @ThreadSafe
 class ComponentCache implements NodeProcessor {
     private static final Logger logger = LoggerFactory.getLogger(ComponentCache.class);
+    private static final int IO_BUFFER_SIZE = 1 << 16;
 
     @Nullable
     private final Path cacheDir;
@@ -85,6 +101,22 @@ class ComponentCache implements NodeProcessor {
      */
     private final ConcurrentHashMap<DAGNode<Component,Dependency>,CacheEntry> cache;
 
+    /**
+     * Monitors for cache keys.  Distinct nodes can have the same key, and must not build or lock the
+     * same cache file concurrently.
+     */
+    private final ConcurrentHashMap<String,Monitor> keyMonitors = new ConcurrentHashMap<>();
+
+    private volatile CompressionMode compression = CompressionMode.GZIP;
+
+    /**
+     * The objects retained within the memory budget, guarded by itself.
+     */
+    private final List<CacheEntry> retained = new ArrayList<>();
+    private long retainedBytes = 0;
+    private volatile long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    private final AtomicLong useClock = new AtomicLong();
+
     /**
      * Construct a new component cache.
      *
@@ -103,6 +135,39 @@ class ComponentCache implements NodeProcessor {
         return cacheDir;
     }
 
+    public CompressionMode getCompression() {
+        return compression;
+    }
+
+    /**
+     * Set the compression used for disk cache files.  The default is {@link CompressionMode#GZIP}, which
+     * keeps files small; {@link CompressionMode#NONE} makes large components much faster to load.
+     *
+     * @param mode The compression mode.
+     */
+    public void setCompression(CompressionMode mode) {
+        Preconditions.checkArgument(mode != CompressionMode.AUTO, "cache compression must be explicit");
+        compression = mode;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set the number of bytes of components to retain in memory.  Sizes are approximated by the size of the
+     * serialized component before compression.  The default is one quarter of the maximum heap size.
+     *
+     * @param bytes The memory budget in bytes.
+     */
+    public void setMemoryBudget(long bytes) {
+        Preconditions.checkArgument(bytes >= 0, "memory budget must be non-negative");
+        memoryBudget = bytes;
+        synchronized (retained) {
+            evict(null);
+        }
+    }
+
     Object instantiate(@Nonnull DAGNode<Component, Dependency> node) throws InjectionException {
         DAGNode<Component,Dependency> n2 = processNode(node, node);
         return instantiator.instantiate(n2);
@@ -164,15 +229,131 @@ class ComponentCache implements NodeProcessor {
         return bld.build();
     }
 
+    /**
+     * Find the disk cache file for a key, in any supported compression mode.  The configured mode is
+     * checked first.
+     *
+     * @param key The cache key.
+     * @return The existing cache file, or {@code null} if the component is not cached on disk.
+     */
+    @Nullable
+    private Path findCacheFile(String key) {
+        if (cacheDir == null) {
+            return null;
+        }
+        Path file = cacheDir.resolve(key + fileSuffix(compression));
+        if (Files.exists(file)) {
+            return file;
+        }
+        for (CompressionMode mode: CACHE_MODES) {
+            file = cacheDir.resolve(key + fileSuffix(mode));
+            if (Files.exists(file)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static final CompressionMode[] CACHE_MODES = {
+            CompressionMode.NONE, CompressionMode.GZIP, CompressionMode.XZ
+    };
+
+    private static String fileSuffix(CompressionMode mode) {
+        switch (mode) {
+        case NONE:
+            return ".dat";
+        case GZIP:
+            return ".dat.gz";
+        case XZ:
+            return ".dat.xz";
+        default:
+            throw new IllegalArgumentException("invalid cache compression " + mode);
+        }
+    }
+
+    /**
+     * Retain an object within the memory budget, evicting least-recently-used objects to make room.
+     *
+     * @param entry The entry whose object should be retained.
+     * @param size The approximate size of the object.
+     */
+    private void retain(CacheEntry entry, long size) {
+        synchronized (retained) {
+            if (entry.retainedSize >= 0) {
+                // already retained; refresh the size
+                retainedBytes -= entry.retainedSize;
+            } else {
+                retained.add(entry);
+            }
+            entry.retainedSize = size;
+            retainedBytes += size;
+            evict(entry);
+        }
+    }
+
+    /**
+     * Evict retained objects until the memory budget is satisfied.  The caller must hold the lock on
+     * {@link #retained}.
+     *
+     * @param keep An entry to evict last, or {@code null}.
+     */
+    private void evict(@Nullable CacheEntry keep) {
+        while (retainedBytes > memoryBudget && !retained.isEmpty()) {
+            CacheEntry victim = null;
+            for (CacheEntry e: retained) {
+                if (e != keep && (victim == null || e.lastUse < victim.lastUse)) {
+                    victim = e;
+                }
+            }
+            if (victim == null) {
+                victim = keep;
+            }
+            logger.debug("evicting {} ({} bytes) from memory", victim.key, victim.retainedSize);
+            retained.remove(victim);
+            retainedBytes -= victim.retainedSize;
+            victim.retainedSize = -1;
+            victim.cachedObject = null;
+        }
+    }
+
+    /**
+     * An object held in memory by a cache entry.
+     */
+    private interface Held {
+        /**
+         * Get the held object.
+         * @return The object, {@link Optional#absent()} for a cached null, or {@code null} if the object has
+         * been collected.
+         */
+        @Nullable
+        Optional<Object> get();
+    }
+
+    private static final Held HELD_NULL = Optional::absent;
+
+    private static Held holdStrongly(Object obj) {
+        Optional<Object> value = Optional.of(obj);
+        return () -> value;
+    }
+
+    private static Held holdSoftly(Object obj) {
+        SoftReference<Object> ref = new SoftReference<>(obj);
+        return () -> {
+            Object o = ref.get();
+            return o == null ? null : Optional.of(o);
+        };
+    }
+
     /**
      * Class with the cache entry logic.
      */
     private class CacheEntry {
         private final String key;
-        private final Monitor monitor = new Monitor();
-        // reference *inside* optional so we don't GC the optional while keeping the object
-        // this is null for uncached, empty for cached null
-        private Optional<SoftReference<Object>> cachedObject;
+        // null for uncached; written under the key monitor, read without locking
+        private volatile Held cachedObject;
+        // size counted against the memory budget, or -1 if not retained; guarded by retained
+        private long retainedSize = -1;
+        private volatile long lastUse;
 
         /**
          * Createa a cache entry.
@@ -182,15 +363,6 @@ class ComponentCache implements NodeProcessor {
             key = makeNodeKey(n);
         }
 
-        @Nullable
-        private Path getCacheFile() {
-            if (cacheDir == null) {
-                return null;
-            } else {
-                return cacheDir.resolve(key + ".dat.gz");
-            }
-        }
-
         /**
          * Get the object.
          * @param node The live version of the node.  It must be compatible with the node used
@@ -200,41 +372,84 @@ class ComponentCache implements NodeProcessor {
          * @throws IOException If there is an I/O error with the cache.
          */
         public Object getObject(DAGNode<Component, Dependency> node) throws IOException, InjectionException, InterruptedException {
+            // fast path: the object is in memory
+            Optional<Object> cached = getMemoryCachedObject();
+            if (cached != null) {
+                logger.debug("reusing {} from memory", cached);
+                return cached.orNull();
+            }
+
+            Monitor monitor = keyMonitors.computeIfAbsent(key, k -> new Monitor());
             Blockers.enterMonitor(monitor);
             try {
-                // check soft-reference cache
-                Optional<Object> cached = getMemoryCachedObject();
+                // another thread may have loaded it while we waited
+                cached = getMemoryCachedObject();
                 if (cached != null) {
-                    logger.debug("reusing {} from memory", cached);
                     return cached.orNull();
                 }
 
-                // Either we have not cached the object, or the cache has left memory
-                Path cacheFile = getCacheFile();
-                cached = getDiskCachedObject(cacheFile, node);
+                // Either we have not cached the object, or it has left memory
+                cached = getDiskCachedObject(findCacheFile(key), node);
                 if (cached != null) {
                     return cached.orNull();
                 }
 
-                // No object from the serialization stream, let's try to make one
-                logger.debug("instantiating object for {}", node.getLabel().getSatisfaction());
-                Object result = instantiator.instantiate(node);
-                if (result == null) {
-                    // cache the result
-                    cachedObject = Optional.absent();
-                } else {
-                    cachedObject = Optional.of(new SoftReference<>(result));
+                if (cacheDir == null) {
+                    return buildObject(node);
                 }
 
-                // now save it to disk, if possible and non-null
-                writeDiskCache(result, cacheFile, node);
-
-                return result;
+                // coordinate with other processes sharing the cache directory
+                Files.createDirectories(cacheDir);
+                try (FileChannel lockChan = FileChannel.open(cacheDir.resolve(key + ".lock"),
+                                                             StandardOpenOption.CREATE,
+                                                             StandardOpenOption.WRITE);
+                     FileLock lock = Blockers.lockFile(lockChan)) {
+                    // another process may have written it while we waited
+                    cached = getDiskCachedObject(findCacheFile(key), node);
+                    if (cached != null) {
+                        return cached.orNull();
+                    }
+                    return buildObject(node);
+                }
             } finally {
                 monitor.leave();
             }
         }
 
+        /**
+         * Instantiate the object, and save it to memory and disk.
+         */
+        private Object buildObject(DAGNode<Component, Dependency> node) throws IOException, InjectionException {
+            logger.debug("instantiating object for {}", node.getLabel().getSatisfaction());
+            Object result = instantiator.instantiate(node);
+
+            // now save it to disk, if possible and non-null
+            long size = writeDiskCache(result, node);
+            remember(result, size);
+
+            return result;
+        }
+
+        /**
+         * Remember an object in memory.
+         *
+         * @param obj The object.
+         * @param size The object's uncompressed serialized size, or -1 if unknown.
+         */
+        private void remember(@Nullable Object obj, long size) {
+            lastUse = useClock.incrementAndGet();
+            if (obj == null) {
+                cachedObject = HELD_NULL;
+            } else if (size < 0) {
+                // no serialized size to account for, fall back to letting the GC decide
+                cachedObject = holdSoftly(obj);
+            } else if (size <= memoryBudget) {
+                cachedObject = holdStrongly(obj);
+                retain(this, size);
+            } else {
+                logger.debug("{} ({} bytes) exceeds memory budget, not retaining", key, size);
+            }
+        }
 
         /**
          * Get the cached object.
@@ -244,76 +459,96 @@ class ComponentCache implements NodeProcessor {
          */
         @Nullable
         private Optional<Object> getMemoryCachedObject() {
-            Optional<Object> result = null;
-            if (cachedObject != null) {
-                if (cachedObject.isPresent()) {
-                    Object obj = cachedObject.get().get();
-                    if (obj != null) {
-                        result = Optional.of(obj);
-                    }
-                } else {
-                    result = Optional.absent();
-                }
+            Held held = cachedObject;
+            if (held == null) {
+                return null;
+            }
+            Optional<Object> result = held.get();
+            if (result != null) {
+                lastUse = useClock.incrementAndGet();
             }
-
             return result;
         }
 
         @Nullable
-        private Optional<Object> getDiskCachedObject(Path file, DAGNode<Component,Dependency> node) {
-            if (file != null && Files.exists(file)) {
-                logger.debug("reading object for {} from cache (key {})",
-                             node.getLabel().getSatisfaction(), key);
-                Object obj = readCompressedObject(file, node.getLabel().getSatisfaction().getErasedType());
-                logger.debug("read object {} from key {}", obj, key);
-                return Optional.fromNullable(obj);
-            } else {
+        private Optional<Object> getDiskCachedObject(@Nullable Path file, DAGNode<Component,Dependency> node) throws IOException {
+            if (file == null) {
                 return null;
             }
+            logger.debug("reading object for {} from cache (key {})",
+                         node.getLabel().getSatisfaction(), key);
+            Object obj = readObject(file, node.getLabel().getSatisfaction().getErasedType());
+            if (obj == null) {
+                return null;
+            }
+            logger.debug("read object {} from key {}", obj, key);
+            return Optional.of(obj);
         }
 
-        private void writeDiskCache(Object obj, Path file, DAGNode<Component, Dependency> node) throws IOException {
-            if (obj != null) {
-                if (obj instanceof Serializable) {
-                    if (file != null) {
-                        logger.debug("writing object {} to cache (key {})",
-                                     obj, key);
-                        if (logger.isDebugEnabled()) {
-                            StringDescriptionWriter sdw = Descriptions.stringWriter();
-                            NodeDescriber.INSTANCE.describe(node, sdw);
-                            logger.debug("object description: {}", sdw.finish());
-                        }
-                        writeCompressedObject(file, obj);
-                        logger.info("wrote object {} to cache as {} ({} bytes)",
-                                    obj, key, Files.size(file));
-                    }
-                } else {
-                    logger.warn("object {} is not serializable, not caching", obj);
-                }
+        /**
+         * Write an object to the disk cache.
+         *
+         * @return The uncompressed serialized size of the object, or -1 if it was not written.
+         */
+        private long writeDiskCache(Object obj, DAGNode<Component, Dependency> node) throws IOException {
+            if (obj == null || cacheDir == null) {
+                return -1;
             }
+            if (!(obj instanceof Serializable)) {
+                logger.warn("object {} is not serializable, not caching", obj);
+                return -1;
+            }
+
+            Path file = cacheDir.resolve(key + fileSuffix(compression));
+            logger.debug("writing object {} to cache (key {})",
+                         obj, key);
+            if (logger.isDebugEnabled()) {
+                StringDescriptionWriter sdw = Descriptions.stringWriter();
+                NodeDescriber.INSTANCE.describe(node, sdw);
+                logger.debug("object description: {}", sdw.finish());
+            }
+            long size = writeObject(file, obj);
+            logger.info("wrote object {} to cache as {} ({} bytes, {} uncompressed)",
+                        obj, file.getFileName(), Files.size(file), size);
+            return size;
         }
 
-        private void writeCompressedObject(Path cacheFile, Object obj) throws IOException {
-            assert cacheDir != null;
-            Files.createDirectories(cacheDir);
+        /**
+         * Serialize an object to a cache file.
+         *
+         * @return The number of serialized bytes, before compression.
+         */
+        private long writeObject(Path cacheFile, Object obj) throws IOException {
             try (StagedWrite stage = StagedWrite.begin(cacheFile)) {
+                CountingOutputStream counter;
                 try (OutputStream out = stage.openOutputStream();
-                     OutputStream gzOut = new GZIPOutputStream(out);
-                     ObjectOutputStream objOut = new ObjectOutputStream(gzOut)) {
+                     OutputStream bufOut = new BufferedOutputStream(out, IO_BUFFER_SIZE);
+                     OutputStream cOut = compression.wrapOutput(bufOut);
+                     ObjectOutputStream objOut = new ObjectOutputStream(counter = new CountingOutputStream(cOut))) {
                     objOut.writeObject(obj);
                 }
                 // now we commit, after closing the output files
                 stage.commit();
+                return counter.getCount();
             }
         }
 
-        private Object readCompressedObject(Path cacheFile, Class<?> type) {
+        /**
+         * Read an object from a cache file, and remember it in memory.
+         *
+         * @return The object, or {@code null} if the file could not be read.
+         */
+        @Nullable
+        private Object readObject(Path cacheFile, Class<?> type) {
+            CompressionMode mode = CompressionMode.autodetect(cacheFile.getFileName().toString());
             // The file is there, load it
-            try (InputStream in = Files.newInputStream(cacheFile, StandardOpenOption.READ);
-                 InputStream gzin = new GZIPInputStream(in);
-                 ObjectInputStream oin = new CustomClassLoaderObjectInputStream(gzin, classLoader)) {
+            try (InputStream in = openCacheFile(cacheFile, mode);
+                 CountingInputStream cin = new CountingInputStream(mode.wrapInput(in));
+                 ObjectInputStream oin = new CustomClassLoaderObjectInputStream(cin, classLoader)) {
 
-                return type.cast(oin.readObject());
+                Object obj = type.cast(oin.readObject());
+                remember(obj, cin.getCount());
+                return obj;
             } catch (ClosedByInterruptException | InterruptedIOException ex) {
                 logger.info("Evaluation thread interrupted, aborting");
                 Thread.currentThread().interrupt();
@@ -330,6 +565,16 @@ class ComponentCache implements NodeProcessor {
                 return null;
             }
         }
+
+        private InputStream openCacheFile(Path cacheFile, CompressionMode mode) throws IOException {
+            if (mode == CompressionMode.NONE) {
+                // uncompressed files are read straight out of the page cache
+                return new MappedFileInputStream(cacheFile);
+            } else {
+                return new BufferedInputStream(Files.newInputStream(cacheFile, StandardOpenOption.READ),
+                                               IO_BUFFER_SIZE);
+            }
+        }
     }
 
     //region Node key generation
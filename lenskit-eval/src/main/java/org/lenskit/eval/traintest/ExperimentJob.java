@@ -37,6 +37,7 @@ import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
 import org.lenskit.LenskitRecommenderEngineBuilder;
 import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.context.UserContext;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.CommonAttributes;
@@ -391,9 +392,12 @@ class ExperimentJob extends RecursiveAction {
 
                 Stopwatch userTimer = Stopwatch.createStarted();
 
-                for (ConditionEvaluator eval : accumulators) {
-                    Map<String, Object> ures = eval.measureUser(rec, testUser);
-                    userRow.addAll(ures);
+                // share the user's data across all the tasks measuring this user
+                try (UserContext ctx = rec.openUserContext(uid)) {
+                    for (ConditionEvaluator eval : accumulators) {
+                        Map<String, Object> ures = eval.measureUser(rec, testUser);
+                        userRow.addAll(ures);
+                    }
                 }
                 userTimer.stop();
 
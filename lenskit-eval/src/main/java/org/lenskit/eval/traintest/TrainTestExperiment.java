@@ -50,6 +50,7 @@ import org.lenskit.util.table.Table;
 import org.lenskit.util.table.TableBuilder;
 import org.lenskit.util.table.TableLayout;
 import org.lenskit.util.table.TableLayoutBuilder;
+import org.lenskit.util.table.writer.AsyncCSVWriter;
 import org.lenskit.util.table.writer.CSVWriter;
 import org.lenskit.util.table.writer.MultiplexedTableWriter;
 import org.lenskit.util.table.writer.TableWriter;
@@ -93,6 +94,8 @@ public class TrainTestExperiment {
     private Path outputFile;
     private Path userOutputFile;
     private Path cacheDir;
+    private CompressionMode cacheCompression = CompressionMode.GZIP;
+    private long cacheMemoryBudget = 0;
     private boolean shareModelComponents = true;
     private int threadCount = 0;
     private int parallelTasks = 0;
@@ -259,6 +262,45 @@ public class TrainTestExperiment {
         cacheDir = dir;
     }
 
+    /**
+     * Get the compression used for cached model components.
+     * @return The cache compression mode.
+     */
+    public CompressionMode getCacheCompression() {
+        return cacheCompression;
+    }
+
+    /**
+     * Set the compression used for model components cached on disk.  The default is {@link CompressionMode#GZIP};
+     * {@link CompressionMode#NONE} uses more disk space, but loads large models much faster.
+     *
+     * @param mode The cache compression mode.
+     */
+    public void setCacheCompression(CompressionMode mode) {
+        Preconditions.checkArgument(mode != CompressionMode.AUTO, "cache compression must be explicit");
+        cacheCompression = mode;
+    }
+
+    /**
+     * Get the memory budget for shared model components.
+     * @return The number of bytes of model components to keep in memory, or 0 for the default.
+     */
+    public long getCacheMemoryBudget() {
+        return cacheMemoryBudget;
+    }
+
+    /**
+     * Set the memory budget for shared model components.  Components beyond this budget are dropped from memory
+     * (least recently used first), and reloaded from the cache directory when needed again.
+     *
+     * @param bytes The number of bytes of model components to keep in memory, or 0 to use one quarter of the
+     *              maximum heap size.
+     */
+    public void setCacheMemoryBudget(long bytes) {
+        Preconditions.checkArgument(bytes >= 0, "memory budget must be non-negative");
+        cacheMemoryBudget = bytes;
+    }
+
     /**
      * Get the number of threads that the experiment may use.
      *
@@ -474,7 +516,7 @@ public class TrainTestExperiment {
 
         TableLayout ul = makeUserResultLayout(eol);
         if (userOutputFile != null) {
-            userOutput = resultCloser.register(CSVWriter.open(userOutputFile.toFile(), ul, CompressionMode.AUTO));
+            userOutput = resultCloser.register(AsyncCSVWriter.open(userOutputFile.toFile(), ul, CompressionMode.AUTO));
         } else {
             userOutput = TableWriters.noop(ul);
         }
@@ -515,6 +557,10 @@ public class TrainTestExperiment {
         ComponentCache cache = null;
         if (shareModelComponents) {
             cache = new ComponentCache(cacheDir, classLoader);
+            cache.setCompression(cacheCompression);
+            if (cacheMemoryBudget > 0) {
+                cache.setMemoryBudget(cacheMemoryBudget);
+            }
         }
         Map<UUID,TaskGroup> groups = new HashMap<>();
         Semaphore limit = null;
@@ -638,6 +684,13 @@ public class TrainTestExperiment {
         if (cacheDir != null) {
             exp.setCacheDirectory(Paths.get(base.resolve(cacheDir)));
         }
+        String cacheComp = json.path("cache_compression").asText(null);
+        if (cacheComp != null) {
+            exp.setCacheCompression(CompressionMode.valueOf(cacheComp.toUpperCase()));
+        }
+        if (json.has("cache_memory_budget")) {
+            exp.setCacheMemoryBudget(json.get("cache_memory_budget").asLong());
+        }
         if (json.has("thread_count")) {
             exp.setThreadCount(json.get("thread_count").asInt(1));
         }
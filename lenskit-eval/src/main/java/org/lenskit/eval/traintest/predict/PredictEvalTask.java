@@ -40,7 +40,7 @@ import org.lenskit.eval.traintest.metrics.MetricLoaderHelper;
 import org.lenskit.eval.traintest.metrics.MetricResult;
 import org.lenskit.util.table.TableLayout;
 import org.lenskit.util.table.TableLayoutBuilder;
-import org.lenskit.util.table.writer.CSVWriter;
+import org.lenskit.util.table.writer.AsyncCSVWriter;
 import org.lenskit.util.table.writer.TableWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -192,7 +192,7 @@ public class PredictEvalTask implements EvalTask {
                                 .build();
         try {
             logger.info("writing predictions to {}", outFile);
-            outputTable = CSVWriter.open(outFile.toFile(), layout, CompressionMode.AUTO);
+            outputTable = AsyncCSVWriter.open(outFile.toFile(), layout, CompressionMode.AUTO);
         } catch (IOException e) {
             throw new EvaluationException("error opening prediction output file", e);
         }
@@ -46,7 +46,7 @@ import org.lenskit.util.io.CompressionMode;
 import org.lenskit.util.keys.LongSortedArraySet;
 import org.lenskit.util.table.TableLayout;
 import org.lenskit.util.table.TableLayoutBuilder;
-import org.lenskit.util.table.writer.CSVWriter;
+import org.lenskit.util.table.writer.AsyncCSVWriter;
 import org.lenskit.util.table.writer.TableWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -344,7 +344,7 @@ public class RecommendEvalTask implements EvalTask {
                                     .build();
             try {
                 logger.info("writing recommendations to {}", outFile);
-                outputTable = CSVWriter.open(outFile.toFile(), layout, CompressionMode.AUTO);
+                outputTable = AsyncCSVWriter.open(outFile.toFile(), layout, CompressionMode.AUTO);
             } catch (IOException e) {
                 throw new EvaluationException("error opening recommendation output file", e);
             }
@@ -366,7 +366,7 @@ public class RecommendEvalTask implements EvalTask {
 
             try {
                 logger.info("writing per-item results to {}", outFile);
-                itemOutputTable = CSVWriter.open(itemOut.toFile(), itemOutputLayout, CompressionMode.AUTO);
+                itemOutputTable = AsyncCSVWriter.open(itemOut.toFile(), itemOutputLayout, CompressionMode.AUTO);
             } catch (IOException e) {
                 throw new EvaluationException("error opening per-item result file", e);
             }
@@ -381,4 +381,23 @@ class CrossfolderTest {
             assertThat(Files.exists(test), equalTo(true))
         }
     }
+
+    @Test
+    public void testCompressedCFRun() {
+        cf.outputFormat = OutputFormat.CSV_GZIP
+        cf.execute()
+        def dss = cf.dataSets
+        assertThat(dss, hasSize(5))
+        for (int i = 1; i <= 5; i++) {
+            def train = tmp.root.toPath().resolve(String.format("part%02d.train.csv.gz", i))
+            assertThat(Files.exists(train), equalTo(true))
+        }
+        for (ds in dss) {
+            def test = ds.testData.get().query(Rating.class).get()
+            def train = ds.trainingData.get().query(Rating.class).get()
+            assertThat(test, hasSize(200))
+            assertThat(train.size() + test.size(), equalTo(ratings.size()))
+            assertThat(train + test, containsInAnyOrder(ratings.toArray()))
+        }
+    }
 }
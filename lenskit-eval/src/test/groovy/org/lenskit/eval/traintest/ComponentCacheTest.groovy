@@ -38,6 +38,9 @@ import org.lenskit.config.ConfigHelpers
 import org.lenskit.data.dao.DataAccessObject
 import org.lenskit.data.dao.file.StaticDataSource
 import org.lenskit.data.ratings.Rating
+import org.lenskit.util.io.CompressionMode
+
+import java.util.zip.GZIPInputStream
 
 import static org.grouplens.lenskit.util.test.ExtraMatchers.existingFile
 import static org.hamcrest.Matchers.*
@@ -92,6 +95,81 @@ class ComponentCacheTest {
         assertThat other, notNullValue()
     }
 
+    @Test
+    public void testUncompressedCache() {
+        cache.compression = CompressionMode.NONE
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        def object = cache.instantiate(node)
+        def key = cache.makeNodeKey(node)
+        assertThat new File(folder.root, "${key}.dat"), existingFile()
+        assertThat new File(folder.root, "${key}.dat.gz").exists(), equalTo(false)
+
+        // a fresh cache reads the uncompressed file back
+        def other = new ComponentCache(folder.root.toPath(), null).instantiate(node)
+        assertThat other, instanceOf(ItemMeanRatingItemScorer)
+        assertThat other, not(sameInstance(object))
+        assertThat other.score(1, 10).score, closeTo(object.score(1, 10).score, 1.0e-6d)
+    }
+
+    @Test
+    public void testReadOtherCompression() {
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        cache.instantiate(node)
+
+        def other = new ComponentCache(folder.root.toPath(), null)
+        other.compression = CompressionMode.NONE
+        assertThat other.instantiate(node), notNullValue()
+        // it used the existing gzip file rather than writing a new one
+        assertThat new File(folder.root, "${cache.makeNodeKey(node)}.dat").exists(), equalTo(false)
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        def object = cache.instantiate(node)
+        assertThat cache.instantiate(node), sameInstance(object)
+
+        // shrinking the budget evicts the object; it is reloaded from disk
+        cache.memoryBudget = 0
+        def other = cache.instantiate(node)
+        assertThat other, notNullValue()
+        assertThat other, not(sameInstance(object))
+    }
+
+    @Test
+    public void testBudgetUsesUncompressedSize() {
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        cache.instantiate(node)
+        def file = new File(folder.root, "${cache.makeNodeKey(node)}.dat.gz")
+        long compressed = file.length()
+        long uncompressed = new GZIPInputStream(new FileInputStream(file)).withStream { it.bytes.length }
+        assertThat uncompressed, greaterThan(compressed)
+
+        // the object does not fit in a budget between its compressed and uncompressed sizes
+        def small = new ComponentCache(folder.root.toPath(), null)
+        small.memoryBudget = (compressed + uncompressed).intdiv(2)
+        def first = small.instantiate(node)
+        assertThat small.instantiate(node), not(sameInstance(first))
+
+        // but it is retained in a budget of its uncompressed size
+        def exact = new ComponentCache(folder.root.toPath(), null)
+        exact.memoryBudget = uncompressed
+        first = exact.instantiate(node)
+        assertThat exact.instantiate(node), sameInstance(first)
+    }
+
     @Test
     public void testConfigureNull() {
         def config = ConfigHelpers.load {
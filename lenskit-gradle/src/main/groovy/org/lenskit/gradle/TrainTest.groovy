@@ -56,6 +56,16 @@ class TrainTest extends LenskitTask implements GradleUtils {
      */
     def cacheDirectory
 
+    /**
+     * The compression for cached model components (`none`, `gzip`, or `xz`).
+     */
+    def String cacheCompression
+
+    /**
+     * The number of bytes of shared model components to keep in memory (0 for the default).
+     */
+    def long cacheMemoryBudget = 0
+
     /**
      * The thread count for the evaluator.
      */
@@ -228,6 +238,8 @@ class TrainTest extends LenskitTask implements GradleUtils {
         def json = [output_file           : makeUrl(getOutputFile(), getSpecFile()),
                     user_output_file      : makeUrl(getUserOutputFile(), getSpecFile()),
                     cache_directory       : makeUrl(getCacheDirectory(), getSpecFile()),
+                    cache_compression     : getCacheCompression(),
+                    cache_memory_budget   : getCacheMemoryBudget(),
                     thread_count          : getThreadCount(),
                     parallel_tasks        : getParallelTasks(),
                     share_model_components: getShareModelComponents(),
@@ -25,15 +25,16 @@
 package org.lenskit.knn.item;
 
 import it.unimi.dsi.fastutil.longs.*;
+import org.lenskit.util.collections.AccumulatorPool;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
-import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
-import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemBasedItemScorer;
 import org.lenskit.knn.NeighborhoodSize;
 import org.lenskit.knn.item.model.ItemItemModel;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -45,6 +46,12 @@ import java.util.Map;
 /**
  * Score items based on the basket of items using an item-item CF model.
  *
+ * <p>When the model supports {@linkplain ItemItemModel#getReverseNeighbors(long) column access} and the
+ * basket is no larger than the neighborhood size, this scorer walks the columns of the basket items and
+ * accumulates similarity sums into dense arrays, so the cost depends on the basket rather than on the
+ * number of candidate items.  Otherwise, it examines each candidate's neighborhood with
+ * {@link #scoreItem(Long2DoubleMap, long, ItemItemScoreAccumulator)}.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
@@ -53,6 +60,7 @@ public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
     protected final
     NeighborhoodScorer scorer;
     private final int neighborhoodSize;
+    private final SortedKeyIndex itemIndex;
 
     @Inject
     public ItemItemItemBasedItemScorer(ItemItemModel m, @NeighborhoodSize int nnbrs) {
@@ -60,6 +68,12 @@ public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
         // The global item scorer use the SimilaritySumNeighborhoodScorer for the unary ratings
         this.scorer = new SimilaritySumNeighborhoodScorer();
         neighborhoodSize = nnbrs;
+        LongSortedSet universe = m.getItemUniverse();
+        if (universe instanceof LongSortedArraySet) {
+            itemIndex = ((LongSortedArraySet) universe).getIndex();
+        } else {
+            itemIndex = SortedKeyIndex.fromCollection(universe);
+        }
     }
 
     @Nonnull
@@ -91,6 +105,10 @@ public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
      */
     private void scoreItems(@Nonnull Collection<Long> basket, Collection<Long> items, ItemItemScoreAccumulator accum) {
         LongSet bset = LongUtils.packedSet(basket);
+        if ((neighborhoodSize <= 0 || bset.size() <= neighborhoodSize) && scatterItems(bset, items, accum)) {
+            return;
+        }
+
         Long2DoubleMap basketScores = LongUtils.constantDoubleMap(bset, 1.0);
 
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
@@ -100,6 +118,58 @@ public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
         }
     }
 
+    /**
+     * Score items by scattering the similarities of the basket items' columns.  Since the basket fits in
+     * the neighborhood, each candidate's neighborhood is exactly its neighbors in the basket, and the
+     * similarity sum can be accumulated column by column.
+     *
+     * @param basket The basket of reference items.
+     * @param items The items to score.
+     * @param accum The accumulator.
+     * @return {@code true} if the items were scored, {@code false} if the model does not support column access.
+     */
+    private boolean scatterItems(LongSet basket, Collection<Long> items, ItemItemScoreAccumulator accum) {
+        int n = itemIndex.size();
+        double[] sums = null;
+        int[] counts = null;
+
+        LongIterator biter = basket.iterator();
+        while (biter.hasNext()) {
+            Long2DoubleMap column = model.getReverseNeighbors(biter.nextLong());
+            if (column == null) {
+                return false;
+            }
+            if (column.isEmpty()) {
+                continue;
+            }
+            if (sums == null) {
+                sums = new double[n];
+                counts = new int[n];
+            }
+            for (Long2DoubleMap.Entry e: column.long2DoubleEntrySet()) {
+                int i = itemIndex.tryGetIndex(e.getLongKey());
+                if (i >= 0) {
+                    sums[i] += e.getDoubleValue();
+                    counts[i] += 1;
+                }
+            }
+        }
+
+        if (sums == null) {
+            return true;
+        }
+
+        LongIterator iter = LongIterators.asLongIterator(items.iterator());
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            int i = itemIndex.tryGetIndex(item);
+            if (i >= 0 && counts[i] > 0) {
+                accum.add(item, sums[i], counts[i], sums[i]);
+            }
+        }
+        return true;
+    }
+
     /**
      * Score a single item into an accumulator.
      * @param scores The reference scores.
@@ -108,21 +178,20 @@ public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
      */
     protected void scoreItem(Long2DoubleMap scores, long item, ItemItemScoreAccumulator accum) {
         Long2DoubleMap allNeighbors = model.getNeighbors(item);
-        Long2DoubleAccumulator acc;
-        if (neighborhoodSize > 0) {
-            // FIXME Abstract accumulator selection logic
-            acc = new TopNLong2DoubleAccumulator(neighborhoodSize);
-        } else {
-            acc = new UnlimitedLong2DoubleAccumulator();
-        }
-
-        for (Long2DoubleMap.Entry nbr: allNeighbors.long2DoubleEntrySet()) {
-            if (scores.containsKey(nbr.getLongKey())) {
-                acc.put(nbr.getLongKey(), nbr.getDoubleValue());
+        Long2DoubleAccumulator acc = AccumulatorPool.acquire(neighborhoodSize > 0 ? neighborhoodSize : -1);
+        Long2DoubleOpenHashMap neighborhood = AccumulatorPool.acquireMap();
+        try {
+            for (Long2DoubleMap.Entry nbr: allNeighbors.long2DoubleEntrySet()) {
+                if (scores.containsKey(nbr.getLongKey())) {
+                    acc.put(nbr.getLongKey(), nbr.getDoubleValue());
+                }
             }
-        }
 
-        Long2DoubleMap neighborhood = acc.finishMap();
-        scorer.score(item, neighborhood, scores, accum);
+            acc.finishInto(neighborhood);
+            scorer.score(item, neighborhood, scores, accum);
+        } finally {
+            AccumulatorPool.release(acc);
+            AccumulatorPool.releaseMap(neighborhood);
+        }
     }
 }
@@ -24,11 +24,15 @@
  */
 package org.lenskit.knn.item;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrays;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import org.lenskit.results.Results;
+import org.lenskit.basic.ScoreSink;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.lenskit.util.InvertibleFunction;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
 import java.util.List;
 
@@ -74,6 +78,17 @@ public abstract class ItemItemScoreAccumulator {
         return new DetailedAccumulator(receiver);
     }
 
+    /**
+     * Construct an accumulator that buffers scores in primitive arrays and streams them into a sink.
+     * Scores are delivered to the sink when {@link #applyReversedTransform(InvertibleFunction)} is
+     * called, since they are not final until then.
+     * @param sink The sink to receive the results.
+     * @return The accumulator.
+     */
+    static ItemItemScoreAccumulator streaming(ScoreSink sink) {
+        return new StreamingAccumulator(sink);
+    }
+
     private static class BasicAccumulator extends ItemItemScoreAccumulator {
         private final Long2DoubleMap receiver;
 
@@ -88,8 +103,54 @@ public abstract class ItemItemScoreAccumulator {
 
         @Override
         public void applyReversedTransform(InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform) {
-            // TODO Make this in-place
-            receiver.putAll(transform.unapply(receiver));
+            int n = receiver.size();
+            long[] keys = receiver.keySet().toLongArray();
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = receiver.get(keys[i]);
+            }
+            // sorts the arrays in place; we only need the sorting side effect
+            Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
+            VectorTransformations.unapplyInPlace(transform, keys, values, n);
+            for (int i = 0; i < n; i++) {
+                receiver.put(keys[i], values[i]);
+            }
+        }
+    }
+
+    private static class StreamingAccumulator extends ItemItemScoreAccumulator {
+        private final ScoreSink sink;
+        private long[] keys = new long[16];
+        private double[] values = new double[16];
+        private int size;
+
+        StreamingAccumulator(ScoreSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void add(long item, double score, int nnbrs, double weight) {
+            if (size == keys.length) {
+                keys = LongArrays.grow(keys, size + 1);
+                values = DoubleArrays.grow(values, size + 1);
+            }
+            keys[size] = item;
+            values[size] = score;
+            size += 1;
+        }
+
+        @Override
+        public void applyReversedTransform(InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform) {
+            int n = size;
+            long[] ks = LongArrays.trim(keys, n);
+            double[] vs = DoubleArrays.trim(values, n);
+            // sorts the arrays in place; we only need the sorting side effect
+            Long2DoubleSortedArrayMap.wrapUnsorted(ks, vs);
+            VectorTransformations.unapplyInPlace(transform, ks, vs, n);
+            for (int i = 0; i < n; i++) {
+                sink.put(ks[i], vs[i]);
+            }
+            size = 0;
         }
     }
 
@@ -112,9 +173,18 @@ public abstract class ItemItemScoreAccumulator {
 
         @Override
         public void applyReversedTransform(InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform) {
-            Long2DoubleMap scores = transform.unapply(Results.newResultMap(receiver).scoreMap());
-
             int n = receiver.size();
+            long[] keys = new long[n];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                ItemItemResult res = receiver.get(i);
+                keys[i] = res.getId();
+                values[i] = res.getScore();
+            }
+            // the map is backed by the (now sorted) arrays, so it sees the in-place update
+            Long2DoubleSortedArrayMap scores = Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
+            VectorTransformations.unapplyInPlace(transform, keys, values, n);
+
             for (int i = 0; i < n; i++) {
                 ItemItemResult res = receiver.get(i);
                 receiver.set(i, res.rescore(scores.get(res.getId())));
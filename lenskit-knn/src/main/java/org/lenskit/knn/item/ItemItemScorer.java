@@ -30,15 +30,20 @@ import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.ScoreSink;
+import org.lenskit.basic.StreamingItemScorer;
+import org.lenskit.context.UserContext;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.MinNeighbors;
 import org.lenskit.knn.NeighborhoodSize;
 import org.lenskit.knn.item.model.ItemItemModel;
 import org.lenskit.results.Results;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.lenskit.util.InvertibleFunction;
+import org.lenskit.util.collections.AccumulatorPool;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
-import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,9 +57,10 @@ import java.util.Map;
 
 /**
  * Score items using an item-item CF model. User ratings are <b>not</b> supplied
- * as default preferences.
+ * as default preferences.  While a {@linkplain UserContext user context} is open, the user's normalized
+ * rating vector is computed only once.
  */
-public class ItemItemScorer extends AbstractItemScorer {
+public class ItemItemScorer extends AbstractItemScorer implements StreamingItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(ItemItemScorer.class);
     protected final ItemItemModel model;
 
@@ -65,6 +71,25 @@ public class ItemItemScorer extends AbstractItemScorer {
     protected final NeighborhoodScorer scorer;
     private final int neighborhoodSize;
     private final int minNeighbors;
+    private final UserContextManager contexts;
+    private final UserContext.Key<UserData> userDataKey = new UserContext.Key<>("item-item-user-data");
+
+    /**
+     * Construct a new item-item scorer with no user context support.
+     *
+     * @param dao    The rating vector DAO.
+     * @param m      The model
+     * @param scorer The neighborhood scorer.
+     * @param nnbrs  The number of neighbors.
+     * @param min    The minimum number of neighbors.
+     */
+    public ItemItemScorer(RatingVectorPDAO dao, ItemItemModel m,
+                          NeighborhoodScorer scorer,
+                          UserVectorNormalizer norm,
+                          @NeighborhoodSize int nnbrs,
+                          @MinNeighbors int min) {
+        this(dao, m, scorer, norm, nnbrs, min, new UserContextManager());
+    }
 
     /**
      * Construct a new item-item scorer.
@@ -74,13 +99,16 @@ public class ItemItemScorer extends AbstractItemScorer {
      * @param scorer The neighborhood scorer.
      * @param nnbrs  The number of neighbors.
      * @param min    The minimum number of neighbors.
+     * @param ctx    The user context manager.
      */
     @Inject
     public ItemItemScorer(RatingVectorPDAO dao, ItemItemModel m,
                           NeighborhoodScorer scorer,
                           UserVectorNormalizer norm,
                           @NeighborhoodSize int nnbrs,
-                          @MinNeighbors int min) {
+                          @MinNeighbors int min,
+                          UserContextManager ctx) {
+        contexts = ctx;
         rvDAO = dao;
         model = m;
         this.scorer = scorer;
@@ -107,6 +135,12 @@ public class ItemItemScorer extends AbstractItemScorer {
         return results;
     }
 
+    @Override
+    public void scoreInto(long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink) {
+        logger.debug("streaming scores for {} items for user {}", items.size(), user);
+        scoreItems(user, items, ItemItemScoreAccumulator.streaming(sink));
+    }
+
     /**
      * Score items by computing predicted ratings.
      */
@@ -129,19 +163,23 @@ public class ItemItemScorer extends AbstractItemScorer {
      * @param accum The accumulator.
      */
     private void scoreItems(long user, @Nonnull Collection<Long> items, ItemItemScoreAccumulator accum) {
-        Long2DoubleMap ratings = Long2DoubleSortedArrayMap.create(rvDAO.userRatingVector(user));
-
-        logger.trace("user has {} ratings", ratings.size());
-        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform = normalizer.makeTransformation(user, ratings);
-        Long2DoubleMap itemScores = transform.apply(ratings);
+        UserData data = contexts.lookup(user, userDataKey, this::makeUserData);
 
         LongIterator iter = LongIterators.asLongIterator(items.iterator());
         while (iter.hasNext()) {
             final long item = iter.nextLong();
-            scoreItem(itemScores, item, accum);
+            scoreItem(data.normalizedRatings, item, accum);
         }
 
-        accum.applyReversedTransform(transform);
+        accum.applyReversedTransform(data.transform);
+    }
+
+    private UserData makeUserData(long user) {
+        Long2DoubleMap ratings = Long2DoubleSortedArrayMap.create(rvDAO.userRatingVector(user));
+
+        logger.trace("user has {} ratings", ratings.size());
+        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform = normalizer.makeTransformation(user, ratings);
+        return new UserData(transform, VectorTransformations.apply(transform, ratings));
     }
 
     protected void scoreItem(Long2DoubleMap userData, long item, ItemItemScoreAccumulator accum) {
@@ -153,21 +191,46 @@ public class ItemItemScorer extends AbstractItemScorer {
             if (logger.isTraceEnabled()) {
                 logger.trace("truncating {} neighbors to {}", neighborhood.size(), neighborhoodSize);
             }
-            Long2DoubleAccumulator acc = new TopNLong2DoubleAccumulator(neighborhoodSize);
-            for (Long2DoubleMap.Entry e: neighborhood.long2DoubleEntrySet()) {
-                acc.put(e.getLongKey(), e.getDoubleValue());
+            Long2DoubleAccumulator acc = AccumulatorPool.acquire(neighborhoodSize);
+            Long2DoubleOpenHashMap truncated = AccumulatorPool.acquireMap();
+            try {
+                for (Long2DoubleMap.Entry e: neighborhood.long2DoubleEntrySet()) {
+                    acc.put(e.getLongKey(), e.getDoubleValue());
+                }
+                acc.finishInto(truncated);
+                scoreNeighborhood(item, truncated, allNeighbors.size(), userData, accum);
+            } finally {
+                AccumulatorPool.release(acc);
+                AccumulatorPool.releaseMap(truncated);
             }
-            neighborhood = acc.finishMap();
+        } else {
+            scoreNeighborhood(item, neighborhood, allNeighbors.size(), userData, accum);
         }
+    }
 
+    private void scoreNeighborhood(long item, Long2DoubleMap neighborhood, int nAll,
+                                   Long2DoubleMap userData, ItemItemScoreAccumulator accum) {
         assert neighborhoodSize <= 0 || neighborhood.size() <= neighborhoodSize;
         if (neighborhood.size() < minNeighbors) {
             return;
         }
         if (logger.isTraceEnabled()) {
             logger.trace("scoring item {} with {} of {} neighbors",
-                         item, neighborhood.size(), allNeighbors.size());
+                         item, neighborhood.size(), nAll);
         }
         scorer.score(item, neighborhood, userData, accum);
     }
+
+    /**
+     * The candidate-independent data needed to score items for a user.
+     */
+    private static class UserData {
+        final InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform;
+        final Long2DoubleMap normalizedRatings;
+
+        UserData(InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xf, Long2DoubleMap nrs) {
+            transform = xf;
+            normalizedRatings = nrs;
+        }
+    }
 }
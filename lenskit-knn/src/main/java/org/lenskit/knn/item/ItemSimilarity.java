@@ -26,6 +26,7 @@ package org.lenskit.knn.item;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.grouplens.grapht.annotation.DefaultImplementation;
+import org.lenskit.similarity.PreparedVector;
 
 /**
  * Compute the similarity between two items.
@@ -46,6 +47,20 @@ public interface ItemSimilarity {
      */
     double similarity(long i1, Long2DoubleMap v1, long i2, Long2DoubleMap v2);
 
+    /**
+     * Compute the similarity between two items with prepared vectors.  The default implementation
+     * delegates to {@link #similarity(long, Long2DoubleMap, long, Long2DoubleMap)}.
+     *
+     * @param i1 The first item ID.
+     * @param v1 The first item vector.
+     * @param i2 The second item ID.
+     * @param v2 The second item vector.
+     * @return The similarity between the two items, in the range [0,1].
+     */
+    default double similarity(long i1, PreparedVector v1, long i2, PreparedVector v2) {
+        return similarity(i1, v1.getVector(), i2, v2.getVector());
+    }
+
     /**
      * Query whether this similarity is sparse.
      *
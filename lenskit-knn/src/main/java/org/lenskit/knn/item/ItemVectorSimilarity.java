@@ -26,6 +26,7 @@ package org.lenskit.knn.item;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.inject.Shareable;
+import org.lenskit.similarity.PreparedVector;
 import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.util.parallel.MaybeThreadSafe;
 import org.lenskit.util.reflect.ClassQueries;
@@ -49,11 +50,24 @@ public class ItemVectorSimilarity implements ItemSimilarity, Serializable, Maybe
         delegate = sim;
     }
 
+    /**
+     * Get the vector similarity this item similarity delegates to.
+     * @return The vector similarity.
+     */
+    public VectorSimilarity getDelegate() {
+        return delegate;
+    }
+
     @Override
     public double similarity(long i1, Long2DoubleMap v1, long i2, Long2DoubleMap v2) {
         return delegate.similarity(v1, v2);
     }
 
+    @Override
+    public double similarity(long i1, PreparedVector v1, long i2, PreparedVector v2) {
+        return delegate.similarity(v1, v2);
+    }
+
     @Override
     public boolean isSparse() {
         return delegate.isSparse();
@@ -45,7 +45,9 @@ public interface NeighborhoodScorer {
      * scores.
      *
      * @param item      The item ID to score.
-     * @param neighbors A vector of neighbors with similarity measures.
+     * @param neighbors A vector of neighbors with similarity measures.  This may be a scratch buffer
+     *                  that is reused once the method returns, so implementations must not
+     *                  retain it.
      * @param scores    A vector of item scores. It should contain a score for
      *                  every item in <var>neighbors</var>.
      * @param accum     An accumulator to receive the score computed by this method.
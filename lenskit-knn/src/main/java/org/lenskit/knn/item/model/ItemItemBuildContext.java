@@ -33,6 +33,7 @@ import jdk.nashorn.internal.ir.annotations.Immutable;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.inject.Transient;
+import org.lenskit.similarity.PreparedVector;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
@@ -53,7 +54,7 @@ import java.io.Serializable;
 @Shareable
 @Immutable
 public class ItemItemBuildContext implements Serializable {
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     @Nonnull
     private
@@ -62,6 +63,10 @@ public class ItemItemBuildContext implements Serializable {
     private
     Long2DoubleSortedMap[] itemVectors;
 
+    @Nonnull
+    private
+    PreparedVector[] preparedVectors;
+
     @Nonnull
     private Long2ObjectMap<LongSortedSet> userItems;
 
@@ -77,6 +82,7 @@ public class ItemItemBuildContext implements Serializable {
         this.userItems = userItems;
         items = universe;
         itemVectors = vectors;
+        preparedVectors = new PreparedVector[vectors.length];
     }
 
     /**
@@ -104,6 +110,27 @@ public class ItemItemBuildContext implements Serializable {
         return itemVectors[idx];
     }
 
+    /**
+     * Get the prepared rating vector for an item.  Prepared vectors are computed on first use and
+     * cached in the context, so similarity functions can reuse their norms and other statistics.
+     *
+     * @param item The item to query.
+     * @return The prepared rating vector for {@code item}.
+     * @throws IllegalArgumentException if {@code item} is not a valid item.
+     */
+    @Nonnull
+    public PreparedVector preparedItemVector(long item) {
+        int idx = items.tryGetIndex(item);
+        Preconditions.checkArgument(idx >= 0, "unknown item");
+        PreparedVector vec = preparedVectors[idx];
+        if (vec == null) {
+            // benign race: concurrent callers prepare equal vectors, and prepared vectors are immutable
+            vec = PreparedVector.create(itemVectors[idx]);
+            preparedVectors[idx] = vec;
+        }
+        return vec;
+    }
+
     /**
      * Get the items rated by a particular user.
      * 
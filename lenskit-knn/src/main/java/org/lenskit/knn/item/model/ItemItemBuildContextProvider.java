@@ -29,6 +29,7 @@ import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.item.MinCommonUsers;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.io.ObjectStream;
@@ -123,7 +124,7 @@ public class ItemItemBuildContextProvider implements Provider<ItemItemBuildConte
             for (IdBox<Long2DoubleMap> user : stream) {
                 long uid = user.getId();
                 Long2DoubleMap ratings = user.getValue();
-                Long2DoubleMap normed = normalizer.makeTransformation(uid, ratings).apply(ratings);
+                Long2DoubleMap normed = VectorTransformations.apply(normalizer.makeTransformation(uid, ratings), ratings);
                 assert normed != null;
 
                 Iterator<Long2DoubleMap.Entry> iter = Vectors.fastEntryIterator(normed);
@@ -29,6 +29,7 @@ import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.grouplens.grapht.annotation.DefaultImplementation;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Item-item similarity model. It makes available the similarities
@@ -60,4 +61,18 @@ public interface ItemItemModel {
      */
     @Nonnull
     Long2DoubleMap getNeighbors(long item);
+
+    /**
+     * Get the items that have an item as a neighbor, with their similarities to it.  This is the
+     * corresponding <em>column</em> of the item-item similarity matrix; it lets scorers walk outward
+     * from a small set of reference items instead of examining every candidate's neighborhood.
+     *
+     * @param item The item to get the reverse neighborhood for.
+     * @return The column of the similarity matrix (empty if the item is unknown), or {@code null} if
+     *         this model does not support column access.
+     */
+    @Nullable
+    default Long2DoubleMap getReverseNeighbors(long item) {
+        return null;
+    }
 }
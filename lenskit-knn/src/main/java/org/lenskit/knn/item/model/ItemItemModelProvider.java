@@ -31,21 +31,31 @@ import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.inject.Transient;
 import org.lenskit.knn.item.ItemSimilarity;
 import org.lenskit.knn.item.ItemSimilarityThreshold;
+import org.lenskit.knn.item.ItemVectorSimilarity;
 import org.lenskit.knn.item.MinCommonUsers;
 import org.lenskit.knn.item.ModelSize;
+import org.lenskit.knn.item.SimilarityStorageBits;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.similarity.PreparedVector;
+import org.lenskit.similarity.VectorSimilarity;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.ProgressLogger;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.StoragePrecision;
 import org.lenskit.util.reflect.ClassQueries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -61,11 +71,18 @@ import java.util.stream.Stream;
  * This builder takes a very simple approach. It does not allow for vector
  * normalization and truncates on the fly.
  *
+ * If the similarity function is a {@link DotProductSimilarity} (such as cosine), the model is
+ * computed as a sparse matrix product by {@link SparseProductModelBuilder} instead of pair-by-pair.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 @NotThreadSafe
 public class ItemItemModelProvider implements Provider<ItemItemModel> {
     private static final Logger logger = LoggerFactory.getLogger(ItemItemModelProvider.class);
+    /**
+     * The number of lock stripes guarding the rows of the symmetric collector (a power of 2).
+     */
+    private static final int LOCK_STRIPES = 1024;
 
     private final ItemSimilarity itemSimilarity;
     private final ItemItemBuildContext buildContext;
@@ -73,6 +90,7 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
     private final NeighborIterationStrategy neighborStrategy;
     private final int minCommonUsers;
     private final int modelSize;
+    private final StoragePrecision precision;
 
     @Inject
     public ItemItemModelProvider(@Transient ItemSimilarity similarity,
@@ -80,13 +98,15 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                                  @Transient @ItemSimilarityThreshold Threshold thresh,
                                  @Transient NeighborIterationStrategy nbrStrat,
                                  @MinCommonUsers int minCU,
-                                 @ModelSize int size) {
+                                 @ModelSize int size,
+                                 @SimilarityStorageBits int bits) {
         itemSimilarity = similarity;
         buildContext = context;
         threshold = thresh;
         neighborStrategy = nbrStrat;
         minCommonUsers = minCU;
         modelSize = size;
+        precision = StoragePrecision.fromBits(bits);
     }
 
     @Override
@@ -108,15 +128,26 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                                                 .setWindow(50)
                                                 .start();
         int ndone = 0;
-        Stream<Long> idStream;
-        if (ClassQueries.isThreadSafe(itemSimilarity)) {
-            idStream = allItems.parallelStream();
-        } else {
+        boolean parallel = ClassQueries.isThreadSafe(itemSimilarity);
+        if (!parallel) {
             logger.warn("similarity {} is not thread-safe, disabling parallel build", itemSimilarity);
-            idStream = allItems.stream();
         }
+
+        DotProductSimilarity dotSim = getDotProductSimilarity();
+        if (dotSim != null) {
+            logger.info("computing similarities as a sparse matrix product");
+            SimilarityMatrixModel model =
+                    new SparseProductModelBuilder(buildContext, dotSim, threshold, minCommonUsers, modelSize)
+                            .build(progress, parallel);
+            progress.finish();
+            logger.info("built model for {} items in {}",
+                        model.getItemUniverse().size(), progress.elapsedTime());
+            return packModel(model);
+        }
+
+        Stream<Long> idStream = parallel ? allItems.parallelStream() : allItems.stream();
         Stream<IdBox<Long2DoubleMap>> rowStream =
-                idStream.map(i -> IdBox.create(i, buildContext.itemVector(i)))
+                idStream.map(i -> IdBox.create(i, buildContext.preparedItemVector(i)))
                         .peek(iv -> {
                             if (logger.isTraceEnabled()) {
                                 logger.trace("computing similarities for item {}", iv.getId());
@@ -125,34 +156,70 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
                         .filter(iv -> iv.getValue().size() >= minCommonUsers)
                         .map(this::makeSimilarityRow)
                         .peek(iv -> progress.advance());
-        Long2ObjectMap<Long2DoubleMap> sims;
+        SimilarityMatrixModel model;
         if (itemSimilarity.isSymmetric()) {
             logger.info("using symmetric similarity collector");
-            sims = rowStream.collect(new SymmetricCollector());
+            model = rowStream.collect(new SymmetricCollector(SortedKeyIndex.fromCollection(allItems)));
         } else {
             logger.info("using asymmteric similarity collector");
-            sims = rowStream.collect(new BasicCollector());
+            model = new SimilarityMatrixModel(rowStream.collect(new BasicCollector()));
         }
 
         progress.finish();
         logger.info("built model for {} items in {}",
                     ndone, progress.elapsedTime());
 
-        return new SimilarityMatrixModel(sims);
+        return packModel(model);
+    }
+
+    private SimilarityMatrixModel packModel(SimilarityMatrixModel model) {
+        if (precision == StoragePrecision.DOUBLE) {
+            return model;
+        }
+        SimilarityMatrixModel packed = model.pack(precision);
+        logger.info("packed similarity model: {}", packed);
+        return packed;
+    }
+
+    /**
+     * Get the dot-product similarity to build the model with as a sparse matrix product, if the
+     * product computes the same model as iterating over neighbors.  This requires an exact
+     * neighbor strategy and a threshold that discards zero similarities.
+     *
+     * @return The dot-product similarity, or `null` to build pair-by-pair.
+     */
+    @Nullable
+    private DotProductSimilarity getDotProductSimilarity() {
+        if (!(itemSimilarity instanceof ItemVectorSimilarity)) {
+            return null;
+        }
+        VectorSimilarity vsim = ((ItemVectorSimilarity) itemSimilarity).getDelegate();
+        if (!(vsim instanceof DotProductSimilarity)) {
+            return null;
+        }
+        if (!(neighborStrategy instanceof SparseNeighborIterationStrategy
+                || neighborStrategy instanceof BasicNeighborIterationStrategy)) {
+            return null;
+        }
+        if (threshold.retain(0)) {
+            return null;
+        }
+        return (DotProductSimilarity) vsim;
     }
 
-    private IdBox<Long2DoubleMap> makeSimilarityRow(IdBox<Long2DoubleSortedMap> item) {
+    private IdBox<Long2DoubleMap> makeSimilarityRow(IdBox<PreparedVector> item) {
         long itemId1 = item.getId();
         LongIterator itemIter = neighborStrategy.neighborIterator(buildContext, itemId1,
                                                                   itemSimilarity.isSymmetric());
-        Long2DoubleSortedMap vec1 = item.getValue();
+        PreparedVector vec1 = item.getValue();
         Long2DoubleMap row = new Long2DoubleOpenHashMap();
 
         while (itemIter.hasNext()) {
             long itemId2 = itemIter.nextLong();
             if (itemId1 != itemId2) {
-                Long2DoubleSortedMap vec2 = buildContext.itemVector(itemId2);
-                if (!LongUtils.hasNCommonItems(vec1.keySet(), vec2.keySet(), minCommonUsers)) {
+                PreparedVector vec2 = buildContext.preparedItemVector(itemId2);
+                if (!LongUtils.hasNCommonItems(vec1.getVector().keySet(), vec2.getVector().keySet(),
+                                               minCommonUsers)) {
                     // items have insufficient users in common, skip them
                     continue;
                 }
@@ -178,14 +245,6 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         return accum;
     }
 
-    private Long2ObjectMap<Long2DoubleMap> finishRows(Long2ObjectMap<Long2DoubleAccumulator> rows) {
-        Long2ObjectMap<Long2DoubleMap> results = new Long2ObjectOpenHashMap<>(rows.size());
-        for (Long2ObjectMap.Entry<Long2DoubleAccumulator> e: rows.long2ObjectEntrySet()) {
-            results.put(e.getLongKey(), e.getValue().finishMap());
-        }
-        return results;
-    }
-
     private class BasicCollector implements Collector<IdBox<Long2DoubleMap>, Map<Long,Long2DoubleMap>, Long2ObjectMap<Long2DoubleMap>> {
         @Override
         public Supplier<Map<Long, Long2DoubleMap>> supplier() {
@@ -194,7 +253,7 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
 
         @Override
         public Function<Map<Long, Long2DoubleMap>, Long2ObjectMap<Long2DoubleMap>> finisher() {
-            return Long2ObjectArrayMap::new;
+            return Long2ObjectOpenHashMap::new;
         }
 
         @Override
@@ -230,54 +289,116 @@ public class ItemItemModelProvider implements Provider<ItemItemModel> {
         }
     }
 
-    private class SymmetricCollector implements Collector<IdBox<Long2DoubleMap>, Long2ObjectMap<Long2DoubleAccumulator>, Long2ObjectMap<Long2DoubleMap>> {
+    /**
+     * Rows of a symmetric similarity matrix under construction, addressed by item index.  Rows are
+     * guarded by striped locks, so one instance can be filled concurrently by a parallel stream.
+     */
+    private class SymmetricRows {
+        private final SortedKeyIndex index;
+        private final Long2DoubleAccumulator[] rows;
+        private final Object[] locks;
+
+        SymmetricRows(SortedKeyIndex idx) {
+            index = idx;
+            rows = new Long2DoubleAccumulator[idx.size()];
+            locks = new Object[LOCK_STRIPES];
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        /**
+         * Add a row of similarities and, for symmetry, its transpose.
+         */
+        void addRow(long item, Long2DoubleMap row) {
+            int i1 = index.getIndex(item);
+            synchronized (locks[i1 & (LOCK_STRIPES - 1)]) {
+                Long2DoubleAccumulator acc = getRow(i1);
+                for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row)) {
+                    acc.put(e.getLongKey(), e.getDoubleValue());
+                }
+            }
+            for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row)) {
+                int i2 = index.getIndex(e.getLongKey());
+                synchronized (locks[i2 & (LOCK_STRIPES - 1)]) {
+                    getRow(i2).put(item, e.getDoubleValue());
+                }
+            }
+        }
+
+        private Long2DoubleAccumulator getRow(int i) {
+            Long2DoubleAccumulator acc = rows[i];
+            if (acc == null) {
+                acc = newAccumulator();
+                rows[i] = acc;
+            }
+            return acc;
+        }
+
+        /**
+         * Merge another set of rows into this one.  Only used if the stream does not share a
+         * single container between threads.
+         */
+        SymmetricRows merge(SymmetricRows other) {
+            for (int i = 0; i < rows.length; i++) {
+                Long2DoubleAccumulator a2 = other.rows[i];
+                if (a2 == null) {
+                    continue;
+                }
+                if (rows[i] == null) {
+                    rows[i] = a2;
+                } else {
+                    rows[i].putAll(a2.finishMap());
+                }
+            }
+            return this;
+        }
+
+        SimilarityMatrixModel finish() {
+            long[] keys = new long[rows.length];
+            List<Long2DoubleMap> nbrs = new ArrayList<>(rows.length);
+            int n = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] != null) {
+                    keys[n++] = index.getKey(i);
+                    nbrs.add(LongUtils.frozenMap(rows[i].finishMap()));
+                    rows[i] = null;
+                }
+            }
+            return new SimilarityMatrixModel(SortedKeyIndex.wrap(keys, n), nbrs);
+        }
+    }
+
+    private class SymmetricCollector implements Collector<IdBox<Long2DoubleMap>, SymmetricRows, SimilarityMatrixModel> {
+        private final SortedKeyIndex index;
+
+        SymmetricCollector(SortedKeyIndex idx) {
+            index = idx;
+        }
+
         @Override
-        public Supplier<Long2ObjectMap<Long2DoubleAccumulator>> supplier() {
-            return Long2ObjectArrayMap::new;
+        public Supplier<SymmetricRows> supplier() {
+            return () -> new SymmetricRows(index);
         }
 
         @Override
-        public BiConsumer<Long2ObjectMap<Long2DoubleAccumulator>, IdBox<Long2DoubleMap>> accumulator() {
-            return (acc, row) -> {
-                long i1 = row.getId();
-                for (Long2DoubleMap.Entry e: Long2DoubleMaps.fastIterable(row.getValue())) {
-                    long i2 = e.getLongKey();
-                    double sim = e.getDoubleValue();
-                    acc.computeIfAbsent(i1, i -> newAccumulator())
-                       .put(i2, sim);
-                    acc.computeIfAbsent(i2, i -> newAccumulator())
-                       .put(i1, sim);
-                }
-            };
+        public BiConsumer<SymmetricRows, IdBox<Long2DoubleMap>> accumulator() {
+            return (acc, row) -> acc.addRow(row.getId(), row.getValue());
         }
 
         @Override
-        public BinaryOperator<Long2ObjectMap<Long2DoubleAccumulator>> combiner() {
-            return (am1, am2) -> {
-                for (Long2ObjectMap.Entry<Long2DoubleAccumulator> e: Long2ObjectMaps.fastIterable(am2)) {
-                    long item = e.getLongKey();
-                    Long2DoubleAccumulator a2 = e.getValue();
-                    Long2DoubleAccumulator a1 = am1.get(item);
-                    if (a1 == null) {
-                        am1.put(item, a2);
-                    } else {
-                        for (Long2DoubleMap.Entry ae: Long2DoubleMaps.fastIterable(a2.finishMap())) {
-                            a1.put(ae.getLongKey(), ae.getDoubleValue());
-                        }
-                    }
-                }
-                return am1;
-            };
+        public BinaryOperator<SymmetricRows> combiner() {
+            return SymmetricRows::merge;
         }
 
         @Override
-        public Function<Long2ObjectMap<Long2DoubleAccumulator>, Long2ObjectMap<Long2DoubleMap>> finisher() {
-            return ItemItemModelProvider.this::finishRows;
+        public Function<SymmetricRows, SimilarityMatrixModel> finisher() {
+            return SymmetricRows::finish;
         }
 
         @Override
         public Set<Characteristics> characteristics() {
-            return ImmutableSet.of(Characteristics.UNORDERED);
+            return ImmutableSet.of(Characteristics.UNORDERED, Characteristics.CONCURRENT);
         }
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleSortedMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongIterators;
+import org.lenskit.knn.item.LSHHashBits;
+import org.lenskit.knn.item.LSHTableCount;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import java.util.Arrays;
+
+/**
+ * Neighbor iteration strategy that uses locality-sensitive hashing to find a small set of
+ * candidate neighbors for each item.  Each item vector is hashed with random-hyperplane
+ * signatures (SimHash) into several tables; items that share a bucket with the target item in any
+ * table are its candidates.  Items at a small angle are likely to collide, so this is a good fit
+ * for cosine-like similarity functions.
+ *
+ * Unlike the other strategies, this one is approximate: some true neighbors may be missed.  The
+ * {@link LSHTableCount} and {@link LSHHashBits} parameters trade recall for speed.  The index is
+ * built on first use in time linear in the number of ratings, and rebuilt if the strategy is used
+ * with a different build context.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class LSHNeighborIterationStrategy implements NeighborIterationStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(LSHNeighborIterationStrategy.class);
+    private static final long SEED = 0x5DEECE66DL;
+
+    private final int tableCount;
+    private final int hashBits;
+    private Index index;
+
+    /**
+     * Construct a new LSH neighbor iteration strategy.
+     * @param tables The number of hash tables.
+     * @param bits The number of hash bits per table.
+     */
+    @Inject
+    public LSHNeighborIterationStrategy(@LSHTableCount int tables, @LSHHashBits int bits) {
+        Preconditions.checkArgument(tables > 0, "table count must be positive");
+        Preconditions.checkArgument(bits > 0 && bits <= 32, "hash bits must be in [1,32]");
+        tableCount = tables;
+        hashBits = bits;
+    }
+
+    @Override
+    public LongIterator neighborIterator(ItemItemBuildContext context, long item, boolean onlyAfter) {
+        Index idx = getIndex(context);
+        int pos = idx.items.tryGetIndex(item);
+        if (pos < 0) {
+            return LongIterators.EMPTY_ITERATOR;
+        }
+        pos -= idx.items.getLowerBound();
+
+        int[] found = idx.candidates(pos);
+        long[] ids = new long[found.length];
+        int n = 0;
+        int base = idx.items.getLowerBound();
+        for (int c: found) {
+            // positions are in ID order
+            if (c != pos && (!onlyAfter || c > pos)) {
+                ids[n++] = idx.items.getKey(base + c);
+            }
+        }
+        return LongIterators.wrap(ids, 0, n);
+    }
+
+    private synchronized Index getIndex(ItemItemBuildContext context) {
+        if (index == null || index.context != context) {
+            index = new Index(context, tableCount, hashBits);
+        }
+        return index;
+    }
+
+    /**
+     * Mix a user ID and table number into 64 pseudo-random bits (the SplitMix64 finalizer).  Bit
+     * *j* selects the sign of the user's coordinate in the table's *j*th hyperplane.
+     */
+    static long hyperplaneBits(long user, int table) {
+        long z = user * 0x9E3779B97F4A7C15L + table * 0xC2B2AE3D27D4EB4FL + SEED;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The hash tables for one build context.  Each table is an array of `(signature << 32) | position`
+     * keys, sorted so that each bucket is a contiguous run.
+     */
+    private static class Index {
+        final ItemItemBuildContext context;
+        final SortedKeyIndex items;
+        final int[][] signatures;
+        final boolean[] empty;
+        final long[][] tables;
+
+        Index(ItemItemBuildContext ctx, int ntables, int bits) {
+            context = ctx;
+            items = SortedKeyIndex.fromCollection(ctx.getItems());
+            int n = items.size();
+            int base = items.getLowerBound();
+
+            int[][] sigs = new int[ntables][n];
+            empty = new boolean[n];
+            double[] proj = new double[bits];
+            for (int i = 0; i < n; i++) {
+                Long2DoubleSortedMap vec = ctx.itemVector(items.getKey(base + i));
+                empty[i] = vec.isEmpty();
+                for (int t = 0; t < ntables; t++) {
+                    Arrays.fill(proj, 0);
+                    for (Long2DoubleMap.Entry e: vec.long2DoubleEntrySet()) {
+                        long h = hyperplaneBits(e.getLongKey(), t);
+                        double v = e.getDoubleValue();
+                        for (int j = 0; j < bits; j++) {
+                            proj[j] += ((h >>> j) & 1) != 0 ? v : -v;
+                        }
+                    }
+                    int sig = 0;
+                    for (int j = 0; j < bits; j++) {
+                        if (proj[j] >= 0) {
+                            sig |= 1 << j;
+                        }
+                    }
+                    sigs[t][i] = sig;
+                }
+            }
+            signatures = sigs;
+
+            tables = new long[ntables][];
+            long total = 0;
+            for (int t = 0; t < ntables; t++) {
+                long[] keys = new long[n];
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    // items with no ratings are similar to nothing
+                    if (!empty[i]) {
+                        keys[k++] = ((long) sigs[t][i] << 32) | i;
+                    }
+                }
+                keys = Arrays.copyOf(keys, k);
+                Arrays.sort(keys);
+                tables[t] = keys;
+                total += countBuckets(keys);
+            }
+            logger.debug("built {} LSH tables over {} items ({} bits, {} buckets)",
+                         ntables, n, bits, total);
+        }
+
+        private static int countBuckets(long[] keys) {
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (i == 0 || (keys[i] >>> 32) != (keys[i - 1] >>> 32)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Find the positions colliding with an item in any table.
+         * @param pos The item position.
+         * @return The sorted, distinct positions (including `pos` itself if it is hashed).
+         */
+        int[] candidates(int pos) {
+            if (empty[pos]) {
+                return IntArrays.EMPTY_ARRAY;
+            }
+            int[] found = IntArrays.EMPTY_ARRAY;
+            int n = 0;
+            for (int t = 0; t < tables.length; t++) {
+                long[] keys = tables[t];
+                int sig = Arrays.binarySearch(keys, ((long) signatures[t][pos] << 32) | pos);
+                assert sig >= 0;
+                long bucket = keys[sig] >>> 32;
+                int start = sig;
+                while (start > 0 && (keys[start - 1] >>> 32) == bucket) {
+                    start--;
+                }
+                int end = sig + 1;
+                while (end < keys.length && (keys[end] >>> 32) == bucket) {
+                    end++;
+                }
+                found = IntArrays.grow(found, n + end - start);
+                for (int i = start; i < end; i++) {
+                    found[n++] = (int) keys[i];
+                }
+            }
+            if (n == 0) {
+                return IntArrays.EMPTY_ARRAY;
+            }
+            Arrays.sort(found, 0, n);
+            int m = 1;
+            for (int i = 1; i < n; i++) {
+                if (found[i] != found[m - 1]) {
+                    found[m++] = found[i];
+                }
+            }
+            return Arrays.copyOf(found, m);
+        }
+    }
+}
@@ -27,15 +27,20 @@ package org.lenskit.knn.item.model;
 import com.google.common.collect.ImmutableList;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.api.ResultList;
 import org.lenskit.inject.Shareable;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.PackedSparseRows;
 import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.StoragePrecision;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -58,7 +63,10 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
 
     private final SortedKeyIndex itemDomain;
     private final ImmutableList<Long2DoubleMap> neighborhoods;
+    @Nullable
+    private final PackedSparseRows packedRows;
     private transient volatile String stringValue;
+    private transient volatile Long2DoubleMap[] columns;
 
     /**
      * Construct a new item-item model.
@@ -71,6 +79,17 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
     public SimilarityMatrixModel(SortedKeyIndex items, List<Long2DoubleMap> nbrs) {
         itemDomain = items;
         neighborhoods = ImmutableList.copyOf(nbrs);
+        packedRows = null;
+    }
+
+    private SimilarityMatrixModel(SortedKeyIndex items, PackedSparseRows rows) {
+        itemDomain = items;
+        ImmutableList.Builder<Long2DoubleMap> nbrs = ImmutableList.builder();
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            nbrs.add(rows.getRow(i));
+        }
+        neighborhoods = nbrs.build();
+        packedRows = rows;
     }
 
     /**
@@ -87,6 +106,28 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
             neighbors.add(LongUtils.frozenMap(nbrs.get(itemDomain.getKey(i))));
         }
         neighborhoods = neighbors.build();
+        packedRows = null;
+    }
+
+    /**
+     * Create a copy of this model with its similarities packed at a lower precision.  Neighbor
+     * IDs are stored as positions in the item domain where possible.
+     *
+     * @param precision The storage precision.
+     * @return The packed model.
+     */
+    public SimilarityMatrixModel pack(StoragePrecision precision) {
+        SortedKeyIndex columns = itemDomain;
+        for (Long2DoubleMap row: neighborhoods) {
+            LongIterator iter = row.keySet().iterator();
+            while (columns != null && iter.hasNext()) {
+                if (!itemDomain.containsKey(iter.nextLong())) {
+                    // neighbors outside the universe get their own domain
+                    columns = null;
+                }
+            }
+        }
+        return new SimilarityMatrixModel(itemDomain, PackedSparseRows.pack(columns, neighborhoods, precision));
     }
 
     @Override
@@ -105,6 +146,73 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The columns are computed by transposing the matrix the first time they are requested.
+     */
+    @Override
+    @Nonnull
+    public Long2DoubleMap getReverseNeighbors(long item) {
+        int idx = itemDomain.tryGetIndex(item);
+        if (idx < 0) {
+            return Long2DoubleMaps.EMPTY_MAP;
+        }
+
+        Long2DoubleMap[] cols = columns;
+        if (cols == null) {
+            // benign race: concurrent callers may each transpose, but the results are equal
+            cols = transpose();
+            columns = cols;
+        }
+        return cols[idx];
+    }
+
+    /**
+     * Transpose the similarity matrix.
+     * @return The columns of the matrix, indexed by item index.
+     */
+    private Long2DoubleMap[] transpose() {
+        int n = itemDomain.size();
+        int[] sizes = new int[n];
+        for (Long2DoubleMap row: neighborhoods) {
+            LongIterator iter = row.keySet().iterator();
+            while (iter.hasNext()) {
+                int j = itemDomain.tryGetIndex(iter.nextLong());
+                if (j >= 0) {
+                    sizes[j] += 1;
+                }
+            }
+        }
+
+        long[][] keys = new long[n][];
+        double[][] values = new double[n][];
+        for (int j = 0; j < n; j++) {
+            keys[j] = new long[sizes[j]];
+            values[j] = new double[sizes[j]];
+        }
+
+        // rows are visited in item order, so each column's keys are filled in sorted order
+        int[] fill = new int[n];
+        for (int i = 0; i < n; i++) {
+            long item = itemDomain.getKey(i);
+            for (Long2DoubleMap.Entry e: neighborhoods.get(i).long2DoubleEntrySet()) {
+                int j = itemDomain.tryGetIndex(e.getLongKey());
+                if (j >= 0) {
+                    keys[j][fill[j]] = item;
+                    values[j][fill[j]] = e.getDoubleValue();
+                    fill[j] += 1;
+                }
+            }
+        }
+
+        Long2DoubleMap[] cols = new Long2DoubleMap[n];
+        for (int j = 0; j < n; j++) {
+            cols[j] = Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys[j], sizes[j]), values[j]);
+        }
+        return cols;
+    }
+
     @Override
     public String toString() {
         String val = stringValue;
@@ -114,6 +222,9 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
                 nsims += nbrs.size();
             }
             val = String.format("matrix of %d similarities for %d items", nsims, neighborhoods.size());
+            if (packedRows != null) {
+                val += " (" + packedRows.describeStorage() + ")";
+            }
             stringValue = val;
         }
         return val;
@@ -0,0 +1,231 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.grouplens.lenskit.transform.threshold.Threshold;
+import org.lenskit.similarity.DotProductSimilarity;
+import org.lenskit.similarity.PreparedVector;
+import org.lenskit.util.ProgressLogger;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
+import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Build a similarity matrix for a {@link DotProductSimilarity} as the sparse product of the item
+ * rating matrix with its transpose.  The item vectors are transposed into a user-major
+ * compressed sparse row matrix; each row of the model is then computed by scattering the products
+ * from every user who rated the item into dense scratch arrays indexed by item, so the similarity
+ * function only sees pairs of items that have users in common.  Rows are computed in blocks, in
+ * parallel if requested, and minimum co-rating, threshold and model size are applied as each row
+ * is finished.
+ *
+ * Each dot product is summed in increasing user order, so the results are the same as pair-by-pair
+ * computation.  Only valid if the threshold rejects zero similarities.
+ */
+final class SparseProductModelBuilder {
+    /**
+     * The number of rows computed together as one parallel task.
+     */
+    private static final int BLOCK_SIZE = 256;
+
+    private final ItemItemBuildContext context;
+    private final DotProductSimilarity similarity;
+    private final Threshold threshold;
+    private final int minCommonUsers;
+    private final int modelSize;
+
+    private SortedKeyIndex items;
+    private PreparedVector[] vectors;
+    // item-major: the users (as user indexes) and values of each item's vector
+    private int[] itemPtr;
+    private int[] itemUsers;
+    private double[] itemValues;
+    // user-major: the items (as item indexes) and values of each user's ratings
+    private int[] userPtr;
+    private int[] userItems;
+    private double[] userValues;
+
+    SparseProductModelBuilder(ItemItemBuildContext ctx, DotProductSimilarity sim,
+                              Threshold thresh, int minCU, int size) {
+        context = ctx;
+        similarity = sim;
+        threshold = thresh;
+        minCommonUsers = minCU;
+        modelSize = size;
+    }
+
+    SimilarityMatrixModel build(ProgressLogger progress, boolean parallel) {
+        transpose();
+        int n = items.size();
+        Long2DoubleMap[] rows = new Long2DoubleMap[n];
+        int nblocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        // scratch space is large (linear in the item count), so keep one per thread, not per block
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+        IntStream blocks = IntStream.range(0, nblocks);
+        if (parallel) {
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(b -> {
+            Scratch s = scratch.get();
+            int end = Math.min(n, (b + 1) * BLOCK_SIZE);
+            for (int i = b * BLOCK_SIZE; i < end; i++) {
+                if (vectors[i].size() >= minCommonUsers) {
+                    rows[i] = computeRow(i, s);
+                }
+                progress.advance();
+            }
+        });
+
+        long[] keys = new long[n];
+        List<Long2DoubleMap> nbrs = new ArrayList<>(n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (rows[i] != null) {
+                keys[m++] = items.getKey(items.getLowerBound() + i);
+                nbrs.add(rows[i]);
+            }
+        }
+        return new SimilarityMatrixModel(SortedKeyIndex.wrap(keys, m), nbrs);
+    }
+
+    /**
+     * Set up the item-major and user-major sparse matrices.
+     */
+    private void transpose() {
+        items = SortedKeyIndex.fromCollection(context.getItems());
+        int n = items.size();
+        int base = items.getLowerBound();
+        vectors = new PreparedVector[n];
+        itemPtr = new int[n + 1];
+        Long2IntMap userIndex = new Long2IntOpenHashMap();
+        userIndex.defaultReturnValue(-1);
+        for (int i = 0; i < n; i++) {
+            vectors[i] = context.preparedItemVector(items.getKey(base + i));
+            itemPtr[i + 1] = itemPtr[i] + vectors[i].size();
+        }
+
+        int nnz = itemPtr[n];
+        itemUsers = new int[nnz];
+        itemValues = new double[nnz];
+        int[] counts = new int[16];
+        for (int i = 0; i < n; i++) {
+            Long2DoubleSortedArrayMap vec = vectors[i].getVector();
+            for (int k = 0; k < vec.size(); k++) {
+                long user = vec.getKeyByIndex(k);
+                int u = userIndex.get(user);
+                if (u < 0) {
+                    u = userIndex.size();
+                    userIndex.put(user, u);
+                    if (u >= counts.length) {
+                        counts = Arrays.copyOf(counts, counts.length * 2);
+                    }
+                }
+                counts[u]++;
+                itemUsers[itemPtr[i] + k] = u;
+                itemValues[itemPtr[i] + k] = vec.getValueByIndex(k);
+            }
+        }
+
+        int nusers = userIndex.size();
+        userPtr = new int[nusers + 1];
+        for (int u = 0; u < nusers; u++) {
+            userPtr[u + 1] = userPtr[u] + counts[u];
+        }
+        userItems = new int[nnz];
+        userValues = new double[nnz];
+        int[] fill = new int[nusers];
+        for (int i = 0; i < n; i++) {
+            for (int k = itemPtr[i]; k < itemPtr[i + 1]; k++) {
+                int u = itemUsers[k];
+                int p = userPtr[u] + fill[u]++;
+                userItems[p] = i;
+                userValues[p] = itemValues[k];
+            }
+        }
+    }
+
+    private Long2DoubleMap computeRow(int i, Scratch s) {
+        int ntouched = 0;
+        // item vectors are sorted by user ID, so each dot product is summed in user order
+        for (int k = itemPtr[i]; k < itemPtr[i + 1]; k++) {
+            int u = itemUsers[k];
+            double x = itemValues[k];
+            for (int p = userPtr[u]; p < userPtr[u + 1]; p++) {
+                int j = userItems[p];
+                if (j == i) {
+                    continue;
+                }
+                if (s.counts[j] == 0) {
+                    s.touched[ntouched++] = j;
+                }
+                s.counts[j]++;
+                s.dots[j] += x * userValues[p];
+            }
+        }
+
+        Long2DoubleAccumulator acc = modelSize > 0
+                ? new TopNLong2DoubleAccumulator(modelSize)
+                : new UnlimitedLong2DoubleAccumulator();
+        int base = items.getLowerBound();
+        for (int t = 0; t < ntouched; t++) {
+            int j = s.touched[t];
+            if (s.counts[j] >= minCommonUsers) {
+                double sim = similarity.similarityFromDot(s.dots[j], vectors[i], vectors[j]);
+                if (threshold.retain(sim)) {
+                    acc.put(items.getKey(base + j), sim);
+                }
+            }
+            s.counts[j] = 0;
+            s.dots[j] = 0;
+        }
+        return LongUtils.frozenMap(acc.finishMap());
+    }
+
+    /**
+     * Dense per-thread accumulation space for one row.
+     */
+    private static class Scratch {
+        final double[] dots;
+        final int[] counts;
+        final int[] touched;
+
+        Scratch(int n) {
+            dots = new double[n];
+            counts = new int[n];
+            touched = new int[n];
+        }
+    }
+}
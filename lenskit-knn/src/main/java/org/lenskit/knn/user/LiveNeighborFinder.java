@@ -35,6 +35,7 @@ import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.ScoreNormalizer;
 import org.lenskit.knn.SimilarityNormalizer;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.lenskit.util.InvertibleFunction;
 import org.lenskit.util.collections.LongUtils;
 import org.slf4j.Logger;
@@ -91,8 +92,8 @@ public class LiveNeighborFinder implements NeighborFinder {
             return Collections.emptyList();
         }
 
-        final Long2DoubleMap nratings = similarityNormalizer.makeTransformation(user, ratings)
-                                                            .apply(ratings);
+        final Long2DoubleMap nratings = VectorTransformations.apply(similarityNormalizer.makeTransformation(user, ratings),
+                                                                    ratings);
         final LongSet candidates = findCandidateNeighbors(user, nratings.keySet(), items);
         logger.debug("found {} candidate neighbors for {}", candidates.size(), user);
         return new Iterable<Neighbor>() {
@@ -167,7 +168,7 @@ public class LiveNeighborFinder implements NeighborFinder {
                 if (rawRatings != null) {
                     rawRatings = LongUtils.frozenMap(rawRatings);
                     InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xform = similarityNormalizer.makeTransformation(neighbor, rawRatings);
-                    Long2DoubleMap nbrRatings = xform.apply(rawRatings);
+                    Long2DoubleMap nbrRatings = VectorTransformations.apply(xform, rawRatings);
                     final double sim = similarity.similarity(user, userVector, neighbor, nbrRatings);
                     if (acceptSimilarity(sim)) {
                         // we have found a neighbor
@@ -175,7 +176,8 @@ public class LiveNeighborFinder implements NeighborFinder {
                         if (scoreNormalizer.equals(similarityNormalizer)) {
                             ratings = nbrRatings;
                         } else {
-                            ratings = scoreNormalizer.makeTransformation(neighbor, rawRatings).apply(rawRatings);
+                            ratings = VectorTransformations.apply(scoreNormalizer.makeTransformation(neighbor, rawRatings),
+                                                                  rawRatings);
                         }
                         return new Neighbor(neighbor, ratings, sim);
                     }
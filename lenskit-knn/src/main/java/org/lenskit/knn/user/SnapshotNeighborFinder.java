@@ -30,6 +30,7 @@ import org.grouplens.lenskit.transform.threshold.Threshold;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.SimilarityNormalizer;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,8 +74,8 @@ public class SnapshotNeighborFinder implements NeighborFinder {
             return Collections.emptyList();
         }
 
-        final Long2DoubleMap normed = similarityNormalizer.makeTransformation(user, urs)
-                                                          .apply(urs);
+        final Long2DoubleMap normed = VectorTransformations.apply(similarityNormalizer.makeTransformation(user, urs),
+                                                                  urs);
         assert normed != null;
 
         LongCollection qset = items;
@@ -34,12 +34,18 @@ import org.lenskit.inject.Transient;
 import org.lenskit.knn.ScoreNormalizer;
 import org.lenskit.knn.SimilarityNormalizer;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.PackedSparseRows;
 import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.StoragePrecision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import net.jcip.annotations.ThreadSafe;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import java.io.Serializable;
@@ -55,10 +61,15 @@ import java.util.List;
 @DefaultProvider(UserSnapshot.Builder.class)
 public class UserSnapshot implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(UserSnapshot.class);
     private final SortedKeyIndex users;
     private final List<Long2DoubleMap> vectors;
     private final List<Long2DoubleMap> normedVectors;
     private final Long2ObjectMap<LongSortedSet> itemUserSets;
+    @Nullable
+    private final PackedSparseRows packedVectors;
+    @Nullable
+    private final PackedSparseRows packedNormedVectors;
 
     /**
      * Construct a user snapshot.
@@ -68,6 +79,17 @@ public class UserSnapshot implements Serializable {
      */
     UserSnapshot(SortedKeyIndex us, List<Long2DoubleMap> vs, List<Long2DoubleMap> nvs,
                  Long2ObjectMap<LongSortedSet> iuSets) {
+        this(us, vs, nvs, iuSets, null, null);
+    }
+
+    private UserSnapshot(SortedKeyIndex us, PackedSparseRows vs, PackedSparseRows nvs,
+                         Long2ObjectMap<LongSortedSet> iuSets) {
+        this(us, rowList(vs), rowList(nvs), iuSets, vs, nvs);
+    }
+
+    private UserSnapshot(SortedKeyIndex us, List<Long2DoubleMap> vs, List<Long2DoubleMap> nvs,
+                         Long2ObjectMap<LongSortedSet> iuSets,
+                         @Nullable PackedSparseRows pvs, @Nullable PackedSparseRows pnvs) {
         Preconditions.checkArgument(vs.size() == us.size(),
                                     "incorrectly sized vector list");
         Preconditions.checkArgument(nvs.size() == us.size(),
@@ -76,6 +98,32 @@ public class UserSnapshot implements Serializable {
         vectors = ImmutableList.copyOf(vs);
         normedVectors = ImmutableList.copyOf(nvs);
         itemUserSets = iuSets;
+        packedVectors = pvs;
+        packedNormedVectors = pnvs;
+    }
+
+    private static List<Long2DoubleMap> rowList(PackedSparseRows rows) {
+        ImmutableList.Builder<Long2DoubleMap> list = ImmutableList.builder();
+        for (int i = 0; i < rows.getRowCount(); i++) {
+            list.add(rows.getRow(i));
+        }
+        return list.build();
+    }
+
+    /**
+     * Pack the vectors of a snapshot at a lower precision.  If the raw and normalized vectors of
+     * each user have the same items, the packed vectors share their item arrays.
+     */
+    static UserSnapshot pack(UserSnapshot snap, StoragePrecision precision) {
+        PackedSparseRows vs = PackedSparseRows.pack(null, snap.vectors, precision);
+        boolean sameKeys = true;
+        for (int i = 0; sameKeys && i < snap.vectors.size(); i++) {
+            sameKeys = snap.vectors.get(i).keySet().equals(snap.normedVectors.get(i).keySet());
+        }
+        PackedSparseRows nvs = sameKeys
+                ? vs.withValues(snap.normedVectors, precision)
+                : PackedSparseRows.pack(null, snap.normedVectors, precision);
+        return new UserSnapshot(snap.users, vs, nvs, snap.itemUserSets);
     }
 
     /**
@@ -104,19 +152,39 @@ public class UserSnapshot implements Serializable {
         return itemUserSets.get(item);
     }
 
+    @Override
+    public String toString() {
+        String str = String.format("snapshot of %d users", users.size());
+        if (packedVectors != null && packedNormedVectors != null) {
+            str += String.format(" (raw %s; normalized %s)",
+                                 packedVectors.describeStorage(), packedNormedVectors.describeStorage());
+        }
+        return str;
+    }
+
     public static class Builder implements Provider<UserSnapshot> {
         private final RatingVectorPDAO rvDAO;
         private final UserVectorNormalizer scoreNormalizer;
         private final UserVectorNormalizer similarityNormalizer;
+        private final StoragePrecision precision;
 
+        public Builder(RatingVectorPDAO rvd,
+                       UserVectorNormalizer scoreNorm,
+                       UserVectorNormalizer simNorm) {
+            this(rvd, scoreNorm, simNorm, 64);
+        }
 
         @Inject
         public Builder(@Transient RatingVectorPDAO rvd,
                        @Transient @ScoreNormalizer UserVectorNormalizer scoreNorm,
-                       @Transient @SimilarityNormalizer UserVectorNormalizer simNorm) {
+                       @Transient @SimilarityNormalizer UserVectorNormalizer simNorm,
+                       @UserVectorStorageBits int bits) {
             rvDAO = rvd;
             scoreNormalizer = scoreNorm;
             similarityNormalizer = simNorm;
+            precision = StoragePrecision.fromBits(bits);
+            Preconditions.checkArgument(!precision.isQuantized(),
+                                        "quantized storage is not supported for user vectors");
         }
 
         @Override
@@ -136,11 +204,11 @@ public class UserSnapshot implements Serializable {
             for (LongIterator uiter = domain.keyIterator(); uiter.hasNext();) {
                 final long user = uiter.nextLong();
                 Long2DoubleMap rawV = vectors.get(user);
-                Long2DoubleMap scoreV = scoreNormalizer.makeTransformation(user, rawV).apply(rawV);
+                Long2DoubleMap scoreV = VectorTransformations.apply(scoreNormalizer.makeTransformation(user, rawV), rawV);
                 assert scoreV != null;
                 scoreVectors.add(scoreV);
                 // normalize user vector
-                Long2DoubleMap normV = similarityNormalizer.makeTransformation(user, rawV).apply(rawV);
+                Long2DoubleMap normV = VectorTransformations.apply(similarityNormalizer.makeTransformation(user, rawV), rawV);
                 assert normV != null;
                 normedVectors.add(normV);
                 for (LongIterator iiter = rawV.keySet().iterator(); iiter.hasNext();) {
@@ -158,7 +226,12 @@ public class UserSnapshot implements Serializable {
             for (Long2ObjectMap.Entry<LongList> entry: itemUserLists.long2ObjectEntrySet()) {
                 itemUserSets.put(entry.getLongKey(), LongUtils.packedSet(entry.getValue()));
             }
-            return new UserSnapshot(domain, scoreVectors.build(), normedVectors.build(), itemUserSets);
+            UserSnapshot snap = new UserSnapshot(domain, scoreVectors.build(), normedVectors.build(), itemUserSets);
+            if (precision != StoragePrecision.DOUBLE) {
+                snap = pack(snap, precision);
+                logger.info("packed user vectors: {}", snap);
+            }
+            return snap;
         }
     }
 }
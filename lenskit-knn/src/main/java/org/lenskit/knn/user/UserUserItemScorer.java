@@ -29,10 +29,13 @@ import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.context.UserContext;
+import org.lenskit.context.UserContextManager;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.NeighborhoodSize;
 import org.lenskit.results.Results;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
+import org.lenskit.transform.normalize.VectorTransformations;
 import org.lenskit.util.InvertibleFunction;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.SortedListAccumulator;
@@ -50,7 +53,8 @@ import java.util.List;
 /**
  * Score items with user-user collaborative filtering.
  *
- * The detailed results returned by this scorer are of type {@link UserUserResult}.
+ * The detailed results returned by this scorer are of type {@link UserUserResult}.  While a
+ * {@linkplain UserContext user context} is open, the user's normalizing transformation is computed only once.
  */
 public class UserUserItemScorer extends AbstractItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(UserUserItemScorer.class);
@@ -60,12 +64,24 @@ public class UserUserItemScorer extends AbstractItemScorer {
     protected final UserVectorNormalizer normalizer;
     private final UserNeighborhoodScorer neighborhoodScorer;
     private final int neighborhoodSize;
+    private final UserContextManager contexts;
+    private final UserContext.Key<InvertibleFunction<Long2DoubleMap, Long2DoubleMap>> transformKey =
+            new UserContext.Key<>("user-user-transform");
 
-    @Inject
     public UserUserItemScorer(RatingVectorPDAO rvd, NeighborFinder nf,
                               UserVectorNormalizer norm,
                               UserNeighborhoodScorer scorer,
                               @NeighborhoodSize int nnbrs) {
+        this(rvd, nf, norm, scorer, nnbrs, new UserContextManager());
+    }
+
+    @Inject
+    public UserUserItemScorer(RatingVectorPDAO rvd, NeighborFinder nf,
+                              UserVectorNormalizer norm,
+                              UserNeighborhoodScorer scorer,
+                              @NeighborhoodSize int nnbrs,
+                              UserContextManager ctx) {
+        contexts = ctx;
         this.dao = rvd;
         neighborFinder = nf;
         normalizer = norm;
@@ -86,7 +102,8 @@ public class UserUserItemScorer extends AbstractItemScorer {
                 findNeighbors(user, itemSet);
 
         // Make the normalizing transform to reverse
-        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xform = normalizer.makeTransformation(user, history);
+        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> xform =
+                contexts.lookup(user, transformKey, u -> normalizer.makeTransformation(u, history));
 
         // And prepare results
         List<UserUserResult> rawResults = new ArrayList<>();
@@ -107,19 +124,23 @@ public class UserUserItemScorer extends AbstractItemScorer {
             }
         }
 
-        // de-normalize the results
-        Long2DoubleMap itemScores = new Long2DoubleOpenHashMap(rawResults.size());
-        for (UserUserResult r: rawResults) {
-            itemScores.put(r.getId(), r.getScore());
+        // de-normalize the results; they are in item order, since the item set is sorted
+        int n = rawResults.size();
+        long[] keys = new long[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            UserUserResult r = rawResults.get(i);
+            keys[i] = r.getId();
+            values[i] = r.getScore();
         }
-        itemScores = xform.unapply(itemScores);
+        VectorTransformations.unapplyInPlace(xform, keys, values, n);
 
         // and finish up
-        List<Result> results = new ArrayList<>(rawResults.size());
-        for (UserUserResult r: rawResults) {
-            results.add(r.copyBuilder()
-                         .setScore(itemScores.get(r.getId()))
-                         .build());
+        List<Result> results = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            results.add(rawResults.get(i).copyBuilder()
+                                  .setScore(values[i])
+                                  .build());
         }
 
         return Results.newResultMap(results);
@@ -42,7 +42,9 @@
  */
 package org.lenskit.knn.item;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
 import org.junit.After;
 import org.junit.Before;
@@ -54,14 +56,17 @@ import org.lenskit.api.*;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.ratings.Rating;
+import org.lenskit.knn.item.model.ItemItemModel;
 import org.lenskit.transform.normalize.DefaultUserVectorNormalizer;
 import org.lenskit.transform.normalize.IdentityVectorNormalizer;
 import org.lenskit.transform.normalize.UserVectorNormalizer;
 import org.lenskit.transform.normalize.VectorNormalizer;
 
+import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.grouplens.lenskit.util.test.ExtraMatchers.notANumber;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -214,4 +219,43 @@ public class ItemItemGlobalRecommenderTest {
         assertThat(recs, contains(7L));
 
     }
+
+    /**
+     * Check that the column-scattering path matches scoring each candidate's neighborhood.
+     */
+    @Test
+    public void testScatterMatchesNeighborhoods() {
+        ItemItemModel model = session.get(ItemItemModel.class);
+        for (long i: model.getItemUniverse()) {
+            for (Long2DoubleMap.Entry e: model.getNeighbors(i).long2DoubleEntrySet()) {
+                assertThat(model.getReverseNeighbors(e.getLongKey()).get(i),
+                           equalTo(e.getDoubleValue()));
+            }
+        }
+
+        // hide the columns to force per-candidate scoring
+        ItemItemModel rowsOnly = new ItemItemModel() {
+            @Override
+            public LongSortedSet getItemUniverse() {
+                return model.getItemUniverse();
+            }
+
+            @Nonnull
+            @Override
+            public Long2DoubleMap getNeighbors(long item) {
+                return model.getNeighbors(item);
+            }
+        };
+        ItemItemItemBasedItemScorer scatter = new ItemItemItemBasedItemScorer(model, 0);
+        ItemItemItemBasedItemScorer gather = new ItemItemItemBasedItemScorer(rowsOnly, 0);
+
+        List<Long> basket = LongArrayList.wrap(new long[]{1, 7});
+        List<Long> items = new ArrayList<>(model.getItemUniverse());
+        Map<Long, Double> expected = gather.scoreRelatedItems(basket, items);
+        Map<Long, Double> actual = scatter.scoreRelatedItems(basket, items);
+        assertThat(actual.keySet(), equalTo(expected.keySet()));
+        for (Map.Entry<Long, Double> e: expected.entrySet()) {
+            assertThat(actual.get(e.getKey()), closeTo(e.getValue(), 1.0e-6));
+        }
+    }
 }
@@ -25,6 +25,7 @@
 package org.lenskit.knn.item;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.junit.After;
@@ -113,7 +114,15 @@ public class ItemItemRecommenderTest {
         assertThat(scores.containsKey(8L), equalTo(false));
     }
 
-
+    @Test
+    public void testStreamScoresMatchMap() {
+        long[] items = {6, 7, 8, 9};
+        ItemItemScorer scorer = session.get(ItemItemScorer.class);
+        Map<Long, Double> scores = scorer.score(2, LongArrayList.wrap(items));
+        Long2DoubleMap streamed = new Long2DoubleOpenHashMap();
+        scorer.scoreInto(2, LongArrayList.wrap(items), streamed::put);
+        assertThat(streamed, equalTo(scores));
+    }
 
     /**
      * Check that we score items but do not provide scores for items
@@ -0,0 +1,230 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import org.junit.Test;
+import org.lenskit.LenskitConfiguration;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.knn.item.ItemItemScorer;
+import org.lenskit.knn.item.LSHTableCount;
+import org.lenskit.knn.item.MinCommonUsers;
+import org.lenskit.knn.item.ModelSize;
+import org.lenskit.knn.item.SimilarityStorageBits;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ItemItemModelProviderTest {
+    private ItemItemModel buildModel(StaticDataSource source, int size) throws RecommenderBuildException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        config.set(ModelSize.class).to(size);
+        LenskitRecommenderEngine engine = LenskitRecommenderEngine.build(config, source.get());
+        return engine.getComponent(ItemItemModel.class);
+    }
+
+    /**
+     * The symmetric collector should produce a symmetric matrix, and truncated rows should be the
+     * best entries of the full rows.
+     */
+    @Test
+    public void testSymmetricBuildTruncation() throws RecommenderBuildException {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 50; u++) {
+            for (long i = 1; i <= 40; i++) {
+                if (rng.nextDouble() < 0.3) {
+                    rs.add(Rating.create(u, i, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        StaticDataSource source = StaticDataSource.fromList(rs);
+
+        ItemItemModel full = buildModel(source, 0);
+        ItemItemModel truncated = buildModel(source, 5);
+        assertThat(full.getItemUniverse(), not(empty()));
+
+        for (long item: full.getItemUniverse()) {
+            Long2DoubleMap row = full.getNeighbors(item);
+            for (Long2DoubleMap.Entry e: row.long2DoubleEntrySet()) {
+                assertThat(full.getNeighbors(e.getLongKey()).get(item),
+                           closeTo(e.getDoubleValue(), 1.0e-10));
+            }
+
+            Long2DoubleMap trow = truncated.getNeighbors(item);
+            assertThat(trow.size(), equalTo(Math.min(5, row.size())));
+            List<Double> best = row.values()
+                                   .stream()
+                                   .sorted(Comparator.reverseOrder())
+                                   .limit(5)
+                                   .collect(Collectors.toList());
+            List<Double> got = trow.values()
+                                   .stream()
+                                   .sorted(Comparator.reverseOrder())
+                                   .collect(Collectors.toList());
+            assertThat(got, equalTo(best));
+        }
+    }
+
+    /**
+     * Quantized models keep the same neighbors, with similarities within the reported error.
+     */
+    @Test
+    public void testQuantizedBuild() throws RecommenderBuildException {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 50; u++) {
+            for (long i = 1; i <= 40; i++) {
+                if (rng.nextDouble() < 0.3) {
+                    rs.add(Rating.create(u, i, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        StaticDataSource source = StaticDataSource.fromList(rs);
+
+        ItemItemModel full = buildModel(source, 0);
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        config.set(SimilarityStorageBits.class).to(16);
+        ItemItemModel packed = LenskitRecommenderEngine.build(config, source.get())
+                                                       .getComponent(ItemItemModel.class);
+        assertThat(packed.toString(), containsString("quantized_16"));
+
+        assertThat(packed.getItemUniverse(), equalTo(full.getItemUniverse()));
+        for (long item: full.getItemUniverse()) {
+            Long2DoubleMap row = full.getNeighbors(item);
+            Long2DoubleMap prow = packed.getNeighbors(item);
+            assertThat(prow.keySet(), equalTo(row.keySet()));
+            for (Long2DoubleMap.Entry e: row.long2DoubleEntrySet()) {
+                // similarities are in [-1,1], so 16 bits are good to about 2/65535
+                assertThat(prow.get(e.getLongKey()), closeTo(e.getDoubleValue(), 2.0e-5));
+            }
+            assertThat(packed.getReverseNeighbors(item).keySet(),
+                       equalTo(full.getReverseNeighbors(item).keySet()));
+        }
+    }
+
+    /**
+     * Neighbor strategy that the model provider does not recognize as exact, forcing a
+     * pair-by-pair build.
+     */
+    public static class PairwiseStrategy implements NeighborIterationStrategy {
+        private final NeighborIterationStrategy delegate = new SparseNeighborIterationStrategy();
+
+        @Override
+        public LongIterator neighborIterator(ItemItemBuildContext context, long item, boolean onlyAfter) {
+            return delegate.neighborIterator(context, item, onlyAfter);
+        }
+    }
+
+    /**
+     * The sparse product build should produce the same model as the pair-by-pair build.
+     */
+    @Test
+    public void testSparseProductMatchesPairwise() throws RecommenderBuildException {
+        Random rng = new Random(17);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 80; u++) {
+            for (long i = 1; i <= 60; i++) {
+                if (rng.nextDouble() < 0.2) {
+                    rs.add(Rating.create(u, i, 0.5 + rng.nextInt(10) * 0.5));
+                }
+            }
+        }
+        StaticDataSource source = StaticDataSource.fromList(rs);
+
+        for (int size: new int[]{0, 10}) {
+            LenskitConfiguration config = new LenskitConfiguration();
+            config.bind(ItemScorer.class).to(ItemItemScorer.class);
+            config.set(ModelSize.class).to(size);
+            config.set(MinCommonUsers.class).to(2);
+            ItemItemModel product = LenskitRecommenderEngine.build(config, source.get())
+                                                            .getComponent(ItemItemModel.class);
+            config.bind(NeighborIterationStrategy.class).to(PairwiseStrategy.class);
+            ItemItemModel pairwise = LenskitRecommenderEngine.build(config, source.get())
+                                                             .getComponent(ItemItemModel.class);
+
+            assertThat(product.getItemUniverse(), equalTo(pairwise.getItemUniverse()));
+            for (long item: pairwise.getItemUniverse()) {
+                Long2DoubleMap expected = pairwise.getNeighbors(item);
+                Long2DoubleMap actual = product.getNeighbors(item);
+                if (size == 0) {
+                    assertThat(actual, equalTo(expected));
+                } else {
+                    // ties at the cutoff may keep different items, but not different values
+                    assertThat(actual.values().stream().sorted().collect(Collectors.toList()),
+                               equalTo(expected.values().stream().sorted().collect(Collectors.toList())));
+                }
+            }
+        }
+    }
+
+    /**
+     * LSH candidates are a subset of all neighbors, with the same similarities.
+     */
+    @Test
+    public void testLSHBuildFindsSubset() throws RecommenderBuildException {
+        Random rng = new Random(42);
+        List<Rating> rs = new ArrayList<>();
+        for (long u = 1; u <= 50; u++) {
+            for (long i = 1; i <= 40; i++) {
+                if (rng.nextDouble() < 0.3) {
+                    rs.add(Rating.create(u, i, 1 + rng.nextInt(5)));
+                }
+            }
+        }
+        StaticDataSource source = StaticDataSource.fromList(rs);
+
+        ItemItemModel full = buildModel(source, 0);
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(ItemItemScorer.class);
+        config.bind(NeighborIterationStrategy.class).to(LSHNeighborIterationStrategy.class);
+        config.set(LSHTableCount.class).to(4);
+        ItemItemModel approx = LenskitRecommenderEngine.build(config, source.get())
+                                                       .getComponent(ItemItemModel.class);
+
+        int found = 0;
+        for (long item: approx.getItemUniverse()) {
+            Long2DoubleMap row = full.getNeighbors(item);
+            for (Long2DoubleMap.Entry e: approx.getNeighbors(item).long2DoubleEntrySet()) {
+                assertThat(row.get(e.getLongKey()), closeTo(e.getDoubleValue(), 1.0e-10));
+                found++;
+            }
+        }
+        assertThat(found, greaterThan(0));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.item.model;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LSHNeighborIterationStrategyTest {
+    private ItemItemBuildContext context;
+
+    @Before
+    public void createContext() {
+        Random rng = new Random(42);
+        SortedKeyIndex items = SortedKeyIndex.create(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        Long2DoubleSortedMap[] vectors = new Long2DoubleSortedMap[items.size()];
+        for (int i = 0; i < vectors.length; i++) {
+            Long2DoubleSortedMap vec = new Long2DoubleAVLTreeMap();
+            for (long u = 1; u <= 30; u++) {
+                if (rng.nextDouble() < 0.5) {
+                    vec.put(u, rng.nextGaussian());
+                }
+            }
+            vectors[i] = vec;
+        }
+        // items 2 and 7 have the same ratings, item 10 has none
+        vectors[6] = new Long2DoubleAVLTreeMap(vectors[1]);
+        vectors[9] = new Long2DoubleAVLTreeMap();
+        context = new ItemItemBuildContext(items, vectors, new Long2ObjectOpenHashMap<>());
+    }
+
+    private static LongList neighbors(LongIterator iter) {
+        LongList list = new LongArrayList();
+        while (iter.hasNext()) {
+            list.add(iter.nextLong());
+        }
+        return list;
+    }
+
+    @Test
+    public void testIdenticalItemsCollide() {
+        LSHNeighborIterationStrategy strat = new LSHNeighborIterationStrategy(4, 16);
+        assertThat(neighbors(strat.neighborIterator(context, 2, false)), hasItem(7L));
+        assertThat(neighbors(strat.neighborIterator(context, 7, false)), hasItem(2L));
+        assertThat(neighbors(strat.neighborIterator(context, 2, true)), hasItem(7L));
+        assertThat(neighbors(strat.neighborIterator(context, 7, true)), not(hasItem(2L)));
+    }
+
+    @Test
+    public void testCandidatesAreSymmetric() {
+        LSHNeighborIterationStrategy strat = new LSHNeighborIterationStrategy(3, 2);
+        for (long i: context.getItems()) {
+            LongList nbrs = neighbors(strat.neighborIterator(context, i, false));
+            assertThat(nbrs, not(hasItem(i)));
+            assertThat(nbrs, not(hasItem(10L)));
+            for (long j: nbrs) {
+                assertThat(neighbors(strat.neighborIterator(context, j, false)), hasItem(i));
+            }
+            LongList after = neighbors(strat.neighborIterator(context, i, true));
+            for (long j: after) {
+                assertThat(j, greaterThan(i));
+                assertThat(nbrs, hasItem(j));
+            }
+        }
+    }
+
+    @Test
+    public void testUnratedItemHasNoNeighbors() {
+        LSHNeighborIterationStrategy strat = new LSHNeighborIterationStrategy(8, 1);
+        assertThat(neighbors(strat.neighborIterator(context, 10, false)), empty());
+        assertThat(neighbors(strat.neighborIterator(context, 42, false)), empty());
+    }
+
+    @Test
+    public void testOneBitFindsMostItems() {
+        // with many single-bit tables nearly every pair collides somewhere
+        LSHNeighborIterationStrategy strat = new LSHNeighborIterationStrategy(32, 1);
+        assertThat(neighbors(strat.neighborIterator(context, 1, false)).size(),
+                   greaterThanOrEqualTo(7));
+    }
+}
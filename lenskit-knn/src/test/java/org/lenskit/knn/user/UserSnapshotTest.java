@@ -0,0 +1,65 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.knn.user;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.*;
+import org.junit.Test;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.StoragePrecision;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class UserSnapshotTest {
+    private static Long2DoubleMap vector(long k1, double v1, long k2, double v2) {
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        map.put(k1, v1);
+        map.put(k2, v2);
+        return LongUtils.frozenMap(map);
+    }
+
+    @Test
+    public void testPackFloat() {
+        SortedKeyIndex users = SortedKeyIndex.create(1, 2);
+        UserSnapshot snap = new UserSnapshot(users,
+                                             ImmutableList.of(vector(10, 3.5, 20, 4.1), vector(10, 1.0, 30, 2.0)),
+                                             ImmutableList.of(vector(10, -0.3, 20, 0.3), vector(10, -0.5, 30, 0.5)),
+                                             new Long2ObjectOpenHashMap<>());
+        assertThat(snap.toString(), equalTo("snapshot of 2 users"));
+
+        UserSnapshot packed = UserSnapshot.pack(snap, StoragePrecision.FLOAT);
+        assertThat(packed.toString(), containsString("float"));
+        for (long u: new long[]{1, 2}) {
+            assertThat(packed.getUserVector(u).keySet(), equalTo(snap.getUserVector(u).keySet()));
+            assertThat(packed.getNormalizedUserVector(u).keySet(),
+                       equalTo(snap.getNormalizedUserVector(u).keySet()));
+        }
+        assertThat(packed.getUserVector(1).get(20), equalTo((double) 4.1f));
+        assertThat(packed.getNormalizedUserVector(1).get(20), equalTo((double) 0.3f));
+        assertThat(packed.getNormalizedUserVector(2).get(30), equalTo(0.5));
+    }
+}
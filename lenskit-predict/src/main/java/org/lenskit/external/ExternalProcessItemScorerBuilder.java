@@ -49,7 +49,8 @@ import java.util.List;
 import java.util.UUID;
 
 /**
- * Build a {@link PrecomputedItemScorer} using an external process.
+ * Build a {@link PrecomputedItemScorer} using an external process, or connect a
+ * {@link PersistentExternalItemScorer} to a long-lived one.
  * This class implements {@link javax.inject.Provider}, but is not itself instantiable with
  * dependency injection.
  *
@@ -61,6 +62,11 @@ import java.util.UUID;
  * The external process is expected to produce its scores on standard output in comma-separated
  * user, item, score format.
  * <p>
+ * With {@link #buildPersistent()}, the process instead keeps running and serves score requests using the
+ * binary {@linkplain ScorerProtocol scorer protocol} over its standard input and output.  The ratings set with
+ * {@link #setStreamedRatings(DataAccessObject)} are streamed to it once at startup, so no data files need to
+ * be written.
+ * <p>
  * <strong>Warning:</strong> if you use this code to build item scorers in the evaluator, be careful
  * with the file-based caching (<tt>componentCacheDirectory</tt>).  The cache will likely not rerun
  * the external process.
@@ -74,6 +80,8 @@ public class ExternalProcessItemScorerBuilder implements Provider<ItemScorer> {
     private File workingDir = new File(".");
     private String executable;
     private List<Supplier<String>> arguments = Lists.newArrayList();
+    private DataAccessObject streamedRatings;
+    private boolean persistent = false;
 
     /**
      * Set the working directory to use.
@@ -210,30 +218,35 @@ public class ExternalProcessItemScorerBuilder implements Provider<ItemScorer> {
         return addUserFileArgument(users, String.format("users-%s.csv", UUID.randomUUID()));
     }
 
+    /**
+     * Set the ratings to stream to a persistent process when it starts.
+     *
+     * @param dao A DAO of ratings to provide to the process.  Only ratings will be considered.
+     * @return The builder (for chaining).
+     * @see #buildPersistent()
+     */
+    public ExternalProcessItemScorerBuilder setStreamedRatings(DataAccessObject dao) {
+        streamedRatings = dao;
+        return this;
+    }
+
+    /**
+     * Set whether {@link #get()} builds a persistent scorer.
+     *
+     * @param p `true` to make {@link #get()} use {@link #buildPersistent()} instead of {@link #build()}.
+     * @return The builder (for chaining).
+     */
+    public ExternalProcessItemScorerBuilder setPersistent(boolean p) {
+        persistent = p;
+        return this;
+    }
+
     /**
      * Build the item scorer.
      * @return An item scorer that will return the scores provided by the external algorithm.
      */
     public PrecomputedItemScorer build() {
-        Preconditions.checkState(executable != null, "no executable specified");
-        List<String> command = Lists.newArrayList();
-        command.add(executable);
-        for (Supplier<String> arg: arguments) {
-            command.add(arg.get());
-        }
-        ProcessBuilder pb = new ProcessBuilder();
-        pb.command(command).directory(workingDir);
-
-        Process proc;
-        try {
-            proc = pb.start();
-        } catch (IOException e) {
-            logger.error("could not start {}: {}", executable, e);
-            throw new ExternalProcessException("could not start external process", e);
-        }
-        Thread slurp = new LoggingStreamSlurper("build-" + executable, proc.getErrorStream(),
-                                                logger, "");
-        slurp.start();
+        Process proc = startProcess("build-");
 
         PrecomputedItemScorer scorer;
         try (InputStreamReader rdr = new InputStreamReader(proc.getInputStream(), Charsets.UTF_8);
@@ -258,9 +271,59 @@ public class ExternalProcessItemScorerBuilder implements Provider<ItemScorer> {
         }
     }
 
+    /**
+     * Start a persistent item scorer.  The process is started, the streamed ratings (if any) are sent
+     * to it, and the scorer is returned once the process reports that it is ready to score.
+     *
+     * @return An item scorer that requests scores from the running process.
+     */
+    public PersistentExternalItemScorer buildPersistent() {
+        Process proc = startProcess("serve-");
+        PersistentExternalItemScorer scorer = new PersistentExternalItemScorer(executable, proc);
+        ObjectStream<Rating> ratings = streamedRatings != null ? streamedRatings.query(Rating.class).stream() : null;
+        try {
+            scorer.start(ratings);
+        } catch (IOException | RuntimeException e) {
+            scorer.close();
+            proc.destroyForcibly();
+            if (e instanceof ExternalProcessException) {
+                throw (ExternalProcessException) e;
+            }
+            throw new ExternalProcessException("could not start persistent scorer " + executable, e);
+        } finally {
+            if (ratings != null) {
+                ratings.close();
+            }
+        }
+        return scorer;
+    }
+
+    private Process startProcess(String logPrefix) {
+        Preconditions.checkState(executable != null, "no executable specified");
+        List<String> command = Lists.newArrayList();
+        command.add(executable);
+        for (Supplier<String> arg: arguments) {
+            command.add(arg.get());
+        }
+        ProcessBuilder pb = new ProcessBuilder();
+        pb.command(command).directory(workingDir);
+
+        Process proc;
+        try {
+            proc = pb.start();
+        } catch (IOException e) {
+            logger.error("could not start {}: {}", executable, e);
+            throw new ExternalProcessException("could not start external process", e);
+        }
+        Thread slurp = new LoggingStreamSlurper(logPrefix + executable, proc.getErrorStream(),
+                                                logger, "");
+        slurp.start();
+        return proc;
+    }
+
     @Override
     public ItemScorer get() {
-        return build();
+        return persistent ? buildPersistent() : build();
     }
 
     private class RatingFileSupplier implements Supplier<String> {
@@ -0,0 +1,251 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.external;
+
+import it.unimi.dsi.fastutil.longs.*;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultMap;
+import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.BatchItemScorer;
+import org.lenskit.basic.ScoreSink;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.results.Results;
+import org.lenskit.util.io.ObjectStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Item scorer backed by a long-lived external process.  The process is sent the training ratings
+ * once when the scorer starts, and then answers score requests over its standard input and output
+ * with the framed {@linkplain ScorerProtocol scorer protocol}; blocks of users are scored with a
+ * single request.  Requests are serialized, so one process serves one request at a time.
+ *
+ * Build instances with {@link ExternalProcessItemScorerBuilder#buildPersistent()}.  The scorer should
+ * be {@linkplain #close() closed} when no longer needed to stop the process.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class PersistentExternalItemScorer extends AbstractItemScorer implements BatchItemScorer, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(PersistentExternalItemScorer.class);
+    /**
+     * The number of ratings sent in each ratings frame.
+     */
+    private static final int RATING_CHUNK_SIZE = 4096;
+    private static final long EXIT_TIMEOUT_SECONDS = 5;
+
+    private final String name;
+    private final Process process;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream payload = new DataOutputStream(buffer);
+    private boolean closed = false;
+
+    /**
+     * Connect to a running process.
+     * @param name The name of the process, for messages.
+     * @param proc The process.
+     */
+    PersistentExternalItemScorer(String name, Process proc) {
+        this.name = name;
+        process = proc;
+        input = new DataInputStream(new BufferedInputStream(proc.getInputStream()));
+        output = new DataOutputStream(new BufferedOutputStream(proc.getOutputStream()));
+    }
+
+    /**
+     * Perform the protocol handshake and send the training ratings.
+     * @param ratings The ratings to send, or `null` to send none.
+     * @throws IOException if there is an error communicating with the process.
+     */
+    synchronized void start(ObjectStream<Rating> ratings) throws IOException {
+        payload.writeInt(ScorerProtocol.VERSION);
+        send(ScorerProtocol.HELLO);
+        output.flush();
+        DataInputStream hello = receive(ScorerProtocol.HELLO);
+        int version = hello.readInt();
+        if (version != ScorerProtocol.VERSION) {
+            throw new ExternalProcessException(name + " speaks protocol version " + version
+                                                       + ", expected " + ScorerProtocol.VERSION);
+        }
+
+        int count = 0;
+        if (ratings != null) {
+            List<Rating> chunk = new ArrayList<>(RATING_CHUNK_SIZE);
+            for (Rating r: ratings) {
+                chunk.add(r);
+                if (chunk.size() >= RATING_CHUNK_SIZE) {
+                    sendRatings(chunk);
+                    count += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                sendRatings(chunk);
+                count += chunk.size();
+            }
+        }
+        send(ScorerProtocol.DONE);
+        output.flush();
+        logger.info("sent {} ratings to {}, waiting for it to be ready", count, name);
+        receive(ScorerProtocol.READY);
+    }
+
+    private void sendRatings(List<Rating> ratings) throws IOException {
+        payload.writeInt(ratings.size());
+        for (Rating r: ratings) {
+            payload.writeLong(r.getUserId());
+            payload.writeLong(r.getItemId());
+            payload.writeDouble(r.getValue());
+            payload.writeLong(r.getTimestamp() >= 0 ? r.getTimestamp() : -1);
+        }
+        send(ScorerProtocol.RATINGS);
+    }
+
+    @Nonnull
+    @Override
+    public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
+        List<Result> results = new ArrayList<>();
+        scoreInto(user, items, (item, score) -> results.add(Results.create(item, score)));
+        return Results.newResultMap(results);
+    }
+
+    @Override
+    public void scoreInto(long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink) {
+        scoreBlockInto(LongLists.singleton(user), items, new ScoreSink[]{sink});
+    }
+
+    @Override
+    public synchronized void scoreBlockInto(@Nonnull LongList users, @Nonnull Collection<Long> items,
+                                            @Nonnull ScoreSink[] sinks) {
+        if (closed) {
+            throw new IllegalStateException("scorer is closed");
+        }
+        try {
+            payload.writeInt(users.size());
+            for (int i = 0; i < users.size(); i++) {
+                payload.writeLong(users.getLong(i));
+            }
+            payload.writeInt(items.size());
+            LongIterator iter = LongIterators.asLongIterator(items.iterator());
+            while (iter.hasNext()) {
+                payload.writeLong(iter.nextLong());
+            }
+            send(ScorerProtocol.SCORE);
+            output.flush();
+
+            DataInputStream values = receive(ScorerProtocol.VALUES);
+            for (int i = 0; i < users.size(); i++) {
+                int n = values.readInt();
+                for (int j = 0; j < n; j++) {
+                    long item = values.readLong();
+                    sinks[i].put(item, values.readDouble());
+                }
+            }
+        } catch (IOException e) {
+            throw new ExternalProcessException("error communicating with " + name, e);
+        }
+    }
+
+    /**
+     * Query whether the external process is still running.
+     * @return `true` if the process is alive.
+     */
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Ask the external process to exit, and wait briefly for it to do so.  The process is killed
+     * if it does not exit in time.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            send(ScorerProtocol.QUIT);
+            output.close();
+        } catch (IOException e) {
+            logger.debug("error sending quit to {}: {}", name, e.toString());
+        }
+        try {
+            if (!process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("{} did not exit, killing it", name);
+                process.destroyForcibly();
+            } else if (process.exitValue() != 0) {
+                logger.warn("{} exited with code {}", name, process.exitValue());
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send the buffered payload as a frame, and clear the buffer.
+     */
+    private void send(byte type) throws IOException {
+        try {
+            ScorerProtocol.writeFrame(output, type, buffer);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Receive a frame, failing if it is an error or an unexpected type.
+     */
+    private DataInputStream receive(byte type) throws IOException {
+        ScorerProtocol.Frame frame;
+        try {
+            frame = ScorerProtocol.readFrame(input);
+        } catch (EOFException e) {
+            throw new ExternalProcessException(name + " closed its output unexpectedly", e);
+        }
+        if (frame.getType() == ScorerProtocol.ERROR) {
+            byte[] msg = new byte[frame.getLength()];
+            frame.openPayload().readFully(msg);
+            throw new ExternalProcessException(name + " reported an error: "
+                                                       + new String(msg, StandardCharsets.UTF_8));
+        } else if (frame.getType() != type) {
+            throw new ExternalProcessException(String.format("expected message '%c' from %s, got '%c'",
+                                                             (char) type, name, (char) frame.getType()));
+        }
+        return frame.openPayload();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.external;
+
+import java.io.*;
+
+/**
+ * The framed binary protocol spoken between a {@link PersistentExternalItemScorer} and a long-lived
+ * external scoring process over the process's standard input and output.
+ *
+ * Every message is a frame: a one-byte message type, a four-byte payload length, and the payload.
+ * All numbers are big-endian, as written by {@link DataOutputStream}.  The messages are:
+ *
+ * `H` (hello)
+ * :   Payload: `int version`.  LensKit sends this first; the process replies with a hello frame
+ *     carrying the version it speaks, which must be {@link #VERSION}.
+ *
+ * `R` (ratings)
+ * :   Payload: `int n`, then `n` records of `long user, long item, double rating, long timestamp`
+ *     (the timestamp is -1 if unknown).  Sent by LensKit after the handshake, in as many frames as
+ *     needed; the process does not reply.
+ *
+ * `D` (done)
+ * :   Empty payload.  Sent by LensKit after the last ratings frame; the process replies with `K`
+ *     (empty payload) when it is ready to score.
+ *
+ * `S` (score)
+ * :   Payload: `int nusers`, `nusers` user IDs as `long`, `int nitems`, and `nitems` item IDs as
+ *     `long`.  Asks for the scores of every listed item for every listed user.
+ *
+ * `V` (values)
+ * :   The reply to `S`.  Payload: for each requested user, in request order, `int n` followed by `n`
+ *     pairs of `long item, double score`.  Items the process cannot score are omitted.
+ *
+ * `E` (error)
+ * :   Payload: a UTF-8 message.  The process may send this instead of any reply; the request fails.
+ *
+ * `Q` (quit)
+ * :   Empty payload.  Sent by LensKit when the scorer is closed; the process should exit.  It should
+ *     also exit when its standard input reaches end of file.
+ */
+public final class ScorerProtocol {
+    /**
+     * The protocol version.
+     */
+    public static final int VERSION = 1;
+
+    public static final byte HELLO = 'H';
+    public static final byte RATINGS = 'R';
+    public static final byte DONE = 'D';
+    public static final byte READY = 'K';
+    public static final byte SCORE = 'S';
+    public static final byte VALUES = 'V';
+    public static final byte ERROR = 'E';
+    public static final byte QUIT = 'Q';
+
+    /**
+     * The largest frame payload accepted, to catch corrupted streams before allocating.
+     */
+    public static final int MAX_PAYLOAD = 1 << 30;
+
+    private ScorerProtocol() {}
+
+    /**
+     * Write a frame.
+     * @param out The output stream.
+     * @param type The message type.
+     * @param payload The payload.
+     * @throws IOException if there is an error writing the frame.
+     */
+    public static void writeFrame(DataOutputStream out, byte type, ByteArrayOutputStream payload) throws IOException {
+        out.writeByte(type);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+    }
+
+    /**
+     * Write a frame with an empty payload.
+     * @param out The output stream.
+     * @param type The message type.
+     * @throws IOException if there is an error writing the frame.
+     */
+    public static void writeFrame(DataOutputStream out, byte type) throws IOException {
+        out.writeByte(type);
+        out.writeInt(0);
+    }
+
+    /**
+     * Read a frame.
+     * @param in The input stream.
+     * @return The frame.
+     * @throws EOFException if the stream ends before a complete frame is read.
+     * @throws IOException if there is an error reading the frame.
+     */
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("invalid frame length " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * A frame read from a stream.
+     */
+    public static final class Frame {
+        private final byte type;
+        private final byte[] payload;
+
+        Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public int getLength() {
+            return payload.length;
+        }
+
+        /**
+         * Get a stream to read the frame's payload.
+         * @return A data input stream over the payload.
+         */
+        public DataInputStream openPayload() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.external;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test server for the scorer protocol that scores items by their mean rating.  A request for a
+ * negative user ID is answered with an error.
+ */
+public class MeanScorerServer {
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        Long2DoubleMap sums = new Long2DoubleOpenHashMap();
+        Long2IntMap counts = new Long2IntOpenHashMap();
+
+        while (true) {
+            ScorerProtocol.Frame frame;
+            try {
+                frame = ScorerProtocol.readFrame(in);
+            } catch (EOFException e) {
+                return;
+            }
+            DataInputStream msg = frame.openPayload();
+            buffer.reset();
+            switch (frame.getType()) {
+            case ScorerProtocol.HELLO:
+                msg.readInt();
+                payload.writeInt(ScorerProtocol.VERSION);
+                ScorerProtocol.writeFrame(out, ScorerProtocol.HELLO, buffer);
+                break;
+            case ScorerProtocol.RATINGS:
+                int n = msg.readInt();
+                for (int i = 0; i < n; i++) {
+                    msg.readLong();
+                    long item = msg.readLong();
+                    sums.put(item, sums.get(item) + msg.readDouble());
+                    counts.put(item, counts.get(item) + 1);
+                    msg.readLong();
+                }
+                break;
+            case ScorerProtocol.DONE:
+                ScorerProtocol.writeFrame(out, ScorerProtocol.READY);
+                break;
+            case ScorerProtocol.SCORE:
+                long[] users = new long[msg.readInt()];
+                boolean bad = false;
+                for (int i = 0; i < users.length; i++) {
+                    users[i] = msg.readLong();
+                    bad |= users[i] < 0;
+                }
+                long[] items = new long[msg.readInt()];
+                for (int j = 0; j < items.length; j++) {
+                    items[j] = msg.readLong();
+                }
+                if (bad) {
+                    buffer.write("negative user".getBytes(StandardCharsets.UTF_8));
+                    ScorerProtocol.writeFrame(out, ScorerProtocol.ERROR, buffer);
+                    break;
+                }
+                for (long user: users) {
+                    int known = 0;
+                    for (long item: items) {
+                        known += counts.containsKey(item) ? 1 : 0;
+                    }
+                    payload.writeInt(known);
+                    for (long item: items) {
+                        if (counts.containsKey(item)) {
+                            payload.writeLong(item);
+                            payload.writeDouble(sums.get(item) / counts.get(item));
+                        }
+                    }
+                }
+                ScorerProtocol.writeFrame(out, ScorerProtocol.VALUES, buffer);
+                break;
+            case ScorerProtocol.QUIT:
+                return;
+            default:
+                throw new IOException("unexpected message " + frame.getType());
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.external;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.basic.ScoreSink;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PersistentExternalItemScorerTest {
+    private PersistentExternalItemScorer scorer;
+
+    @Before
+    public void startScorer() {
+        StaticDataSource source = StaticDataSource.fromList(ImmutableList.of(Rating.create(1, 10, 4.0),
+                                                                             Rating.create(2, 10, 3.0),
+                                                                             Rating.create(1, 20, 2.0)));
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        scorer = new ExternalProcessItemScorerBuilder()
+                .setExecutable(java)
+                .addArguments("-cp", System.getProperty("java.class.path"), MeanScorerServer.class.getName())
+                .setStreamedRatings(source.get())
+                .buildPersistent();
+    }
+
+    @After
+    public void stopScorer() {
+        scorer.close();
+    }
+
+    @Test
+    public void testScoreUser() {
+        Map<Long, Double> scores = scorer.score(5, ImmutableList.of(10L, 20L, 30L));
+        assertThat(scores.size(), equalTo(2));
+        assertThat(scores.get(10L), closeTo(3.5, 1.0e-6));
+        assertThat(scores.get(20L), closeTo(2.0, 1.0e-6));
+        assertThat(scorer.score(5, 30), nullValue());
+    }
+
+    @Test
+    public void testScoreBlock() {
+        Long2DoubleOpenHashMap first = new Long2DoubleOpenHashMap();
+        Long2DoubleOpenHashMap second = new Long2DoubleOpenHashMap();
+        scorer.scoreBlockInto(new LongArrayList(new long[]{1, 2}), ImmutableList.of(20L, 30L),
+                              new ScoreSink[]{first::put, second::put});
+        assertThat(first.keySet(), contains(20L));
+        assertThat(second.get(20L), closeTo(2.0, 1.0e-6));
+    }
+
+    @Test
+    public void testErrorLeavesScorerUsable() {
+        try {
+            scorer.score(-1, ImmutableList.of(10L));
+            fail("error reply should fail the request");
+        } catch (ExternalProcessException e) {
+            assertThat(e.getMessage(), containsString("negative user"));
+        }
+        assertThat(scorer.score(3, ImmutableList.of(10L)).get(10L), closeTo(3.5, 1.0e-6));
+    }
+
+    @Test
+    public void testClose() {
+        assertThat(scorer.isAlive(), equalTo(true));
+        scorer.close();
+        assertThat(scorer.isAlive(), equalTo(false));
+    }
+}
@@ -24,11 +24,13 @@
  */
 package org.lenskit.mf.funksvd;
 
+import org.lenskit.basic.BatchBlockSize;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.data.ratings.PreferenceDomain;
 import org.lenskit.mf.svd.BiasedMFItemScorer;
 import org.lenskit.mf.svd.DomainClampingKernel;
 import org.lenskit.mf.svd.DotProductKernel;
+import org.lenskit.mf.svd.MIPSIndex;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -47,12 +49,46 @@ public class FunkSVDItemScorer extends BiasedMFItemScorer {
      *                 perform well.
      * @param dom      The preference domain.
      */
-    @Inject
     public FunkSVDItemScorer(FunkSVDModel model, BiasModel baseline,
                              @Nullable PreferenceDomain dom) {
+        this(model, baseline, dom, null);
+    }
+
+    /**
+     * Construct the item scorer.
+     *
+     * @param model    The model.
+     * @param baseline The baseline scorer.  Be very careful when configuring a different baseline
+     *                 at runtime than at model-build time; such a configuration is unlikely to
+     *                 perform well.
+     * @param dom      The preference domain.  If it is set, scores are clamped to the domain and
+     *                 the index is not used.
+     * @param index    The index for retrieving top-N candidates, if one has been built.
+     */
+    public FunkSVDItemScorer(FunkSVDModel model, BiasModel baseline,
+                             @Nullable PreferenceDomain dom, @Nullable MIPSIndex index) {
+        this(model, baseline, dom, index, 64);
+    }
+
+    /**
+     * Construct the item scorer.
+     *
+     * @param model     The model.
+     * @param baseline  The baseline scorer.  Be very careful when configuring a different baseline
+     *                  at runtime than at model-build time; such a configuration is unlikely to
+     *                  perform well.
+     * @param dom       The preference domain.  If it is set, scores are clamped to the domain and
+     *                  the index is not used.
+     * @param index     The index for retrieving top-N candidates, if one has been built.
+     * @param blockSize The number of users scored together by {@link #scoreForUsers}.
+     */
+    @Inject
+    public FunkSVDItemScorer(FunkSVDModel model, BiasModel baseline,
+                             @Nullable PreferenceDomain dom, @Nullable MIPSIndex index,
+                             @BatchBlockSize int blockSize) {
         super(model,
               dom == null ? new DotProductKernel() : new DomainClampingKernel(dom),
-              baseline);
+              baseline, index, blockSize);
     }
 
     @Override
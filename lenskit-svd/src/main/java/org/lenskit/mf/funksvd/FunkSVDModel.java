@@ -32,6 +32,7 @@ import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
 import org.lenskit.mf.svd.MFModel;
 import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.math.StoragePrecision;
 
 import java.util.List;
 
@@ -52,7 +53,14 @@ public final class FunkSVDModel extends MFModel {
     public FunkSVDModel(RealMatrix umat, RealMatrix imat,
                         KeyIndex uidx, KeyIndex iidx,
                         List<FeatureInfo> features) {
-        super(umat, imat, uidx, iidx);
+        this(umat, imat, uidx, iidx, features, StoragePrecision.DOUBLE);
+    }
+
+    public FunkSVDModel(RealMatrix umat, RealMatrix imat,
+                        KeyIndex uidx, KeyIndex iidx,
+                        List<FeatureInfo> features,
+                        StoragePrecision precision) {
+        super(umat, imat, uidx, iidx, precision);
 
         featureInfo = ImmutableList.copyOf(features);
 
@@ -32,6 +32,8 @@ import org.lenskit.inject.Transient;
 import org.grouplens.lenskit.iterative.TrainingLoopController;
 import org.lenskit.data.ratings.RatingMatrix;
 import org.lenskit.data.ratings.RatingMatrixEntry;
+import org.lenskit.mf.svd.FeatureStorageBits;
+import org.lenskit.util.math.StoragePrecision;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,13 +65,16 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
     protected final double initialValue;
 
     protected final FunkSVDUpdateRule rule;
+    protected final StoragePrecision precision;
 
     @Inject
     public FunkSVDModelProvider(@Transient @Nonnull RatingMatrix snapshot,
                                 @Transient @Nonnull FunkSVDUpdateRule rule,
                                 @FeatureCount int featureCount,
-                                @InitialFeatureValue double initVal) {
+                                @InitialFeatureValue double initVal,
+                                @FeatureStorageBits int storageBits) {
         this.featureCount = featureCount;
+        this.precision = StoragePrecision.fromBits(storageBits);
         this.initialValue = initVal;
         this.snapshot = snapshot;
         this.rule = rule;
@@ -129,7 +134,7 @@ public class FunkSVDModelProvider implements Provider<FunkSVDModel> {
         return new FunkSVDModel(userFeatures,
                                 itemFeatures,
                                 snapshot.userIndex(), snapshot.itemIndex(),
-                                featureInfo);
+                                featureInfo, precision);
     }
 
     /**
@@ -28,15 +28,23 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleFunction;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.baseline.BaselineScorer;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.BatchBlockSize;
+import org.lenskit.basic.BatchItemScorer;
+import org.lenskit.basic.CandidateRetrievingItemScorer;
+import org.lenskit.basic.ScoreSink;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.KeyIndex;
 import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nonnull;
@@ -49,13 +57,26 @@ import java.util.List;
 /**
  * Item scorer using biased matrix factorization.  This implements SVD-style item scorers.
  *
+ * With the {@link DotProductKernel}, a block of users is scored as a blocked matrix-matrix product:
+ * item vectors are copied into a dense tile once, and every user in the block is scored against the
+ * tile while it is still in cache.  Batch scoring scores every requested item, so it does not use the
+ * {@link MIPSIndex}.
+ *
  * @since 2.1
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class BiasedMFItemScorer extends AbstractItemScorer {
+public class BiasedMFItemScorer extends AbstractItemScorer implements BatchItemScorer, CandidateRetrievingItemScorer {
+    /**
+     * The number of items whose vectors are scored together against a block of users.
+     */
+    private static final int ITEM_TILE_SIZE = 256;
+
     private final MFModel model;
     private final BiasedMFKernel kernel;
     private final BiasModel biasModel;
+    @Nullable
+    private final MIPSIndex index;
+    private final int blockSize;
 
     /**
      * Create a new biased MF item scorer.
@@ -63,12 +84,40 @@ public class BiasedMFItemScorer extends AbstractItemScorer {
      * @param kern The kernel function to compute scores.
      * @param bias The bias model to use.
      */
-    @Inject
     public BiasedMFItemScorer(MFModel mod, BiasedMFKernel kern,
                               BiasModel bias) {
+        this(mod, kern, bias, null);
+    }
+
+    /**
+     * Create a new biased MF item scorer.
+     * @param mod The model (factorized matrix)
+     * @param kern The kernel function to compute scores.
+     * @param bias The bias model to use.
+     * @param idx The index for retrieving top-N candidates, if one has been built.
+     */
+    public BiasedMFItemScorer(MFModel mod, BiasedMFKernel kern,
+                              BiasModel bias, @Nullable MIPSIndex idx) {
+        this(mod, kern, bias, idx, 64);
+    }
+
+    /**
+     * Create a new biased MF item scorer.
+     * @param mod The model (factorized matrix)
+     * @param kern The kernel function to compute scores.
+     * @param bias The bias model to use.
+     * @param idx The index for retrieving top-N candidates, if one has been built.
+     * @param blockSize The number of users scored together by {@link #scoreForUsers}.
+     */
+    @Inject
+    public BiasedMFItemScorer(MFModel mod, BiasedMFKernel kern,
+                              BiasModel bias, @Nullable MIPSIndex idx,
+                              @BatchBlockSize int blockSize) {
         model = mod;
         kernel = kern;
         biasModel = bias;
+        index = idx;
+        this.blockSize = blockSize;
     }
 
     /**
@@ -112,4 +161,114 @@ public class BiasedMFItemScorer extends AbstractItemScorer {
 
         return Results.newResultMap(results);
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Candidates are retrieved from the {@link MIPSIndex}, if one is available.  The index ranks
+     * items by the dot-product kernel, so it is not used with other kernels.
+     */
+    @Nullable
+    @Override
+    public LongSet retrieveCandidates(long user, int n, @Nonnull LongSet exclude) {
+        if (index == null || !(kernel instanceof DotProductKernel)) {
+            return null;
+        }
+        RealVector uvec = getUserPreferenceVector(user);
+        if (uvec == null) {
+            return null;
+        }
+        return index.search(uvec, n, exclude);
+    }
+
+    @Override
+    protected int getBatchBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void scoreInto(long user, @Nonnull Collection<Long> items, @Nonnull ScoreSink sink) {
+        RealVector uvec = getUserPreferenceVector(user);
+        if (uvec == null) {
+            return;
+        }
+
+        double base = biasModel.getIntercept() + biasModel.getUserBias(user);
+        LongIterator iter = LongIterators.asLongIterator(items.iterator());
+        while (iter.hasNext()) {
+            long item = iter.nextLong();
+            RealVector ivec = model.getItemVector(item);
+            if (ivec != null) {
+                sink.put(item, kernel.apply(base + biasModel.getItemBias(item), uvec, ivec));
+            }
+        }
+    }
+
+    @Override
+    public void scoreBlockInto(@Nonnull LongList users, @Nonnull Collection<Long> items, @Nonnull ScoreSink[] sinks) {
+        if (!(kernel instanceof DotProductKernel)) {
+            for (int i = 0; i < users.size(); i++) {
+                scoreInto(users.getLong(i), items, sinks[i]);
+            }
+            return;
+        }
+
+        int nf = model.getFeatureCount();
+        // pack the vectors of the users we can score into a dense row-major block
+        int[] active = new int[users.size()];
+        double[] userBases = new double[users.size()];
+        double[] userFeatures = new double[users.size() * nf];
+        int nactive = 0;
+        for (int i = 0; i < users.size(); i++) {
+            long user = users.getLong(i);
+            RealVector uvec = getUserPreferenceVector(user);
+            if (uvec != null) {
+                for (int f = 0; f < nf; f++) {
+                    userFeatures[nactive * nf + f] = uvec.getEntry(f);
+                }
+                userBases[nactive] = biasModel.getIntercept() + biasModel.getUserBias(user);
+                active[nactive] = i;
+                nactive += 1;
+            }
+        }
+        if (nactive == 0) {
+            return;
+        }
+
+        KeyIndex itemIndex = model.getItemIndex();
+        RealMatrix itemMatrix = model.getItemMatrix();
+        long[] tileItems = new long[ITEM_TILE_SIZE];
+        double[] tileBiases = new double[ITEM_TILE_SIZE];
+        double[] tileFeatures = new double[ITEM_TILE_SIZE * nf];
+        LongIterator iter = LongIterators.asLongIterator(items.iterator());
+        while (iter.hasNext()) {
+            int ntile = 0;
+            while (ntile < ITEM_TILE_SIZE && iter.hasNext()) {
+                long item = iter.nextLong();
+                int row = itemIndex.tryGetIndex(item);
+                if (row >= 0) {
+                    tileItems[ntile] = item;
+                    tileBiases[ntile] = biasModel.getItemBias(item);
+                    for (int f = 0; f < nf; f++) {
+                        tileFeatures[ntile * nf + f] = itemMatrix.getEntry(row, f);
+                    }
+                    ntile += 1;
+                }
+            }
+
+            for (int a = 0; a < nactive; a++) {
+                ScoreSink sink = sinks[active[a]];
+                int uoff = a * nf;
+                for (int t = 0; t < ntile; t++) {
+                    int ioff = t * nf;
+                    double dot = 0;
+                    for (int f = 0; f < nf; f++) {
+                        dot += userFeatures[uoff + f] * tileFeatures[ioff + f];
+                    }
+                    // same association as DotProductKernel, so batch and single-user scores agree
+                    sink.put(tileItems[t], (userBases[a] + tileBiases[t]) + dot);
+                }
+            }
+        }
+    }
 }
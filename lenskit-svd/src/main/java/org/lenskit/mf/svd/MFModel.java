@@ -29,6 +29,8 @@ import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.math.FloatMatrix;
+import org.lenskit.util.math.StoragePrecision;
 import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nullable;
@@ -41,7 +43,7 @@ import java.io.*;
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 public class MFModel implements Serializable {
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     // FIXME Make these final again
     protected int featureCount;
@@ -52,6 +54,7 @@ public class MFModel implements Serializable {
     protected RealMatrix itemMatrix;
     protected KeyIndex userIndex;
     protected KeyIndex itemIndex;
+    protected double storageError;
 
     /**
      * Construct a matrix factorization model.  The matrices are not copied, so the caller should
@@ -64,6 +67,24 @@ public class MFModel implements Serializable {
      */
     public MFModel(RealMatrix umat, RealMatrix imat,
                    KeyIndex uidx, KeyIndex iidx) {
+        this(umat, imat, uidx, iidx, StoragePrecision.DOUBLE);
+    }
+
+    /**
+     * Construct a matrix factorization model, storing its features at a given precision.  Unless
+     * the matrices are converted to floats, they are not copied.
+     *
+     * @param umat The user feature matrix (users x features).
+     * @param imat The item feature matrix (items x features).
+     * @param uidx The user index mapping.
+     * @param iidx The item index mapping.
+     * @param precision The precision at which to store features; must be double or float.
+     */
+    public MFModel(RealMatrix umat, RealMatrix imat,
+                   KeyIndex uidx, KeyIndex iidx,
+                   StoragePrecision precision) {
+        Preconditions.checkArgument(!precision.isQuantized(),
+                                    "quantized storage is not supported for feature matrices");
         Preconditions.checkArgument(umat.getColumnDimension() == imat.getColumnDimension(),
                                     "mismatched matrix sizes");
         featureCount = umat.getColumnDimension();
@@ -75,28 +96,34 @@ public class MFModel implements Serializable {
         Preconditions.checkArgument(imat.getRowDimension() == itemCount,
                                     "item matrix has %s rows, expected %s",
                                     imat.getRowDimension(), itemCount);
-        userMatrix = umat;
-        itemMatrix = imat;
+        if (precision == StoragePrecision.FLOAT) {
+            FloatMatrix fu = FloatMatrix.copyOf(umat);
+            FloatMatrix fi = FloatMatrix.copyOf(imat);
+            storageError = Math.max(fu.maxDifference(umat), fi.maxDifference(imat));
+            userMatrix = fu;
+            itemMatrix = fi;
+        } else {
+            userMatrix = umat;
+            itemMatrix = imat;
+        }
         userIndex = uidx;
         itemIndex = iidx;
     }
 
+    private boolean hasFloatStorage() {
+        return userMatrix instanceof FloatMatrix && itemMatrix instanceof FloatMatrix;
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.writeInt(featureCount);
         out.writeInt(userCount);
         out.writeInt(itemCount);
+        boolean floats = hasFloatStorage();
+        out.writeBoolean(floats);
+        out.writeDouble(storageError);
 
-        for (int i = 0; i < userCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                out.writeDouble(userMatrix.getEntry(i, j));
-            }
-        }
-
-        for (int i = 0; i < itemCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                out.writeDouble(itemMatrix.getEntry(i, j));
-            }
-        }
+        writeMatrix(out, userMatrix, floats);
+        writeMatrix(out, itemMatrix, floats);
 
         out.writeObject(userIndex);
         out.writeObject(itemIndex);
@@ -106,22 +133,11 @@ public class MFModel implements Serializable {
         featureCount = input.readInt();
         userCount = input.readInt();
         itemCount = input.readInt();
+        boolean floats = input.readBoolean();
+        storageError = input.readDouble();
 
-        RealMatrix umat = MatrixUtils.createRealMatrix(userCount, featureCount);
-        for (int i = 0; i < userCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                umat.setEntry(i, j, input.readDouble());
-            }
-        }
-        userMatrix = umat;
-
-        RealMatrix imat = MatrixUtils.createRealMatrix(itemCount, featureCount);
-        for (int i = 0; i < itemCount; i++) {
-            for (int j = 0; j < featureCount; j++) {
-                imat.setEntry(i, j, input.readDouble());
-            }
-        }
-        itemMatrix = imat;
+        userMatrix = readMatrix(input, userCount, featureCount, floats);
+        itemMatrix = readMatrix(input, itemCount, featureCount, floats);
 
         userIndex = (KeyIndex) input.readObject();
         itemIndex = (KeyIndex) input.readObject();
@@ -134,6 +150,28 @@ public class MFModel implements Serializable {
         }
     }
 
+    private static void writeMatrix(ObjectOutputStream out, RealMatrix mat, boolean floats) throws IOException {
+        for (int i = 0; i < mat.getRowDimension(); i++) {
+            for (int j = 0; j < mat.getColumnDimension(); j++) {
+                if (floats) {
+                    out.writeFloat((float) mat.getEntry(i, j));
+                } else {
+                    out.writeDouble(mat.getEntry(i, j));
+                }
+            }
+        }
+    }
+
+    private static RealMatrix readMatrix(ObjectInputStream input, int nr, int nc, boolean floats) throws IOException {
+        RealMatrix mat = floats ? new FloatMatrix(nr, nc) : MatrixUtils.createRealMatrix(nr, nc);
+        for (int i = 0; i < nr; i++) {
+            for (int j = 0; j < nc; j++) {
+                mat.setEntry(i, j, floats ? input.readFloat() : input.readDouble());
+            }
+        }
+        return mat;
+    }
+
     /**
      * Get the model's feature count.
      *
@@ -246,8 +284,12 @@ public class MFModel implements Serializable {
           .append(", ni=")
           .append(getItemCount())
           .append(", nf=")
-          .append(getFeatureCount())
-          .append(")");
+          .append(getFeatureCount());
+        if (hasFloatStorage()) {
+            long bytes = 4L * featureCount * (userCount + itemCount);
+            sb.append(String.format(", float, %.1f KiB, max error %.3g", bytes / 1024.0, storageError));
+        }
+        sb.append(")");
         return sb.toString();
     }
 }
@@ -0,0 +1,207 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.svd;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.jcip.annotations.Immutable;
+import org.apache.commons.math3.linear.RealVector;
+import org.grouplens.grapht.annotation.DefaultNull;
+import org.lenskit.inject.Shareable;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+
+/**
+ * Maximum inner product search index over the items of a matrix factorization model, for finding
+ * a user's top-scoring items without scoring every item.  Each item is represented by its feature
+ * vector extended with its bias, so a user's vector extended with 1 scores items by
+ * `b_i + p_u · q_i`; the user and global biases do not affect the ranking.
+ *
+ * Items are partitioned by *k*-means, and each partition keeps its centroid and radius.  A search
+ * visits partitions in decreasing order of the Cauchy-Schwarz bound on their scores,
+ * `q · c + s * |q| * r`, and stops once no remaining partition can beat the *n*th best score found.
+ * With a {@linkplain MIPSRadiusScale radius scale} `s` of 1 the search is exact.
+ *
+ * No index is built by default; bind this class to {@link MIPSIndexProvider} to enable it for
+ * {@link BiasedMFItemScorer}.
+ *
+ * @since 3.0
+ */
+@Shareable
+@Immutable
+@DefaultNull
+public class MIPSIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int dimension;
+    private final double radiusScale;
+    // items and their extended vectors, grouped by partition
+    private final long[] itemIds;
+    private final double[] vectors;
+    private final int[] partitionStarts;
+    private final double[] centroids;
+    private final double[] radii;
+
+    MIPSIndex(int dim, double scale, long[] ids, double[] vecs, int[] starts,
+              double[] cents, double[] rads) {
+        dimension = dim;
+        radiusScale = scale;
+        itemIds = ids;
+        vectors = vecs;
+        partitionStarts = starts;
+        centroids = cents;
+        radii = rads;
+    }
+
+    /**
+     * Get the number of items in the index.
+     * @return The number of items.
+     */
+    public int getItemCount() {
+        return itemIds.length;
+    }
+
+    /**
+     * Get the number of partitions in the index.
+     * @return The number of partitions.
+     */
+    public int getPartitionCount() {
+        return radii.length;
+    }
+
+    /**
+     * Find the items with the highest scores for a user.
+     *
+     * @param user The user's feature vector.
+     * @param n The number of items to find.
+     * @param exclude Items to skip.
+     * @return The (at most `n`) items found.
+     */
+    @Nonnull
+    public LongSet search(RealVector user, int n, @Nonnull LongSet exclude) {
+        Preconditions.checkArgument(user.getDimension() == dimension - 1,
+                                    "user vector has %s features, expected %s",
+                                    user.getDimension(), dimension - 1);
+        double[] query = new double[dimension];
+        for (int f = 0; f < dimension - 1; f++) {
+            query[f] = user.getEntry(f);
+        }
+        query[dimension - 1] = 1;
+        double qnorm = Math.sqrt(dot(query, query, 0));
+
+        int nparts = radii.length;
+        double[] bounds = new double[nparts];
+        int[] order = new int[nparts];
+        for (int p = 0; p < nparts; p++) {
+            bounds[p] = dot(query, centroids, p * dimension) + radiusScale * qnorm * radii[p];
+            order[p] = p;
+        }
+        IntArrays.quickSort(order, (p1, p2) -> Double.compare(bounds[p2], bounds[p1]));
+
+        Heap heap = new Heap(n);
+        for (int p: order) {
+            if (heap.isFull() && bounds[p] <= heap.minScore()) {
+                break;
+            }
+            for (int i = partitionStarts[p]; i < partitionStarts[p + 1]; i++) {
+                long item = itemIds[i];
+                if (!exclude.contains(item)) {
+                    heap.offer(item, dot(query, vectors, i * dimension));
+                }
+            }
+        }
+
+        LongSet result = new LongOpenHashSet(heap.size);
+        for (int i = 0; i < heap.size; i++) {
+            result.add(heap.items[i]);
+        }
+        return result;
+    }
+
+    private double dot(double[] query, double[] data, int offset) {
+        double sum = 0;
+        for (int f = 0; f < dimension; f++) {
+            sum += query[f] * data[offset + f];
+        }
+        return sum;
+    }
+
+    /**
+     * Bounded min-heap of the best scores seen so far.
+     */
+    private static class Heap {
+        final long[] items;
+        final double[] scores;
+        int size;
+
+        Heap(int n) {
+            items = new long[n];
+            scores = new double[n];
+        }
+
+        boolean isFull() {
+            return size == scores.length;
+        }
+
+        double minScore() {
+            return scores[0];
+        }
+
+        void offer(long item, double score) {
+            if (!isFull()) {
+                int i = size++;
+                while (i > 0 && scores[(i - 1) / 2] > score) {
+                    items[i] = items[(i - 1) / 2];
+                    scores[i] = scores[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                items[i] = item;
+                scores[i] = score;
+            } else if (size > 0 && score > scores[0]) {
+                int i = 0;
+                while (true) {
+                    int c = 2 * i + 1;
+                    if (c >= size) {
+                        break;
+                    }
+                    if (c + 1 < size && scores[c + 1] < scores[c]) {
+                        c++;
+                    }
+                    if (scores[c] >= score) {
+                        break;
+                    }
+                    items[i] = items[c];
+                    scores[i] = scores[c];
+                    i = c;
+                }
+                items[i] = item;
+                scores[i] = score;
+            }
+        }
+    }
+}
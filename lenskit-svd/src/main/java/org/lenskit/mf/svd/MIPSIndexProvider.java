@@ -0,0 +1,189 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.svd;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.inject.Transient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Build a {@link MIPSIndex} over the items of a matrix factorization model by *k*-means
+ * partitioning of their bias-extended feature vectors.
+ *
+ * FunkSVD configurations must also bind {@link MFModel} to {@link org.lenskit.mf.funksvd.FunkSVDModel}
+ * so this provider can find the model.
+ *
+ * @since 3.0
+ */
+public class MIPSIndexProvider implements Provider<MIPSIndex> {
+    private static final Logger logger = LoggerFactory.getLogger(MIPSIndexProvider.class);
+    private static final int MAX_ITERATIONS = 10;
+
+    private final MFModel model;
+    private final BiasModel biasModel;
+    private final int partitionCount;
+    private final double radiusScale;
+
+    /**
+     * Construct a new index provider.
+     *
+     * @param mod The matrix factorization model.
+     * @param bias The bias model, for item biases.
+     * @param parts The number of partitions, or 0 to use the square root of the item count.
+     * @param scale The radius scale for searches.
+     */
+    @Inject
+    public MIPSIndexProvider(@Transient MFModel mod, @Transient BiasModel bias,
+                             @MIPSPartitionCount int parts, @MIPSRadiusScale double scale) {
+        model = mod;
+        biasModel = bias;
+        partitionCount = parts;
+        radiusScale = scale;
+    }
+
+    @Override
+    public MIPSIndex get() {
+        LongList items = model.getItemIndex().getKeyList();
+        RealMatrix imat = model.getItemMatrix();
+        int n = items.size();
+        int dim = model.getFeatureCount() + 1;
+
+        double[] data = new double[n * dim];
+        for (int i = 0; i < n; i++) {
+            long item = items.getLong(i);
+            int row = model.getItemIndex().getIndex(item);
+            for (int f = 0; f < dim - 1; f++) {
+                data[i * dim + f] = imat.getEntry(row, f);
+            }
+            data[i * dim + dim - 1] = biasModel.getItemBias(item);
+        }
+
+        int k = partitionCount > 0 ? partitionCount : (int) Math.ceil(Math.sqrt(n));
+        k = Math.min(Math.max(1, k), n);
+        logger.info("building MIPS index of {} items in {} partitions", n, k);
+
+        // initialize centroids from a fixed-seed sample of items, so builds are reproducible
+        double[] centroids = new double[k * dim];
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        Random rng = new Random(n);
+        for (int c = 0; c < k; c++) {
+            int j = c + rng.nextInt(n - c);
+            int tmp = perm[c];
+            perm[c] = perm[j];
+            perm[j] = tmp;
+            System.arraycopy(data, perm[c] * dim, centroids, c * dim, dim);
+        }
+
+        int[] assign = new int[n];
+        Arrays.fill(assign, -1);
+        int[] sizes = new int[k];
+        for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+            int changed = 0;
+            for (int i = 0; i < n; i++) {
+                int best = nearest(data, i * dim, centroids, k, dim);
+                if (best != assign[i]) {
+                    assign[i] = best;
+                    changed++;
+                }
+            }
+            logger.debug("k-means iteration {}: {} items reassigned", iter + 1, changed);
+            if (changed == 0) {
+                break;
+            }
+            double[] sums = new double[k * dim];
+            Arrays.fill(sizes, 0);
+            for (int i = 0; i < n; i++) {
+                int c = assign[i];
+                sizes[c]++;
+                for (int f = 0; f < dim; f++) {
+                    sums[c * dim + f] += data[i * dim + f];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                // an empty partition keeps its old centroid
+                if (sizes[c] > 0) {
+                    for (int f = 0; f < dim; f++) {
+                        centroids[c * dim + f] = sums[c * dim + f] / sizes[c];
+                    }
+                }
+            }
+        }
+
+        Arrays.fill(sizes, 0);
+        for (int i = 0; i < n; i++) {
+            sizes[assign[i]]++;
+        }
+        int[] starts = new int[k + 1];
+        for (int c = 0; c < k; c++) {
+            starts[c + 1] = starts[c] + sizes[c];
+        }
+        int[] fill = Arrays.copyOf(starts, k);
+        long[] ids = new long[n];
+        double[] vectors = new double[n * dim];
+        double[] radii = new double[k];
+        for (int i = 0; i < n; i++) {
+            int c = assign[i];
+            int pos = fill[c]++;
+            ids[pos] = items.getLong(i);
+            System.arraycopy(data, i * dim, vectors, pos * dim, dim);
+            radii[c] = Math.max(radii[c], Math.sqrt(distance2(data, i * dim, centroids, c * dim, dim)));
+        }
+
+        return new MIPSIndex(dim, radiusScale, ids, vectors, starts, centroids, radii);
+    }
+
+    private static int nearest(double[] data, int offset, double[] centroids, int k, int dim) {
+        int best = 0;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double d = distance2(data, offset, centroids, c * dim, dim);
+            if (d < bestDist) {
+                best = c;
+                bestDist = d;
+            }
+        }
+        return best;
+    }
+
+    private static double distance2(double[] a, int aoff, double[] b, int boff, int dim) {
+        double sum = 0;
+        for (int f = 0; f < dim; f++) {
+            double d = a[aoff + f] - b[boff + f];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
@@ -24,6 +24,10 @@
  */
 package org.lenskit.mf.svd;
 
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.junit.Before;
@@ -32,17 +36,37 @@ import org.junit.Test;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.basic.PrecomputedItemScorer;
+import org.lenskit.basic.ScoreSink;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.context.UserContextManager;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.ratings.Rating;
 import org.lenskit.util.keys.HashKeyIndex;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
-@Ignore("non-working for bias models")
 public class BiasedMFItemScorerTest {
+    // more items than one scoring tile, so block scoring crosses tile boundaries
+    private static final int NITEMS = 300;
+    private static final int NUSERS = 10;
+    private static final int NFEATURES = 5;
+
     private ItemScorer baseline;
     private MFModel model;
     private BiasedMFItemScorer scorer;
 
+    private MFModel randomModel;
+    private UserItemBiasModel randomBiases;
+
     @Before
     public void createModel() {
         baseline = PrecomputedItemScorer.newBuilder()
@@ -77,6 +101,7 @@ public class BiasedMFItemScorerTest {
         // scorer = new BiasedMFItemScorer(model, new DotProductKernel(), baseline);
     }
 
+    @Ignore("non-working for bias models")
     @Test
     public void testGoodRecs() {
         Result score = scorer.score(1, 42);
@@ -90,15 +115,130 @@ public class BiasedMFItemScorerTest {
                    closeTo(3.2 - 0.15 * 1.2, 1.0e-6));
     }
 
+    @Ignore("non-working for bias models")
     @Test
     public void testSkipUnscorable() {
         Result score = scorer.score(1, 25);
         assertThat(score, nullValue());
     }
 
+    @Ignore("non-working for bias models")
     @Test
     public void baselineForUser() {
         Result score = scorer.score(17, 42);
         assertThat(score, nullValue());
     }
+
+    @Before
+    public void createRandomModel() {
+        Random rng = new Random(42);
+        RealMatrix umat = MatrixUtils.createRealMatrix(NUSERS, NFEATURES);
+        HashKeyIndex uidx = new HashKeyIndex();
+        Long2DoubleMap ubias = new Long2DoubleOpenHashMap();
+        for (int u = 0; u < NUSERS; u++) {
+            uidx.internId(u + 1);
+            ubias.put(u + 1, rng.nextGaussian());
+            for (int f = 0; f < NFEATURES; f++) {
+                umat.setEntry(u, f, rng.nextGaussian());
+            }
+        }
+        RealMatrix imat = MatrixUtils.createRealMatrix(NITEMS, NFEATURES);
+        HashKeyIndex iidx = new HashKeyIndex();
+        Long2DoubleMap ibias = new Long2DoubleOpenHashMap();
+        for (int i = 0; i < NITEMS; i++) {
+            iidx.internId(1000 + i);
+            ibias.put(1000 + i, rng.nextGaussian());
+            for (int f = 0; f < NFEATURES; f++) {
+                imat.setEntry(i, f, rng.nextGaussian());
+            }
+        }
+        randomModel = new MFModel(umat, imat, uidx, iidx);
+        randomBiases = new UserItemBiasModel(3.0, ubias, ibias);
+    }
+
+    /**
+     * Get the items to score: every item in the random model, plus some items that are not in it.
+     */
+    private List<Long> randomModelItems() {
+        List<Long> items = new ArrayList<>(randomModel.getItemIndex().getKeyList());
+        Collections.shuffle(items, new Random(17));
+        items.add(5L);
+        items.add(NITEMS / 2, 6L);
+        return items;
+    }
+
+    private void assertScoresMatch(BiasedMFItemScorer mf, long user, Collection<Long> items, Map<Long, Double> scores) {
+        Map<Long, Double> expected = mf.score(user, items);
+        assertThat("items scored for user " + user, scores.keySet(), equalTo(expected.keySet()));
+        for (Map.Entry<Long, Double> e: expected.entrySet()) {
+            assertThat(scores.get(e.getKey()), closeTo(e.getValue(), 1.0e-10));
+        }
+    }
+
+    @Test
+    public void testScoreBlockMatchesScore() {
+        BiasedMFItemScorer mf = new BiasedMFItemScorer(randomModel, new DotProductKernel(), randomBiases);
+        List<Long> items = randomModelItems();
+        // user 0 has no vector
+        LongList users = new LongArrayList(new long[]{3, 0, 1, 7, NUSERS});
+        Long2DoubleMap[] scores = new Long2DoubleMap[users.size()];
+        ScoreSink[] sinks = new ScoreSink[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            Long2DoubleMap map = new Long2DoubleOpenHashMap();
+            scores[i] = map;
+            sinks[i] = map::put;
+        }
+
+        mf.scoreBlockInto(users, items, sinks);
+
+        assertThat(scores[1].size(), equalTo(0));
+        for (int i = 0; i < users.size(); i++) {
+            assertThat(scores[i].containsKey(5L), equalTo(false));
+            assertThat(scores[i].containsKey(6L), equalTo(false));
+            assertScoresMatch(mf, users.getLong(i), items, scores[i]);
+        }
+        assertThat(scores[0].size(), equalTo(NITEMS));
+    }
+
+    @Test
+    public void testScoreForUsersMatchesScore() {
+        BiasedMFItemScorer mf = new BiasedMFItemScorer(randomModel, new DotProductKernel(), randomBiases,
+                                                       null, 3);
+        List<Long> items = randomModelItems();
+        List<Long> users = LongStream.rangeClosed(0, NUSERS).boxed().collect(Collectors.toList());
+        Map<Long, Map<Long, Double>> results = new HashMap<>();
+        mf.scoreForUsers(users, items, results::put);
+
+        assertThat(results.keySet(), equalTo(new HashSet<>(users)));
+        for (long user: users) {
+            assertScoresMatch(mf, user, items, results.get(user));
+        }
+    }
+
+    @Test
+    public void testBatchRecommendMatchesPerUser() {
+        List<Rating> ratings = new ArrayList<>();
+        for (long user = 1; user <= NUSERS; user++) {
+            ratings.add(Rating.create(user, 1000 + user, 3.0));
+        }
+        StaticDataSource source = StaticDataSource.fromList(ratings);
+        source.addSource(randomModel.getItemIndex().getKeyList().stream()
+                                    .map(i -> Entities.create(CommonTypes.ITEM, i))
+                                    .collect(Collectors.toList()));
+
+        BiasedMFItemScorer mf = new BiasedMFItemScorer(randomModel, new DotProductKernel(), randomBiases);
+        TopNItemRecommender single = new TopNItemRecommender(source.get(), mf);
+        TopNItemRecommender batch = new TopNItemRecommender(source.get(), mf, new UserContextManager(), 4, 2);
+
+        List<Long> users = LongStream.rangeClosed(0, NUSERS).boxed().collect(Collectors.toList());
+        Map<Long, List<Long>> results = new ConcurrentHashMap<>();
+        batch.recommendForUsers(users, 10, null, null, results::put);
+        assertThat(results.keySet(), hasSize(users.size()));
+        // user 0 has no vector, so it gets no recommendations
+        assertThat(results.get(0L), hasSize(0));
+        for (long user = 1; user <= NUSERS; user++) {
+            assertThat(results.get(user), equalTo(single.recommend(user, 10)));
+            assertThat(results.get(user), not(hasItem(1000 + user)));
+        }
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.svd;
+
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+import org.lenskit.util.keys.HashKeyIndex;
+import org.lenskit.util.math.FloatMatrix;
+import org.lenskit.util.math.StoragePrecision;
+
+import java.io.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MFModelTest {
+    private static MFModel createModel(StoragePrecision precision) {
+        RealMatrix umat = MatrixUtils.createRealMatrix(new double[][]{{0.1, 0.3}, {-0.2, 0.2}});
+        RealMatrix imat = MatrixUtils.createRealMatrix(new double[][]{{0.52, 0.29}, {0.3, -1.2}, {1.0 / 3, 2}});
+        HashKeyIndex uidx = new HashKeyIndex();
+        uidx.internId(1);
+        uidx.internId(5);
+        HashKeyIndex iidx = new HashKeyIndex();
+        iidx.internId(42);
+        iidx.internId(39);
+        iidx.internId(25);
+        return new MFModel(umat, imat, uidx, iidx, precision);
+    }
+
+    private static MFModel roundTrip(MFModel model) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(model);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (MFModel) in.readObject();
+        }
+    }
+
+    @Test
+    public void testDoubleModel() throws IOException, ClassNotFoundException {
+        MFModel model = createModel(StoragePrecision.DOUBLE);
+        assertThat(model.getItemMatrix(), not(instanceOf(FloatMatrix.class)));
+        assertThat(model.toString(), not(containsString("float")));
+
+        MFModel copy = roundTrip(model);
+        assertThat(copy.getItemFeature(25, 0), equalTo(1.0 / 3));
+        assertThat(copy.getUserVector(5).getEntry(0), equalTo(-0.2));
+    }
+
+    @Test
+    public void testFloatModel() throws IOException, ClassNotFoundException {
+        MFModel model = createModel(StoragePrecision.FLOAT);
+        assertThat(model.getItemMatrix(), instanceOf(FloatMatrix.class));
+        assertThat(model.getItemFeature(25, 0), equalTo((double) (1.0f / 3)));
+        assertThat(model.getItemVector(39).getEntry(1), equalTo(-1.2f + 0.0));
+        assertThat(model.toString(), containsString("float"));
+
+        MFModel copy = roundTrip(model);
+        assertThat(copy.getItemMatrix(), instanceOf(FloatMatrix.class));
+        assertThat(copy.getItemFeature(25, 0), equalTo(model.getItemFeature(25, 0)));
+        assertThat(copy.getUserFeature(1, 1), equalTo(model.getUserFeature(1, 1)));
+        assertThat(copy.toString(), equalTo(model.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQuantizedModel() {
+        createModel(StoragePrecision.QUANTIZED_8);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.mf.svd;
+
+import it.unimi.dsi.fastutil.longs.*;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.util.keys.HashKeyIndex;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MIPSIndexTest {
+    private static final int NITEMS = 500;
+    private static final int NUSERS = 20;
+    private static final int NFEATURES = 6;
+
+    private MFModel model;
+    private UserItemBiasModel biases;
+
+    @Before
+    public void createModel() {
+        Random rng = new Random(42);
+        RealMatrix umat = MatrixUtils.createRealMatrix(NUSERS, NFEATURES);
+        HashKeyIndex uidx = new HashKeyIndex();
+        Long2DoubleMap ubias = new Long2DoubleOpenHashMap();
+        for (int u = 0; u < NUSERS; u++) {
+            uidx.internId(u + 1);
+            ubias.put(u + 1, rng.nextGaussian());
+            for (int f = 0; f < NFEATURES; f++) {
+                umat.setEntry(u, f, rng.nextGaussian());
+            }
+        }
+        RealMatrix imat = MatrixUtils.createRealMatrix(NITEMS, NFEATURES);
+        HashKeyIndex iidx = new HashKeyIndex();
+        Long2DoubleMap ibias = new Long2DoubleOpenHashMap();
+        for (int i = 0; i < NITEMS; i++) {
+            long item = 1000 + i * 7 % NITEMS;
+            iidx.internId(item);
+            ibias.put(item, rng.nextGaussian());
+            for (int f = 0; f < NFEATURES; f++) {
+                imat.setEntry(i, f, rng.nextGaussian() * (1 + i % 3));
+            }
+        }
+        model = new MFModel(umat, imat, uidx, iidx);
+        biases = new UserItemBiasModel(3.0, ubias, ibias);
+    }
+
+    private MIPSIndex buildIndex(double scale) {
+        return new MIPSIndexProvider(model, biases, 0, scale).get();
+    }
+
+    private LongSet exhaustiveTopN(long user, int n, LongSet exclude) {
+        RealVector uvec = model.getUserVector(user);
+        List<Long> items = new ArrayList<>();
+        for (long item: model.getItemIndex().getKeyList()) {
+            if (!exclude.contains(item)) {
+                items.add(item);
+            }
+        }
+        items.sort((i1, i2) -> Double.compare(score(uvec, i2), score(uvec, i1)));
+        return new LongOpenHashSet(items.subList(0, Math.min(n, items.size())));
+    }
+
+    private double score(RealVector uvec, long item) {
+        return biases.getItemBias(item) + uvec.dotProduct(model.getItemVector(item));
+    }
+
+    @Test
+    public void testExactSearch() {
+        MIPSIndex index = buildIndex(1.0);
+        assertThat(index.getItemCount(), equalTo(NITEMS));
+        assertThat(index.getPartitionCount(), equalTo(23));
+        for (long u = 1; u <= NUSERS; u++) {
+            RealVector uvec = model.getUserVector(u);
+            assertThat(index.search(uvec, 10, LongSets.EMPTY_SET),
+                       equalTo(exhaustiveTopN(u, 10, LongSets.EMPTY_SET)));
+        }
+    }
+
+    @Test
+    public void testSearchExcludes() {
+        MIPSIndex index = buildIndex(1.0);
+        for (long u = 1; u <= NUSERS; u++) {
+            RealVector uvec = model.getUserVector(u);
+            LongSet exclude = exhaustiveTopN(u, 5, LongSets.EMPTY_SET);
+            LongSet found = index.search(uvec, 10, exclude);
+            assertThat(found, hasSize(10));
+            assertThat(found, equalTo(exhaustiveTopN(u, 10, exclude)));
+        }
+    }
+
+    @Test
+    public void testApproximateSearch() {
+        MIPSIndex index = buildIndex(0.25);
+        for (long u = 1; u <= NUSERS; u++) {
+            LongSet found = index.search(model.getUserVector(u), 10, LongSets.EMPTY_SET);
+            assertThat(found, hasSize(10));
+            assertThat(model.getItemIndex().getKeyList(), hasItems(found.toArray(new Long[0])));
+        }
+    }
+
+    @Test
+    public void testSerialize() throws IOException, ClassNotFoundException {
+        MIPSIndex index = buildIndex(1.0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(index);
+        }
+        MIPSIndex copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (MIPSIndex) in.readObject();
+        }
+        RealVector uvec = model.getUserVector(3);
+        assertThat(copy.search(uvec, 10, LongSets.EMPTY_SET),
+                   equalTo(index.search(uvec, 10, LongSets.EMPTY_SET)));
+    }
+
+    @Test
+    public void testRecommenderUsesIndex() {
+        List<Rating> ratings = new ArrayList<>();
+        for (long item: model.getItemIndex().getKeyList()) {
+            ratings.add(Rating.create(100, item, 3.0));
+        }
+        ratings.add(Rating.create(4, 1000, 4.0));
+        ratings.add(Rating.create(4, 1007, 2.0));
+        StaticDataSource source = StaticDataSource.fromList(ratings);
+
+        BiasedMFItemScorer plain = new BiasedMFItemScorer(model, new DotProductKernel(), biases);
+        BiasedMFItemScorer indexed = new BiasedMFItemScorer(model, new DotProductKernel(), biases,
+                                                            buildIndex(1.0));
+        assertThat(plain.retrieveCandidates(4, 10, LongSets.EMPTY_SET), nullValue());
+        assertThat(indexed.retrieveCandidates(4, 10, LongSets.EMPTY_SET), hasSize(10));
+
+        List<Long> expected = new TopNItemRecommender(source.get(), plain).recommend(4, 10);
+        List<Long> actual = new TopNItemRecommender(source.get(), indexed).recommend(4, 10);
+        assertThat(actual, equalTo(expected));
+        assertThat(actual, not(hasItem(1000L)));
+    }
+}